@@ -0,0 +1,168 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The BenchmarkComparison class compares two CSV result files written by {@link BenchmarkRunner}, such as one from
+ * the main branch and one from a change.
+ *
+ * Rows are matched by benchmark, mode, thread count and parameters. For every match it prints both scores and the
+ * change, and flags a regression or improvement when the change exceeds both the threshold and the combined error of
+ * the two scores. Lower is better for time modes and higher is better for throughput. The exit code is 1 if any
+ * regression was found, so the comparison can fail a build.
+ *
+ * Usage: {@code BenchmarkComparison baseline.csv current.csv [--threshold=5]}, with the threshold in percent.
+ */
+public final class BenchmarkComparison {
+
+    private static final String THRESHOLD_OPTION = "--threshold=";
+
+    private BenchmarkComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> files = new ArrayList<>();
+        double threshold = 5;
+        for (String arg : args) {
+            if (arg.startsWith(THRESHOLD_OPTION)) {
+                threshold = Double.parseDouble(arg.substring(THRESHOLD_OPTION.length()));
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.size() != 2) {
+            System.err.println("Usage: BenchmarkComparison baseline.csv current.csv [--threshold=percent]");
+            System.exit(2);
+        }
+
+        Map<String, Score> baseline = read(files.get(0));
+        Map<String, Score> current = read(files.get(1));
+        int regressions = 0;
+        System.out.println(String.format(Locale.ROOT, "%-90s %14s %14s %9s", "Benchmark", "Baseline", "Current", "Change"));
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score before = baseline.get(entry.getKey());
+            Score after = entry.getValue();
+            if (before == null) {
+                System.out.println(String.format(Locale.ROOT, "%-90s %14s %14.3f %9s", entry.getKey(), "-", after.score, "new"));
+                continue;
+            }
+            double change = before.score == 0 ? 0 : (after.score - before.score) / before.score * 100;
+            boolean significant = Math.abs(change) > threshold
+                    && Math.abs(after.score - before.score) > before.error + after.error;
+            boolean worse = after.higherIsBetter ? change < 0 : change > 0;
+            String verdict = !significant ? "" : worse ? "  REGRESSION" : "  improvement";
+            if (significant && worse) {
+                regressions++;
+            }
+            System.out.println(String.format(Locale.ROOT, "%-90s %14.3f %14.3f %+8.1f%%%s %s",
+                    entry.getKey(), before.score, after.score, change, verdict, after.unit));
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.println(String.format(Locale.ROOT, "%-90s %14.3f %14s %9s", key, baseline.get(key).score, "-", "removed"));
+            }
+        }
+        System.out.println(regressions + " regression(s) above " + threshold + "%");
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    private static Map<String, Score> read(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        Map<String, Score> scores = new LinkedHashMap<>();
+        if (lines.isEmpty()) {
+            return scores;
+        }
+        List<String> header = split(lines.get(0));
+        int benchmark = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int threads = header.indexOf("Threads");
+        int score = header.indexOf("Score");
+        int unit = header.indexOf("Unit");
+        int error = -1;
+        for (int i = 0; i < header.size(); i++) {
+            if (header.get(i).startsWith("Score Error")) {
+                error = i;
+            }
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            List<String> values = split(line);
+            StringBuilder key = new StringBuilder(shortName(values.get(benchmark)))
+                    .append(" [").append(values.get(mode)).append(", t=").append(values.get(threads));
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && i < values.size() && !values.get(i).isEmpty()) {
+                    key.append(", ").append(header.get(i).substring("Param: ".length())).append('=').append(values.get(i));
+                }
+            }
+            key.append(']');
+            double errorValue = error >= 0 ? parse(values.get(error)) : 0;
+            scores.put(key.toString(), new Score(parse(values.get(score)), Double.isNaN(errorValue) ? 0 : errorValue,
+                    values.get(unit), "thrpt".equals(values.get(mode))));
+        }
+        return scores;
+    }
+
+    private static String shortName(String benchmark) {
+        String prefix = BenchmarkComparison.class.getPackage().getName() + ".";
+        return benchmark.startsWith(prefix) ? benchmark.substring(prefix.length()) : benchmark;
+    }
+
+    private static double parse(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Splits one CSV line, honouring quoted values.
+     */
+    private static List<String> split(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    private static final class Score {
+        private final double score;
+        private final double error;
+        private final String unit;
+        private final boolean higherIsBetter;
+
+        private Score(double score, double error, String unit, boolean higherIsBetter) {
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import com.snowbound.common.transport.AnnotationLayer;
+
+/**
+ * The BenchmarkData class creates the documents, annotation layers and directories the benchmarks work on.
+ *
+ * Test data goes into a new temporary directory that is deleted after the trial. Large fixtures, such as directories
+ * with a million files, take minutes to create; when the benchmark.dataDir system property is set, they are kept
+ * there and reused by later runs instead.
+ */
+public final class BenchmarkData {
+
+    /** The system property naming a directory where large fixtures are kept between runs. */
+    public static final String DATA_DIR_PROPERTY = "benchmark.dataDir";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Creates an empty temporary directory.
+     *
+     * @param prefix the prefix of the directory name
+     *
+     * @return the directory
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    public static File createTempDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    /**
+     * Retrieves a directory for a fixture that may be kept between runs.
+     *
+     * @param name the name of the fixture
+     *
+     * @return the directory under benchmark.dataDir, or a new temporary directory if the property is not set
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    public static File fixtureDirectory(String name) throws IOException {
+        String dataDir = System.getProperty(DATA_DIR_PROPERTY);
+        if (dataDir == null || dataDir.isEmpty()) {
+            return createTempDirectory(name + "-");
+        }
+        File directory = new File(dataDir, name);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * @return true if fixtures are kept between runs
+     */
+    public static boolean keepsFixtures() {
+        String dataDir = System.getProperty(DATA_DIR_PROPERTY);
+        return dataDir != null && !dataDir.isEmpty();
+    }
+
+    /**
+     * Fills a directory with empty files until it holds the specified number of them. Files left by an earlier run
+     * are counted, so a kept fixture is only topped up.
+     *
+     * @param directory the directory
+     * @param count the number of files
+     * @param nameFormat the String.format pattern of the file names, taking the file number
+     *
+     * @throws IOException if a file cannot be created
+     */
+    public static void fillDirectory(File directory, int count, String nameFormat) throws IOException {
+        for (int i = 0; i < count; i++) {
+            File file = new File(directory, String.format(nameFormat, i));
+            if (!file.exists() && !file.createNewFile()) {
+                throw new IOException("Could not create " + file);
+            }
+        }
+    }
+
+    /**
+     * Creates random content. The same seed always gives the same content.
+     *
+     * @param size the size in bytes
+     * @param seed the seed
+     *
+     * @return the content
+     */
+    public static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Writes random content to a file.
+     *
+     * @param file the file
+     * @param size the size in bytes
+     * @param seed the seed
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeFile(File file, int size, long seed) throws IOException {
+        Files.write(file.toPath(), randomBytes(size, seed));
+    }
+
+    /**
+     * Creates annotation layers marked as new, as VirtualViewer sends them when they are first saved.
+     *
+     * @param documentId the document the layers belong to
+     * @param count the number of layers
+     * @param size the size of each layer in bytes
+     *
+     * @return the layers
+     */
+    public static AnnotationLayer[] annotationLayers(String documentId, int count, int size) {
+        AnnotationLayer[] layers = new AnnotationLayer[count];
+        for (int i = 0; i < count; i++) {
+            AnnotationLayer layer = new AnnotationLayer();
+            layer.setDocumentId(documentId);
+            layer.setLayerName("layer" + i);
+            layer.setData(randomBytes(size, i));
+            layer.setNew(true);
+            layers[i] = layer;
+        }
+        return layers;
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     *
+     * @param file the file or directory
+     */
+    public static void deleteRecursively(File file) {
+        if (file == null) {
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
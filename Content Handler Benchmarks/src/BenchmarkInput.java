@@ -0,0 +1,143 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import com.snowbound.common.transport.AnnotationLayer;
+import com.snowbound.contenthandler.ContentHandlerInput;
+
+/**
+ * The BenchmarkInput class is a ContentHandlerInput filled in by the benchmarks instead of by VirtualViewer. Only the
+ * values the benchmarked calls read are supported.
+ */
+public class BenchmarkInput extends ContentHandlerInput {
+
+    private static final long serialVersionUID = 1L;
+
+    private byte[] documentContent;
+    private AnnotationLayer[] annotationLayers;
+    private String[] deletedAnnotationLayers;
+    private byte[] notesContent;
+    private byte[] bookmarkContent;
+    private byte[] watermarkContent;
+    private int sparsePageNumber;
+    private int sparsePageCount;
+
+    /**
+     * Constructs a BenchmarkInput object.
+     *
+     * @param documentId the document ID
+     */
+    public BenchmarkInput(String documentId) {
+        super(documentId, "benchmark");
+    }
+
+    /**
+     * @param documentContent the document content to save
+     *
+     * @return this input
+     */
+    public BenchmarkInput withDocumentContent(byte[] documentContent) {
+        this.documentContent = documentContent;
+        return this;
+    }
+
+    /**
+     * @param annotationLayers the annotation layers to save
+     *
+     * @return this input
+     */
+    public BenchmarkInput withAnnotationLayers(AnnotationLayer[] annotationLayers) {
+        this.annotationLayers = annotationLayers;
+        return this;
+    }
+
+    /**
+     * @param deletedAnnotationLayers the names of the annotation layers to delete
+     *
+     * @return this input
+     */
+    public BenchmarkInput withDeletedAnnotationLayers(String[] deletedAnnotationLayers) {
+        this.deletedAnnotationLayers = deletedAnnotationLayers;
+        return this;
+    }
+
+    /**
+     * @param notesContent the notes to save
+     *
+     * @return this input
+     */
+    public BenchmarkInput withNotesContent(byte[] notesContent) {
+        this.notesContent = notesContent;
+        return this;
+    }
+
+    /**
+     * @param bookmarkContent the bookmarks to save
+     *
+     * @return this input
+     */
+    public BenchmarkInput withBookmarkContent(byte[] bookmarkContent) {
+        this.bookmarkContent = bookmarkContent;
+        return this;
+    }
+
+    /**
+     * @param watermarkContent the watermarks to save
+     *
+     * @return this input
+     */
+    public BenchmarkInput withWatermarkContent(byte[] watermarkContent) {
+        this.watermarkContent = watermarkContent;
+        return this;
+    }
+
+    /**
+     * @param pageNumber the first page of a SparseDocument window
+     * @param pageCount the number of pages in the window
+     *
+     * @return this input
+     */
+    public BenchmarkInput withSparsePages(int pageNumber, int pageCount) {
+        this.sparsePageNumber = pageNumber;
+        this.sparsePageCount = pageCount;
+        return this;
+    }
+
+    @Override
+    public byte[] getDocumentContent() {
+        return documentContent;
+    }
+
+    @Override
+    public AnnotationLayer[] getAnnotationLayers() {
+        return annotationLayers;
+    }
+
+    @Override
+    public String[] getDeletedAnnotationLayers() {
+        return deletedAnnotationLayers;
+    }
+
+    @Override
+    public byte[] getNotesContent() {
+        return notesContent;
+    }
+
+    @Override
+    public byte[] getBookmarkContent() {
+        return bookmarkContent;
+    }
+
+    @Override
+    public byte[] getWatermarkContent() {
+        return watermarkContent;
+    }
+
+    @Override
+    public int getSparseRequestedPageNumber() {
+        return sparsePageNumber;
+    }
+
+    @Override
+    public int getSparseRequestedPageCount() {
+        return sparsePageCount;
+    }
+}
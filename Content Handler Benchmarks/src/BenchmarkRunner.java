@@ -0,0 +1,73 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The BenchmarkRunner class runs the benchmarks once per thread count and writes all results to one JSON and one CSV
+ * file, so runs can be compared with {@link BenchmarkComparison}.
+ *
+ * It takes the usual JMH options plus:
+ * <ul>
+ * <li>{@code --threads=1,8,32}: the thread counts to run every benchmark with (default: the JMH -t option, or 1)</li>
+ * <li>{@code --results=name}: the results are written to name.json and name.csv (default: benchmark-results)</li>
+ * </ul>
+ */
+public final class BenchmarkRunner {
+
+    private static final String THREADS_OPTION = "--threads=";
+    private static final String RESULTS_OPTION = "--results=";
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> threadCounts = new ArrayList<>();
+        String results = "benchmark-results";
+        List<String> jmhArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith(THREADS_OPTION)) {
+                for (String count : arg.substring(THREADS_OPTION.length()).split(",")) {
+                    threadCounts.add(Integer.parseInt(count.trim()));
+                }
+            } else if (arg.startsWith(RESULTS_OPTION)) {
+                results = arg.substring(RESULTS_OPTION.length());
+            } else {
+                jmhArgs.add(arg);
+            }
+        }
+
+        // Listing and help options are answered by JMH itself.
+        if (jmhArgs.contains("-h") || jmhArgs.contains("-l") || jmhArgs.contains("-lp") || jmhArgs.contains("-lprof")) {
+            org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+            return;
+        }
+
+        CommandLineOptions commandLine = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+        if (threadCounts.isEmpty()) {
+            threadCounts.add(commandLine.getThreads().orElse(1));
+        }
+
+        List<RunResult> allResults = new ArrayList<>();
+        for (int threads : threadCounts) {
+            Collection<RunResult> runResults = new Runner(new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(threads)
+                    .build()).run();
+            allResults.addAll(runResults);
+        }
+
+        ResultFormatFactory.getInstance(ResultFormatType.JSON, results + ".json").writeOut(allResults);
+        ResultFormatFactory.getInstance(ResultFormatType.CSV, results + ".csv").writeOut(allResults);
+        System.out.println("Results of " + allResults.size() + " runs with " + Arrays.toString(threadCounts.toArray())
+                + " threads written to " + results + ".json and " + results + ".csv");
+    }
+}
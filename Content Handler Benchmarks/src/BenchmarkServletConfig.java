@@ -0,0 +1,50 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+/**
+ * The BenchmarkServletConfig class hands init parameters to a content handler outside a servlet container, the way
+ * web.xml does inside one. There is no servlet context, so file paths must be absolute.
+ */
+public class BenchmarkServletConfig implements ServletConfig {
+
+    private final Map<String, String> parameters = new LinkedHashMap<>();
+
+    /**
+     * Sets an init parameter.
+     *
+     * @param name the parameter name
+     * @param value the parameter value
+     *
+     * @return this config
+     */
+    public BenchmarkServletConfig with(String name, Object value) {
+        parameters.put(name, String.valueOf(value));
+        return this;
+    }
+
+    @Override
+    public String getServletName() {
+        return "benchmark";
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return null;
+    }
+
+    @Override
+    public String getInitParameter(String name) {
+        return parameters.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getInitParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+}
@@ -0,0 +1,88 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.snowbound.contenthandler.ContentHandlerResult;
+import com.snowbound.contenthandler.VirtualViewerAPIException;
+import com.snowbound.virtualviewer.contenthandler.example.FileContentHandler;
+
+/**
+ * Measures FileContentHandler.getAnnotationNames for one document in a directory that also holds the files of many
+ * other documents. Without sidecar bundles the handler lists the whole directory, so the cost grows with its size.
+ *
+ * The directory is filled once per trial; set benchmark.dataDir to keep the large directories between runs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileAnnotationNamesBenchmark {
+
+    private static final String DOCUMENT_ID = "benchmark-document.pdf";
+
+    @Param({"10000", "100000", "1000000"})
+    public int directorySize;
+
+    @Param({"10"})
+    public int layerCount;
+
+    @Param({"false", "true"})
+    public boolean sidecarBundles;
+
+    private File directory;
+    private FileContentHandler handler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = BenchmarkData.fixtureDirectory("annotation-names-" + directorySize);
+        BenchmarkData.fillDirectory(directory, directorySize, "other-%07d.pdf");
+        removeDocumentFiles();
+
+        handler = new FileContentHandler();
+        handler.init(new BenchmarkServletConfig()
+                .with("filePath", directory.getAbsolutePath() + File.separator)
+                .with("sidecarBundles", sidecarBundles)
+                .with("metricsJmx", false));
+        handler.saveDocumentComponents(new BenchmarkInput(DOCUMENT_ID)
+                .withAnnotationLayers(BenchmarkData.annotationLayers(DOCUMENT_ID, layerCount, 1024)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (BenchmarkData.keepsFixtures()) {
+            removeDocumentFiles();
+        } else {
+            BenchmarkData.deleteRecursively(directory);
+        }
+    }
+
+    private void removeDocumentFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(DOCUMENT_ID));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @Benchmark
+    public ContentHandlerResult getAnnotationNames() throws VirtualViewerAPIException {
+        return handler.getAnnotationNames(new BenchmarkInput(DOCUMENT_ID));
+    }
+}
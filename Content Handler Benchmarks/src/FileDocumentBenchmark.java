@@ -0,0 +1,111 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.snowbound.contenthandler.ContentHandlerResult;
+import com.snowbound.contenthandler.VirtualViewerAPIException;
+import com.snowbound.virtualviewer.contenthandler.example.FileContentHandler;
+
+/**
+ * Measures FileContentHandler.getDocumentContent for a single document, a window of SparseDocument pages and a
+ * CompoundDocument. The sparse document and the compound parts add up to the size of the single document, so the
+ * three can be compared directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileDocumentBenchmark {
+
+    private static final String DOCUMENT_ID = "document.pdf";
+    private static final String SPARSE_DIRECTORY = "sparse";
+
+    @Param({"65536", "1048576", "16777216"})
+    public int documentSize;
+
+    @Param({"64"})
+    public int sparsePageCount;
+
+    @Param({"8"})
+    public int sparseWindow;
+
+    @Param({"8"})
+    public int compoundParts;
+
+    private File directory;
+    private FileContentHandler handler;
+    private String compoundDocumentId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = BenchmarkData.createTempDirectory("file-document-");
+        BenchmarkData.writeFile(new File(directory, DOCUMENT_ID), documentSize, 1);
+
+        File sparse = new File(directory, SPARSE_DIRECTORY);
+        sparse.mkdir();
+        for (int page = 0; page < sparsePageCount; page++) {
+            BenchmarkData.writeFile(new File(sparse, String.format("page-%05d.tif", page)),
+                    Math.max(1, documentSize / sparsePageCount), page);
+        }
+
+        StringBuilder compound = new StringBuilder("CompoundDocument:");
+        for (int part = 0; part < compoundParts; part++) {
+            String name = "part-" + part + ".pdf";
+            BenchmarkData.writeFile(new File(directory, name), Math.max(1, documentSize / compoundParts), part);
+            compound.append(part == 0 ? "" : ",").append(name);
+        }
+        compoundDocumentId = compound.toString();
+
+        handler = new FileContentHandler();
+        handler.init(new BenchmarkServletConfig()
+                .with("filePath", directory.getAbsolutePath() + File.separator)
+                .with("metricsJmx", false));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    /**
+     * The page window each thread asks for next, so threads page through the sparse document like viewers do.
+     */
+    @State(Scope.Thread)
+    public static class PageCursor {
+        int nextPage;
+    }
+
+    @Benchmark
+    public ContentHandlerResult singleDocument() throws VirtualViewerAPIException {
+        return handler.getDocumentContent(new BenchmarkInput(DOCUMENT_ID));
+    }
+
+    @Benchmark
+    public ContentHandlerResult sparseDocument(PageCursor cursor) throws VirtualViewerAPIException {
+        int page = cursor.nextPage;
+        cursor.nextPage = (page + sparseWindow) % sparsePageCount;
+        return handler.getDocumentContent(new BenchmarkInput("SparseDocument:" + SPARSE_DIRECTORY)
+                .withSparsePages(page, sparseWindow));
+    }
+
+    @Benchmark
+    public ContentHandlerResult compoundDocument() throws VirtualViewerAPIException {
+        return handler.getDocumentContent(new BenchmarkInput(compoundDocumentId));
+    }
+}
@@ -0,0 +1,94 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.snowbound.common.transport.AnnotationLayer;
+import com.snowbound.contenthandler.ContentHandlerResult;
+import com.snowbound.contenthandler.VirtualViewerAPIException;
+import com.snowbound.virtualviewer.contenthandler.example.FileContentHandler;
+
+/**
+ * Measures FileContentHandler.saveDocumentComponents saving modified annotation layers and notes, and the document
+ * content itself when documentSize is above 0. Each thread saves its own document, as separate viewers would.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileSaveBenchmark {
+
+    @Param({"0", "1048576"})
+    public int documentSize;
+
+    @Param({"1", "10", "50"})
+    public int layerCount;
+
+    @Param({"4096"})
+    public int layerSize;
+
+    @Param({"false", "true"})
+    public boolean sidecarBundles;
+
+    private File directory;
+    private FileContentHandler handler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = BenchmarkData.createTempDirectory("file-save-");
+        handler = new FileContentHandler();
+        handler.init(new BenchmarkServletConfig()
+                .with("filePath", directory.getAbsolutePath() + File.separator)
+                .with("sidecarBundles", sidecarBundles)
+                .with("metricsJmx", false));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.deleteRecursively(directory);
+    }
+
+    /**
+     * The document saved by one thread.
+     */
+    @State(Scope.Thread)
+    public static class Edit {
+        BenchmarkInput input;
+
+        @Setup(Level.Trial)
+        public void setUp(FileSaveBenchmark benchmark, ThreadParams threadParams) {
+            String documentId = "document-" + threadParams.getThreadIndex() + ".pdf";
+            AnnotationLayer[] layers = BenchmarkData.annotationLayers(documentId, benchmark.layerCount, benchmark.layerSize);
+            for (AnnotationLayer layer : layers) {
+                layer.setModified(true);
+            }
+            input = new BenchmarkInput(documentId)
+                    .withAnnotationLayers(layers)
+                    .withNotesContent(BenchmarkData.randomBytes(1024, 7));
+            if (benchmark.documentSize > 0) {
+                input.withDocumentContent(BenchmarkData.randomBytes(benchmark.documentSize, 1));
+            }
+        }
+    }
+
+    @Benchmark
+    public ContentHandlerResult saveDocumentComponents(Edit edit) throws VirtualViewerAPIException {
+        return handler.saveDocumentComponents(edit.input);
+    }
+}
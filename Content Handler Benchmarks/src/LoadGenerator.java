@@ -0,0 +1,465 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.accusoft.pdjs3.LocalS3Profile;
+import com.accusoft.pdjs3.LocalS3Server;
+import com.accusoft.pdjs3.PDJS3ContentHandler;
+import com.accusoft.pdjs3.S3ClientRegistry;
+import com.snowbound.contenthandler.ContentHandlerInput;
+import com.snowbound.contenthandler.ContentHandlerResult;
+import com.snowbound.contenthandler.VirtualViewerAPIException;
+import com.snowbound.virtualviewer.contenthandler.example.FileContentHandler;
+
+/**
+ * The LoadGenerator class measures how many concurrent viewers one node can serve. It runs a number of
+ * {@link ViewerSession viewer sessions} against FileContentHandler, or against PDJS3ContentHandler backed by the
+ * {@link LocalS3Server local S3 stand-in}, for a set time after a warmup, and reports throughput and p50, p95, p99 and
+ * p99.9 latency per operation.
+ *
+ * The documents are created before the run: regular documents with sizes drawn from a weighted mix, and sparse
+ * documents of single-page files, each with annotation layers, notes, a bookmark, a watermark and OCR text. Sessions
+ * pick documents with an adjustable skew, so a few documents can be made far more popular than the rest.
+ *
+ * Usage: {@code LoadGenerator [options]}; run it with {@code --help} for the options.
+ */
+public class LoadGenerator {
+
+    private static final String FOLDER = "documents";
+
+    private final Map<ViewerOperation, HandlerCall> calls = new EnumMap<>(ViewerOperation.class);
+    private final List<Document> documents = new ArrayList<>();
+    private final List<Document> sparseDocuments = new ArrayList<>();
+    private double[] popularity;
+    private volatile boolean running;
+
+    private int sparseWindow;
+    private int sparsePages;
+    private int pagesPerSession;
+    private long thinkTimeMillis;
+    private double saveRate;
+    private double sparseShare;
+    private int layerSize;
+
+    /**
+     * A call to one content handler method.
+     */
+    @FunctionalInterface
+    interface HandlerCall {
+        ContentHandlerResult call(ContentHandlerInput input) throws VirtualViewerAPIException;
+    }
+
+    /**
+     * A document the sessions open.
+     */
+    static final class Document {
+        private final String id;
+        private final boolean sparse;
+
+        private Document(String id, boolean sparse) {
+            this.id = id;
+            this.sparse = sparse;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        boolean isSparse() {
+            return sparse;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        Map<String, String> initParameters = new LinkedHashMap<>();
+        for (String arg : args) {
+            if ("--help".equals(arg) || "-h".equals(arg)) {
+                usage(0);
+            }
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                System.err.println("Unknown argument " + arg);
+                usage(2);
+            }
+            String name = arg.substring(2, equals);
+            if (name.startsWith("init.")) {
+                initParameters.put(name.substring("init.".length()), arg.substring(equals + 1));
+            } else {
+                options.put(name, arg.substring(equals + 1));
+            }
+        }
+
+        Map<String, String> settings = new LinkedHashMap<>();
+        LoadGenerator load = new LoadGenerator();
+        String handler;
+        int sessions;
+        int warmupSeconds;
+        int durationSeconds;
+        String documentMix;
+        int documentCount;
+        double skew;
+        int sparseDocumentCount;
+        int sparsePageSize;
+        int layerCount;
+        boolean sidecarBundles;
+        String s3Profile;
+        String s3Dir;
+        String dataDir;
+        String reportFile;
+        long seed;
+        try {
+            handler = option(options, "handler", "file", settings);
+            sessions = Integer.parseInt(option(options, "sessions", "16", settings));
+            warmupSeconds = Integer.parseInt(option(options, "warmup", "10", settings));
+            durationSeconds = Integer.parseInt(option(options, "duration", "60", settings));
+            load.thinkTimeMillis = Long.parseLong(option(options, "think-time", "500", settings));
+            load.pagesPerSession = Integer.parseInt(option(options, "pages", "20", settings));
+            load.saveRate = Double.parseDouble(option(options, "save-rate", "0.2", settings));
+            documentCount = Integer.parseInt(option(options, "documents", "100", settings));
+            documentMix = option(options, "document-mix", "64k:50,1m:40,16m:10", settings);
+            skew = Double.parseDouble(option(options, "skew", "0", settings));
+            load.sparseShare = Double.parseDouble(option(options, "sparse-share", "0.2", settings));
+            sparseDocumentCount = Integer.parseInt(option(options, "sparse-documents", "10", settings));
+            load.sparsePages = Integer.parseInt(option(options, "sparse-pages", "64", settings));
+            sparsePageSize = (int) parseSize(option(options, "sparse-page-size", "32k", settings));
+            load.sparseWindow = Integer.parseInt(option(options, "sparse-window", "8", settings));
+            layerCount = Integer.parseInt(option(options, "layers", "5", settings));
+            load.layerSize = (int) parseSize(option(options, "layer-size", "4k", settings));
+            sidecarBundles = Boolean.parseBoolean(option(options, "sidecar-bundles", "false", settings));
+            s3Profile = option(options, "s3-profile", "none", settings);
+            LocalS3Profile.named(s3Profile);
+            s3Dir = options.remove("s3-dir");
+            dataDir = options.remove("data-dir");
+            reportFile = options.remove("report");
+            seed = Long.parseLong(option(options, "seed", "1", settings));
+            if (!"file".equals(handler) && !"s3".equals(handler)) {
+                throw new IllegalArgumentException("--handler must be file or s3");
+            }
+            if (sessions < 1 || durationSeconds < 1 || load.sparseWindow < 1 || documentCount < 1
+                    || (load.sparseShare > 0 && sparseDocumentCount < 1)) {
+                throw new IllegalArgumentException("--sessions, --duration, --sparse-window, --documents and --sparse-documents must be positive");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage(2);
+            return;
+        }
+        if (!options.isEmpty()) {
+            System.err.println("Unknown option(s) " + options.keySet());
+            usage(2);
+        }
+        settings.put("init", initParameters.toString());
+
+        Random random = new Random(seed);
+        File directory = null;
+        LocalS3Server s3 = null;
+        try {
+            BenchmarkServletConfig config = new BenchmarkServletConfig()
+                    .with("sidecarBundles", sidecarBundles)
+                    .with("metricsJmx", false);
+            if ("file".equals(handler)) {
+                directory = dataDir != null ? new File(dataDir) : BenchmarkData.createTempDirectory("load-");
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Could not create " + directory);
+                }
+                FileContentHandler fileHandler = new FileContentHandler();
+                fileHandler.init(withInitParameters(config.with("filePath", directory.getAbsolutePath() + File.separator),
+                        initParameters));
+                load.use(fileHandler);
+            } else {
+                s3 = LocalS3Server.start(null, 0, s3Dir != null ? new File(s3Dir) : null);
+                PDJS3ContentHandler s3Handler = new PDJS3ContentHandler();
+                config.with("AwsAccessKeyId", S3HandlerBenchmark.CREDENTIAL)
+                        .with("AwsSecretAccessKey", S3HandlerBenchmark.CREDENTIAL)
+                        .with("s3RegionName", S3HandlerBenchmark.REGION)
+                        .with("s3BucketName", S3HandlerBenchmark.BUCKET)
+                        .with("s3FolderName", FOLDER)
+                        .with("s3Endpoint", s3.getEndpoint());
+                s3Handler.init(withInitParameters(config, initParameters));
+                load.use(s3Handler);
+            }
+
+            System.out.println("Creating " + documentCount + " documents (" + documentMix + ") and " + sparseDocumentCount
+                    + " sparse documents of " + load.sparsePages + " pages");
+            long[] sizes = parseMix(documentMix, documentCount, random);
+            for (int i = 0; i < documentCount; i++) {
+                String id = String.format(Locale.ROOT, "document-%05d.pdf", i);
+                load.calls.get(ViewerOperation.SAVE).call(new BenchmarkInput(id)
+                        .withDocumentContent(BenchmarkData.randomBytes((int) sizes[i], random.nextLong()))
+                        .withAnnotationLayers(BenchmarkData.annotationLayers(id, layerCount, load.layerSize))
+                        .withNotesContent(BenchmarkData.randomBytes(1024, random.nextLong()))
+                        .withBookmarkContent(BenchmarkData.randomBytes(512, random.nextLong()))
+                        .withWatermarkContent(BenchmarkData.randomBytes(512, random.nextLong())));
+                // OCR text is produced outside the handlers, so it is stored directly.
+                store(s3, directory, id + ".ocr-text.json", 16 * 1024, random);
+                load.documents.add(new Document(id, false));
+            }
+            for (int i = 0; i < (load.sparseShare > 0 ? sparseDocumentCount : 0); i++) {
+                String name = String.format(Locale.ROOT, "sparse-%03d", i);
+                for (int page = 0; page < load.sparsePages; page++) {
+                    String pageName = String.format(Locale.ROOT, "page-%05d.tif", page);
+                    if (s3 != null) {
+                        s3.putObject(S3HandlerBenchmark.BUCKET, FOLDER + "/" + name + "/" + pageName,
+                                BenchmarkData.randomBytes(sparsePageSize, random.nextLong()));
+                    } else {
+                        File sparseDirectory = new File(directory, name);
+                        sparseDirectory.mkdirs();
+                        BenchmarkData.writeFile(new File(sparseDirectory, pageName), sparsePageSize, random.nextLong());
+                    }
+                }
+                // The handlers do not save sparse documents, so their sidecars are stored directly.
+                String id = "SparseDocument:" + name;
+                store(s3, directory, id + ".notes.xml", 1024, random);
+                store(s3, directory, id + ".bookmarks.xml", 512, random);
+                store(s3, directory, id + ".watermarks.json", 512, random);
+                store(s3, directory, id + ".ocr-text.json", 16 * 1024, random);
+                load.sparseDocuments.add(new Document(id, true));
+            }
+            load.popularity = popularity(documentCount, skew);
+            if (s3 != null) {
+                s3.setProfile(LocalS3Profile.named(s3Profile));
+            }
+
+            LoadReport report = load.run(sessions, warmupSeconds, durationSeconds, seed);
+            report.print(System.out);
+            if (reportFile != null) {
+                report.writeCsv(reportFile, settings);
+                System.out.println("Results appended to " + reportFile);
+            }
+        } finally {
+            if (s3 != null) {
+                S3ClientRegistry.shutdown();
+                S3ClientRegistry.configureEndpoint(null);
+                s3.close();
+            }
+            if (directory != null && dataDir == null) {
+                BenchmarkData.deleteRecursively(directory);
+            }
+        }
+        // The handlers keep pools of non-daemon threads in static fields.
+        System.exit(0);
+    }
+
+    private static void usage(int exitCode) {
+        System.err.println("Usage: LoadGenerator [options]\n"
+                + "  --handler=file|s3        FileContentHandler, or PDJS3ContentHandler on the local S3 stand-in (default: file)\n"
+                + "  --sessions=16            concurrent viewer sessions\n"
+                + "  --warmup=10              seconds to run before recording\n"
+                + "  --duration=60            seconds to record\n"
+                + "  --think-time=500         mean milliseconds between the actions of a viewer, 0 for none\n"
+                + "  --pages=20               pages a viewer reads in each document\n"
+                + "  --save-rate=0.2          share of the documents a viewer saves edits to\n"
+                + "  --documents=100          number of regular documents\n"
+                + "  --document-mix=64k:50,1m:40,16m:10  document sizes and their weights\n"
+                + "  --skew=0                 popularity skew of the documents, 0 for uniform, 1 for Zipf\n"
+                + "  --sparse-share=0.2       share of the sessions that open a sparse document\n"
+                + "  --sparse-documents=10    number of sparse documents\n"
+                + "  --sparse-pages=64        pages of a sparse document\n"
+                + "  --sparse-page-size=32k   size of a sparse document page\n"
+                + "  --sparse-window=8        pages fetched per sparse request\n"
+                + "  --layers=5               annotation layers per document\n"
+                + "  --layer-size=4k          size of an annotation layer\n"
+                + "  --sidecar-bundles=false  sidecarBundles init parameter of the handler\n"
+                + "  --s3-profile=none        LocalS3Profile of the S3 stand-in: none, same-region or cross-region\n"
+                + "  --s3-dir=path            keep the S3 stand-in's objects in this directory instead of in memory\n"
+                + "  --data-dir=path          directory for the file handler's documents, kept after the run\n"
+                + "  --report=file.csv        append the results to this CSV file\n"
+                + "  --seed=1                 seed for documents, mixes and think times\n"
+                + "  --init.<name>=value      any other init parameter of the handler");
+        System.exit(exitCode);
+    }
+
+    private static BenchmarkServletConfig withInitParameters(BenchmarkServletConfig config, Map<String, String> initParameters) {
+        for (Map.Entry<String, String> parameter : initParameters.entrySet()) {
+            config.with(parameter.getKey(), parameter.getValue());
+        }
+        return config;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue, Map<String, String> settings) {
+        String value = options.remove(name);
+        String result = value != null ? value : defaultValue;
+        settings.put(name, result);
+        return result;
+    }
+
+    /**
+     * Parses a size such as 4096, 64k or 16m.
+     */
+    private static long parseSize(String size) {
+        String value = size.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (value.endsWith("k")) {
+            unit = 1024;
+        } else if (value.endsWith("m")) {
+            unit = 1024 * 1024;
+        } else if (value.endsWith("g")) {
+            unit = 1024 * 1024 * 1024;
+        }
+        return Long.parseLong(unit == 1 ? value : value.substring(0, value.length() - 1)) * unit;
+    }
+
+    /**
+     * Stores random content under a file name where the handler in use reads it: in the stand-in bucket when there
+     * is one, otherwise in the document directory.
+     */
+    private static void store(LocalS3Server s3, File directory, String fileName, int size, Random random)
+            throws IOException {
+        if (s3 != null) {
+            s3.putObject(S3HandlerBenchmark.BUCKET, FOLDER + "/" + fileName, BenchmarkData.randomBytes(size, random.nextLong()));
+        } else {
+            BenchmarkData.writeFile(new File(directory, fileName), size, random.nextLong());
+        }
+    }
+
+    /**
+     * Draws the size of every document from a mix such as {@code 64k:50,1m:40,16m:10}.
+     */
+    private static long[] parseMix(String mix, int count, Random random) {
+        List<Long> sizes = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        double total = 0;
+        for (String entry : mix.split(",")) {
+            int colon = entry.indexOf(':');
+            sizes.add(parseSize(colon < 0 ? entry : entry.substring(0, colon)));
+            double weight = colon < 0 ? 1 : Double.parseDouble(entry.substring(colon + 1));
+            weights.add(weight);
+            total += weight;
+        }
+        long[] documentSizes = new long[count];
+        for (int i = 0; i < count; i++) {
+            double pick = random.nextDouble() * total;
+            int index = 0;
+            while (index < sizes.size() - 1 && pick >= weights.get(index)) {
+                pick -= weights.get(index);
+                index++;
+            }
+            documentSizes[i] = sizes.get(index);
+        }
+        return documentSizes;
+    }
+
+    /**
+     * Computes the cumulative share of sessions opening each document, with the document of rank r weighted as
+     * 1 / r^skew.
+     */
+    private static double[] popularity(int count, double skew) {
+        double[] cumulative = new double[count];
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            total += 1 / Math.pow(i + 1, skew);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < count; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+
+    private void use(FileContentHandler handler) {
+        calls.put(ViewerOperation.OPEN_DOCUMENT, handler::getDocumentContent);
+        calls.put(ViewerOperation.SPARSE_PAGES, handler::getDocumentContent);
+        calls.put(ViewerOperation.ANNOTATION_NAMES, handler::getAnnotationNames);
+        calls.put(ViewerOperation.ALL_ANNOTATIONS, handler::getAllAnnotationsForDocument);
+        calls.put(ViewerOperation.NOTES, handler::getNotesContent);
+        calls.put(ViewerOperation.BOOKMARKS, handler::getBookmarkContent);
+        calls.put(ViewerOperation.WATERMARK, handler::getWatermarkContent);
+        calls.put(ViewerOperation.OCR_DATA, handler::getOCRDataForDocument);
+        calls.put(ViewerOperation.SAVE, handler::saveDocumentComponents);
+    }
+
+    private void use(PDJS3ContentHandler handler) {
+        calls.put(ViewerOperation.OPEN_DOCUMENT, handler::getDocumentContent);
+        calls.put(ViewerOperation.SPARSE_PAGES, handler::getDocumentContent);
+        calls.put(ViewerOperation.ANNOTATION_NAMES, handler::getAnnotationNames);
+        calls.put(ViewerOperation.ALL_ANNOTATIONS, handler::getAllAnnotationsForDocument);
+        calls.put(ViewerOperation.NOTES, handler::getNotesContent);
+        calls.put(ViewerOperation.BOOKMARKS, handler::getBookmarkContent);
+        calls.put(ViewerOperation.WATERMARK, handler::getWatermarkContent);
+        calls.put(ViewerOperation.OCR_DATA, handler::getOCRDataForDocument);
+        calls.put(ViewerOperation.SAVE, handler::saveDocumentComponents);
+    }
+
+    /**
+     * Runs the sessions for the warmup and the recorded duration.
+     */
+    private LoadReport run(int sessions, int warmupSeconds, int durationSeconds, long seed) throws InterruptedException {
+        LoadReport report = new LoadReport();
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        ExecutorService viewers = Executors.newFixedThreadPool(sessions, runnable -> {
+            Thread thread = new Thread(runnable, "viewer-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        for (int i = 0; i < sessions; i++) {
+            viewers.execute(new ViewerSession(this, report, seed * 31 + i));
+        }
+        System.out.println("Running " + sessions + " sessions: " + warmupSeconds + " s warmup, " + durationSeconds + " s recorded");
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        report.start();
+        TimeUnit.SECONDS.sleep(durationSeconds);
+        report.stop();
+        running = false;
+        viewers.shutdownNow();
+        // Sessions stop at their next think time or call; a call stuck on the backend is not waited for long.
+        if (!viewers.awaitTermination(10, TimeUnit.SECONDS)) {
+            System.err.println("Some sessions did not stop within 10 seconds");
+        }
+        return report;
+    }
+
+    Document pickDocument(Random random) {
+        if (!sparseDocuments.isEmpty() && random.nextDouble() < sparseShare) {
+            return sparseDocuments.get(random.nextInt(sparseDocuments.size()));
+        }
+        int index = Arrays.binarySearch(popularity, random.nextDouble());
+        return documents.get(Math.min(index < 0 ? -index - 1 : index, documents.size() - 1));
+    }
+
+    ContentHandlerResult call(ViewerOperation operation, ContentHandlerInput input) throws VirtualViewerAPIException {
+        return calls.get(operation).call(input);
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    int getSparseWindow() {
+        return sparseWindow;
+    }
+
+    int getSparsePages() {
+        return sparsePages;
+    }
+
+    int getPagesPerSession() {
+        return pagesPerSession;
+    }
+
+    long getThinkTimeMillis() {
+        return thinkTimeMillis;
+    }
+
+    double getSaveRate() {
+        return saveRate;
+    }
+
+    int getLayerSize() {
+        return layerSize;
+    }
+}
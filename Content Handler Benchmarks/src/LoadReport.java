@@ -0,0 +1,163 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.accusoft.contenthandler.common.LatencyHistogram;
+
+/**
+ * The LoadReport class collects the latency of every operation made by the sessions of a {@link LoadGenerator} run,
+ * and reports count, throughput and latency percentiles per operation. Nothing is recorded until {@link #start()} is
+ * called, so a warmup is left out of the report.
+ */
+public class LoadReport {
+
+    private static final double[] PERCENTILES = {50, 95, 99, 99.9};
+
+    private final Map<ViewerOperation, LatencyHistogram> latencies = new EnumMap<>(ViewerOperation.class);
+    private final Map<ViewerOperation, LongAdder> failures = new EnumMap<>(ViewerOperation.class);
+    private final LongAdder sessions = new LongAdder();
+    private volatile boolean recording;
+    private volatile long startedNanos;
+    private volatile long stoppedNanos;
+
+    public LoadReport() {
+        for (ViewerOperation operation : ViewerOperation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            failures.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * Starts recording.
+     */
+    public void start() {
+        startedNanos = System.nanoTime();
+        recording = true;
+    }
+
+    /**
+     * Stops recording. Operations still in progress are left out.
+     */
+    public void stop() {
+        recording = false;
+        stoppedNanos = System.nanoTime();
+    }
+
+    /**
+     * Records a completed operation.
+     *
+     * @param operation the operation
+     * @param nanos its duration in nanoseconds
+     */
+    public void record(ViewerOperation operation, long nanos) {
+        if (recording) {
+            latencies.get(operation).record(nanos);
+        }
+    }
+
+    /**
+     * Records a failed operation. Failures are counted but their duration is not part of the percentiles.
+     *
+     * @param operation the operation
+     */
+    public void failed(ViewerOperation operation) {
+        if (recording) {
+            failures.get(operation).increment();
+        }
+    }
+
+    /**
+     * Records a completed viewer session.
+     */
+    public void sessionCompleted() {
+        if (recording) {
+            sessions.increment();
+        }
+    }
+
+    /**
+     * @return the recorded time in seconds
+     */
+    public double getElapsedSeconds() {
+        long end = recording ? System.nanoTime() : stoppedNanos;
+        return Math.max(1, end - startedNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Prints a table of every operation that was recorded.
+     *
+     * @param out the stream to print to
+     */
+    public void print(PrintStream out) {
+        double seconds = getElapsedSeconds();
+        out.println(String.format(Locale.ROOT, "%d sessions in %.1f s (%.2f sessions/s)", sessions.sum(), seconds,
+                sessions.sum() / seconds));
+        out.println(String.format(Locale.ROOT, "%-34s %9s %7s %9s %9s %9s %9s %9s %9s %9s", "Operation", "Count",
+                "Errors", "Ops/s", "Mean ms", "p50 ms", "p95 ms", "p99 ms", "p99.9 ms", "Max ms"));
+        for (ViewerOperation operation : ViewerOperation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            long errors = failures.get(operation).sum();
+            if (histogram.getCount() == 0 && errors == 0) {
+                continue;
+            }
+            out.println(String.format(Locale.ROOT, "%-34s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f",
+                    operation.getLabel(), histogram.getCount(), errors, histogram.getCount() / seconds,
+                    histogram.getMeanMillis(), histogram.getPercentileMillis(PERCENTILES[0]),
+                    histogram.getPercentileMillis(PERCENTILES[1]), histogram.getPercentileMillis(PERCENTILES[2]),
+                    histogram.getPercentileMillis(PERCENTILES[3]), histogram.getMaxMillis()));
+        }
+    }
+
+    /**
+     * Writes the table as CSV, with one row per operation and the run settings in every row, so the results of
+     * several runs can be appended to one file and compared.
+     *
+     * @param file the file to write or append to
+     * @param settings the run settings, such as the handler and the number of sessions
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void writeCsv(String file, Map<String, String> settings) throws IOException {
+        boolean exists = Files.exists(Paths.get(file));
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8,
+                exists ? new OpenOption[] {StandardOpenOption.APPEND} : new OpenOption[0]))) {
+            if (!exists) {
+                StringBuilder header = new StringBuilder();
+                for (String name : settings.keySet()) {
+                    header.append('"').append(name).append("\",");
+                }
+                out.println(header.append("\"Operation\",\"Count\",\"Errors\",\"Ops/s\",\"Mean ms\",\"p50 ms\",\"p95 ms\",")
+                        .append("\"p99 ms\",\"p99.9 ms\",\"Max ms\""));
+            }
+            double seconds = getElapsedSeconds();
+            for (ViewerOperation operation : ViewerOperation.values()) {
+                LatencyHistogram histogram = latencies.get(operation);
+                long errors = failures.get(operation).sum();
+                if (histogram.getCount() == 0 && errors == 0) {
+                    continue;
+                }
+                StringBuilder row = new StringBuilder();
+                for (String value : settings.values()) {
+                    row.append('"').append(value.replace("\"", "\"\"")).append("\",");
+                }
+                out.println(row.append(String.format(Locale.ROOT, "\"%s\",%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                        operation.getLabel(), histogram.getCount(), errors, histogram.getCount() / seconds,
+                        histogram.getMeanMillis(), histogram.getPercentileMillis(PERCENTILES[0]),
+                        histogram.getPercentileMillis(PERCENTILES[1]), histogram.getPercentileMillis(PERCENTILES[2]),
+                        histogram.getPercentileMillis(PERCENTILES[3]), histogram.getMaxMillis())));
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.accusoft.pdjs3.LocalS3Profile;
+import com.accusoft.pdjs3.LocalS3Server;
+import com.accusoft.pdjs3.PDJS3ContentHandler;
+import com.accusoft.pdjs3.S3ClientRegistry;
+import com.snowbound.common.transport.AnnotationLayer;
+import com.snowbound.contenthandler.ContentHandlerResult;
+import com.snowbound.contenthandler.VirtualViewerAPIException;
+
+/**
+ * Measures the calls VirtualViewer makes to PDJS3ContentHandler when a document is opened and saved, against the
+ * in-process S3 stand-in. The handler is configured through init parameters like in web.xml, with its defaults for
+ * everything but the endpoint.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PDJS3ContentHandlerBenchmark {
+
+    private static final String DOCUMENT_ID = "document.pdf";
+
+    @Param({"65536", "1048576", "33554432"})
+    public int documentSize;
+
+    @Param({"1", "10", "50"})
+    public int layerCount;
+
+    @Param({"4096"})
+    public int layerSize;
+
+    @Param({"false", "true"})
+    public boolean sidecarBundles;
+
+    @Param({"none"})
+    public String s3Profile;
+
+    private LocalS3Server s3;
+    private PDJS3ContentHandler handler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, VirtualViewerAPIException {
+        s3 = LocalS3Server.start();
+        handler = new PDJS3ContentHandler();
+        handler.init(new BenchmarkServletConfig()
+                .with("AwsAccessKeyId", S3HandlerBenchmark.CREDENTIAL)
+                .with("AwsSecretAccessKey", S3HandlerBenchmark.CREDENTIAL)
+                .with("s3RegionName", S3HandlerBenchmark.REGION)
+                .with("s3BucketName", S3HandlerBenchmark.BUCKET)
+                .with("s3FolderName", "documents")
+                .with("s3Endpoint", s3.getEndpoint())
+                .with("sidecarBundles", sidecarBundles)
+                .with("metricsJmx", false));
+        handler.saveDocumentComponents(new BenchmarkInput(DOCUMENT_ID)
+                .withDocumentContent(BenchmarkData.randomBytes(documentSize, 1))
+                .withAnnotationLayers(BenchmarkData.annotationLayers(DOCUMENT_ID, layerCount, layerSize))
+                .withNotesContent(BenchmarkData.randomBytes(1024, 7)));
+        s3.setProfile(LocalS3Profile.named(s3Profile));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        S3ClientRegistry.shutdown();
+        S3ClientRegistry.configureEndpoint(null);
+        s3.close();
+    }
+
+    /**
+     * The document saved by one thread.
+     */
+    @State(Scope.Thread)
+    public static class Edit {
+        BenchmarkInput input;
+
+        @Setup(Level.Trial)
+        public void setUp(PDJS3ContentHandlerBenchmark benchmark, ThreadParams threadParams) {
+            String documentId = "edited-" + threadParams.getThreadIndex() + ".pdf";
+            AnnotationLayer[] layers = BenchmarkData.annotationLayers(documentId, benchmark.layerCount, benchmark.layerSize);
+            for (AnnotationLayer layer : layers) {
+                layer.setModified(true);
+            }
+            input = new BenchmarkInput(documentId)
+                    .withAnnotationLayers(layers)
+                    .withNotesContent(BenchmarkData.randomBytes(1024, 7));
+        }
+    }
+
+    @Benchmark
+    public ContentHandlerResult getDocumentContent() throws VirtualViewerAPIException {
+        return handler.getDocumentContent(new BenchmarkInput(DOCUMENT_ID));
+    }
+
+    @Benchmark
+    public ContentHandlerResult getAnnotationNames() throws VirtualViewerAPIException {
+        return handler.getAnnotationNames(new BenchmarkInput(DOCUMENT_ID));
+    }
+
+    @Benchmark
+    public ContentHandlerResult getAllAnnotationsForDocument() throws VirtualViewerAPIException {
+        return handler.getAllAnnotationsForDocument(new BenchmarkInput(DOCUMENT_ID));
+    }
+
+    @Benchmark
+    public ContentHandlerResult saveDocumentComponents(Edit edit) throws VirtualViewerAPIException {
+        return handler.saveDocumentComponents(edit.input);
+    }
+}
@@ -0,0 +1,132 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.accusoft.pdjs3.LocalS3Profile;
+import com.accusoft.pdjs3.LocalS3Server;
+import com.accusoft.pdjs3.S3ClientRegistry;
+import com.accusoft.pdjs3.S3Handler;
+import com.accusoft.pdjs3.S3MultipartUploader;
+import com.accusoft.pdjs3.S3ObjectData;
+import com.accusoft.pdjs3.S3RangedDownloader;
+
+/**
+ * Measures the S3Handler operations the content handler is built on against the in-process S3 stand-in: buffered
+ * and streamed reads, uploads and folder listings. The handler uses the default ranged downloader and multipart
+ * uploader, so objects above their 16 MB threshold are transferred in parallel parts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class S3HandlerBenchmark {
+
+    static final String BUCKET = "benchmarks";
+    static final String REGION = "us-east-1";
+    static final String CREDENTIAL = "benchmark";
+
+    private static final String FOLDER = "documents";
+    private static final String LISTING_FOLDER = "listing";
+    private static final String DOCUMENT_NAME = "document.pdf";
+
+    @Param({"65536", "1048576", "33554432"})
+    public int objectSize;
+
+    @Param({"2000"})
+    public int listingSize;
+
+    @Param({"none"})
+    public String s3Profile;
+
+    private LocalS3Server s3;
+    private S3Handler handler;
+    private byte[] content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        s3 = LocalS3Server.start();
+        S3ClientRegistry.configureEndpoint(s3.getEndpoint());
+
+        handler = new S3Handler(CREDENTIAL, CREDENTIAL, REGION);
+        handler.setRangedDownloader(new S3RangedDownloader());
+        handler.setMultipartUploader(new S3MultipartUploader());
+        handler.ensureBucketVersioning(BUCKET);
+
+        content = BenchmarkData.randomBytes(objectSize, 1);
+        handler.saveBytesToS3(DOCUMENT_NAME, content, BUCKET, FOLDER);
+        byte[] layer = BenchmarkData.randomBytes(16, 2);
+        for (int i = 0; i < listingSize; i++) {
+            s3.putObject(BUCKET, LISTING_FOLDER + "/" + String.format("document-%06d.pdf", i), layer);
+        }
+        s3.setProfile(LocalS3Profile.named(s3Profile));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        S3ClientRegistry.shutdown();
+        S3ClientRegistry.configureEndpoint(null);
+        s3.close();
+    }
+
+    /**
+     * The object key each thread uploads to.
+     */
+    @State(Scope.Thread)
+    public static class Upload {
+        String documentName;
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams threadParams) {
+            documentName = "upload-" + threadParams.getThreadIndex() + ".pdf";
+        }
+    }
+
+    @Benchmark
+    public byte[] getObjectData() throws IOException {
+        return handler.getS3ObjectData(DOCUMENT_NAME, BUCKET, FOLDER).getBytes();
+    }
+
+    @Benchmark
+    public long getObjectStream() throws IOException {
+        S3ObjectData objectData = handler.getS3ObjectStream(DOCUMENT_NAME, BUCKET, FOLDER);
+        long total = 0;
+        try (InputStream input = objectData.getDataInputStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                total += read;
+            }
+        } finally {
+            objectData.close();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public void saveBytes(Upload upload) {
+        handler.saveBytesToS3(upload.documentName, content, BUCKET, FOLDER);
+    }
+
+    @Benchmark
+    public String[] listFolder() {
+        return handler.listS3BucketObjects(BUCKET, LISTING_FOLDER);
+    }
+}
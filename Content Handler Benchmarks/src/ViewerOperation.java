@@ -0,0 +1,34 @@
+package com.accusoft.contenthandler.benchmarks;
+
+/**
+ * The content handler calls a {@link ViewerSession} makes, as reported by the {@link LoadGenerator}.
+ */
+public enum ViewerOperation {
+
+    OPEN_DOCUMENT("getDocumentContent"),
+    SPARSE_PAGES("getDocumentContent (sparse)"),
+    ANNOTATION_NAMES("getAnnotationNames"),
+    ALL_ANNOTATIONS("getAllAnnotationsForDocument"),
+    NOTES("getNotesContent"),
+    BOOKMARKS("getBookmarkContent"),
+    WATERMARK("getWatermarkContent"),
+    OCR_DATA("getOCRDataForDocument"),
+    SAVE("saveDocumentComponents"),
+    /**
+     * Every call made to open a document, from the document content to the OCR data, as the viewer waits for them.
+     */
+    DOCUMENT_OPEN("document open (all calls)");
+
+    private final String label;
+
+    ViewerOperation(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return the name the operation is reported under
+     */
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,150 @@
+package com.accusoft.contenthandler.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+
+import com.snowbound.common.transport.AnnotationLayer;
+import com.snowbound.contenthandler.ContentHandlerInput;
+import com.snowbound.contenthandler.ContentHandlerResult;
+import com.snowbound.contenthandler.VirtualViewerAPIException;
+
+/**
+ * The ViewerSession class plays one viewer of a {@link LoadGenerator} run, calling the content handler the way
+ * VirtualViewer does. It opens a document with every call the viewer makes on opening, reads the pages one after the
+ * other with a think time in between, fetching the next window of a sparse document when paging reaches it, and
+ * sometimes saves an edited annotation layer and notes to a regular document. Then it opens the next document, until
+ * it is interrupted.
+ *
+ * Returned streams are read to the end within the timed call, as the viewer does.
+ */
+public class ViewerSession implements Runnable {
+
+    private static final int LOGGED_FAILURES = 10;
+    private static final AtomicInteger loggedFailures = new AtomicInteger();
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(ViewerSession.class);
+
+    private final LoadGenerator load;
+    private final LoadReport report;
+    private final Random random;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    ViewerSession(LoadGenerator load, LoadReport report, long seed) {
+        this.load = load;
+        this.report = report;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public void run() {
+        try {
+            // Viewers do not all arrive at the same moment.
+            think();
+            // The S3 client turns an interrupt into an exception and clears it, so the run state is checked too.
+            while (load.isRunning() && !Thread.currentThread().isInterrupted()) {
+                view(load.pickDocument(random));
+                report.sessionCompleted();
+                think();
+            }
+        } catch (InterruptedException e) {
+            // The run is over.
+        }
+    }
+
+    private void view(LoadGenerator.Document document) throws InterruptedException {
+        long started = System.nanoTime();
+        boolean opened = document.isSparse()
+                ? call(ViewerOperation.SPARSE_PAGES, new BenchmarkInput(document.getId()).withSparsePages(0, load.getSparseWindow()))
+                : call(ViewerOperation.OPEN_DOCUMENT, new BenchmarkInput(document.getId()));
+        // Every call is made even after a failure, as the viewer does.
+        opened &= call(ViewerOperation.ANNOTATION_NAMES, new BenchmarkInput(document.getId()));
+        opened &= call(ViewerOperation.ALL_ANNOTATIONS, new BenchmarkInput(document.getId()));
+        opened &= call(ViewerOperation.NOTES, new BenchmarkInput(document.getId()));
+        opened &= call(ViewerOperation.BOOKMARKS, new BenchmarkInput(document.getId()));
+        opened &= call(ViewerOperation.WATERMARK, new BenchmarkInput(document.getId()));
+        opened &= call(ViewerOperation.OCR_DATA, new BenchmarkInput(document.getId()));
+        if (opened) {
+            report.record(ViewerOperation.DOCUMENT_OPEN, System.nanoTime() - started);
+        }
+
+        int pages = document.isSparse() ? Math.min(load.getPagesPerSession(), load.getSparsePages()) : load.getPagesPerSession();
+        for (int page = 1; page < pages; page++) {
+            think();
+            if (document.isSparse() && page % load.getSparseWindow() == 0) {
+                call(ViewerOperation.SPARSE_PAGES,
+                        new BenchmarkInput(document.getId()).withSparsePages(page, load.getSparseWindow()));
+            }
+        }
+
+        // The handlers do not save sparse documents.
+        if (!document.isSparse() && random.nextDouble() < load.getSaveRate()) {
+            think();
+            AnnotationLayer[] layers = BenchmarkData.annotationLayers(document.getId(), 1, load.getLayerSize());
+            layers[0].setNew(false);
+            layers[0].setModified(true);
+            call(ViewerOperation.SAVE, new BenchmarkInput(document.getId())
+                    .withAnnotationLayers(layers)
+                    .withNotesContent(BenchmarkData.randomBytes(1024, random.nextLong())));
+        }
+    }
+
+    private boolean call(ViewerOperation operation, ContentHandlerInput input) {
+        long started = System.nanoTime();
+        try {
+            consume(load.call(operation, input));
+            report.record(operation, System.nanoTime() - started);
+            return true;
+        } catch (VirtualViewerAPIException | IOException | RuntimeException e) {
+            report.failed(operation);
+            if (load.isRunning() && loggedFailures.incrementAndGet() <= LOGGED_FAILURES) {
+                logger.warn("{} of {} failed", operation.getLabel(), input.getDocumentId(), e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads every stream of a result to the end and closes it.
+     */
+    private void consume(ContentHandlerResult result) throws IOException {
+        if (result == null) {
+            return;
+        }
+        for (Object value : result.values()) {
+            if (value instanceof Collection) {
+                for (Object element : (Collection<?>) value) {
+                    drain(element);
+                }
+            } else {
+                drain(value);
+            }
+        }
+    }
+
+    private void drain(Object value) throws IOException {
+        if (value instanceof InputStream) {
+            try (InputStream input = (InputStream) value) {
+                while (input.read(buffer) != -1) {
+                    // Only the time to read the content matters.
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits a think time drawn from an exponential distribution with the configured mean, cut off at ten times the
+     * mean.
+     */
+    private void think() throws InterruptedException {
+        long mean = load.getThinkTimeMillis();
+        if (mean > 0) {
+            double millis = Math.min(-mean * Math.log(1 - random.nextDouble()), mean * 10.0);
+            TimeUnit.MICROSECONDS.sleep((long) (millis * 1000));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.accusoft.contenthandler.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The BoundedLruMap class is a map holding at most a fixed number of entries. Adding an entry beyond that drops the
+ * least recently used one, so per-document bookkeeping cannot grow with the number of documents ever seen.
+ *
+ * Like LinkedHashMap it is not thread-safe; wrap it with Collections.synchronizedMap to share it between requests.
+ */
+public class BoundedLruMap<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxEntries;
+
+    /**
+     * Constructs a BoundedLruMap object.
+     *
+     * @param maxEntries the number of entries kept
+     */
+    public BoundedLruMap(int maxEntries) {
+        super(16, 0.75f, true);
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Retrieves the number of entries kept.
+     *
+     * @return the maximum size
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxEntries;
+    }
+}
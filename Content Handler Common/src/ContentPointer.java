@@ -0,0 +1,185 @@
+package com.accusoft.contenthandler.common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The ContentPointer class is the small object that maps a document id to its content in content-addressed storage.
+ * The content of every document is stored once, under the SHA-256 digest of its bytes, and each document id holds
+ * a pointer to that digest in place of the content itself. Documents with identical content share one copy.
+ *
+ * A pointer is one line of text, so it is easy to recognize when browsing the storage:
+ *
+ * <pre>
+ * VVCP1 sha256 &lt;64 lowercase hex digits&gt;\n
+ * </pre>
+ *
+ * Pointers always have the same {@link #LENGTH}, so a reader only needs to look inside objects of that length to
+ * tell a pointer from a document stored the usual way.
+ */
+public class ContentPointer {
+
+    /** Folder holding the content by digest, next to the documents. */
+    public static final String CONTENT_FOLDER = "content-sha256";
+
+    private static final String HEADER = "VVCP1 sha256 ";
+    private static final int DIGEST_LENGTH = 64;
+
+    /** Length of every serialized pointer in bytes. */
+    public static final int LENGTH = HEADER.length() + DIGEST_LENGTH + 1;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String digest;
+
+    /**
+     * Constructs a pointer to the content with the specified digest.
+     *
+     * @param digest the SHA-256 digest of the content as lowercase hex
+     *
+     * @throws IllegalArgumentException if the digest is not 64 lowercase hex digits
+     */
+    public ContentPointer(String digest) {
+        if (!isDigest(digest)) {
+            throw new IllegalArgumentException("Not a SHA-256 digest: " + digest);
+        }
+        this.digest = digest;
+    }
+
+    /**
+     * Reads a pointer from its serialized form.
+     *
+     * @param data the content of a document id
+     *
+     * @return the pointer, or null if the data is not a pointer but a document stored the usual way
+     */
+    public static ContentPointer read(byte[] data) {
+        if (data == null || data.length != LENGTH || data[LENGTH - 1] != '\n') {
+            return null;
+        }
+        String text = new String(data, 0, LENGTH - 1, StandardCharsets.US_ASCII);
+        if (!text.startsWith(HEADER)) {
+            return null;
+        }
+        String digest = text.substring(HEADER.length());
+        return isDigest(digest) ? new ContentPointer(digest) : null;
+    }
+
+    /**
+     * @param length the length of an object or file
+     *
+     * @return true if an object of that length may be a pointer and must be read to tell
+     */
+    public static boolean mayBePointer(long length) {
+        return length == LENGTH;
+    }
+
+    /**
+     * @return the serialized pointer
+     */
+    public byte[] toBytes() {
+        return (HEADER + digest + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the SHA-256 digest of the content as lowercase hex
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Returns the name the content is stored under, relative to the documents. The first two digits of the digest
+     * name a subfolder, so no single folder grows too large.
+     *
+     * @return the name of the content, such as {@code content-sha256/9f/9f86d0...}
+     */
+    public String getContentName() {
+        return CONTENT_FOLDER + "/" + digest.substring(0, 2) + "/" + digest;
+    }
+
+    /**
+     * Computes the SHA-256 digest of a byte array.
+     *
+     * @param data the bytes to digest
+     *
+     * @return the digest as lowercase hex
+     */
+    public static String digest(byte[] data) {
+        MessageDigest sha256 = newDigest();
+        sha256.update(data);
+        return toHex(sha256.digest());
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file, reading it as a stream.
+     *
+     * @param file the file to digest
+     *
+     * @throws IOException if the file cannot be read
+     *
+     * @return the digest as lowercase hex
+     */
+    public static String digest(File file) throws IOException {
+        MessageDigest sha256 = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = new FileInputStream(file)) {
+            int len;
+            while ((len = input.read(buffer)) != -1) {
+                sha256.update(buffer, 0, len);
+            }
+        }
+        return toHex(sha256.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static boolean isDigest(String value) {
+        if (value == null || value.length() != DIGEST_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ContentPointer && digest.equals(((ContentPointer) other).digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return digest.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "sha256:" + digest;
+    }
+}
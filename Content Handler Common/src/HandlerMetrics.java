@@ -0,0 +1,401 @@
+package com.accusoft.contenthandler.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+
+/**
+ * The HandlerMetrics class collects timers and counters for the operations of a content handler.
+ *
+ * A timer counts the calls, failures and calls in flight of one operation and records their durations in a
+ * {@link LatencyHistogram}. A counter adds up amounts such as bytes transferred or cache hits. Both are built on
+ * striped adders and atomic arrays, so recording takes no lock and allocates nothing; threads recording the same
+ * metric do not contend on one memory location.
+ *
+ * Metrics are created on first use and handed to every {@link Registry} that is added, including ones added later.
+ * {@link #registerJmx()} adds a registry that publishes each metric as an MXBean under the domain given at
+ * construction; other monitoring systems plug in with their own Registry implementation.
+ */
+public class HandlerMetrics {
+
+    /**
+     * Receives the metrics of a HandlerMetrics object, for publishing them to a monitoring system. Each metric is
+     * handed over once; its values are read from it whenever the monitoring system asks.
+     */
+    public interface Registry {
+        /**
+         * Called for each timer.
+         *
+         * @param name the name of the timer
+         * @param timer the timer
+         */
+        void timerAdded(String name, Timer timer);
+
+        /**
+         * Called for each counter.
+         *
+         * @param name the name of the counter
+         * @param counter the counter
+         */
+        void counterAdded(String name, Counter counter);
+
+        /**
+         * Called when the metrics are closed, to unpublish them.
+         */
+        default void close() {
+        }
+    }
+
+    /**
+     * The values of a timer as seen through JMX.
+     */
+    public interface TimerMXBean {
+        long getCount();
+
+        long getFailures();
+
+        long getInFlight();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP95Millis();
+
+        double getP99Millis();
+
+        double getP999Millis();
+
+        double getMaxMillis();
+    }
+
+    /**
+     * The value of a counter as seen through JMX.
+     */
+    public interface CounterMXBean {
+        long getValue();
+    }
+
+    private final String jmxDomain;
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final List<Registry> registries = new CopyOnWriteArrayList<>();
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(HandlerMetrics.class);
+
+    /**
+     * Constructs a HandlerMetrics object.
+     *
+     * @param jmxDomain the JMX domain the metrics are published under by {@link #registerJmx()}
+     */
+    public HandlerMetrics(String jmxDomain) {
+        this.jmxDomain = jmxDomain;
+    }
+
+    /**
+     * Retrieves the timer with the specified name, creating it on first use. Callers on a hot path should pass a
+     * constant name; looking up an existing timer does not allocate.
+     *
+     * @param name the name of the timer
+     *
+     * @return the timer
+     */
+    public Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer != null) {
+            return timer;
+        }
+        boolean[] created = new boolean[1];
+        timer = timers.computeIfAbsent(name, key -> {
+            created[0] = true;
+            return new Timer();
+        });
+        if (created[0]) {
+            for (Registry registry : registries) {
+                publish(registry, name, timer);
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Retrieves the counter with the specified name, creating it on first use.
+     *
+     * @param name the name of the counter
+     *
+     * @return the counter
+     */
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter != null) {
+            return counter;
+        }
+        boolean[] created = new boolean[1];
+        counter = counters.computeIfAbsent(name, key -> {
+            created[0] = true;
+            return new Counter();
+        });
+        if (created[0]) {
+            for (Registry registry : registries) {
+                publish(registry, name, counter);
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Adds a registry and hands it every existing metric. Metrics created later are handed to it as they appear.
+     *
+     * @param registry the registry
+     */
+    public void addRegistry(Registry registry) {
+        registries.add(registry);
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            publish(registry, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            publish(registry, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Publishes every metric as an MXBean on the platform MBean server, as
+     * {@code <domain>:type=Timer,name=<name>} and {@code <domain>:type=Counter,name=<name>}. A metric already
+     * registered under the same name, for example by an earlier initialization of the handler, is replaced.
+     */
+    public void registerJmx() {
+        addRegistry(new JmxRegistry(jmxDomain));
+    }
+
+    /**
+     * Removes the metrics from every registry.
+     */
+    public void close() {
+        for (Registry registry : registries) {
+            registry.close();
+        }
+        registries.clear();
+    }
+
+    /**
+     * Retrieves a summary of every metric, for logging.
+     *
+     * @return the metrics as a String
+     */
+    public String getStatistics() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            summary.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            summary.append(entry.getKey()).append(": ").append(entry.getValue().getValue()).append('\n');
+        }
+        return summary.toString();
+    }
+
+    private static void publish(Registry registry, String name, Timer timer) {
+        try {
+            registry.timerAdded(name, timer);
+        } catch (RuntimeException e) {
+            logger.error("Could not publish timer {}: {}", name, e.getMessage());
+        }
+    }
+
+    private static void publish(Registry registry, String name, Counter counter) {
+        try {
+            registry.counterAdded(name, counter);
+        } catch (RuntimeException e) {
+            logger.error("Could not publish counter {}: {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * Times the calls of one operation.
+     *
+     * A call is timed with {@code long started = timer.start();} before it and {@code timer.stop(started);} in a
+     * finally block after it; {@link #failed()} additionally counts calls that ended with an exception.
+     */
+    public static final class Timer implements TimerMXBean {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+
+        private Timer() {
+        }
+
+        /**
+         * Counts a call as started.
+         *
+         * @return the start time to pass to {@link #stop(long)}
+         */
+        public long start() {
+            inFlight.increment();
+            return System.nanoTime();
+        }
+
+        /**
+         * Counts a call as finished and records its duration.
+         *
+         * @param started the value returned by {@link #start()}
+         */
+        public void stop(long started) {
+            histogram.record(System.nanoTime() - started);
+            inFlight.decrement();
+        }
+
+        /**
+         * Counts a call as failed. The call must still be stopped.
+         */
+        public void failed() {
+            failures.increment();
+        }
+
+        /**
+         * @return the histogram of call durations
+         */
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        @Override
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        @Override
+        public long getInFlight() {
+            return inFlight.sum();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            return histogram.getMeanMillis();
+        }
+
+        @Override
+        public double getP50Millis() {
+            return histogram.getPercentileMillis(50);
+        }
+
+        @Override
+        public double getP95Millis() {
+            return histogram.getPercentileMillis(95);
+        }
+
+        @Override
+        public double getP99Millis() {
+            return histogram.getPercentileMillis(99);
+        }
+
+        @Override
+        public double getP999Millis() {
+            return histogram.getPercentileMillis(99.9);
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return histogram.getMaxMillis();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, failures=%d, inFlight=%d, mean=%.2fms, p50=%.2fms, p99=%.2fms, max=%.2fms",
+                    getCount(), getFailures(), getInFlight(), getMeanMillis(), getP50Millis(), getP99Millis(), getMaxMillis());
+        }
+    }
+
+    /**
+     * Adds up an amount.
+     */
+    public static final class Counter implements CounterMXBean {
+        private final LongAdder value = new LongAdder();
+
+        private Counter() {
+        }
+
+        /**
+         * Adds one.
+         */
+        public void increment() {
+            value.increment();
+        }
+
+        /**
+         * Adds an amount.
+         *
+         * @param amount the amount
+         */
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        @Override
+        public long getValue() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Publishes metrics as MXBeans on the platform MBean server.
+     */
+    private static final class JmxRegistry implements Registry {
+        private final String domain;
+        private final List<ObjectName> registered = new CopyOnWriteArrayList<>();
+
+        private JmxRegistry(String domain) {
+            this.domain = domain;
+        }
+
+        @Override
+        public void timerAdded(String name, Timer timer) {
+            register("Timer", name, timer);
+        }
+
+        @Override
+        public void counterAdded(String name, Counter counter) {
+            register("Counter", name, counter);
+        }
+
+        private void register(String type, String name, Object metric) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                ObjectName objectName = new ObjectName(domain + ":type=" + type + ",name=" + ObjectName.quote(name));
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+                server.registerMBean(metric, objectName);
+                registered.add(objectName);
+            } catch (JMException e) {
+                logger.error("Could not register {} {} with JMX: {}", type, name, e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (ObjectName objectName : registered) {
+                try {
+                    if (server.isRegistered(objectName)) {
+                        server.unregisterMBean(objectName);
+                    }
+                } catch (JMException e) {
+                    logger.error("Could not unregister {} from JMX: {}", objectName, e.getMessage());
+                }
+            }
+            registered.clear();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.accusoft.contenthandler.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyHistogram class records durations into logarithmic buckets with linear sub-buckets, the layout used by
+ * HdrHistogram. Every power of two from one microsecond to about 68 seconds is split into 32 sub-buckets, so any
+ * percentile is reported within about 3% of the recorded value, whatever its size. Longer durations are counted in
+ * the highest bucket.
+ *
+ * Recording is a few shifts and an atomic increment, never allocates and takes no lock, so it can be done on every
+ * request. Reading a percentile walks the buckets and is meant for monitoring, not for the request path.
+ */
+public class LatencyHistogram {
+
+    // Durations below 2^10 ns (about a microsecond) share the lowest sub-buckets.
+    private static final int UNIT_MAGNITUDE = 10;
+    private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = 5;
+    private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+    private static final long SUB_BUCKET_MASK = ((long) (SUB_BUCKET_HALF_COUNT * 2) - 1) << UNIT_MAGNITUDE;
+    private static final int LEADING_ZERO_COUNT_BASE = 64 - UNIT_MAGNITUDE - SUB_BUCKET_HALF_COUNT_MAGNITUDE - 1;
+    private static final long HIGHEST_TRACKABLE_NANOS = (1L << 36) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(countsIndex(HIGHEST_TRACKABLE_NANOS) + 1);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), HIGHEST_TRACKABLE_NANOS);
+        counts.incrementAndGet(countsIndex(value));
+        totalCount.increment();
+        totalNanos.add(value);
+        maxNanos.accumulate(value);
+    }
+
+    /**
+     * @return the number of recorded durations
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * @return the mean of the recorded durations in milliseconds, or 0 if none were recorded
+     */
+    public double getMeanMillis() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : toMillis(totalNanos.sum()) / count;
+    }
+
+    /**
+     * @return the longest recorded duration in milliseconds
+     */
+    public double getMaxMillis() {
+        return toMillis(maxNanos.get());
+    }
+
+    /**
+     * Computes a percentile of the recorded durations.
+     *
+     * @param percentile the percentile, between 0 and 100
+     *
+     * @return the duration in milliseconds that the specified share of recorded durations did not exceed, or 0 if
+     *         none were recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return toMillis(Math.min(highestEquivalentValue(i), maxNanos.get()));
+            }
+        }
+        return getMaxMillis();
+    }
+
+    private static int countsIndex(long value) {
+        int bucketIndex = LEADING_ZERO_COUNT_BASE - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK);
+        int subBucketIndex = (int) (value >>> (bucketIndex + UNIT_MAGNITUDE));
+        return ((bucketIndex + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE) + (subBucketIndex - SUB_BUCKET_HALF_COUNT);
+    }
+
+    private static long highestEquivalentValue(int index) {
+        int bucketIndex = (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+        int subBucketIndex = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+        if (bucketIndex < 0) {
+            subBucketIndex -= SUB_BUCKET_HALF_COUNT;
+            bucketIndex = 0;
+        }
+        long lowest = (long) subBucketIndex << (bucketIndex + UNIT_MAGNITUDE);
+        return lowest + (1L << (bucketIndex + UNIT_MAGNITUDE)) - 1;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,193 @@
+package com.accusoft.contenthandler.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The SidecarBundle class packs every sidecar of one document (annotation layers, notes, bookmarks, watermarks and
+ * OCR text) into a single container, so all of them are loaded with one read and saved with one write.
+ *
+ * The container starts with a directory of its entries followed by their content:
+ *
+ * <pre>
+ * int    magic "VVSB"
+ * short  format version
+ * int    entry count
+ * entry count times:
+ *   UTF  entry name
+ *   long offset of the content, counted from the end of the directory
+ *   int  length of the content
+ * content of every entry, in directory order
+ * </pre>
+ *
+ * Because the directory gives the offset and length of every entry, a single entry can also be read with a ranged
+ * read once the directory is known.
+ */
+public class SidecarBundle {
+
+    /** Suffix of the object or file holding the bundle of a document. */
+    public static final String FILE_SUFFIX = ".sidecars";
+
+    /** Entry name of the document notes. */
+    public static final String NOTES = "notes";
+
+    /** Entry name of the document bookmarks. */
+    public static final String BOOKMARKS = "bookmarks";
+
+    /** Entry name of the document watermarks. */
+    public static final String WATERMARKS = "watermarks";
+
+    /** Entry name of the OCR text of the document. */
+    public static final String OCR_TEXT = "ocr-text";
+
+    private static final String ANNOTATION_PREFIX = "ann/";
+    private static final int MAGIC = 0x56565342;
+    private static final short FORMAT_VERSION = 1;
+    // Name length, offset and content length of an entry with an empty name.
+    private static final int DIRECTORY_ENTRY_MIN_BYTES = 2 + 8 + 4;
+
+    private final Map<String, byte[]> entries = new LinkedHashMap<>();
+
+    /**
+     * Reads a bundle from its serialized form.
+     *
+     * @param data the serialized bundle
+     *
+     * @throws IOException if the data is not a bundle or is truncated
+     *
+     * @return the bundle
+     */
+    public static SidecarBundle read(byte[] data) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a sidecar bundle");
+        }
+        short version = input.readShort();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported sidecar bundle version " + version);
+        }
+        int count = input.readInt();
+        // Each directory entry takes at least DIRECTORY_ENTRY_MIN_BYTES, so a larger count cannot be genuine.
+        if (count < 0 || count > input.available() / DIRECTORY_ENTRY_MIN_BYTES) {
+            throw new IOException("Corrupt sidecar bundle directory");
+        }
+        String[] names = new String[count];
+        long[] offsets = new long[count];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = input.readUTF();
+            offsets[i] = input.readLong();
+            lengths[i] = input.readInt();
+        }
+        int contentStart = data.length - input.available();
+
+        SidecarBundle bundle = new SidecarBundle();
+        for (int i = 0; i < count; i++) {
+            long start = contentStart + offsets[i];
+            if (offsets[i] < 0 || lengths[i] < 0 || start + lengths[i] > data.length) {
+                throw new IOException("Corrupt sidecar bundle entry " + names[i]);
+            }
+            byte[] content = new byte[lengths[i]];
+            System.arraycopy(data, (int) start, content, 0, lengths[i]);
+            bundle.entries.put(names[i], content);
+        }
+        return bundle;
+    }
+
+    /**
+     * Serializes the bundle.
+     *
+     * @return the serialized bundle
+     */
+    public byte[] toBytes() {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(buffer);
+            output.writeInt(MAGIC);
+            output.writeShort(FORMAT_VERSION);
+            output.writeInt(entries.size());
+            long offset = 0;
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeLong(offset);
+                output.writeInt(entry.getValue().length);
+                offset += entry.getValue().length;
+            }
+            for (byte[] content : entries.values()) {
+                output.write(content);
+            }
+            output.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            // Not reached: the output is in memory.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Retrieves the content of an entry.
+     *
+     * @param name the entry name
+     *
+     * @return the content, or null if the bundle has no such entry
+     */
+    public byte[] get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Sets the content of an entry.
+     *
+     * @param name the entry name
+     * @param content the new content, or null to remove the entry
+     */
+    public void put(String name, byte[] content) {
+        if (content == null) {
+            entries.remove(name);
+        } else {
+            entries.put(name, content);
+        }
+    }
+
+    /**
+     * Checks whether the bundle has no entries left.
+     *
+     * @return true if the bundle is empty
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Retrieves the IDs of the annotation layers in the bundle.
+     *
+     * @return the layer IDs, in the order they were added
+     */
+    public List<String> getAnnotationIds() {
+        List<String> annotationIds = new ArrayList<>();
+        for (String name : entries.keySet()) {
+            if (name.startsWith(ANNOTATION_PREFIX)) {
+                annotationIds.add(name.substring(ANNOTATION_PREFIX.length()));
+            }
+        }
+        return annotationIds;
+    }
+
+    /**
+     * Builds the entry name of an annotation layer.
+     *
+     * @param annotationId the layer ID, including any page suffix
+     *
+     * @return the entry name
+     */
+    public static String annotationEntry(String annotationId) {
+        return ANNOTATION_PREFIX + annotationId;
+    }
+}
@@ -0,0 +1,25 @@
+package com.accusoft.contenthandler.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BoundedLruMapTest {
+
+    @Test
+    public void leastRecentlyUsedEntryIsDroppedBeyondTheLimit() {
+        BoundedLruMap<String, Integer> map = new BoundedLruMap<>(2);
+        map.put("a", 1);
+        map.put("b", 2);
+        // Reading "a" makes "b" the least recently used entry.
+        map.get("a");
+        map.put("c", 3);
+
+        assertEquals(2, map.size());
+        assertTrue(map.containsKey("a"));
+        assertFalse(map.containsKey("b"));
+        assertTrue(map.containsKey("c"));
+    }
+}
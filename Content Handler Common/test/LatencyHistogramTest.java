@@ -0,0 +1,80 @@
+package com.accusoft.contenthandler.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    // Each sub-bucket spans 1/32 of its power of two, so a reported value is at most about 3% above the exact one.
+    private static final double RELATIVE_ERROR = 1.0 / 32;
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMillis(50), 0);
+        assertEquals(0, histogram.getMeanMillis(), 0);
+    }
+
+    @Test
+    public void percentilesOfUniformDurationsAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 100000; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+
+        assertEquals(100000, histogram.getCount());
+        assertPercentile(50.0, histogram.getPercentileMillis(50));
+        assertPercentile(95.0, histogram.getPercentileMillis(95));
+        assertPercentile(99.0, histogram.getPercentileMillis(99));
+        assertPercentile(99.9, histogram.getPercentileMillis(99.9));
+        assertEquals(100.0, histogram.getPercentileMillis(100), 0);
+        assertEquals(100.0, histogram.getMaxMillis(), 0);
+        assertEquals(50.0005, histogram.getMeanMillis(), 1e-9);
+    }
+
+    @Test
+    public void percentilesOfSkewedDurationsMatchExactPercentiles() {
+        // Log-normal durations around 5 ms with a long tail, like S3 request latencies.
+        Random random = new Random(42);
+        long[] durations = new long[200000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < durations.length; i++) {
+            durations[i] = (long) (TimeUnit.MILLISECONDS.toNanos(5) * Math.exp(random.nextGaussian()));
+            histogram.record(durations[i]);
+        }
+        Arrays.sort(durations);
+
+        for (double percentile : new double[] {10, 50, 90, 99, 99.9, 99.99}) {
+            long exact = durations[(int) Math.ceil(percentile / 100 * durations.length) - 1];
+            assertPercentile(exact / 1e6, histogram.getPercentileMillis(percentile));
+        }
+    }
+
+    @Test
+    public void durationsBeyondTheTrackableRangeAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MINUTES.toNanos(5));
+        histogram.record(-1);
+
+        assertEquals(2, histogram.getCount());
+        // The lowest sub-bucket reports its upper edge, about a microsecond.
+        assertEquals(0, histogram.getPercentileMillis(50), 0.0011);
+        assertTrue(histogram.getPercentileMillis(100) < TimeUnit.SECONDS.toMillis(69));
+        assertTrue(histogram.getPercentileMillis(100) > TimeUnit.SECONDS.toMillis(68));
+    }
+
+    private static void assertPercentile(double expectedMillis, double actualMillis) {
+        assertTrue("expected at least " + expectedMillis + " ms but was " + actualMillis,
+                actualMillis >= expectedMillis * (1 - 1e-9));
+        assertTrue("expected at most " + expectedMillis * (1 + RELATIVE_ERROR) + " ms but was " + actualMillis,
+                actualMillis <= expectedMillis * (1 + RELATIVE_ERROR));
+    }
+}
@@ -0,0 +1,102 @@
+package com.accusoft.contenthandler.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class SidecarBundleTest {
+
+    @Test
+    public void bundleSurvivesARoundTrip() throws IOException {
+        SidecarBundle bundle = new SidecarBundle();
+        bundle.put(SidecarBundle.annotationEntry("layer1"), bytes("first layer"));
+        bundle.put(SidecarBundle.NOTES, bytes("<notes/>"));
+        bundle.put(SidecarBundle.annotationEntry("layer2-page3"), new byte[0]);
+        bundle.put(SidecarBundle.OCR_TEXT, bytes("{}"));
+
+        SidecarBundle read = SidecarBundle.read(bundle.toBytes());
+
+        assertEquals(Arrays.asList("layer1", "layer2-page3"), read.getAnnotationIds());
+        assertArrayEquals(bytes("first layer"), read.get(SidecarBundle.annotationEntry("layer1")));
+        assertArrayEquals(new byte[0], read.get(SidecarBundle.annotationEntry("layer2-page3")));
+        assertArrayEquals(bytes("<notes/>"), read.get(SidecarBundle.NOTES));
+        assertArrayEquals(bytes("{}"), read.get(SidecarBundle.OCR_TEXT));
+        assertNull(read.get(SidecarBundle.BOOKMARKS));
+        assertArrayEquals(bundle.toBytes(), read.toBytes());
+    }
+
+    @Test
+    public void removingTheLastEntryLeavesAnEmptyBundle() throws IOException {
+        SidecarBundle bundle = new SidecarBundle();
+        bundle.put(SidecarBundle.WATERMARKS, bytes("[]"));
+        bundle.put(SidecarBundle.WATERMARKS, null);
+
+        assertTrue(bundle.isEmpty());
+        SidecarBundle read = SidecarBundle.read(bundle.toBytes());
+        assertTrue(read.isEmpty());
+        assertEquals(Collections.emptyList(), read.getAnnotationIds());
+    }
+
+    @Test
+    public void corruptInputIsRejected() throws IOException {
+        SidecarBundle bundle = new SidecarBundle();
+        bundle.put(SidecarBundle.NOTES, bytes("<notes/>"));
+        byte[] valid = bundle.toBytes();
+
+        assertCorrupt(new byte[0]);
+        assertCorrupt(bytes("not a bundle at all"));
+        assertCorrupt(Arrays.copyOf(valid, valid.length - 1));
+        assertCorrupt(Arrays.copyOf(valid, 12));
+
+        byte[] wrongVersion = valid.clone();
+        wrongVersion[5] = 9;
+        assertCorrupt(wrongVersion);
+
+        // A huge entry count must fail, not allocate a directory of that size.
+        assertCorrupt(header(Integer.MAX_VALUE));
+        assertCorrupt(header(-1));
+
+        // An entry pointing past the end of the content.
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buffer);
+        output.write(header(1));
+        output.writeUTF(SidecarBundle.NOTES);
+        output.writeLong(4);
+        output.writeInt(8);
+        output.write(new byte[8]);
+        assertCorrupt(buffer.toByteArray());
+    }
+
+    private static byte[] header(int count) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buffer);
+        output.writeInt(0x56565342);
+        output.writeShort(1);
+        output.writeInt(count);
+        return buffer.toByteArray();
+    }
+
+    private static void assertCorrupt(byte[] data) {
+        try {
+            SidecarBundle.read(data);
+            fail("corrupt bundle of " + data.length + " bytes was read");
+        } catch (IOException expected) {
+            // The bundle is rejected.
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
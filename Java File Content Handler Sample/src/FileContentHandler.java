@@ -28,6 +28,10 @@ import com.snowbound.contenthandler.interfaces.OCRDataProviderInterface;
 import com.snowbound.contenthandler.interfaces.SendDocumentInterface;
 import com.snowbound.contenthandler.interfaces.VirtualViewerContentHandlerInterface;
 import com.snowbound.contenthandler.interfaces.WatermarksInterface;
+import com.accusoft.contenthandler.common.BoundedLruMap;
+import com.accusoft.contenthandler.common.ContentPointer;
+import com.accusoft.contenthandler.common.HandlerMetrics;
+import com.accusoft.contenthandler.common.SidecarBundle;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
@@ -37,13 +41,32 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.StringTokenizer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -80,6 +103,42 @@ public class FileContentHandler
      */
     protected static final String PARAM_READ_ONLY_MODE = "fileContentHandlerReadOnlyMode";
 
+    /**
+     *
+     */
+    protected static final String PARAM_CACHE_VALIDATION_TTL_MILLIS = "cacheValidationTtlMillis";
+    protected static final String PARAM_CACHE_VALIDATION_MAX_DOCUMENTS = "cacheValidationMaxDocuments";
+
+    /**
+     *
+     */
+    protected static final String PARAM_ANNOTATION_FETCH_THREADS = "annotationFetchThreads";
+
+    /**
+     *
+     */
+    protected static final String PARAM_ANNOTATION_FETCH_TIMEOUT_MILLIS = "annotationFetchTimeoutMillis";
+
+    /**
+     *
+     */
+    protected static final String PARAM_SIDECAR_BUNDLES = "sidecarBundles";
+
+    /**
+     *
+     */
+    protected static final String PARAM_CONTENT_ADDRESSED_STORAGE = "contentAddressedStorage";
+
+    /**
+     *
+     */
+    protected static final String PARAM_METRICS_JMX = "metricsJmx";
+
+    /**
+     *
+     */
+    protected static final String PARAM_METRICS_REGISTRY = "metricsRegistry";
+
     /**
      *
      */
@@ -91,6 +150,30 @@ public class FileContentHandler
     private boolean readOnlyMode = false;
     private static boolean gSupportTiffTagAnnotations = false;
     private static boolean contentHandlerDebug = false;
+    private static long cacheValidationTtlMillis = 2000;
+    private static int cacheValidationMaxDocuments = 10000;
+    // Version (modification time and size) of each document when it was last served, and the latest version seen on
+    // disk with the time it was checked. Only the cacheValidationMaxDocuments most recently used documents are kept.
+    private static volatile Map<String, String> servedVersions = newVersionMap(cacheValidationMaxDocuments);
+    private static volatile Map<String, CheckedVersion> currentVersions = newVersionMap(cacheValidationMaxDocuments);
+    private static ExecutorService annotationFetchExecutor = newAnnotationFetchExecutor(8);
+    private static long annotationFetchTimeoutMillis = 30000;
+    private static boolean sidecarBundles = false;
+    private static boolean contentAddressedStorage = false;
+    private static final Object[] sidecarLocks = new Object[64];
+    // Recently read sidecar bundles with the attributes of the file they were read from. A bundle is reused while its
+    // file is unchanged, so the layer, property and sidecar reads of one document open share a single file read.
+    private static final Map<String, CachedSidecarBundle> sidecarBundleCache =
+            Collections.synchronizedMap(new BoundedLruMap<>(1024));
+    // Reads of the same file that overlap in time share one read: the first reader registers a future here and the
+    // others wait for it.
+    private static final ConcurrentHashMap<String, CompletableFuture<byte[]>> fileReadsInFlight = new ConcurrentHashMap<>();
+    private static final HandlerMetrics metrics = new HandlerMetrics("com.snowbound.virtualviewer.contenthandler.example");
+    static {
+        for (int i = 0; i < sidecarLocks.length; i++) {
+            sidecarLocks[i] = new Object();
+        }
+    }
     
     private static final Logger logger = SnowLoggerFactory.getLogger(FileContentHandler.class);
 
@@ -121,6 +204,77 @@ public class FileContentHandler
         if ("true".equalsIgnoreCase(debugParam)) {
             contentHandlerDebug = true;
         }
+
+        cacheValidationTtlMillis = parseLongParameter(config, PARAM_CACHE_VALIDATION_TTL_MILLIS, cacheValidationTtlMillis);
+        int maxDocuments = (int) parseLongParameter(config, PARAM_CACHE_VALIDATION_MAX_DOCUMENTS, cacheValidationMaxDocuments);
+        if (maxDocuments < 1) {
+            logger.error("{} must be at least 1", PARAM_CACHE_VALIDATION_MAX_DOCUMENTS);
+            throw new VirtualViewerAPIException(PARAM_CACHE_VALIDATION_MAX_DOCUMENTS + " must be at least 1");
+        }
+        if (maxDocuments != cacheValidationMaxDocuments) {
+            cacheValidationMaxDocuments = maxDocuments;
+            servedVersions = newVersionMap(maxDocuments);
+            currentVersions = newVersionMap(maxDocuments);
+        }
+
+        String threadsParam = config.getInitParameter(PARAM_ANNOTATION_FETCH_THREADS);
+        if (threadsParam != null) {
+            int threads = (int) parseLongParameter(config, PARAM_ANNOTATION_FETCH_THREADS, 8);
+            if (threads < 1) {
+                logger.error("{} must be at least 1", PARAM_ANNOTATION_FETCH_THREADS);
+                throw new VirtualViewerAPIException(PARAM_ANNOTATION_FETCH_THREADS + " must be at least 1");
+            }
+            annotationFetchExecutor.shutdown();
+            annotationFetchExecutor = newAnnotationFetchExecutor(threads);
+        }
+        annotationFetchTimeoutMillis = parseLongParameter(config, PARAM_ANNOTATION_FETCH_TIMEOUT_MILLIS, annotationFetchTimeoutMillis);
+
+        String sidecarBundlesParam = config.getInitParameter(PARAM_SIDECAR_BUNDLES);
+        if ("true".equalsIgnoreCase(sidecarBundlesParam)) {
+            sidecarBundles = true;
+        }
+
+        // Document content is stored once per distinct content, and documents point to it, when enabled.
+        String contentAddressedParam = config.getInitParameter(PARAM_CONTENT_ADDRESSED_STORAGE);
+        if ("true".equalsIgnoreCase(contentAddressedParam)) {
+            contentAddressedStorage = true;
+        }
+
+        metrics.close();
+        if (!"false".equalsIgnoreCase(config.getInitParameter(PARAM_METRICS_JMX))) {
+            metrics.registerJmx();
+        }
+        String metricsRegistry = config.getInitParameter(PARAM_METRICS_REGISTRY);
+        if (metricsRegistry != null && !metricsRegistry.trim().isEmpty()) {
+            try {
+                metrics.addRegistry((HandlerMetrics.Registry) Class.forName(metricsRegistry.trim()).getDeclaredConstructor().newInstance());
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                logger.error("Could not create metrics registry {}", metricsRegistry, e);
+                throw new VirtualViewerAPIException("Could not create metrics registry " + metricsRegistry, e);
+            }
+        }
+    }
+
+    private static long parseLongParameter(ServletConfig config, String name, long defaultValue) throws VirtualViewerAPIException {
+        String value = config.getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.error("{} must be a number", name);
+            throw new VirtualViewerAPIException(name + " must be a number", e);
+        }
+    }
+
+    private static ExecutorService newAnnotationFetchExecutor(int threads) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "annotation-fetch-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public static void setFilePath(String pathParam, ServletContext context) {
@@ -144,6 +298,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult getAnnotationNames(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("getAnnotationNames", () -> doGetAnnotationNames(input));
+    }
+
+    private ContentHandlerResult doGetAnnotationNames(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         String clientInstanceId = input.getClientInstanceId();
         String documentKey = input.getDocumentId();
         List<String> vAnnotationIds = new ArrayList<>();
@@ -161,6 +320,31 @@ public class FileContentHandler
             }
         }
 
+        try {
+            SidecarBundle bundle = readSidecarBundle(documentFile);
+            if (bundle != null) {
+                vAnnotationIds.addAll(bundle.getAnnotationIds());
+            } else {
+                vAnnotationIds.addAll(listLegacyAnnotationIds(documentFile));
+            }
+        } catch (IOException e) {
+            logger.error("Error reading sidecar bundle of {}", documentFile, e);
+        }
+        String[] arrayAnnotationIds = new String[vAnnotationIds.size()];
+        for (int i = 0; i < arrayAnnotationIds.length; i++) {
+            arrayAnnotationIds[i] = (String) vAnnotationIds.get(i);
+        }
+        ContentHandlerResult result = new ContentHandlerResult();
+        result.put(ContentHandlerResult.KEY_ANNOTATION_NAMES,
+                arrayAnnotationIds);
+        return result;
+    }
+
+    /**
+     * Lists the annotation layers a document has as separate .ann files.
+     */
+    private List<String> listLegacyAnnotationIds(String documentFile) {
+        List<String> annotationIds = new ArrayList<>();
         String annPath = gFilePath;
         File imgDirectory = new File(annPath);
         String[] files = imgDirectory.list();
@@ -172,17 +356,10 @@ public class FileContentHandler
                 int nameEnd = fileName.lastIndexOf(".ann");
                
                 String annotationId = fileName.substring(nameBegin, nameEnd);
-                vAnnotationIds.add(annotationId);
+                annotationIds.add(annotationId);
             }
         }
-        String[] arrayAnnotationIds = new String[vAnnotationIds.size()];
-        for (int i = 0; i < arrayAnnotationIds.length; i++) {
-            arrayAnnotationIds[i] = (String) vAnnotationIds.get(i);
-        }
-        ContentHandlerResult result = new ContentHandlerResult();
-        result.put(ContentHandlerResult.KEY_ANNOTATION_NAMES,
-                arrayAnnotationIds);
-        return result;
+        return annotationIds;
     }
 
     private boolean hasTiffTagAnnotations(byte[] documentContent) {
@@ -255,6 +432,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult saveAnnotationContent(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("saveAnnotationContent", () -> doSaveAnnotationContent(input));
+    }
+
+    private ContentHandlerResult doSaveAnnotationContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         if (readOnlyMode) {
             throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
         }
@@ -307,6 +489,14 @@ public class FileContentHandler
             Integer permissionLevel = (Integer) annProperties
                     .get(AnnotationLayer.PROPERTIES_KEY_PERMISSION_LEVEL);
         }
+        if (sidecarBundles) {
+            logger.trace("saveAnnotationContent: saving {} to the sidecar bundle", annotationKey);
+            String annotationId = annotationKey + pageIndexPortion;
+            saveSidecar(documentKey, SidecarBundle.annotationEntry(annotationId), data.length > 0 ? data : null);
+            return new ContentHandlerResult();
+        }
+        unpackSidecarBundle(documentKey);
+
         // Make sure any existing ann files are deleted
         File file = new File(annFilePath);
         if (file.exists()) {
@@ -332,6 +522,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult saveDocumentComponents(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("saveDocumentComponents", () -> doSaveDocumentComponents(input));
+    }
+
+    private ContentHandlerResult doSaveDocumentComponents(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         if (readOnlyMode) {
             throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
         }
@@ -364,7 +559,17 @@ public class FileContentHandler
         } else if (file != null) {
             saveDocumentContent(request, clientInstanceId, documentId, file);
         }
-        
+
+        if (sidecarBundles) {
+            // Every changed sidecar goes into the document's bundle with a single write.
+            saveSidecarBundleComponents(documentId, annotations, input.getDeletedAnnotationLayers(),
+                    noteBytes, bookmarkBytes, watermarkBytes);
+
+            ContentHandlerResult result = new ContentHandlerResult();
+            result.put(ContentHandlerResult.DOCUMENT_ID_TO_RELOAD, documentId);
+            return result;
+        }
+
         if (annotations != null) {
             for (AnnotationLayer annLayer : annotations) {
                 /*
@@ -386,15 +591,15 @@ public class FileContentHandler
             /* Any annotation that is still in the existing hash should be deleted */
             deleteUnsavedExistingLayers(documentId, input.getDeletedAnnotationLayers());
         }
-        
+
         if(noteBytes != null) {
             saveNotesContent(clientInstanceId, documentId, noteBytes);
         }
-        
+
         if(bookmarkBytes != null) {
             saveBookmarkContent(clientInstanceId, documentId, bookmarkBytes);
         }
-        
+
         if(watermarkBytes != null) {            
             saveWatermarkContent(clientInstanceId, documentId, watermarkBytes);
         }
@@ -404,6 +609,50 @@ public class FileContentHandler
         return result;
     }
 
+    /**
+     * Applies every sidecar change of a saveDocumentComponents call to the document's sidecar bundle at once.
+     */
+    private void saveSidecarBundleComponents(String documentId, AnnotationLayer[] annotations, String[] deletedLayers,
+            byte[] noteBytes, byte[] bookmarkBytes, byte[] watermarkBytes) {
+        try {
+            updateSidecarBundle(documentId, bundle -> {
+                if (annotations != null) {
+                    for (AnnotationLayer annLayer : annotations) {
+                        if ((annLayer.isNew() || annLayer.isModified()) && annLayer.getData() != null) {
+                            String pageIndexPortion = annLayer.getPageSpecificIndex() != -1
+                                    ? "-page" + annLayer.getPageSpecificIndex()
+                                    : "";
+                            byte[] layerData = annLayer.getData();
+                            bundle.put(SidecarBundle.annotationEntry(annLayer.getLayerName() + pageIndexPortion),
+                                    layerData.length > 0 ? layerData : null);
+                        } else {
+                            logger.trace("Skipping unmodified Layer: {}", annLayer.getLayerName());
+                        }
+                    }
+                    if (deletedLayers != null) {
+                        for (String deleteLayerId : deletedLayers) {
+                            if (deleteLayerId != null && !deleteLayerId.isEmpty()) {
+                                logger.trace("About to delete layer: {}", deleteLayerId);
+                                bundle.put(SidecarBundle.annotationEntry(deleteLayerId), null);
+                            }
+                        }
+                    }
+                }
+                if (noteBytes != null) {
+                    bundle.put(SidecarBundle.NOTES, noteBytes);
+                }
+                if (bookmarkBytes != null) {
+                    bundle.put(SidecarBundle.BOOKMARKS, bookmarkBytes);
+                }
+                if (watermarkBytes != null) {
+                    bundle.put(SidecarBundle.WATERMARKS, watermarkBytes);
+                }
+            });
+        } catch (IOException e) {
+            logger.error("Error saving sidecar bundle of {}", documentId, e);
+        }
+    }
+
     /**
      * This is a helper function that demonstrates how to determine which pages have annotation objects on them. This
      * method should only be called in the case where your business logic requires having this information as it is not
@@ -445,6 +694,7 @@ public class FileContentHandler
         if (deletedLayers == null || deletedLayers.length == 0) {
             return;
         }
+        unpackSidecarBundle(documentId);
         
         for (String deleteLayerId : deletedLayers) {
             if (deleteLayerId == null || deleteLayerId.isEmpty()) {
@@ -481,6 +731,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult saveDocumentComponentsAs(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("saveDocumentComponentsAs", () -> doSaveDocumentComponentsAs(input));
+    }
+
+    private ContentHandlerResult doSaveDocumentComponentsAs(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         if (readOnlyMode) {
             throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
         }
@@ -496,6 +751,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult createDocument(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("createDocument", () -> doCreateDocument(input));
+    }
+
+    private ContentHandlerResult doCreateDocument(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         String documentId = input.getDocumentId();
         File saveFile = new File(gFilePath + documentId);
         if (saveFile.exists()) {
@@ -511,6 +771,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult saveDocumentContent(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("saveDocumentContent", () -> doSaveDocumentContent(input));
+    }
+
+    private ContentHandlerResult doSaveDocumentContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         if (readOnlyMode) {
             throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
         }
@@ -535,7 +800,29 @@ public class FileContentHandler
             return null;
         }
         File saveFile = new File(gFilePath + documentId);
-        ClientServerIO.saveFileBytes(data, saveFile);
+        if (contentAddressedStorage) {
+            try {
+                ContentPointer pointer = new ContentPointer(ContentPointer.digest(data));
+                File contentFile = contentFile(pointer);
+                if (contentFile.isFile()) {
+                    metrics.counter("contentStore.bytesDeduplicated").add(data.length);
+                } else {
+                    writeAtomically(contentFile, partial -> Files.write(partial.toPath(), data));
+                    metrics.counter("file.bytesWritten").add(data.length);
+                }
+                if (savePointer(saveFile, pointer)) {
+                    invalidateCacheValidation(documentId);
+                }
+            } catch (IOException e) {
+                logger.error("Error saving updated file", e);
+                throw new VirtualViewerAPIException("Error saving updated file", e);
+            }
+        } else {
+            ClientServerIO.saveFileBytes(data, saveFile);
+            metrics.counter("file.bytesWritten").add(data.length);
+            fileReadsInFlight.remove(saveFile.getAbsolutePath());
+            invalidateCacheValidation(documentId);
+        }
         ContentHandlerResult result = new ContentHandlerResult();
         result.put(ContentHandlerResult.DOCUMENT_ID_TO_RELOAD, documentId);
         return result;
@@ -556,7 +843,23 @@ public class FileContentHandler
         }
         File saveFile = new File(gFilePath + documentId);
         try {
-            ClientServerIO.copyFile(inputfile, saveFile);
+            if (contentAddressedStorage) {
+                ContentPointer pointer = new ContentPointer(ContentPointer.digest(inputfile));
+                File contentFile = contentFile(pointer);
+                if (contentFile.isFile()) {
+                    metrics.counter("contentStore.bytesDeduplicated").add(inputfile.length());
+                } else {
+                    writeAtomically(contentFile, partial -> Files.copy(inputfile.toPath(), partial.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING));
+                }
+                if (savePointer(saveFile, pointer)) {
+                    invalidateCacheValidation(documentId);
+                }
+            } else {
+                ClientServerIO.copyFile(inputfile, saveFile);
+                fileReadsInFlight.remove(saveFile.getAbsolutePath());
+                invalidateCacheValidation(documentId);
+            }
         } catch (IOException e) {
             logger.error("Error saving updated file", e);
             throw new VirtualViewerAPIException("Error saving updated file", e);
@@ -571,6 +874,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult getAnnotationContent(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("getAnnotationContent", () -> doGetAnnotationContent(input));
+    }
+
+    private ContentHandlerResult doGetAnnotationContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         // Note,  we should never be called with getAnnotationContent for the tiff tag layer.
         // the Content server will handle this without dependency on the content handler.
         return getAnnotationContentFromFile(input);
@@ -598,7 +906,7 @@ public class FileContentHandler
         
         try {
             File file = new File(fullFilePath);
-            byte[] bytes = ClientServerIO.getFileBytes(file);
+            byte[] bytes = readSidecar(documentKey, SidecarBundle.annotationEntry(annotationKey), file);
             ContentHandlerResult result = new ContentHandlerResult();
             result.put(ContentHandlerResult.KEY_ANNOTATION_CONTENT, bytes);
             result.put(ContentHandlerResult.KEY_ANNOTATION_DISPLAY_NAME, input.getAnnotationId());
@@ -616,6 +924,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult getAnnotationProperties(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("getAnnotationProperties", () -> doGetAnnotationProperties(input));
+    }
+
+    private ContentHandlerResult doGetAnnotationProperties(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         HttpServletRequest request = input.getHttpServletRequest();
         String clientInstanceId = input.getClientInstanceId();
         String documentKey = input.getDocumentId();
@@ -624,10 +937,10 @@ public class FileContentHandler
         Hashtable properties = new Hashtable();
         String baseAnnFilename = documentKey + "." + annotationKey;
         String annFilename = gFilePath + baseAnnFilename + ".ann";
-        
+
         // Is it a regular annotation layer ?
         File file = new File(annFilename);
-        if (file.exists()) {
+        if (annotationLayerExists(documentKey, annotationKey, file)) {
             properties.put(AnnotationLayer.PROPERTIES_KEY_PERMISSION_LEVEL, PermissionLevel.DELETE);
             properties.put(AnnotationLayer.PROPERTIES_KEY_REDACTION_FLAG, false);
         }
@@ -637,12 +950,30 @@ public class FileContentHandler
         return result;
     }
 
+    private boolean annotationLayerExists(String documentKey, String annotationKey, File annFile) {
+        try {
+            SidecarBundle bundle = readSidecarBundle(documentKey);
+            if (bundle != null) {
+                return bundle.get(SidecarBundle.annotationEntry(annotationKey)) != null;
+            }
+        } catch (IOException e) {
+            logger.error("Error reading sidecar bundle of {}", documentKey, e);
+            return false;
+        }
+        return annFile.exists();
+    }
+
     /**
      * @see com.snowbound.contenthandler.interfaces.BookmarksInterface#getBookmarkContent(ContentHandlerInput)
      */
     @Override
     public ContentHandlerResult getBookmarkContent(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("getBookmarkContent", () -> doGetBookmarkContent(input));
+    }
+
+    private ContentHandlerResult doGetBookmarkContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         String clientInstanceId = input.getClientInstanceId();
         String documentKey = input.getDocumentId();
         logger.trace("GetBookmarkContent: clientInstanceId {}", clientInstanceId);
@@ -651,7 +982,7 @@ public class FileContentHandler
         logger.trace("Retrieving bookmark file: {}", fullFilePath);
         try {
             File file = new File(fullFilePath);
-            byte[] bytes = ClientServerIO.getFileBytes(file);
+            byte[] bytes = readSidecar(documentKey, SidecarBundle.BOOKMARKS, file);
             ContentHandlerResult result = new ContentHandlerResult();
             result.put(ContentHandlerResult.KEY_BOOKMARK_CONTENT, bytes);
             return result;
@@ -667,14 +998,25 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult deleteBookmarkContent(ContentHandlerInput input) 
             throws VirtualViewerAPIException {
+        return timed("deleteBookmarkContent", () -> doDeleteBookmarkContent(input));
+    }
+
+    private ContentHandlerResult doDeleteBookmarkContent(ContentHandlerInput input) 
+            throws VirtualViewerAPIException {
         String clientInstanceId = input.getClientInstanceId();
         String documentId = input.getDocumentId();
 
         return saveBookmarkContent(clientInstanceId, documentId, null);
     }
 
-    private ContentHandlerResult saveBookmarkContent(String clientInstanceId, String documentId, byte[] data) {
+    private ContentHandlerResult saveBookmarkContent(String clientInstanceId, String documentId, byte[] data)
+            throws VirtualViewerAPIException {
         logger.trace("saveBookmarkContent...{} clientInstanceId: {}", documentId, clientInstanceId);
+        if (sidecarBundles) {
+            saveSidecar(documentId, SidecarBundle.BOOKMARKS, data);
+            return ContentHandlerResult.VOID;
+        }
+        unpackSidecarBundle(documentId);
         String fullFilePath = gFilePath + documentId + ".bookmarks.xml";
         File file = new File(fullFilePath);
         if (data == null) {
@@ -698,6 +1040,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult getWatermarkContent(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("getWatermarkContent", () -> doGetWatermarkContent(input));
+    }
+
+    private ContentHandlerResult doGetWatermarkContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         String clientInstanceId = input.getClientInstanceId();
         String documentKey = input.getDocumentId();
         logger.trace("getWatermarkContent: clientInstanceId {}", clientInstanceId);
@@ -706,7 +1053,7 @@ public class FileContentHandler
         logger.trace("Retrieving watermark file: {}", fullFilePath);
         try {
             File file = new File(fullFilePath);
-            byte[] bytes = ClientServerIO.getFileBytes(file);
+            byte[] bytes = readSidecar(documentKey, SidecarBundle.WATERMARKS, file);
             ContentHandlerResult result = new ContentHandlerResult();
             result.put(ContentHandlerResult.KEY_WATERMARK_CONTENT, bytes);
             return result;
@@ -721,10 +1068,15 @@ public class FileContentHandler
      */
     @Override
     public ContentHandlerResult deleteWatermarkContent(ContentHandlerInput input) 
+        throws VirtualViewerAPIException {
+        return timed("deleteWatermarkContent", () -> doDeleteWatermarkContent(input));
+    }
+
+    private ContentHandlerResult doDeleteWatermarkContent(ContentHandlerInput input) 
         throws VirtualViewerAPIException {
         String clientInstanceId = input.getClientInstanceId();
         String documentId = input.getDocumentId();
-        
+
         return saveWatermarkContent(clientInstanceId, documentId, null);
     }
 
@@ -735,8 +1087,14 @@ public class FileContentHandler
      * @param data
      * @return
      */
-    private ContentHandlerResult saveWatermarkContent(String clientInstanceId, String documentId, byte[] data) {
+    private ContentHandlerResult saveWatermarkContent(String clientInstanceId, String documentId, byte[] data)
+            throws VirtualViewerAPIException {
         logger.trace("saveWatermarkContent...{} clientInstanceId: {}", documentId, clientInstanceId);
+        if (sidecarBundles) {
+            saveSidecar(documentId, SidecarBundle.WATERMARKS, data);
+            return ContentHandlerResult.VOID;
+        }
+        unpackSidecarBundle(documentId);
         String fullFilePath = gFilePath + documentId + ".watermarks.json";
         File file = new File(fullFilePath);
         if (data == null) {
@@ -761,6 +1119,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult getNotesContent(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("getNotesContent", () -> doGetNotesContent(input));
+    }
+
+    private ContentHandlerResult doGetNotesContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         String clientInstanceId = input.getClientInstanceId();
         String documentKey = input.getDocumentId();
         logger.trace("getNotesContent: clientInstanceId {}", clientInstanceId);
@@ -769,7 +1132,7 @@ public class FileContentHandler
         logger.trace("Retrieving notes file: {}", fullFilePath);
         try {
             File file = new File(fullFilePath);
-            byte[] bytes = ClientServerIO.getFileBytes(file);
+            byte[] bytes = readSidecar(documentKey, SidecarBundle.NOTES, file);
             ContentHandlerResult result = new ContentHandlerResult();
             result.put(ContentHandlerResult.KEY_NOTES_CONTENT, bytes);
             return result;
@@ -784,10 +1147,15 @@ public class FileContentHandler
      */
     @Override
     public ContentHandlerResult deleteNotesContent(ContentHandlerInput input)
-            throws VirtualViewerAPIException {        
+            throws VirtualViewerAPIException {
+        return timed("deleteNotesContent", () -> doDeleteNotesContent(input));
+    }
+
+    private ContentHandlerResult doDeleteNotesContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         String clientInstanceId = input.getClientInstanceId();
         String documentId = input.getDocumentId();
-        
+
         return saveNotesContent(clientInstanceId, documentId, null);
     }
 
@@ -798,8 +1166,14 @@ public class FileContentHandler
      * @param data
      * @return
      */
-    private ContentHandlerResult saveNotesContent(String clientInstanceId, String documentId, byte[] data) {
+    private ContentHandlerResult saveNotesContent(String clientInstanceId, String documentId, byte[] data)
+            throws VirtualViewerAPIException {
         logger.trace("saveNotesContent...{} clientInstanceId: {}", documentId, clientInstanceId);
+        if (sidecarBundles) {
+            saveSidecar(documentId, SidecarBundle.NOTES, data);
+            return data == null ? ContentHandlerResult.VOID : new ContentHandlerResult();
+        }
+        unpackSidecarBundle(documentId);
         String fullFilePath = gFilePath + documentId + ".notes.xml";
         File file = new File(fullFilePath);
         if (data == null) {
@@ -818,12 +1192,219 @@ public class FileContentHandler
         return new ContentHandlerResult();
     }
 
+    /**
+     * Reads one sidecar of a document. When the document has a sidecar bundle the sidecar comes from the bundle,
+     * otherwise from its own file.
+     *
+     * @throws FileNotFoundException if the document has no such sidecar
+     */
+    private byte[] readSidecar(String documentId, String entryName, File legacyFile) throws IOException {
+        SidecarBundle bundle = readSidecarBundle(documentId);
+        if (bundle == null) {
+            return ClientServerIO.getFileBytes(legacyFile);
+        }
+        byte[] content = bundle.get(entryName);
+        if (content == null) {
+            throw new FileNotFoundException(entryName + " of " + documentId);
+        }
+        return content;
+    }
+
+    private void saveSidecar(String documentId, String entryName, byte[] data) {
+        try {
+            updateSidecarBundle(documentId, bundle -> bundle.put(entryName, data));
+        } catch (IOException e) {
+            logger.error("Error saving {} of {} to its sidecar bundle", entryName, documentId, e);
+        }
+    }
+
+    /**
+     * Loads the sidecar bundle of a document. Bundles are read whether or not sidecarBundles is enabled, so documents
+     * bundled while it was enabled keep their sidecars. The file is read once and reused until it changes, so the
+     * bundle is not read again for every layer of getAllAnnotationsForDocument. The returned bundle is shared and
+     * must not be changed.
+     *
+     * @return the bundle, or null if the document has none
+     */
+    private SidecarBundle readSidecarBundle(String documentId) throws IOException {
+        Path bundlePath = sidecarBundleFile(documentId).toPath();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(bundlePath, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            sidecarBundleCache.remove(documentId);
+            return null;
+        }
+        CachedSidecarBundle cached = sidecarBundleCache.get(documentId);
+        if (cached != null && cached.isReadFrom(attributes)) {
+            metrics.counter("sidecarBundleCache.hits").increment();
+            return cached.bundle;
+        }
+        metrics.counter("sidecarBundleCache.misses").increment();
+        // Attributes taken before the read can only make the cached bundle look older than it is, which costs a
+        // second read but never serves a stale bundle.
+        SidecarBundle bundle = loadSidecarBundle(bundlePath);
+        if (bundle != null) {
+            sidecarBundleCache.put(documentId, new CachedSidecarBundle(bundle, attributes));
+        }
+        return bundle;
+    }
+
+    /**
+     * Reads a sidecar bundle file, bypassing the cache.
+     *
+     * @return the bundle, or null if the file does not exist
+     */
+    private static SidecarBundle loadSidecarBundle(Path bundlePath) throws IOException {
+        try {
+            return SidecarBundle.read(Files.readAllBytes(bundlePath));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Applies a change to the sidecar bundle of a document and writes the bundle back. The new bundle replaces the
+     * old one with an atomic rename, so readers see either the old or the new bundle. A document without a bundle
+     * gets one holding its existing sidecar files, which are deleted once the bundle is saved.
+     */
+    private void updateSidecarBundle(String documentId, Consumer<SidecarBundle> change) throws IOException {
+        File bundleFile = sidecarBundleFile(documentId);
+        synchronized (sidecarLocks[(documentId.hashCode() & Integer.MAX_VALUE) % sidecarLocks.length]) {
+            // Always start from the file, never from the cache, because the change is applied to this copy.
+            SidecarBundle bundle = loadSidecarBundle(bundleFile.toPath());
+            List<File> legacyFiles = new ArrayList<>();
+            if (bundle == null) {
+                bundle = new SidecarBundle();
+                collectLegacySidecars(documentId, bundle, legacyFiles);
+            }
+            change.accept(bundle);
+
+            if (bundle.isEmpty()) {
+                Files.deleteIfExists(bundleFile.toPath());
+            } else {
+                File partial = File.createTempFile(bundleFile.getName(), ".tmp", bundleFile.getParentFile());
+                try {
+                    Files.write(partial.toPath(), bundle.toBytes());
+                    Files.move(partial.toPath(), bundleFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(partial.toPath());
+                }
+            }
+            sidecarBundleCache.remove(documentId);
+
+            for (File legacyFile : legacyFiles) {
+                if (!legacyFile.delete()) {
+                    logger.error("Sidecar {} moved into its bundle could not be deleted", legacyFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the separate sidecar files of a document into a new bundle. OCR text stays a separate file, because it
+     * is produced outside this handler.
+     */
+    private void collectLegacySidecars(String documentId, SidecarBundle bundle, List<File> legacyFiles) throws IOException {
+        Map<String, File> candidates = legacySidecarFiles(documentId, listLegacyAnnotationIds(documentId));
+        for (Map.Entry<String, File> candidate : candidates.entrySet()) {
+            if (candidate.getValue().isFile()) {
+                bundle.put(candidate.getKey(), Files.readAllBytes(candidate.getValue().toPath()));
+                legacyFiles.add(candidate.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the sidecars of a document's bundle back as separate files and deletes the bundle. Saves made while
+     * sidecarBundles is disabled call this first, so a bundle never hides the separate files saved after it. Does
+     * nothing for a document without a bundle.
+     *
+     * @throws VirtualViewerAPIException if the bundle could not be moved, so the save fails instead of writing a file
+     * the bundle would hide
+     */
+    private void unpackSidecarBundle(String documentId) throws VirtualViewerAPIException {
+        File bundleFile = sidecarBundleFile(documentId);
+        if (!bundleFile.isFile()) {
+            return;
+        }
+        synchronized (sidecarLocks[(documentId.hashCode() & Integer.MAX_VALUE) % sidecarLocks.length]) {
+            try {
+                SidecarBundle bundle = loadSidecarBundle(bundleFile.toPath());
+                if (bundle == null) {
+                    return;
+                }
+                Map<String, File> targets = legacySidecarFiles(documentId, bundle.getAnnotationIds());
+                targets.put(SidecarBundle.OCR_TEXT, new File(gFilePath + documentId + ".ocr-text.json"));
+                for (Map.Entry<String, File> target : targets.entrySet()) {
+                    byte[] content = bundle.get(target.getKey());
+                    if (content != null) {
+                        Files.write(target.getValue().toPath(), content);
+                    }
+                }
+                Files.deleteIfExists(bundleFile.toPath());
+                sidecarBundleCache.remove(documentId);
+            } catch (IOException e) {
+                throw new VirtualViewerAPIException("Could not move the sidecar bundle of " + documentId + " back to separate files: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Maps the bundle entries of a document's annotation layers, notes, bookmarks and watermarks to their separate
+     * sidecar files.
+     */
+    private static Map<String, File> legacySidecarFiles(String documentId, List<String> annotationIds) {
+        Map<String, File> files = new LinkedHashMap<>();
+        for (String annotationId : annotationIds) {
+            files.put(SidecarBundle.annotationEntry(annotationId), new File(gFilePath + documentId + "." + annotationId + ".ann"));
+        }
+        files.put(SidecarBundle.NOTES, new File(gFilePath + documentId + ".notes.xml"));
+        files.put(SidecarBundle.BOOKMARKS, new File(gFilePath + documentId + ".bookmarks.xml"));
+        files.put(SidecarBundle.WATERMARKS, new File(gFilePath + documentId + ".watermarks.json"));
+        return files;
+    }
+
+    private static File sidecarBundleFile(String documentId) {
+        return new File(gFilePath + documentId + SidecarBundle.FILE_SUFFIX);
+    }
+
+    private static final class CachedSidecarBundle {
+        private final SidecarBundle bundle;
+        private final Object fileKey;
+        private final long lastModified;
+        private final long size;
+
+        private CachedSidecarBundle(SidecarBundle bundle, BasicFileAttributes attributes) {
+            this.bundle = bundle;
+            this.fileKey = attributes.fileKey();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.size = attributes.size();
+        }
+
+        /**
+         * Checks whether the bundle file still has the attributes it had when this bundle was read. Saves replace the
+         * file with a rename, which also changes its file key where the file system has one.
+         */
+        private boolean isReadFrom(BasicFileAttributes attributes) {
+            return Objects.equals(fileKey, attributes.fileKey())
+                    && lastModified == attributes.lastModifiedTime().toMillis()
+                    && size == attributes.size();
+        }
+    }
+
     /**
      * @see com.snowbound.contenthandler.interfaces.VirtualViewerContentHandlerInterface#getDocumentContent(ContentHandlerInput)
      */
     @Override
     public ContentHandlerResult getDocumentContent(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("getDocumentContent", () -> doGetDocumentContent(input));
+    }
+
+    private ContentHandlerResult doGetDocumentContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         String clientInstanceId = input.getClientInstanceId();
         String key = input.getDocumentId();
 
@@ -864,7 +1445,7 @@ public class FileContentHandler
                 if (!xrefName.equals(externalReferenceParentFileName) &&
                     (xrefName.toLowerCase().endsWith(".dwg"))) {
                     try {
-                        xrefData = ClientServerIO.getFileBytes(siblingFile);
+                        xrefData = readFileShared(resolveDocumentFile(siblingFile));
                     } catch (IOException e) {                        
                         logger.error("Error while retrieving xref data from file", e);
                     }
@@ -909,7 +1490,7 @@ public class FileContentHandler
                 String path = basePath + "/" + filesInDir[x];
                 File file = new File(path);
                 try {
-                    byte[] data = ClientServerIO.getFileBytes(file);
+                    byte[] data = readFileShared(file);
                     vectorOfFiles.add(data);
                 } catch (IOException e) {                    
                     logger.error("Error while retrieving document content from file", e);
@@ -945,7 +1526,7 @@ public class FileContentHandler
                 byte[] fileBytes;
 
                 try {
-                    fileBytes = ClientServerIO.getFileBytes(file);
+                    fileBytes = readFileShared(resolveDocumentFile(file));
                 } catch (FileNotFoundException fnfe) {
                     /* Removing stack trace here, as it was unnecessary */
                     logger.error("Document not found", fnfe);
@@ -973,7 +1554,12 @@ public class FileContentHandler
             File file = new File(fullFilePath);
 
             try {
-                result.put(ContentHandlerResult.KEY_DOCUMENT_CONTENT, ClientServerIO.getFileBytes(file));
+                // Read the version first, so a change made while reading makes the cache look stale, never current.
+                String version = fileVersion(file);
+                result.put(ContentHandlerResult.KEY_DOCUMENT_CONTENT, readFileShared(resolveDocumentFile(file)));
+                if (version != null) {
+                    servedVersions.put(key, version);
+                }
 
                 if (contentHandlerDebug) {
                     String reversed = new StringBuilder(key).reverse().toString();
@@ -1005,7 +1591,13 @@ public class FileContentHandler
             logger.error("Unsupported encoding in document key", e);
             return null;
         }
-        File file = new File(fullFilePath);
+        File file;
+        try {
+            file = resolveDocumentFile(new File(fullFilePath));
+        } catch (IOException e) {
+            logger.error("Could not read document file", e);
+            return null;
+        }
         ContentHandlerResult result = new ContentHandlerResult();            
         result.put(ContentHandlerResult.KEY_DOCUMENT_FILE, file);
         result.put(ContentHandlerResult.KEY_DOCUMENT_DISPLAY_NAME, key);
@@ -1019,6 +1611,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult deleteAnnotation(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("deleteAnnotation", () -> doDeleteAnnotation(input));
+    }
+
+    private ContentHandlerResult doDeleteAnnotation(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         if (readOnlyMode) {
             throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
         }
@@ -1029,9 +1626,16 @@ public class FileContentHandler
         String annotationFilename = documentKey + "." + annotationKey + ".ann";
         String fullFilePath = gFilePath + annotationFilename;
         logger.trace("Deleting annotation file: {}", fullFilePath);
+        if (!sidecarBundles) {
+            unpackSidecarBundle(documentKey);
+        }
         try {
-            File file = new File(fullFilePath);
-            file.delete();
+            if (sidecarBundles) {
+                updateSidecarBundle(documentKey, bundle -> bundle.put(SidecarBundle.annotationEntry(annotationKey), null));
+            } else {
+                File file = new File(fullFilePath);
+                file.delete();
+            }
         } catch (Exception e) {
             logger.error("Failed to delete layer {}", e);
         }
@@ -1063,8 +1667,13 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult getAvailableDocumentIds(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("getAvailableDocumentIds", () -> doGetAvailableDocumentIds(input));
+    }
+
+    private ContentHandlerResult doGetAvailableDocumentIds(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         List<String> validExtensions = VirtualViewerFormatHash.getInstance().getKnownExtensions();        
-                
+
         String clientInstanceId = input.getClientInstanceId();
         File imgDirectory = new File(gFilePath);
         String[] listArray = imgDirectory.list(new FileContentHandlerFileNameFilter());
@@ -1093,6 +1702,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult sendDocumentContent(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("sendDocumentContent", () -> doSendDocumentContent(input));
+    }
+
+    private ContentHandlerResult doSendDocumentContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         if (readOnlyMode) {
             throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
         }
@@ -1117,6 +1731,11 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult eventNotification(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("eventNotification", () -> doEventNotification(input));
+    }
+
+    private ContentHandlerResult doEventNotification(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         logger.trace("FileContentHandler.eventNotification");
         Iterator paramIterator = input.keySet().iterator();
         String eventType = (String) input.get(ContentHandlerResult.KEY_EVENT);
@@ -1145,9 +1764,14 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult getAllAnnotationsForDocument(
             ContentHandlerInput input) throws VirtualViewerAPIException {
+        return timed("getAllAnnotationsForDocument", () -> doGetAllAnnotationsForDocument(input));
+    }
+
+    private ContentHandlerResult doGetAllAnnotationsForDocument(
+            ContentHandlerInput input) throws VirtualViewerAPIException {
         ContentHandlerResult result = new ContentHandlerResult();
 
-        Map<String, AnnotationLayer> annotationHash = new HashMap<>();
+        Map<String, AnnotationLayer> annotationHash = new LinkedHashMap<>();
 
         String documentId = input.getDocumentId();
         String clientInstanceId = input.getClientInstanceId();
@@ -1156,12 +1780,22 @@ public class FileContentHandler
         String[] annNames = annResult.getAnnotationNames();
 
         if (annNames != null) {
+            // Every layer is read at once, and the results are collected in the listed order.
+            List<Future<ContentHandlerResult>> futures = new ArrayList<>(annNames.length);
+            List<AnnotationLayerRead> reads = new ArrayList<>(annNames.length);
             for (String annotationId : annNames) {
                 ContentHandlerInput cInput = new ContentHandlerInput(documentId, clientInstanceId);
 
                 cInput.setAnnotationId(annotationId);
 
-                ContentHandlerResult cResult = this.getAnnotationContent(cInput);
+                AnnotationLayerRead read = new AnnotationLayerRead(() -> this.getAnnotationContent(cInput));
+                reads.add(read);
+                futures.add(annotationFetchExecutor.submit(read));
+            }
+
+            for (int i = 0; i < annNames.length; i++) {
+                String annotationId = annNames[i];
+                ContentHandlerResult cResult = awaitAnnotationContent(documentId, annotationId, futures, reads, i);
 
                 byte[] bytes = (byte[]) cResult.get(ContentHandlerResult.KEY_ANNOTATION_CONTENT);
                 String displayName = (String) cResult.get(ContentHandlerResult.KEY_ANNOTATION_DISPLAY_NAME);
@@ -1184,10 +1818,74 @@ public class FileContentHandler
         result.put(ContentHandlerResult.KEY_ALL_ANNOTATIONS_HASH, annotationHash);
 
         return result;
+    }
+
+    /**
+     * Waits for one layer read started by getAllAnnotationsForDocument. The timeout of a layer starts when a pool
+     * thread begins reading it, so time spent queued behind other documents does not count. A layer still unread
+     * at its timeout fails the call, as does a failed read, and the reads still running are cancelled; the result
+     * never silently lacks a layer.
+     */
+    private ContentHandlerResult awaitAnnotationContent(String documentId, String annotationId,
+            List<Future<ContentHandlerResult>> futures, List<AnnotationLayerRead> reads, int index)
+            throws VirtualViewerAPIException {
+        Future<ContentHandlerResult> future = futures.get(index);
+        AnnotationLayerRead read = reads.get(index);
+        try {
+            while (true) {
+                long startMillis = read.startMillis;
+                // A queued layer has used none of its time; look again after a full timeout.
+                long waitMillis = startMillis == 0 ? annotationFetchTimeoutMillis
+                        : startMillis + annotationFetchTimeoutMillis - System.currentTimeMillis();
+                try {
+                    return future.get(Math.max(waitMillis, 1), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    startMillis = read.startMillis;
+                    if (startMillis != 0
+                            && System.currentTimeMillis() - startMillis >= annotationFetchTimeoutMillis) {
+                        futures.forEach(f -> f.cancel(true));
+                        logger.error("Timed out reading annotation layer {} of {}", annotationId, documentId);
+                        throw new VirtualViewerAPIException("Timed out reading annotation layer: " + annotationId);
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof VirtualViewerAPIException) {
+                throw (VirtualViewerAPIException) e.getCause();
+            }
+            throw new VirtualViewerAPIException("Could not read annotation layer: " + annotationId, e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new VirtualViewerAPIException("Interrupted while reading annotation layers", e);
+        }
     }    
 
+    /**
+     * A layer read of getAllAnnotationsForDocument that records when a pool thread started it.
+     */
+    private static final class AnnotationLayerRead implements Callable<ContentHandlerResult> {
+        private final Callable<ContentHandlerResult> read;
+        private volatile long startMillis;
+
+        private AnnotationLayerRead(Callable<ContentHandlerResult> read) {
+            this.read = read;
+        }
+
+        @Override
+        public ContentHandlerResult call() throws Exception {
+            startMillis = System.currentTimeMillis();
+            return read.call();
+        }
+    }
+
     @Override
     public ContentHandlerResult getOCRDataForDocument(ContentHandlerInput input) throws VirtualViewerAPIException {
+        return timed("getOCRDataForDocument", () -> doGetOCRDataForDocument(input));
+    }
+
+    private ContentHandlerResult doGetOCRDataForDocument(ContentHandlerInput input) throws VirtualViewerAPIException {
         return retrieveOCRDataFile(input);
     }
     
@@ -1204,8 +1902,13 @@ public class FileContentHandler
         String fullFilePath = gFilePath + ocrDataFilename;
         
         try {
-            File file = new File(fullFilePath);
-            byte[] bytes = ClientServerIO.getFileBytes(file);
+            // OCR text is produced outside this handler, so it may still be a separate file next to a bundle.
+            SidecarBundle bundle = readSidecarBundle(documentKey);
+            byte[] bytes = bundle != null ? bundle.get(SidecarBundle.OCR_TEXT) : null;
+            if (bytes == null) {
+                File file = new File(fullFilePath);
+                bytes = readFileShared(file);
+            }
             ContentHandlerResult result = new ContentHandlerResult();
             result.put(ContentHandlerResult.KEY_OCR_DATA_JSON, bytes);
             logger.trace("Retrieving OCR data file: {}", ocrDataFilename);
@@ -1219,16 +1922,211 @@ public class FileContentHandler
     @Override
     public ContentHandlerResult getOCRDataOnPerformOCR(ContentHandlerInput input)
             throws VirtualViewerAPIException {
+        return timed("getOCRDataOnPerformOCR", () -> doGetOCRDataOnPerformOCR(input));
+    }
+
+    private ContentHandlerResult doGetOCRDataOnPerformOCR(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
         return retrieveOCRDataFile(input);
     }
     
+    /**
+     * Allows VirtualViewer to use its cached copy of a document only while the file still has the modification time
+     * and size it had when this handler last served it. The sample SparseDocument: and CompoundDocument: ids are
+     * always allowed.
+     *
+     * @see com.snowbound.contenthandler.interfaces.CacheValidator#validateCache(ContentHandlerInput)
+     */
     @Override
     public ContentHandlerResult validateCache(ContentHandlerInput input) {
-        // This is a trivial implemenation of validateCache that just allows it to be tested a little more easily.
+        return timed("validateCache", () -> doValidateCache(input));
+    }
+
+    private ContentHandlerResult doValidateCache(ContentHandlerInput input) {
+        String key = input.getDocumentId();
+        boolean allowed = key.startsWith(PREFIX_SPARSE_DOCUMENT)
+                || key.startsWith(PREFIX_COMPOUND_DOCUMENT)
+                || isCacheCurrent(key);
+        logger.trace("validateCache: {} cache allowed {}", key, allowed);
         ContentHandlerResult result = new ContentHandlerResult();
-        result.put(ContentHandlerResult.KEY_USE_OF_CACHE_ALLOWED, Boolean.TRUE);
+        result.put(ContentHandlerResult.KEY_USE_OF_CACHE_ALLOWED, allowed);
         return result;
     }
+
+    private static <V> Map<String, V> newVersionMap(int maxDocuments) {
+        return Collections.synchronizedMap(new BoundedLruMap<>(maxDocuments));
+    }
+
+    private static boolean isCacheCurrent(String key) {
+        String served = servedVersions.get(key);
+        if (served == null) {
+            return false;
+        }
+        CheckedVersion checked = currentVersions.get(key);
+        if (checked == null || System.currentTimeMillis() - checked.checkedAt >= cacheValidationTtlMillis) {
+            String current = fileVersion(new File(gFilePath + key));
+            if (current == null) {
+                currentVersions.remove(key);
+                return false;
+            }
+            checked = new CheckedVersion(current, System.currentTimeMillis());
+            currentVersions.put(key, checked);
+        }
+        return served.equals(checked.version);
+    }
+
+    /**
+     * Reads a whole file. A read of the same file that is already in progress on another thread is joined instead
+     * of reading the file again, so viewers opening the same document at the same moment cost one read. A caller
+     * that joins gets its own copy of the content, so no caller sees a change another one makes.
+     *
+     * @throws FileNotFoundException if the file does not exist
+     */
+    private static byte[] readFileShared(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        CompletableFuture<byte[]> read = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = fileReadsInFlight.putIfAbsent(path, read);
+        if (existing != null) {
+            try {
+                return existing.get().clone();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a read of " + file.getName(), e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Error reading " + file.getName(), e.getCause());
+            }
+        }
+        try {
+            byte[] content = ClientServerIO.getFileBytes(file);
+            metrics.counter("file.bytesRead").add(content.length);
+            read.complete(content);
+            return content;
+        } catch (IOException | RuntimeException | Error e) {
+            read.completeExceptionally(e);
+            throw e;
+        } finally {
+            fileReadsInFlight.remove(path, read);
+        }
+    }
+
+    /**
+     * Returns the file holding the content of a document. A document saved with content-addressed storage is a
+     * pointer, and its content is the content file the pointer names, shared by every document with the same
+     * content. Reads of those documents therefore join the same in-flight read. Any other document is its own
+     * content file. Pointers are followed even when content-addressed storage is turned off again.
+     */
+    private static File resolveDocumentFile(File file) throws IOException {
+        ContentPointer pointer = readPointer(file);
+        return pointer == null ? file : contentFile(pointer);
+    }
+
+    /**
+     * @return the pointer the file holds, or null if it is missing or a document stored the usual way
+     */
+    private static ContentPointer readPointer(File file) throws IOException {
+        if (!ContentPointer.mayBePointer(file.length())) {
+            return null;
+        }
+        try {
+            return ContentPointer.read(Files.readAllBytes(file.toPath()));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static File contentFile(ContentPointer pointer) {
+        return new File(gFilePath + pointer.getContentName());
+    }
+
+    /**
+     * Points a document at its content. A document that already points at the same content is not written, so
+     * VirtualViewer's cached copy of it stays valid.
+     *
+     * @return true if the pointer was written, false if it was already current
+     */
+    private static boolean savePointer(File documentFile, ContentPointer pointer) throws IOException {
+        if (pointer.equals(readPointer(documentFile))) {
+            metrics.counter("contentStore.unchangedSaves").increment();
+            return false;
+        }
+        writeAtomically(documentFile, partial -> Files.write(partial.toPath(), pointer.toBytes()));
+        return true;
+    }
+
+    /**
+     * Writes a file under a temporary name and renames it into place, so readers see either the old or the new
+     * file and never a partial one.
+     */
+    private static void writeAtomically(File target, PartialFileWriter writer) throws IOException {
+        File directory = target.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        File partial = File.createTempFile("." + target.getName(), ".tmp", directory);
+        try {
+            writer.write(partial);
+            Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial.toPath());
+        }
+    }
+
+    /**
+     * Fills the temporary file of an atomic write.
+     */
+    private interface PartialFileWriter {
+        void write(File partial) throws IOException;
+    }
+
+    private static void invalidateCacheValidation(String key) {
+        servedVersions.remove(key);
+        currentVersions.remove(key);
+    }
+
+    private static String fileVersion(File file) {
+        long lastModified = file.lastModified();
+        if (lastModified == 0L) {
+            return null;
+        }
+        return lastModified + ":" + file.length();
+    }
+
+    /**
+     * Runs one content handler method under the timer of the specified name. A call that throws is counted as failed.
+     */
+    private static <T, E extends Exception> T timed(String name, HandlerCall<T, E> call) throws E {
+        HandlerMetrics.Timer timer = metrics.timer(name);
+        long started = timer.start();
+        try {
+            return call.call();
+        } catch (Exception e) {
+            timer.failed();
+            throw e;
+        } finally {
+            timer.stop(started);
+        }
+    }
+
+    /**
+     * The body of a timed content handler method.
+     */
+    private interface HandlerCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private static final class CheckedVersion {
+        private final String version;
+        private final long checkedAt;
+
+        private CheckedVersion(String version, long checkedAt) {
+            this.version = version;
+            this.checkedAt = checkedAt;
+        }
+    }
     
     private class FileContentHandlerFileNameFilter implements FilenameFilter
     {
@@ -1238,7 +2136,8 @@ public class FileContentHandler
 
             return !(lFileName.endsWith(".ann") ||
                      lFileName.endsWith(".ds_store") ||
-                     lFileName.endsWith(".ocr-text.json"));
+                     lFileName.endsWith(".ocr-text.json") ||
+                     lFileName.endsWith(SidecarBundle.FILE_SUFFIX));
         }
     }
 }
@@ -0,0 +1,2170 @@
+package com.accusoft.pdjs3;
+
+import Snow.Format;
+import Snow.SnowAnn;
+
+import com.accusoft.contenthandler.common.BoundedLruMap;
+import com.accusoft.contenthandler.common.HandlerMetrics;
+import com.accusoft.contenthandler.common.SidecarBundle;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.snowbound.common.transport.AnnotationLayer;
+import com.snowbound.common.transport.PermissionLevel;
+import com.snowbound.common.transport.VirtualViewerSnowAnn;
+import com.snowbound.common.utils.ClientServerIO;
+import com.snowbound.common.utils.RasterMaster;
+import com.snowbound.common.utils.SnowLoggerFactory;
+import com.snowbound.contenthandler.ContentHandlerInput;
+import com.snowbound.contenthandler.ContentHandlerResult;
+import com.snowbound.contenthandler.VirtualViewerAPIException;
+import com.snowbound.contenthandler.VirtualViewerFormatHash;
+import com.snowbound.contenthandler.example.FileContentHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.text.StringEscapeUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+
+/**
+ * This is a sample content handler for demonstration and example purposes. It saves documents and sub-components to the
+ * local file system. It should not be used for production instances of VirtualViewer.
+ */
+public class PDJS3ContentHandler extends FileContentHandler
+{
+    protected static final String PARAM_BUCKET_NAME = "s3BucketName";
+    protected static final String PARAM_FOLDER_NAME = "s3FolderName";
+    protected static final String PARAM_REGION_NAME = "s3RegionName";
+    protected static final String PARAM_ACCESS_KEY_ID = "AwsAccessKeyId";
+    protected static final String PARAM_SECRET_ACCESS_KEY = "AwsSecretAccessKey";
+    protected static final String PARAM_ENDPOINT = "s3Endpoint";
+    protected static final String PARAM_MAX_CONNECTIONS = "s3MaxConnections";
+    protected static final String PARAM_CONNECTION_MAX_IDLE_MILLIS = "s3ConnectionMaxIdleMillis";
+    protected static final String PARAM_CONNECTION_TTL = "s3ConnectionTTL";
+    protected static final String PARAM_RANGED_DOWNLOAD_THRESHOLD = "s3RangedDownloadThreshold";
+    protected static final String PARAM_DOWNLOAD_PART_SIZE = "s3DownloadPartSize";
+    protected static final String PARAM_DOWNLOAD_PARALLELISM = "s3DownloadParallelism";
+    protected static final String PARAM_TRANSFER_MAX_RETRIES = "s3TransferMaxRetries";
+    protected static final String PARAM_MAX_IN_MEMORY_DOWNLOAD_SIZE = "s3MaxInMemoryDownloadSize";
+    protected static final String PARAM_MULTIPART_UPLOAD_THRESHOLD = "s3MultipartUploadThreshold";
+    protected static final String PARAM_UPLOAD_PART_SIZE = "s3UploadPartSize";
+    protected static final String PARAM_UPLOAD_PARALLELISM = "s3UploadParallelism";
+    protected static final String PARAM_ABORT_STALE_UPLOADS_HOURS = "s3AbortStaleUploadsHours";
+    protected static final String PARAM_KEY_INDEX_REFRESH_SECONDS = "s3KeyIndexRefreshSeconds";
+    protected static final String PARAM_DISK_CACHE_DIRECTORY = "s3DiskCacheDirectory";
+    protected static final String PARAM_DISK_CACHE_MAX_BYTES = "s3DiskCacheMaxBytes";
+    protected static final String PARAM_DISK_CACHE_REVALIDATE_SECONDS = "s3DiskCacheRevalidateSeconds";
+    protected static final String PARAM_CACHE_VALIDATION_TTL_MILLIS = "cacheValidationTtlMillis";
+    protected static final String PARAM_CACHE_VALIDATION_MAX_DOCUMENTS = "cacheValidationMaxDocuments";
+    protected static final String PARAM_SPARSE_FETCH_PARALLELISM = "s3SparseFetchParallelism";
+    protected static final String PARAM_COMPOUND_FETCH_PARALLELISM = "s3CompoundFetchParallelism";
+    protected static final String PARAM_COMPOUND_MEMORY_BUDGET = "s3CompoundMemoryBudget";
+    protected static final String PARAM_ANNOTATION_FETCH_PARALLELISM = "s3AnnotationFetchParallelism";
+    protected static final String PARAM_ANNOTATION_FETCH_TIMEOUT_MILLIS = "s3AnnotationFetchTimeoutMillis";
+    protected static final String PARAM_SIDECAR_BUNDLES = "sidecarBundles";
+    protected static final String PARAM_SIDECAR_BUNDLE_CACHE_MILLIS = "s3SidecarBundleCacheMillis";
+    protected static final String PARAM_WRITE_BEHIND_DIRECTORY = "s3WriteBehindDirectory";
+    protected static final String PARAM_WRITE_BEHIND_WINDOW_MILLIS = "s3WriteBehindWindowMillis";
+    protected static final String PARAM_ADAPTIVE_CONCURRENCY = "s3AdaptiveConcurrency";
+    protected static final String PARAM_THROTTLE_MAX_RETRIES = "s3ThrottleMaxRetries";
+    protected static final String PARAM_THROTTLE_MAX_DELAY_MILLIS = "s3ThrottleMaxDelayMillis";
+    protected static final String PARAM_HEDGED_READS = "s3HedgedReads";
+    protected static final String PARAM_HEDGE_PERCENTILE = "s3HedgePercentile";
+    protected static final String PARAM_HEDGE_MAX_PERCENT = "s3HedgeMaxPercent";
+    protected static final String PARAM_HEDGE_MIN_DELAY_MILLIS = "s3HedgeMinDelayMillis";
+    protected static final String PARAM_SINGLE_FLIGHT = "s3SingleFlight";
+    protected static final String PARAM_SINGLE_FLIGHT_MAX_BYTES = "s3SingleFlightMaxBytes";
+    protected static final String PARAM_CONTENT_ADDRESSED_STORAGE = "contentAddressedStorage";
+    protected static final String PARAM_CONTENT_POINTER_CACHE_MILLIS = "s3ContentPointerCacheMillis";
+    protected static final String PARAM_METRICS_JMX = "metricsJmx";
+    protected static final String PARAM_METRICS_REGISTRY = "metricsRegistry";
+
+    protected static final String PARAM_TIFF_TAG_ANNOTATIONS = "tiffTagAnnotations";
+    protected static final String PARAM_CONTENT_HANDLER_DEBUG = "contentHandlerDebugMode";
+    protected static final String PARAM_READ_ONLY_MODE = "fileContentHandlerReadOnlyMode";
+
+    private static final String PREFIX_SPARSE_DOCUMENT = "SparseDocument:";
+    private static final String PREFIX_COMPOUND_DOCUMENT = "CompoundDocument:";
+    private static final String PREFIX_VIRTUAL_DOCUMENT = "VirtualDocument:";
+    private static final String READ_ONLY_ERROR_MESSAGE = "Saving has been disabled by the administrator";
+    private boolean readOnlyMode = false;
+    private static boolean gSupportTiffTagAnnotations = false;
+    private static boolean contentHandlerDebug = false;
+
+    private static String AwsSecretAccessKey;
+    private static String AwsAccessKeyId;
+    private static String s3BucketName;
+    private static String s3RegionName;
+    private static String s3FolderName;
+    private static S3Handler s3Connector;
+    private static S3KeyIndex s3KeyIndex;
+    private static S3CacheValidator cacheValidator;
+    private static S3ContentStore contentStore;
+    private static boolean contentAddressedStorage = false;
+    private static S3ParallelFetcher sparsePageFetcher;
+    private static S3ParallelFetcher compoundPartFetcher;
+    private static long compoundMemoryBudget;
+    private static ExecutorService annotationFetchExecutor;
+    private static long annotationFetchTimeoutMillis;
+    private static boolean sidecarBundles = false;
+    private static long sidecarBundleCacheMillis;
+    private static volatile S3WriteBehindQueue writeBehindQueue;
+    private static boolean writeBehindShutdownHookAdded = false;
+    // Timers of every interface method, plus the S3 request and disk cache metrics recorded by s3Connector.
+    private static final HandlerMetrics metrics = new HandlerMetrics("com.accusoft.pdjs3");
+    // Recently loaded sidecar bundles, so the separate sidecar calls of one document open share a single GET. A null
+    // bundle records that the document has none.
+    private static final Map<String, CachedSidecarBundle> sidecarBundleCache = new ConcurrentHashMap<>();
+    private static final int MAX_CACHED_SIDECAR_BUNDLES = 1024;
+    // Whether the last layer listing or bundle read of a document found a sidecar bundle. With sidecarBundles
+    // disabled no new bundles are written, so this lets reads and saves skip the bundle GET for documents known to
+    // have none. The least recently used documents are dropped beyond MAX_SIDECAR_BUNDLE_PRESENCE entries.
+    private static final int MAX_SIDECAR_BUNDLE_PRESENCE = 16384;
+    private static final Map<String, Boolean> sidecarBundlePresence =
+            Collections.synchronizedMap(new BoundedLruMap<>(MAX_SIDECAR_BUNDLE_PRESENCE));
+    private static final Object[] sidecarLocks = new Object[64];
+    static {
+        for (int i = 0; i < sidecarLocks.length; i++) {
+            sidecarLocks[i] = new Object();
+        }
+    }
+    
+    private static final Logger logger = SnowLoggerFactory.getLogger(PDJS3ContentHandler.class);
+
+    @Override
+    public void init(ServletConfig config) throws VirtualViewerAPIException {        
+        
+        AwsSecretAccessKey = config.getInitParameter(PARAM_SECRET_ACCESS_KEY);
+        AwsAccessKeyId = config.getInitParameter(PARAM_ACCESS_KEY_ID);
+        s3BucketName = config.getInitParameter(PARAM_BUCKET_NAME);
+        s3RegionName = config.getInitParameter(PARAM_REGION_NAME);
+        s3FolderName = config.getInitParameter(PARAM_FOLDER_NAME);
+
+        validateConfiguration();
+
+        int maxConnections = parseIntParameter(config, PARAM_MAX_CONNECTIONS, ClientConfiguration.DEFAULT_MAX_CONNECTIONS);
+        // Clients are shared by every handler instance. Settings that differ from the current ones retire the
+        // existing clients once their requests finish; the same settings keep them.
+        // Requests go to an S3-compatible endpoint, such as a local S3 stand-in, instead of AWS when one is set.
+        S3ClientRegistry.configureEndpoint(config.getInitParameter(PARAM_ENDPOINT));
+        S3ClientRegistry.configure(
+                maxConnections,
+                parseLongParameter(config, PARAM_CONNECTION_MAX_IDLE_MILLIS, ClientConfiguration.DEFAULT_CONNECTION_MAX_IDLE_MILLIS),
+                parseLongParameter(config, PARAM_CONNECTION_TTL, ClientConfiguration.DEFAULT_CONNECTION_TTL),
+                true);
+
+        // Requests are limited per class to what S3 accepts, and throttled requests back off with jitter.
+        if (!"false".equalsIgnoreCase(config.getInitParameter(PARAM_ADAPTIVE_CONCURRENCY))) {
+            S3ClientRegistry.configureThrottleControl(new S3ThrottleControl(maxConnections,
+                    S3ThrottleControl.DEFAULT_LATENCY_TOLERANCE,
+                    parseIntParameter(config, PARAM_THROTTLE_MAX_RETRIES, S3ThrottleControl.DEFAULT_MAX_RETRIES),
+                    parseLongParameter(config, PARAM_THROTTLE_MAX_DELAY_MILLIS, S3ThrottleControl.DEFAULT_MAX_DELAY_MILLIS)));
+        } else {
+            S3ClientRegistry.configureThrottleControl(null);
+        }
+        s3Connector = new S3Handler(AwsAccessKeyId, AwsSecretAccessKey, s3RegionName);
+        s3Connector.setMetrics(metrics);
+
+        // Metrics are published through JMX unless disabled, and to a custom registry when one is configured.
+        metrics.close();
+        if (!"false".equalsIgnoreCase(config.getInitParameter(PARAM_METRICS_JMX))) {
+            metrics.registerJmx();
+        }
+        String metricsRegistry = config.getInitParameter(PARAM_METRICS_REGISTRY);
+        if (metricsRegistry != null && !metricsRegistry.trim().isEmpty()) {
+            try {
+                metrics.addRegistry((HandlerMetrics.Registry) Class.forName(metricsRegistry.trim()).getDeclaredConstructor().newInstance());
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                logger.error("Could not create metrics registry {}: {}", metricsRegistry, e.toString());
+                throw new VirtualViewerAPIException("Could not create metrics registry " + metricsRegistry, e);
+            }
+        }
+
+        // Listing-heavy lookups are answered from an in-memory key index when a refresh interval is configured.
+        long keyIndexRefreshSeconds = parseLongParameter(config, PARAM_KEY_INDEX_REFRESH_SECONDS, 0);
+        if (keyIndexRefreshSeconds > 0) {
+            s3KeyIndex = new S3KeyIndex(s3Connector, s3BucketName, s3FolderName, keyIndexRefreshSeconds * 1000);
+            s3Connector.setKeyIndex(s3KeyIndex);
+        } else {
+            s3KeyIndex = null;
+        }
+
+        // Reads are served from a node-local disk cache when a cache directory is configured.
+        String diskCacheDirectory = config.getInitParameter(PARAM_DISK_CACHE_DIRECTORY);
+        if (diskCacheDirectory != null && !diskCacheDirectory.isEmpty()) {
+            try {
+                s3Connector.setDiskCache(new S3DiskCache(new File(diskCacheDirectory),
+                        parseLongParameter(config, PARAM_DISK_CACHE_MAX_BYTES, 1024L * 1024 * 1024),
+                        parseLongParameter(config, PARAM_DISK_CACHE_REVALIDATE_SECONDS, 0) * 1000));
+            } catch (IOException e) {
+                logger.error("Could not create disk cache in {}: {}", diskCacheDirectory, e.getMessage());
+            }
+        }
+
+        // Slow document and sidecar GETs are sent a second time when hedging is enabled.
+        if ("true".equalsIgnoreCase(config.getInitParameter(PARAM_HEDGED_READS))) {
+            s3Connector.setHedgingPolicy(new S3HedgingPolicy(S3TransferExecutor.get(),
+                    parseIntParameter(config, PARAM_HEDGE_PERCENTILE, (int) S3HedgingPolicy.DEFAULT_PERCENTILE),
+                    parseLongParameter(config, PARAM_HEDGE_MIN_DELAY_MILLIS, S3HedgingPolicy.DEFAULT_MIN_DELAY_MILLIS),
+                    parseIntParameter(config, PARAM_HEDGE_MAX_PERCENT, (int) (S3HedgingPolicy.DEFAULT_MAX_HEDGE_RATIO * 100)) / 100.0));
+        }
+
+        // Concurrent reads of the same object or listing prefix share one request unless disabled.
+        if (!"false".equalsIgnoreCase(config.getInitParameter(PARAM_SINGLE_FLIGHT))) {
+            s3Connector.setSingleFlightEnabled(true);
+            s3Connector.setMaxSharedStreamBytes(parseLongParameter(config, PARAM_SINGLE_FLIGHT_MAX_BYTES,
+                    S3Handler.DEFAULT_MAX_SHARED_STREAM_BYTES));
+        }
+
+        sparsePageFetcher = new S3ParallelFetcher(s3Connector,
+                parseIntParameter(config, PARAM_SPARSE_FETCH_PARALLELISM, S3ParallelFetcher.DEFAULT_PARALLELISM),
+                S3ParallelFetcher.DEFAULT_MAX_IN_MEMORY_SIZE);
+
+        // Compound and virtual document parts are all requested at once, up to the connection pool size.
+        compoundPartFetcher = new S3ParallelFetcher(s3Connector,
+                parseIntParameter(config, PARAM_COMPOUND_FETCH_PARALLELISM, maxConnections),
+                S3ParallelFetcher.DEFAULT_MAX_IN_MEMORY_SIZE);
+        compoundMemoryBudget = parseLongParameter(config, PARAM_COMPOUND_MEMORY_BUDGET, 64L * 1024 * 1024);
+
+        // Annotation layers of a document are read on their own bounded pool, each with a deadline once it starts.
+        if (annotationFetchExecutor != null) {
+            annotationFetchExecutor.shutdown();
+        }
+        annotationFetchExecutor = S3TransferExecutor.newFixedPool("s3-annotation-",
+                parseIntParameter(config, PARAM_ANNOTATION_FETCH_PARALLELISM, 8));
+        annotationFetchTimeoutMillis = parseLongParameter(config, PARAM_ANNOTATION_FETCH_TIMEOUT_MILLIS, 30000);
+
+        // Sidecars are packed into one bundle object per document when enabled.
+        sidecarBundles = "true".equalsIgnoreCase(config.getInitParameter(PARAM_SIDECAR_BUNDLES));
+        sidecarBundleCacheMillis = parseLongParameter(config, PARAM_SIDECAR_BUNDLE_CACHE_MILLIS, 2000);
+
+        // Sidecar saves are acknowledged from a local journal and sent to S3 in the background when a journal
+        // directory is configured.
+        String writeBehindDirectory = config.getInitParameter(PARAM_WRITE_BEHIND_DIRECTORY);
+        if (writeBehindQueue != null) {
+            writeBehindQueue.close();
+            writeBehindQueue = null;
+        }
+        if (writeBehindDirectory != null && !writeBehindDirectory.isEmpty()) {
+            try {
+                writeBehindQueue = new S3WriteBehindQueue(s3Connector, s3BucketName, s3FolderName,
+                        new File(writeBehindDirectory), parseLongParameter(config, PARAM_WRITE_BEHIND_WINDOW_MILLIS, 2000));
+            } catch (IOException e) {
+                throw new VirtualViewerAPIException("Could not open write-behind journal in " + writeBehindDirectory + ": " + e.getMessage());
+            }
+            // One hook drains whichever queue is current at exit, however often init runs.
+            if (!writeBehindShutdownHookAdded) {
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    S3WriteBehindQueue queue = writeBehindQueue;
+                    if (queue != null) {
+                        queue.close();
+                    }
+                }, "s3-write-behind-drain"));
+                writeBehindShutdownHookAdded = true;
+            }
+        }
+
+        cacheValidator = new S3CacheValidator(s3Connector, s3BucketName, s3FolderName,
+                parseLongParameter(config, PARAM_CACHE_VALIDATION_TTL_MILLIS, 2000),
+                parseIntParameter(config, PARAM_CACHE_VALIDATION_MAX_DOCUMENTS, S3CacheValidator.DEFAULT_MAX_DOCUMENTS));
+
+        // Saved content is stored once per digest, with a pointer per document, when enabled. Pointers are followed
+        // on reads either way, so documents saved while it was enabled stay readable.
+        contentAddressedStorage = "true".equalsIgnoreCase(config.getInitParameter(PARAM_CONTENT_ADDRESSED_STORAGE));
+        contentStore = new S3ContentStore(s3Connector, s3BucketName, s3FolderName,
+                parseLongParameter(config, PARAM_CONTENT_POINTER_CACHE_MILLIS, S3ContentStore.DEFAULT_POINTER_CACHE_MILLIS));
+        compoundPartFetcher.setContentStore(contentStore);
+
+        // Versioning is checked once here rather than on every save.
+        try {
+            s3Connector.ensureBucketVersioning(s3BucketName);
+        } catch (AmazonS3Exception e) {
+            logger.error("Could not verify versioning on bucket {}: {}", s3BucketName, e.getMessage());
+        }
+
+        // Documents above the threshold are fetched with concurrent ranged GETs; a threshold of 0 disables this.
+        long rangedDownloadThreshold = parseLongParameter(config, PARAM_RANGED_DOWNLOAD_THRESHOLD, S3RangedDownloader.DEFAULT_THRESHOLD);
+        if (rangedDownloadThreshold > 0) {
+            s3Connector.setRangedDownloader(new S3RangedDownloader(rangedDownloadThreshold,
+                    parseLongParameter(config, PARAM_DOWNLOAD_PART_SIZE, S3RangedDownloader.DEFAULT_PART_SIZE),
+                    parseIntParameter(config, PARAM_DOWNLOAD_PARALLELISM, S3RangedDownloader.DEFAULT_PARALLELISM),
+                    parseIntParameter(config, PARAM_TRANSFER_MAX_RETRIES, S3RangedDownloader.DEFAULT_MAX_RETRIES),
+                    parseLongParameter(config, PARAM_MAX_IN_MEMORY_DOWNLOAD_SIZE, S3RangedDownloader.DEFAULT_MAX_IN_MEMORY_SIZE)));
+        }
+
+        // Documents above the threshold are uploaded in concurrent parts; a threshold of 0 disables this.
+        long multipartUploadThreshold = parseLongParameter(config, PARAM_MULTIPART_UPLOAD_THRESHOLD, S3MultipartUploader.DEFAULT_THRESHOLD);
+        if (multipartUploadThreshold > 0) {
+            s3Connector.setMultipartUploader(new S3MultipartUploader(multipartUploadThreshold,
+                    parseLongParameter(config, PARAM_UPLOAD_PART_SIZE, S3MultipartUploader.DEFAULT_PART_SIZE),
+                    parseIntParameter(config, PARAM_UPLOAD_PARALLELISM, S3MultipartUploader.DEFAULT_PARALLELISM),
+                    parseIntParameter(config, PARAM_TRANSFER_MAX_RETRIES, S3MultipartUploader.DEFAULT_MAX_RETRIES)));
+        }
+
+        long abortStaleUploadsHours = parseLongParameter(config, PARAM_ABORT_STALE_UPLOADS_HOURS, 24);
+        if (abortStaleUploadsHours > 0) {
+            s3Connector.abortStaleMultipartUploads(s3BucketName, s3FolderName, abortStaleUploadsHours);
+        }
+
+        String parseBooleanString = config
+                .getInitParameter(PARAM_READ_ONLY_MODE);
+        if ("true".equalsIgnoreCase(parseBooleanString)) {
+            readOnlyMode = true;
+        }
+
+        String tiffTagParam = config
+                .getInitParameter(PARAM_TIFF_TAG_ANNOTATIONS);
+        if ("true".equalsIgnoreCase(tiffTagParam)) {
+            gSupportTiffTagAnnotations = true;
+        }
+
+        String debugParam = config.getInitParameter(PARAM_CONTENT_HANDLER_DEBUG);
+        if ("true".equalsIgnoreCase(debugParam)) {
+            contentHandlerDebug = true;
+        }
+    }
+
+    public void validateConfiguration() throws VirtualViewerAPIException {
+
+        if(s3BucketName == null && s3BucketName.isEmpty()) {
+            logger.error("s3BucketName name not set in web.xml");
+            throw new VirtualViewerAPIException("s3BucketName name not set in web.xml");
+        }
+
+        if(s3RegionName == null && s3RegionName.isEmpty() ) {
+            logger.error("s3RegionName not set in web.xml");
+            throw new VirtualViewerAPIException("s3RegionName not set in web.xml");
+        }
+
+        if(AwsSecretAccessKey == null && AwsSecretAccessKey.isEmpty()) {
+            logger.error("AwsSecretAccessKey not set in web.xml");
+            throw new VirtualViewerAPIException("AwsSecretAccessKey not set in web.xml");
+        }
+
+        if(AwsAccessKeyId == null && AwsAccessKeyId.isEmpty()) {
+            logger.error("AwsAccessKeyId not set in web.xml");
+            throw new VirtualViewerAPIException("AwsAccessKeyId not set in web.xml");
+        }
+
+        if(s3FolderName != null && !s3FolderName.isEmpty()) {
+            logger.info("Initializing PDJS3ContentHandler with bucket: {}, folder: {} region: {}", s3BucketName, s3FolderName, s3RegionName);
+        } else {
+            logger.info("Initializing PDJS3ContentHandler with bucket: {}, region: {}", s3BucketName, s3RegionName);
+        }
+    }
+    
+    private static int parseIntParameter(ServletConfig config, String name, int defaultValue) throws VirtualViewerAPIException {
+        return (int) parseLongParameter(config, name, defaultValue);
+    }
+
+    private static long parseLongParameter(ServletConfig config, String name, long defaultValue) throws VirtualViewerAPIException {
+        String value = config.getInitParameter(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.error("{} must be a number in web.xml", name);
+            throw new VirtualViewerAPIException(name + " must be a number in web.xml", e);
+        }
+    }
+
+    /**
+     * @throws com.snowbound.contenthandler.VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error
+     * @see com.snowbound.contenthandler.interfaces.AvailableDocumentsInterface#getAvailableDocumentIds(ContentHandlerInput)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public ContentHandlerResult getAvailableDocumentIds(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("getAvailableDocumentIds", () -> doGetAvailableDocumentIds(input));
+    }
+
+    private ContentHandlerResult doGetAvailableDocumentIds(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        List<String> validExtensions = VirtualViewerFormatHash.getInstance().getKnownExtensions();        
+
+        //String clientInstanceId = input.getClientInstanceId();
+
+        // Names are streamed page by page instead of being collected into one array first.
+        Iterator<String> filenames = s3KeyIndex != null
+                ? Arrays.asList(s3KeyIndex.list()).iterator()
+                : s3Connector.iterateS3BucketObjects(s3BucketName, s3FolderName);
+
+        List<String> validFiles = new ArrayList<>();
+        while (filenames.hasNext()) {
+            String filename = filenames.next();
+            if (filenameHasKnownExtension(filename, validExtensions)) {
+                validFiles.add(filename);
+            }
+        }
+        String[] validDocumentIdArray = new String[validFiles.size()];
+        String[] validDisplayNameArray = new String[validFiles.size()];
+        for (int validIndex = 0; validIndex < validDocumentIdArray.length; validIndex++) {
+            validDocumentIdArray[validIndex] = validFiles.get(validIndex);
+        }
+
+        ContentHandlerResult result = new ContentHandlerResult();
+        result.put(ContentHandlerResult.KEY_AVAILABLE_DOCUMENT_IDS, validDocumentIdArray);
+        result.put(ContentHandlerResult.KEY_AVAILABLE_DISPLAY_NAMES, validDisplayNameArray);
+        return result;
+    }
+    
+    /**
+     * @throws com.snowbound.contenthandler.VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error
+     * @see com.snowbound.contenthandler.interfaces.AnnotationsInterface#getAnnotationNames(ContentHandlerInput)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public ContentHandlerResult getAnnotationNames(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("getAnnotationNames", () -> doGetAnnotationNames(input));
+    }
+
+    private ContentHandlerResult doGetAnnotationNames(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        //String clientInstanceId = input.getClientInstanceId();
+        String documentKey = scrapeFileNameFromKey(input.getDocumentId());
+        List<String> vAnnotationIds = new ArrayList<>();
+        String documentFile = documentKey;
+        if (gSupportTiffTagAnnotations) {
+            try {
+                ContentHandlerResult result = getDocumentContent(input);
+                byte[] documentContent = result.getDocumentContent();
+                if (documentContent != null &&
+                    hasTiffTagAnnotations(documentContent)) {
+                    vAnnotationIds.add(VirtualViewerSnowAnn.TIFF_TAG_LAYER);
+                }
+            } catch (VirtualViewerAPIException fsapie) {
+                logger.error("Error retrieving TIFF tag annotations", fsapie);
+            }
+        }
+
+
+        try {
+            List<String> legacyIds = null;
+            if (!sidecarBundles) {
+                // The listing also shows whether a bundle is left over, so finding the bundle needs no extra GET.
+                legacyIds = listLegacyAnnotationIds(documentFile);
+            }
+            SidecarBundle bundle = findSidecarBundle(documentFile);
+            if (bundle != null) {
+                vAnnotationIds.addAll(bundle.getAnnotationIds());
+            } else {
+                vAnnotationIds.addAll(legacyIds != null ? legacyIds : listLegacyAnnotationIds(documentFile));
+            }
+        } catch (IOException | AmazonS3Exception e) {
+            logger.error("Error listing annotation layers of {}: {}", StringEscapeUtils.escapeJava(documentFile), e.getMessage());
+        }
+
+        String[] arrayAnnotationIds = new String[vAnnotationIds.size()];
+        for (int i = 0; i < arrayAnnotationIds.length; i++) {
+            arrayAnnotationIds[i] = (String) vAnnotationIds.get(i);
+        }
+
+        ContentHandlerResult result = new ContentHandlerResult();
+        result.put(ContentHandlerResult.KEY_ANNOTATION_NAMES, arrayAnnotationIds);
+        return result;
+    }
+
+    /**
+     * Lists the annotation layers a document has as separate .ann objects, and records whether the listing showed a
+     * sidecar bundle.
+     */
+    private List<String> listLegacyAnnotationIds(String documentFile) throws AmazonS3Exception {
+        Iterator<String> fileList;
+        if (s3KeyIndex != null) {
+            // Only the document's own keys are needed, so a prefix query is enough.
+            fileList = s3KeyIndex.listWithPrefix(documentFile).iterator();
+        } else {
+            // Every name is needed, so the listing is collected at once and shared with concurrent viewers.
+            fileList = Arrays.asList(s3Connector.listS3BucketObjects(s3BucketName, s3FolderName, documentFile)).iterator();
+        }
+
+        String bundleName = documentFile + SidecarBundle.FILE_SUFFIX;
+        boolean bundleListed = false;
+        List<String> annotationIds = new ArrayList<>();
+        while (fileList.hasNext()) {
+            String fileName = fileList.next();
+            if (fileName.equals(bundleName)) {
+                bundleListed = true;
+            } else if (!fileName.equals(documentFile) &&
+                fileName.indexOf(documentFile) == 0 &&
+                fileName.endsWith(".ann")) {
+                int nameBegin = documentFile.length() + 1;
+                int nameEnd = fileName.lastIndexOf(".ann");
+
+                String annotationId = fileName.substring(nameBegin, nameEnd);
+                annotationIds.add(annotationId);
+            }
+        }
+        if (writeBehindQueue != null) {
+            // Layers saved or deleted here but not yet sent to S3.
+            for (Map.Entry<String, S3WriteBehindQueue.PendingWrite> pending : writeBehindQueue.pendingWithPrefix(documentFile + ".").entrySet()) {
+                String fileName = pending.getKey();
+                if (fileName.equals(bundleName)) {
+                    bundleListed = !pending.getValue().isDelete();
+                } else if (fileName.endsWith(".ann")) {
+                    String annotationId = fileName.substring(documentFile.length() + 1, fileName.lastIndexOf(".ann"));
+                    annotationIds.remove(annotationId);
+                    if (!pending.getValue().isDelete()) {
+                        annotationIds.add(annotationId);
+                    }
+                }
+            }
+        }
+        sidecarBundlePresence.put(documentFile, bundleListed);
+        return annotationIds;
+    }
+
+    private boolean hasTiffTagAnnotations(byte[] documentContent) {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(documentContent));
+        RasterMaster snow = new RasterMaster();
+        int filetype = snow.IMGLOW_get_filetype(dis);
+        Format format = VirtualViewerFormatHash.getInstance().getFormat(filetype);
+        if (!format.isTiff()) {
+            return false;
+        }
+        int pageCount = 0;
+        try { 
+            snow.IMGLOW_get_pages(dis);
+        } catch (InterruptedException e) {
+            // If custom code catches a thread interruption, it is best practice to 
+            // rethrow the InterruptedException or to re-set the interrupt flag on the thread.
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        for (int pageIndex = 0; pageIndex < pageCount; pageIndex++) {
+            int[] value = new int[1];
+            byte[] buff = new byte[40000];
+            int WANG_ANNOTATION_TAG_ID = 32932;
+            int stat = snow.IMGLOW_get_tiff_tag(WANG_ANNOTATION_TAG_ID,
+                    buff.length,
+                    value,
+                    dis,
+                    buff,
+                    pageIndex);
+            if (stat > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Map<String, String> getExistingAnnotationsHash(String documentId,
+            String clientInstanceId)
+            throws VirtualViewerAPIException {
+        ContentHandlerInput input = new ContentHandlerInput(documentId, clientInstanceId);
+        ContentHandlerResult annResult = this.getAnnotationNames(input);
+        String[] annNames = annResult.getAnnotationNames();
+        Map<String, String> existingAnnHash = new HashMap<>();
+        if (annNames != null) {
+            for (String existingAnnotationId : annNames) {
+                if (existingAnnotationId.contains("-page")) {
+                    existingAnnotationId = existingAnnotationId.substring(0, existingAnnotationId.indexOf("-page"));
+                }
+                existingAnnHash.put(existingAnnotationId, existingAnnotationId);
+            }
+        }
+        return existingAnnHash;
+    }
+
+    /**
+     * @throws VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error
+     * @see com.snowbound.contenthandler.interfaces.AnnotationsInterface#saveAnnotationContent(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult saveAnnotationContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("saveAnnotationContent", () -> doSaveAnnotationContent(input));
+    }
+
+    private ContentHandlerResult doSaveAnnotationContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        if (readOnlyMode) {
+            throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
+        }
+
+        HttpServletRequest request = input.getHttpServletRequest();
+        String clientInstanceId = input.getClientInstanceId();
+        String documentKey = scrapeFileNameFromKey(input.getDocumentId());
+        String annotationKey = input.getAnnotationId();
+        int pageSpecificIndex = -1;
+        byte[] data = input.getAnnotationContent();
+        Map annProperties = input.getAnnotationProperties();
+        return saveAnnotationContent(request,
+                clientInstanceId,
+                documentKey,
+                annotationKey,
+                pageSpecificIndex,
+                data,
+                annProperties);
+    }
+
+    public ContentHandlerResult saveAnnotationContent(HttpServletRequest request,
+            String clientInstanceId,
+            String documentKey,
+            String annotationKey,
+            int pageSpecificIndex,
+            byte[] data,
+            Map annProperties)
+            throws VirtualViewerAPIException {
+        if (readOnlyMode) {
+            throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
+        }
+
+        if (data == null) {
+            return null;
+        }
+        String pageIndexPortion = "";
+        /* By default we don't use pageIndex in the filename */
+        if (pageSpecificIndex != -1) {
+            pageIndexPortion = "-page" + pageSpecificIndex;
+        }
+
+    
+        String baseFilePath = documentKey + "." + annotationKey +
+                 pageIndexPortion;
+        String fullFilePath = baseFilePath + ".ann";
+
+        if (annProperties != null) {
+            //Content handler can retrieve permission level to implement different save behavior
+            Boolean redactionFlag = (Boolean) annProperties
+                    .get(AnnotationLayer.PROPERTIES_KEY_REDACTION_FLAG);
+            Integer permissionLevel = (Integer) annProperties
+                    .get(AnnotationLayer.PROPERTIES_KEY_PERMISSION_LEVEL);
+        }
+        // Make sure any existing ann files are deleted
+     
+        
+        logger.trace("saveAnnotationContent: saving {}", StringEscapeUtils.escapeJava(annotationKey));
+
+        if (!sidecarBundles) {
+            unpackSidecarBundle(documentKey);
+        }
+        try {
+            if (sidecarBundles) {
+                String annotationId = annotationKey + pageIndexPortion;
+                updateSidecarBundle(documentKey, bundle -> bundle.put(SidecarBundle.annotationEntry(annotationId), data));
+            } else {
+                putSidecarObject(fullFilePath, data);
+            }
+        } catch (IOException | AmazonS3Exception e) {
+            e.printStackTrace();
+        }
+
+        return new ContentHandlerResult();
+    }
+
+    /**
+     * @throws com.snowbound.contenthandler.VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error
+     * @see com.snowbound.contenthandler.interfaces.VirtualViewerContentHandlerInterface#saveDocumentComponents(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult saveDocumentComponents(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("saveDocumentComponents", () -> doSaveDocumentComponents(input));
+    }
+
+    private ContentHandlerResult doSaveDocumentComponents(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        if (readOnlyMode) {
+            throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
+        }
+
+        HttpServletRequest request = input.getHttpServletRequest();
+        String clientInstanceId = input.getClientInstanceId();
+        String documentId = scrapeFileNameFromKey(input.getDocumentId());
+        byte[] data = input.getDocumentContent();
+        File file = input.getDocumentFile();
+        AnnotationLayer[] annotations = input.getAnnotationLayers();
+        byte[] bookmarkBytes = input.getBookmarkContent();
+        byte[] noteBytes = input.getNotesContent();
+        byte[] watermarkBytes = input.getWatermarkContent();
+        /* The following line shows how to get the page count if needed. */
+        // int pageCount = input.getDocumentPageCount();
+        logger.trace("saveDocumentContents");
+
+        if (documentId.startsWith(PREFIX_SPARSE_DOCUMENT)) {
+            throw new VirtualViewerAPIException(
+                    "Saving documents with the testing prefix \"" + PREFIX_SPARSE_DOCUMENT +
+                    "\" is not supported by the sample content handler.");
+        } else if (documentId.startsWith(PREFIX_COMPOUND_DOCUMENT)) {
+            throw new VirtualViewerAPIException(
+                    "Saving documents with the testing prefix \"" + PREFIX_COMPOUND_DOCUMENT +
+                    "\" is not supported by the sample content handler.");
+        }
+
+        if (data != null) {
+            saveDocumentContent(request, clientInstanceId, documentId, data);
+        } else if (file != null) {
+            saveDocumentContent(request, clientInstanceId, documentId, file);
+        }
+
+        if (sidecarBundles) {
+            // Every changed sidecar goes into the document's bundle with a single write.
+            saveSidecarBundleComponents(documentId, annotations, input.getDeletedAnnotationLayers(),
+                    noteBytes, bookmarkBytes, watermarkBytes);
+
+            ContentHandlerResult result = new ContentHandlerResult();
+            result.put(ContentHandlerResult.DOCUMENT_ID_TO_RELOAD, documentId);
+            return result;
+        }
+
+        if (annotations != null) {
+            for (AnnotationLayer annLayer : annotations) {
+                /*
+                * Remove the annLayer from the existingHash to indicate that it
+                * should still exist and not be deleted.
+                */
+                if (annLayer.isNew() || annLayer.isModified()) {
+                    saveAnnotationContent(request,
+                            clientInstanceId,
+                            documentId,
+                            annLayer.getLayerName(),
+                            annLayer.getPageSpecificIndex(),
+                            annLayer.getData(),
+                            annLayer.getProperties());
+                } else {
+                    logger.trace("Skipping unmodified Layer: {}", StringEscapeUtils.escapeJava(annLayer.getLayerName()));
+                }
+            }
+            /* Any annotation that is still in the existing hash should be deleted */
+            deleteUnsavedExistingLayers(documentId, input.getDeletedAnnotationLayers());
+        }
+
+        if(noteBytes != null) {
+            saveNotesContent(clientInstanceId, documentId, noteBytes);
+        }
+
+        if(bookmarkBytes != null) {
+            saveBookmarkContent(clientInstanceId, documentId, bookmarkBytes);
+        }
+
+        if(watermarkBytes != null) {            
+            saveWatermarkContent(clientInstanceId, documentId, watermarkBytes);
+        }
+
+        ContentHandlerResult result = new ContentHandlerResult();
+        result.put(ContentHandlerResult.DOCUMENT_ID_TO_RELOAD, documentId);
+        return result;
+    }
+
+    /**
+     * Applies every sidecar change of a saveDocumentComponents call to the document's sidecar bundle at once.
+     */
+    private void saveSidecarBundleComponents(String documentId, AnnotationLayer[] annotations, String[] deletedLayers,
+            byte[] noteBytes, byte[] bookmarkBytes, byte[] watermarkBytes) {
+        try {
+            updateSidecarBundle(documentId, bundle -> {
+                if (annotations != null) {
+                    for (AnnotationLayer annLayer : annotations) {
+                        if ((annLayer.isNew() || annLayer.isModified()) && annLayer.getData() != null) {
+                            String pageIndexPortion = annLayer.getPageSpecificIndex() != -1
+                                    ? "-page" + annLayer.getPageSpecificIndex()
+                                    : "";
+                            bundle.put(SidecarBundle.annotationEntry(annLayer.getLayerName() + pageIndexPortion),
+                                    annLayer.getData());
+                        } else {
+                            logger.trace("Skipping unmodified Layer: {}", StringEscapeUtils.escapeJava(annLayer.getLayerName()));
+                        }
+                    }
+                    if (deletedLayers != null) {
+                        for (String deleteLayerId : deletedLayers) {
+                            if (deleteLayerId != null && !deleteLayerId.isEmpty()) {
+                                logger.trace("About to delete layer: {}", StringEscapeUtils.escapeJava(deleteLayerId));
+                                bundle.put(SidecarBundle.annotationEntry(deleteLayerId), null);
+                            }
+                        }
+                    }
+                }
+                if (noteBytes != null) {
+                    bundle.put(SidecarBundle.NOTES, noteBytes);
+                }
+                if (bookmarkBytes != null) {
+                    bundle.put(SidecarBundle.BOOKMARKS, bookmarkBytes);
+                }
+                if (watermarkBytes != null) {
+                    bundle.put(SidecarBundle.WATERMARKS, watermarkBytes);
+                }
+            });
+        } catch (IOException | AmazonS3Exception e) {
+            logger.error("Error saving sidecar bundle of {}: {}", StringEscapeUtils.escapeJava(documentId), e.getMessage());
+        }
+    }
+
+    /**
+     * This is a helper function that demonstrates how to determine which pages have annotation objects on them. This
+     * method should only be called in the case where your business logic requires having this information as it is not
+     * required in the normal flow of simply saving annotations.
+     *
+     * @param layerBytes the data passed from the client representing the an annotation layer.
+     * @param pageCount the number of pages in the document being saved.
+     */
+    private void logAnnPages(String layerId, byte[] layerBytes, int pageCount) {
+        logger.trace("Logging page by page annotion info for layer {}", layerId);
+        for (int pageIndex = 0; pageIndex < pageCount; pageIndex++) {
+            SnowAnn pageAnn = readPageLayerAnn(layerBytes, pageIndex);
+            if (pageAnn != null) {
+                logger.trace("There is at least one object on pageIndex=={}", pageIndex);
+            } else {
+                logger.trace("No objects on pageIndex=={}", pageIndex);
+            }
+        }
+    }
+
+    /**
+     * @param layerbytes the data passed from the client representing the an annotation layer.
+     * @param pageIndex the index of the page to read the annotation layer from.
+     * @return a SnowAnn object representing the annotation layer.
+     */
+    protected static SnowAnn readPageLayerAnn(byte[] layerbytes, int pageIndex) {
+        SnowAnn pageLayerAnn = new VirtualViewerSnowAnn();
+        pageLayerAnn.SANN_read_ann(new DataInputStream(new ByteArrayInputStream(layerbytes)), pageIndex);
+        pageLayerAnn.EnableProperties = true;
+        pageLayerAnn.EnableEditText = true;
+        if (pageLayerAnn.ann_fcs != null) {
+            return pageLayerAnn;
+        }
+        return null;
+    }
+
+    private void deleteUnsavedExistingLayers(String documentId, String[] deletedLayers)
+            throws VirtualViewerAPIException {
+        if (deletedLayers == null || deletedLayers.length == 0) {
+            return;
+        }
+        
+        unpackSidecarBundle(documentId);
+
+        // All layers removed in this save are deleted together in multi-object delete requests.
+        List<String> layerFiles = new ArrayList<>();
+        for (String deleteLayerId : deletedLayers) {
+            if (deleteLayerId == null || deleteLayerId.isEmpty()) {
+                continue;
+            }
+            logger.trace("About to delete layer: {}", StringEscapeUtils.escapeJava(deleteLayerId));
+            layerFiles.add(documentId + "." + deleteLayerId + ".ann");
+        }
+        if (layerFiles.isEmpty()) {
+            return;
+        }
+
+        try {
+            S3DeleteResult deleteResult = deleteSidecarObjects(layerFiles);
+            for (String deleted : deleteResult.getDeleted()) {
+                logger.trace("Deleted layer file: {}", StringEscapeUtils.escapeJava(deleted));
+            }
+            for (Map.Entry<String, String> failed : deleteResult.getFailed().entrySet()) {
+                logger.error("Layer file {} could not be deleted: {}", StringEscapeUtils.escapeJava(failed.getKey()), failed.getValue());
+            }
+        } catch (AmazonS3Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @throws com.snowbound.contenthandler.VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error
+     * @see com.snowbound.contenthandler.interfaces.VirtualViewerContentHandlerInterface#saveDocumentComponentsAs(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult saveDocumentComponentsAs(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("saveDocumentComponentsAs", () -> doSaveDocumentComponentsAs(input));
+    }
+
+    private ContentHandlerResult doSaveDocumentComponentsAs(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        if (readOnlyMode) {
+            throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
+        }
+
+        return saveDocumentComponents(input);
+    }
+
+    /* The example content handler uses filenames rather than GUIDs or another unique reference to a document,
+     * so there's a chance that two emails might have an attachment named "attachment 1.pdf", for example. This
+     * utility builds a more unique filename for the created email attachment. Note that the suggested document
+     * ID of an email attachment is simply the name of the email attachment.
+     */
+    private String getEmailAttachmentDocumentId(ContentHandlerInput input, String attachmentName) {
+        return "Attachment - " + input.getParentDocumentId() + "-" + attachmentName;
+    }
+
+    /**
+     * @see com.snowbound.contenthandler.interfaces.VirtualViewerContentHandlerInterface#saveDocumentContent(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult saveDocumentContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("saveDocumentContent", () -> doSaveDocumentContent(input));
+    }
+
+    private ContentHandlerResult doSaveDocumentContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        if (readOnlyMode) {
+            throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
+        }
+
+        HttpServletRequest request = input.getHttpServletRequest();
+        String clientInstanceId = input.getClientInstanceId();
+        String documentKey = scrapeFileNameFromKey(input.getDocumentId());
+        if (input.getIsEmailAttachment()) {
+            documentKey = getEmailAttachmentDocumentId(input, documentKey);
+        }
+        byte[] data = input.getDocumentContent();
+        return saveDocumentContent(request, clientInstanceId, documentKey, data);
+    }
+
+    private ContentHandlerResult saveDocumentContent(HttpServletRequest request,
+            String clientInstanceId,
+            String documentId,
+            byte[] data)
+            throws VirtualViewerAPIException {
+        if (readOnlyMode) {
+            throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
+        }
+
+        if (data == null) {
+            return null;
+        }
+
+        if (contentAddressedStorage) {
+            contentStore.save(documentId, data);
+        } else {
+            s3Connector.saveBytesToS3(documentId, data, s3BucketName, s3FolderName);
+            contentStore.invalidate(documentId);
+        }
+        cacheValidator.invalidate(documentId);
+
+        ContentHandlerResult result = new ContentHandlerResult();
+        result.put(ContentHandlerResult.DOCUMENT_ID_TO_RELOAD, documentId);
+        return result;
+    }
+
+    private ContentHandlerResult saveDocumentContent(HttpServletRequest request,
+            String clientInstanceId,
+            String documentId,
+            File inputfile)
+            throws VirtualViewerAPIException {
+        if (readOnlyMode) {
+            throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
+        }
+
+        ContentHandlerResult result = new ContentHandlerResult();
+        if (inputfile == null) {
+            return null;
+        }
+
+        // The incoming file is uploaded as it is; no temp copy is needed.
+        if (contentAddressedStorage) {
+            try {
+                contentStore.save(documentId, inputfile);
+            } catch (IOException e) {
+                logger.error("Error saving updated file: {}", e.getMessage());
+                throw new VirtualViewerAPIException("Error saving updated file", e);
+            }
+        } else {
+            s3Connector.saveFileToS3(documentId, inputfile, s3BucketName, s3FolderName);
+            contentStore.invalidate(documentId);
+        }
+        cacheValidator.invalidate(documentId);
+
+        result.put(ContentHandlerResult.DOCUMENT_ID_TO_RELOAD, documentId);
+        return result;
+    }
+
+    /**
+     * @see com.snowbound.contenthandler.interfaces.AnnotationsInterface#getAnnotationContent(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult getAnnotationContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("getAnnotationContent", () -> doGetAnnotationContent(input));
+    }
+
+    private ContentHandlerResult doGetAnnotationContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        // Note,  we should never be called with getAnnotationContent for the tiff tag layer.
+        // the Content server will handle this without dependency on the content handler.
+        return getAnnotationContentFromFile(input);
+    }
+
+    public ContentHandlerResult getAnnotationContentFromFile(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        //String clientInstanceId = input.getClientInstanceId();
+        String documentKey = scrapeFileNameFromKey(input.getDocumentId());
+        String annotationKey = input.getAnnotationId();
+        logger.trace("getAnnotationContent()");
+        String fullFilePath = documentKey + "." + annotationKey + ".ann";
+
+
+        logger.trace("Retrieving annotation file: {}", StringEscapeUtils.escapeJava(fullFilePath));
+        Map props = null;
+        ContentHandlerResult propsResult = getAnnotationProperties(input);
+        
+        if (propsResult != null) {
+            props = propsResult.getAnnotationProperties();
+            
+            //Content handler can retrieve permission level and redaction flag
+            Boolean redactionFlag = (Boolean) props.get(AnnotationLayer.PROPERTIES_KEY_REDACTION_FLAG);
+            Integer permissionLevel = (Integer) props.get(AnnotationLayer.PROPERTIES_KEY_PERMISSION_LEVEL);            
+        }
+        
+        try {
+            byte[] bytes = readSidecar(documentKey, SidecarBundle.annotationEntry(annotationKey), fullFilePath);
+            ContentHandlerResult result = new ContentHandlerResult();
+            result.put(ContentHandlerResult.KEY_ANNOTATION_CONTENT, bytes);
+            result.put(ContentHandlerResult.KEY_ANNOTATION_DISPLAY_NAME, input.getAnnotationId());
+            result.put(ContentHandlerResult.KEY_ANNOTATION_PROPERTIES, props);
+            return result;
+        } catch (IOException | AmazonS3Exception e) {
+            logger.error("Failed to retrieve annotation content for the layer {}", StringEscapeUtils.escapeJava(fullFilePath), e);
+            return null;
+        }
+    }
+
+    /**
+     * 
+     * @throws VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error 
+     * @see com.snowbound.contenthandler.interfaces.CreateDocumentInterface#createDocument(com.snowbound.contenthandler.ContentHandlerInput) 
+     */
+    @Override
+    public ContentHandlerResult createDocument(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("createDocument", () -> doCreateDocument(input));
+    }
+
+    private ContentHandlerResult doCreateDocument(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        String documentId = scrapeFileNameFromKey(input.getDocumentId());
+
+        if (input.getIsEmailAttachment()) {
+            documentId = getEmailAttachmentDocumentId(input, documentId);
+        }
+
+
+        if (s3Connector.doesS3FileExist(s3BucketName, s3FolderName, documentId)) {
+            if (input.getIsEmailAttachment()) {
+                // In this case, if a user is attempting to open an email attachment that has been opened before, we can simply
+                // recognize that and return the appropriate document ID without error.
+                ContentHandlerResult result = new ContentHandlerResult();
+                result.put(ContentHandlerResult.DOCUMENT_ID_TO_RELOAD, documentId);
+                return result;
+            }
+            throw new VirtualViewerAPIException("A document by this name already exists. Please change the name and try again.");
+        }
+
+        return saveDocumentContent(input);
+    }
+
+
+    /**
+     * @see com.snowbound.contenthandler.interfaces.AnnotationsInterface#getAnnotationProperties(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult getAnnotationProperties(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("getAnnotationProperties", () -> doGetAnnotationProperties(input));
+    }
+
+    private ContentHandlerResult doGetAnnotationProperties(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        HttpServletRequest request = input.getHttpServletRequest();
+        String clientInstanceId = input.getClientInstanceId();
+        int permissionLevel = PermissionLevel.DELETE;
+
+        // clientInstanceId can be set to override annotation permission levels.
+        if(clientInstanceId != null && !clientInstanceId.isEmpty()) {
+            try {
+                JSONObject debugSettings = new JSONObject(clientInstanceId);
+                permissionLevel = debugSettings.getInt("annotationPermissionLevel");
+            }
+            catch(JSONException e) {
+                // malformed or not JSON
+            }
+        }
+
+        String documentKey = (input.getDocumentId());
+        String annotationKey = input.getAnnotationId();
+        logger.trace("getAnnotationProperties()");
+        Hashtable properties = new Hashtable();
+        String baseAnnFilename = documentKey + "." + annotationKey;
+        String annFilename = baseAnnFilename + ".ann";
+
+
+
+        if (annotationLayerExists(documentKey, annotationKey, annFilename)) {
+            properties.put(AnnotationLayer.PROPERTIES_KEY_PERMISSION_LEVEL, permissionLevel);
+            properties.put(AnnotationLayer.PROPERTIES_KEY_REDACTION_FLAG, false);
+        }
+
+        ContentHandlerResult result = new ContentHandlerResult();
+        result.put(ContentHandlerResult.KEY_ANNOTATION_PROPERTIES, properties);
+        return result;
+    }
+
+    private boolean annotationLayerExists(String documentKey, String annotationKey, String annFilename) {
+        try {
+            SidecarBundle bundle = findSidecarBundle(scrapeFileNameFromKey(documentKey));
+            if (bundle != null) {
+                return bundle.get(SidecarBundle.annotationEntry(annotationKey)) != null;
+            }
+        } catch (IOException | AmazonS3Exception | VirtualViewerAPIException e) {
+            logger.error("Error reading sidecar bundle of {}: {}", StringEscapeUtils.escapeJava(documentKey), e.getMessage());
+            return false;
+        }
+        if (writeBehindQueue != null) {
+            S3WriteBehindQueue.PendingWrite pending = writeBehindQueue.lookup(annFilename);
+            if (pending != null) {
+                return !pending.isDelete();
+            }
+        }
+        return s3Connector.doesS3FileExist(s3BucketName, s3FolderName, annFilename);
+    }
+
+    /**
+     * @see com.snowbound.contenthandler.interfaces.BookmarksInterface#getBookmarkContent(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult getBookmarkContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("getBookmarkContent", () -> doGetBookmarkContent(input));
+    }
+
+    private ContentHandlerResult doGetBookmarkContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        String clientInstanceId = input.getClientInstanceId();
+        String documentKey = scrapeFileNameFromKey(input.getDocumentId());
+        logger.trace("GetBookmarkContent: clientInstanceId {}", StringEscapeUtils.escapeJava(clientInstanceId));
+        String bookmarkFilename = documentKey + ".bookmarks.xml";
+        String fullFilePath =  bookmarkFilename;
+
+        byte[] bytes = null;
+
+        try {
+            logger.trace("Retrieving bookmark file: {}", StringEscapeUtils.escapeJava(fullFilePath));
+            bytes = readSidecar(documentKey, SidecarBundle.BOOKMARKS, fullFilePath);
+            ContentHandlerResult result = new ContentHandlerResult();
+            result.put(ContentHandlerResult.KEY_BOOKMARK_CONTENT, bytes);
+            return result;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } catch (AmazonS3Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    } 
+    
+    /**
+     * @throws VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error 
+     * @see com.snowbound.contenthandler.interfaces.BookmarksInterface#deleteBookmarkContent(com.snowbound.contenthandler.ContentHandlerInput) 
+     */
+    @Override
+    public ContentHandlerResult deleteBookmarkContent(ContentHandlerInput input) 
+            throws VirtualViewerAPIException {
+        return timed("deleteBookmarkContent", () -> doDeleteBookmarkContent(input));
+    }
+
+    private ContentHandlerResult doDeleteBookmarkContent(ContentHandlerInput input) 
+            throws VirtualViewerAPIException {
+        String clientInstanceId = input.getClientInstanceId();
+        String documentId = scrapeFileNameFromKey(input.getDocumentId());
+
+        return saveBookmarkContent(clientInstanceId, documentId, null);
+    }
+
+    private ContentHandlerResult saveBookmarkContent(String clientInstanceId, String documentId, byte[] data)
+            throws VirtualViewerAPIException {
+        logger.trace("saveBookmarkContent...{} clientInstanceId: {}", StringEscapeUtils.escapeJava(documentId), StringEscapeUtils.escapeJava(clientInstanceId));
+        String fullFilePath =  documentId + ".bookmarks.xml";
+
+        if (sidecarBundles) {
+            saveSidecar(documentId, SidecarBundle.BOOKMARKS, data);
+            return ContentHandlerResult.VOID;
+        }
+        unpackSidecarBundle(documentId);
+
+        if (data == null) {
+            deleteSidecarObject(fullFilePath);
+            return ContentHandlerResult.VOID;
+        }
+        try {
+            putSidecarObject(fullFilePath, data);
+        } catch (Exception ex) {
+            logger.error("Error while saving bookmark content to file: {}", ex.getMessage());
+        }
+        return ContentHandlerResult.VOID;
+    }
+
+    /**
+     * @throws com.snowbound.contenthandler.VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error
+     * @see com.snowbound.contenthandler.interfaces.WatermarksInterface#getWatermarkContent(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult getWatermarkContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("getWatermarkContent", () -> doGetWatermarkContent(input));
+    }
+
+    private ContentHandlerResult doGetWatermarkContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        String clientInstanceId = input.getClientInstanceId();
+        String documentKey = scrapeFileNameFromKey(input.getDocumentId());
+        logger.trace("getWatermarkContent: clientInstanceId {}", StringEscapeUtils.escapeJava(clientInstanceId));
+        String fullFilePath = documentKey + ".watermarks.json";
+
+        byte[] content = null;
+
+        try {
+            content = readSidecar(documentKey, SidecarBundle.WATERMARKS, fullFilePath);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } catch (AmazonS3Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        logger.trace("Retrieving watermark file: {}", StringEscapeUtils.escapeJava(fullFilePath));
+        ContentHandlerResult result = new ContentHandlerResult();
+        result.put(ContentHandlerResult.KEY_WATERMARK_CONTENT, content);
+        return result;
+    }  
+    
+    /**
+     * @throws VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error 
+     * @see com.snowbound.contenthandler.interfaces.WatermarksInterface#deleteWatermarkContent(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult deleteWatermarkContent(ContentHandlerInput input) 
+        throws VirtualViewerAPIException {
+        return timed("deleteWatermarkContent", () -> doDeleteWatermarkContent(input));
+    }
+
+    private ContentHandlerResult doDeleteWatermarkContent(ContentHandlerInput input) 
+        throws VirtualViewerAPIException {
+        String clientInstanceId = input.getClientInstanceId();
+        String documentId = scrapeFileNameFromKey(input.getDocumentId());
+        return saveWatermarkContent(clientInstanceId, documentId, null);
+    }
+
+    /**
+     * @param request
+     * @param clientInstanceId
+     * @param documentKey
+     * @param data
+     * @return
+     */
+    private ContentHandlerResult saveWatermarkContent(String clientInstanceId, String documentId, byte[] data)
+            throws VirtualViewerAPIException {
+        logger.trace("saveWatermarkContent...{} clientInstanceId: {}", StringEscapeUtils.escapeJava(documentId), StringEscapeUtils.escapeJava(clientInstanceId));
+        String fullFilePath =  documentId + ".watermarks.json";
+
+        if (sidecarBundles) {
+            saveSidecar(documentId, SidecarBundle.WATERMARKS, data);
+            return ContentHandlerResult.VOID;
+        }
+        unpackSidecarBundle(documentId);
+
+        if (data == null) {
+            deleteSidecarObject(fullFilePath);
+            return ContentHandlerResult.VOID;
+        }
+        try {
+            putSidecarObject(fullFilePath, data);
+        } catch (Exception ex) {
+            logger.error("Error while saving bookmark content to file: {}", ex.getMessage());
+        }
+
+        return ContentHandlerResult.VOID;
+    }
+
+    /**
+     * @throws com.snowbound.contenthandler.VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error
+     * @see com.snowbound.contenthandler.interfaces.DocumentNotesInterface#getNotesContent(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult getNotesContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("getNotesContent", () -> doGetNotesContent(input));
+    }
+
+    private ContentHandlerResult doGetNotesContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        String clientInstanceId = input.getClientInstanceId();
+        String documentKey = scrapeFileNameFromKey(input.getDocumentId());
+        logger.trace("getNotesContent: clientInstanceId {}", StringEscapeUtils.escapeJava(clientInstanceId));
+        String fullFilePath = documentKey + ".notes.xml";
+
+        byte[] bytes = null;
+
+        try {
+            bytes = readSidecar(documentKey, SidecarBundle.NOTES, fullFilePath);
+            ContentHandlerResult result = new ContentHandlerResult();
+            result.put(ContentHandlerResult.KEY_NOTES_CONTENT, bytes);
+            return result;
+        } catch (AmazonS3Exception e) {
+            e.printStackTrace();
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+    /**
+     * @throws VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error
+     * @see com.snowbound.contenthandler.interfaces.DocumentNotesInterface#deleteNotesContent(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult deleteNotesContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("deleteNotesContent", () -> doDeleteNotesContent(input));
+    }
+
+    private ContentHandlerResult doDeleteNotesContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        String clientInstanceId = input.getClientInstanceId();
+        String documentId = scrapeFileNameFromKey(input.getDocumentId());
+
+        return saveNotesContent(clientInstanceId, documentId, null);
+    }
+
+    /**
+     * @param request - the HttpServletRequest
+     * @param clientInstanceId - the client instance id
+     * @param documentKey - the document key
+     * @param data - the data to save
+     * @return - ContentHandlerResult
+     */
+    private ContentHandlerResult saveNotesContent(String clientInstanceId, String documentId, byte[] data)
+            throws VirtualViewerAPIException {
+        logger.trace("saveNotesContent...{} clientInstanceId: {}", StringEscapeUtils.escapeJava(documentId), StringEscapeUtils.escapeJava(clientInstanceId));
+        
+        String fullFilePath = documentId + ".notes.xml";
+
+        if (sidecarBundles) {
+            saveSidecar(documentId, SidecarBundle.NOTES, data);
+            return data == null ? ContentHandlerResult.VOID : new ContentHandlerResult();
+        }
+        unpackSidecarBundle(documentId);
+
+        if (data == null) {
+            deleteSidecarObject(fullFilePath);
+            return ContentHandlerResult.VOID;
+        }
+
+        try {
+            putSidecarObject(fullFilePath, data);
+        } catch (Exception e) {
+            logger.error("Error while saving note content to file:", e);
+        }
+        return new ContentHandlerResult();
+    }
+
+    /**
+     * Reads one sidecar of a document. When the document has a sidecar bundle the sidecar comes from the bundle,
+     * otherwise from its own object.
+     *
+     * @return the sidecar content, or null if the document has no such sidecar
+     */
+    private byte[] readSidecar(String documentId, String entryName, String legacyFileName) throws IOException, AmazonS3Exception {
+        SidecarBundle bundle = findSidecarBundle(documentId);
+        if (bundle == null) {
+            S3WriteBehindQueue.PendingWrite pending = writeBehindQueue != null ? writeBehindQueue.lookup(legacyFileName) : null;
+            if (pending != null) {
+                return pending.getData();
+            }
+            return s3Connector.getFileS3Bytes(legacyFileName, s3BucketName, s3FolderName);
+        }
+        return bundle.get(entryName);
+    }
+
+    private void saveSidecar(String documentId, String entryName, byte[] data) {
+        try {
+            updateSidecarBundle(documentId, bundle -> bundle.put(entryName, data));
+        } catch (IOException | AmazonS3Exception e) {
+            logger.error("Error saving {} of {} to its sidecar bundle: {}", entryName, StringEscapeUtils.escapeJava(documentId), e.getMessage());
+        }
+    }
+
+    /**
+     * Finds the sidecar bundle of a document. Bundles are found whether or not sidecarBundles is enabled, so
+     * documents bundled while it was enabled keep their sidecars. With it disabled the bundle is only read when the
+     * document may have one, so documents without a bundle cost no GET.
+     *
+     * @return the bundle, or null if the document has none
+     */
+    private SidecarBundle findSidecarBundle(String documentId) throws IOException, AmazonS3Exception {
+        if (!sidecarBundles && !mayHaveSidecarBundle(documentId)) {
+            return null;
+        }
+        return readSidecarBundle(documentId);
+    }
+
+    /**
+     * Tells whether a document may have a sidecar bundle, from the write-behind journal, the key index or the last
+     * listing or read of the document. A document nothing is known about may have one.
+     */
+    private boolean mayHaveSidecarBundle(String documentId) throws AmazonS3Exception {
+        String bundleName = documentId + SidecarBundle.FILE_SUFFIX;
+        if (writeBehindQueue != null) {
+            S3WriteBehindQueue.PendingWrite pending = writeBehindQueue.lookup(bundleName);
+            if (pending != null) {
+                return !pending.isDelete();
+            }
+        }
+        if (s3KeyIndex != null) {
+            return s3KeyIndex.listWithPrefix(bundleName).contains(bundleName);
+        }
+        return !Boolean.FALSE.equals(sidecarBundlePresence.get(documentId));
+    }
+
+    /**
+     * Loads the sidecar bundle of a document. A bundle loaded within the last s3SidecarBundleCacheMillis is reused,
+     * so opening a document reads all of its sidecars with one GET.
+     *
+     * @return the bundle, or null if the document has none
+     */
+    private SidecarBundle readSidecarBundle(String documentId) throws IOException, AmazonS3Exception {
+        long now = System.currentTimeMillis();
+        CachedSidecarBundle cached = sidecarBundleCache.get(documentId);
+        if (cached != null && now - cached.loadedAt < sidecarBundleCacheMillis) {
+            metrics.counter("sidecarBundleCache.hits").increment();
+            return cached.bundle;
+        }
+        metrics.counter("sidecarBundleCache.misses").increment();
+        byte[] bundleBytes = getSidecarObject(documentId + SidecarBundle.FILE_SUFFIX);
+        SidecarBundle bundle = bundleBytes == null ? null : SidecarBundle.read(bundleBytes);
+        cacheSidecarBundle(documentId, bundle, now);
+        sidecarBundlePresence.put(documentId, bundle != null);
+        return bundle;
+    }
+
+    /**
+     * Applies a change to the sidecar bundle of a document and writes the bundle back with one PUT. A document
+     * without a bundle gets one holding its existing sidecar objects, which are deleted once the bundle is saved.
+     *
+     * Changes to the same document are serialized within this process only. Two processes saving sidecars of the same
+     * document at once both read the same bundle, and the later write drops the change of the earlier one, even when
+     * they changed different layers. Bundles therefore need a single node, or sticky sessions that send every user of
+     * a document to the same node.
+     */
+    private void updateSidecarBundle(String documentId, Consumer<SidecarBundle> change) throws IOException, AmazonS3Exception {
+        String bundleName = documentId + SidecarBundle.FILE_SUFFIX;
+        synchronized (sidecarLocks[(documentId.hashCode() & Integer.MAX_VALUE) % sidecarLocks.length]) {
+            // Always start from S3, never from the cache, so a change is applied to the latest saved bundle.
+            byte[] existing = getSidecarObject(bundleName);
+            SidecarBundle bundle;
+            List<String> legacyNames = new ArrayList<>();
+            if (existing != null) {
+                bundle = SidecarBundle.read(existing);
+            } else {
+                bundle = new SidecarBundle();
+                collectLegacySidecars(documentId, bundle, legacyNames);
+            }
+            change.accept(bundle);
+
+            if (!bundle.isEmpty()) {
+                putSidecarObject(bundleName, bundle.toBytes());
+            } else if (existing != null) {
+                deleteSidecarObject(bundleName);
+            }
+            cacheSidecarBundle(documentId, bundle.isEmpty() ? null : bundle, System.currentTimeMillis());
+            sidecarBundlePresence.put(documentId, !bundle.isEmpty());
+
+            if (!legacyNames.isEmpty()) {
+                S3DeleteResult deleteResult = deleteSidecarObjects(legacyNames);
+                for (Map.Entry<String, String> failed : deleteResult.getFailed().entrySet()) {
+                    logger.error("Sidecar {} moved into its bundle could not be deleted: {}", StringEscapeUtils.escapeJava(failed.getKey()), failed.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the separate sidecar objects of a document into a new bundle. OCR text stays a separate object, because
+     * it is produced outside this handler.
+     */
+    private void collectLegacySidecars(String documentId, SidecarBundle bundle, List<String> legacyNames) throws IOException, AmazonS3Exception {
+        Map<String, String> legacyFiles = legacySidecarNames(documentId, listLegacyAnnotationIds(documentId));
+        for (Map.Entry<String, String> legacyFile : legacyFiles.entrySet()) {
+            byte[] content = getSidecarObject(legacyFile.getValue());
+            if (content != null) {
+                bundle.put(legacyFile.getKey(), content);
+                legacyNames.add(legacyFile.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the sidecars of a document's bundle back as separate objects and deletes the bundle. Saves made while
+     * sidecarBundles is disabled call this first, so a bundle never hides the separate objects saved after it. Does
+     * nothing for a document without a bundle.
+     *
+     * @throws VirtualViewerAPIException if the bundle could not be moved, so the save fails instead of writing an
+     * object the bundle would hide
+     */
+    private void unpackSidecarBundle(String documentId) throws VirtualViewerAPIException {
+        String bundleName = documentId + SidecarBundle.FILE_SUFFIX;
+        try {
+            if (!mayHaveSidecarBundle(documentId)) {
+                return;
+            }
+            synchronized (sidecarLocks[(documentId.hashCode() & Integer.MAX_VALUE) % sidecarLocks.length]) {
+                // Start from S3, never from the cache, as updateSidecarBundle does.
+                byte[] existing = getSidecarObject(bundleName);
+                if (existing != null) {
+                    SidecarBundle bundle = SidecarBundle.read(existing);
+                    Map<String, String> targets = legacySidecarNames(documentId, bundle.getAnnotationIds());
+                    targets.put(SidecarBundle.OCR_TEXT, documentId + ".ocr-text.json");
+                    for (Map.Entry<String, String> target : targets.entrySet()) {
+                        byte[] content = bundle.get(target.getKey());
+                        if (content != null) {
+                            putSidecarObject(target.getValue(), content);
+                        }
+                    }
+                    Map<String, String> failed = deleteSidecarObjects(Collections.singletonList(bundleName)).getFailed();
+                    if (!failed.isEmpty()) {
+                        throw new IOException("the bundle could not be deleted: " + failed.get(bundleName));
+                    }
+                }
+                cacheSidecarBundle(documentId, null, System.currentTimeMillis());
+                sidecarBundlePresence.put(documentId, false);
+            }
+        } catch (IOException | AmazonS3Exception e) {
+            throw new VirtualViewerAPIException("Could not move the sidecar bundle of " + documentId + " back to separate objects: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Maps the bundle entries of a document's annotation layers, notes, bookmarks and watermarks to their separate
+     * sidecar objects.
+     */
+    private static Map<String, String> legacySidecarNames(String documentId, List<String> annotationIds) {
+        Map<String, String> names = new LinkedHashMap<>();
+        for (String annotationId : annotationIds) {
+            names.put(SidecarBundle.annotationEntry(annotationId), documentId + "." + annotationId + ".ann");
+        }
+        names.put(SidecarBundle.NOTES, documentId + ".notes.xml");
+        names.put(SidecarBundle.BOOKMARKS, documentId + ".bookmarks.xml");
+        names.put(SidecarBundle.WATERMARKS, documentId + ".watermarks.json");
+        return names;
+    }
+
+    /**
+     * Reads a sidecar object with a single GET. With write-behind enabled a pending change of the object is returned
+     * instead, so a save is visible before it reaches S3.
+     *
+     * @return the content, or null if the object does not exist or is about to be deleted
+     */
+    private byte[] getSidecarObject(String name) throws IOException, AmazonS3Exception {
+        if (writeBehindQueue != null) {
+            S3WriteBehindQueue.PendingWrite pending = writeBehindQueue.lookup(name);
+            if (pending != null) {
+                return pending.getData();
+            }
+        }
+        S3ObjectData objectData = s3Connector.getS3ObjectDataStrict(name, s3BucketName, s3FolderName);
+        return objectData == null ? null : objectData.getBytes();
+    }
+
+    /**
+     * Saves a sidecar object, through the write-behind journal when it is enabled.
+     */
+    private void putSidecarObject(String name, byte[] data) throws IOException, AmazonS3Exception {
+        if (writeBehindQueue != null) {
+            writeBehindQueue.put(name, data);
+        } else {
+            s3Connector.saveBytesToS3(name, data, s3BucketName, s3FolderName);
+        }
+    }
+
+    /**
+     * Deletes a sidecar object, through the write-behind journal when it is enabled. Errors are logged.
+     */
+    private void deleteSidecarObject(String name) {
+        Map<String, String> failed = deleteSidecarObjects(Collections.singletonList(name)).getFailed();
+        if (!failed.isEmpty()) {
+            logger.error("Sidecar {} could not be deleted: {}", StringEscapeUtils.escapeJava(name), failed.get(name));
+        }
+    }
+
+    /**
+     * Deletes several sidecar objects. Without write-behind they are removed with multi-object delete requests;
+     * with write-behind each deletion is queued and reported as deleted once it is in the journal.
+     */
+    private S3DeleteResult deleteSidecarObjects(List<String> names) throws AmazonS3Exception {
+        if (writeBehindQueue == null) {
+            return s3Connector.deleteFilesFromS3(names, s3BucketName, s3FolderName);
+        }
+        S3DeleteResult result = new S3DeleteResult();
+        for (String name : names) {
+            try {
+                writeBehindQueue.delete(name);
+                result.addDeleted(name);
+            } catch (IOException e) {
+                result.addFailed(name, e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private static void cacheSidecarBundle(String documentId, SidecarBundle bundle, long loadedAt) {
+        if (sidecarBundleCacheMillis <= 0) {
+            return;
+        }
+        if (sidecarBundleCache.size() >= MAX_CACHED_SIDECAR_BUNDLES) {
+            long now = System.currentTimeMillis();
+            sidecarBundleCache.values().removeIf(cached -> now - cached.loadedAt >= sidecarBundleCacheMillis);
+        }
+        // A load that started before a save finished must not replace what the save cached.
+        sidecarBundleCache.merge(documentId, new CachedSidecarBundle(bundle, loadedAt),
+                (current, loaded) -> loaded.loadedAt >= current.loadedAt ? loaded : current);
+    }
+
+    private static final class CachedSidecarBundle {
+        private final SidecarBundle bundle;
+        private final long loadedAt;
+
+        private CachedSidecarBundle(SidecarBundle bundle, long loadedAt) {
+            this.bundle = bundle;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * @see com.snowbound.contenthandler.interfaces.VirtualViewerContentHandlerInterface#getDocumentContent(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult getDocumentContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("getDocumentContent", () -> doGetDocumentContent(input));
+    }
+
+    private ContentHandlerResult doGetDocumentContent(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        //String clientInstanceId = input.getClientInstanceId();
+        String key = scrapeFileNameFromKey(input.getDocumentId());
+
+        ContentHandlerResult result = new ContentHandlerResult();
+
+        // This is an example of how to use VV's "Sparse Document" mechanism.  It is not intended for production use.
+        // The prefix SparseDocument: is used for testing; it is not required in the ID for Sparse Documents.
+        if (key.startsWith(PREFIX_SPARSE_DOCUMENT)) {
+            List<DataInputStream> vectorOfStreams = new ArrayList<>();
+
+            int pageNumber = input.getSparseRequestedPageNumber();
+            int pageCount = input.getSparseRequestedPageCount();
+
+            String dirName = key.split(":")[1];
+
+            logger.trace("getDocumentContent: Retrieving sparse document: {}", StringEscapeUtils.escapeJava(dirName));
+
+            String s3path = "";
+            if(s3FolderName == null || s3FolderName.isEmpty()) {
+                s3path = dirName; 
+            } else {
+                s3path = s3FolderName + "/" + dirName;
+            }
+
+            int startIndex = pageNumber;
+            int endIndex = pageCount == 0 ? Integer.MAX_VALUE : pageNumber + pageCount;
+
+            // Pages are listed lazily, so only the listing pages up to the requested window are fetched.
+            List<String> pageFiles = new ArrayList<>();
+            Iterator<String> filesInDir = s3Connector.iterateS3BucketObjects(s3BucketName, s3path);
+            for (int x = 0; x < endIndex && filesInDir.hasNext(); x++) {
+                String file = filesInDir.next();
+                if (x >= startIndex) {
+                    pageFiles.add(file);
+                }
+            }
+
+            // The window is fetched concurrently and fully read, so no page holds a pooled connection open.
+            List<S3ObjectData> pages = sparsePageFetcher.fetchAll(pageFiles, s3BucketName, s3path);
+            for (int x = 0; x < pages.size(); x++) {
+                S3ObjectData page = pages.get(x);
+                if (page == null) {
+                    logger.error("Document not found: {}", StringEscapeUtils.escapeJava(pageFiles.get(x)));
+                } else {
+                    vectorOfStreams.add(page.getDataInputStream());
+                }
+            }
+
+            result.put(ContentHandlerResult.KEY_DOCUMENT_SPARSE_ELEMENTS, vectorOfStreams);
+            result.put(ContentHandlerResult.KEY_DOCUMENT_SPARSE_PAGE_INDEX, pageNumber);
+            result.put(ContentHandlerResult.KEY_DOCUMENT_SPARSE_RETURN_PAGE_COUNT, vectorOfStreams.size());
+            result.put(ContentHandlerResult.KEY_DOCUMENT_SPARSE_TOTAL_PAGE_COUNT, vectorOfStreams.size());
+
+            result.put(ContentHandlerResult.KEY_DOCUMENT_DISPLAY_NAME, dirName);
+
+            if (contentHandlerDebug) {
+                String reversed = new StringBuilder(key).reverse().toString().toUpperCase();
+
+                result.put(ContentHandlerResult.KEY_DOCUMENT_DISPLAY_NAME, reversed);
+            }
+        } // This is an example of how to use VV's Content Elements mechanism.  It is not intended for production use.
+        // The prefix CompountDocument: is used for testing; it is not required in the ID for Compound Documents.
+        // VirtualDocument: ids list their parts the same way and are assembled alike.
+        else if (key.startsWith(PREFIX_COMPOUND_DOCUMENT) || key.startsWith(PREFIX_VIRTUAL_DOCUMENT)) {
+            List<DataInputStream> vectorOfStreams = new ArrayList<>();
+
+            String documentDefinition = key.substring(key.indexOf(':') + 1);
+            List<String> documentComponents = new ArrayList<>();
+            StringTokenizer st = new StringTokenizer(documentDefinition, ",");
+            while (st.hasMoreTokens()) {
+                documentComponents.add(st.nextToken());
+            }
+
+            // All parts are fetched at once, so the document opens in about the time of its slowest part.
+            List<S3ObjectData> parts;
+            try {
+                parts = compoundPartFetcher.fetchAllRequired(documentComponents, s3BucketName, s3FolderName,
+                        compoundMemoryBudget);
+            } catch (FileNotFoundException fnfe) {
+                logger.error("Document not found: {}", StringEscapeUtils.escapeJava(fnfe.getMessage()));
+                throw new VirtualViewerAPIException("Document not found: " + ClientServerIO.makeXssSafe(key), fnfe);
+            } catch (IOException e) {
+                // A part that could not be read, even after retries, fails the document instead of emptying it.
+                logger.error("Could not read document file", e);
+                throw new VirtualViewerAPIException("Could not read document: " + ClientServerIO.makeXssSafe(key), e);
+            }
+            for (S3ObjectData part : parts) {
+                vectorOfStreams.add(part.getDataInputStream());
+            }
+
+            result.put(ContentHandlerResult.KEY_DOCUMENT_CONTENT_ELEMENTS, vectorOfStreams);
+            result.put(ContentHandlerResult.KEY_DOCUMENT_DISPLAY_NAME, documentDefinition);
+
+            if (contentHandlerDebug) {
+                String reversed = new StringBuilder(key).reverse().toString().toUpperCase();
+                result.put(ContentHandlerResult.KEY_DOCUMENT_DISPLAY_NAME, reversed);
+            }
+        } else {
+            DataInputStream documentContent = null;
+
+            try {
+                logger.trace("Retrieving document file: {}", StringEscapeUtils.escapeJava(key));
+                S3ObjectData objectData = contentStore.open(key);
+                if (objectData != null) {
+                    cacheValidator.recordServed(key, objectData);
+                    documentContent = objectData.getDataInputStream();
+                }
+            } catch (AmazonS3Exception e) {
+                if (RetryUtils.isThrottlingException(e)) {
+                    // S3 is overloaded; the document exists, so do not report it as missing.
+                    logger.error("S3 is throttling reads of {}: {}", StringEscapeUtils.escapeJava(key), e.getMessage());
+                    throw new VirtualViewerAPIException("Document is temporarily unavailable, please try again: " + ClientServerIO.makeXssSafe(key), e);
+                }
+                e.printStackTrace();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            if(documentContent == null) {
+                logger.error("Document not found: {}", StringEscapeUtils.escapeJava(key));
+                throw new VirtualViewerAPIException("Document not found: " + key);
+            }
+
+            logger.trace("getDocumentContent: Retrieving single document");
+
+            try {
+                result.put(ContentHandlerResult.KEY_DOCUMENT_INPUT_STREAM, documentContent);
+
+                if (contentHandlerDebug) {
+                    String reversed = new StringBuilder(key).reverse().toString();
+
+                    result.put(ContentHandlerResult.KEY_DOCUMENT_DISPLAY_NAME, reversed);
+                }
+            } catch (Exception e) {
+                /* Removing stack trace here, as it was unnecessary */
+                logger.error("Document not found", e);
+                throw new VirtualViewerAPIException("Document not found: " + ClientServerIO.makeXssSafe(key), e);
+            } 
+        }
+
+        return result;
+    }
+
+    /**
+     * @throws com.snowbound.contenthandler.VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error
+     * @see com.snowbound.contenthandler.interfaces.AnnotationsInterface#deleteAnnotation(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult deleteAnnotation(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("deleteAnnotation", () -> doDeleteAnnotation(input));
+    }
+
+    private ContentHandlerResult doDeleteAnnotation(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        if (readOnlyMode) {
+            throw new VirtualViewerAPIException(READ_ONLY_ERROR_MESSAGE);
+        }
+
+        //String clientInstanceId = input.getClientInstanceId();
+        String documentKey = scrapeFileNameFromKey(input.getDocumentId());
+        String annotationKey = input.getAnnotationId();
+        String annotationFilename = documentKey + "." + annotationKey + ".ann";
+        String fullFilePath =  annotationFilename;
+
+        logger.trace("Deleting annotation file: {}", StringEscapeUtils.escapeJava(fullFilePath));
+        if (!sidecarBundles) {
+            unpackSidecarBundle(documentKey);
+        }
+        try {
+            if (sidecarBundles) {
+                updateSidecarBundle(documentKey, bundle -> bundle.put(SidecarBundle.annotationEntry(annotationKey), null));
+            } else {
+                deleteSidecarObject(annotationFilename);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to delete layer {}", e);
+        }
+        return null;
+    }
+
+    private static boolean filenameHasKnownExtension(String filename,
+            List<String> knownExtensions) {
+        for (String knownExtension : knownExtensions) {
+            if (filename.toUpperCase().endsWith("." + knownExtension.toUpperCase())) {
+                return true;
+            }
+        }
+
+        String[] otherExtensions
+                = {"txt", "jb2"};
+        for (String otherExtension : otherExtensions) {
+            if (filename.toUpperCase().endsWith("." + otherExtension.toUpperCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @throws VirtualViewerAPIException can throw VirtualViewer exception to raise and log an error
+     * @see com.snowbound.contenthandler.interfaces.EventSubscriberInterface#eventNotification(com.snowbound.contenthandler.ContentHandlerInput) 
+     */
+    @Override
+    public ContentHandlerResult eventNotification(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("eventNotification", () -> doEventNotification(input));
+    }
+
+    private ContentHandlerResult doEventNotification(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        logger.trace("FileContentHandler.eventNotification");
+        Iterator paramIterator = input.keySet().iterator();
+        String eventType = (String) input.get(ContentHandlerResult.KEY_EVENT);
+        if (eventType.equals(ContentHandlerResult.VALUE_EVENT_DOCUMENT_RETRIEVED_FROM_CACHE)) {
+            //code can be written like this to deal with a specific type of event
+        } else {
+            while (paramIterator.hasNext()) {
+                Object key = paramIterator.next();
+                if (!key.equals(ContentHandlerInput.KEY_CLIENT_INSTANCE_ID) && !key.equals(ContentHandlerInput.KEY_HTTP_SERVLET_REQUEST)) {
+                    try {
+                        String value = (String) input.get(key);
+                        logger.trace("Key: {}, value: {}", StringEscapeUtils.escapeJava((String)key), StringEscapeUtils.escapeJava(value));
+                    } catch(ClassCastException e) {
+                        logger.error("Event notification received an unexpected parameter", e);
+                    }
+                }
+            }
+        }
+        return ContentHandlerResult.VOID;
+    }
+
+    public static void setSupportsTiffTagAnnotations(boolean pValue) {
+        gSupportTiffTagAnnotations = pValue;
+    }
+
+    @Override
+    public ContentHandlerResult getAllAnnotationsForDocument(
+            ContentHandlerInput input) throws VirtualViewerAPIException {
+        return timed("getAllAnnotationsForDocument", () -> doGetAllAnnotationsForDocument(input));
+    }
+
+    private ContentHandlerResult doGetAllAnnotationsForDocument(
+            ContentHandlerInput input) throws VirtualViewerAPIException {
+        ContentHandlerResult result = new ContentHandlerResult();
+
+        Map<String, AnnotationLayer> annotationHash = new LinkedHashMap<>();
+
+        String documentId = scrapeFileNameFromKey(input.getDocumentId());
+        String clientInstanceId = input.getClientInstanceId();
+
+        ContentHandlerResult annResult = this.getAnnotationNames(input);
+        String[] annNames = annResult.getAnnotationNames();
+
+        if (annNames != null) {
+            // Every layer is requested at once; each read costs a HEAD and a GET, so one at a time adds up quickly.
+            List<Future<ContentHandlerResult>> futures = new ArrayList<>(annNames.length);
+            List<AnnotationLayerRead> reads = new ArrayList<>(annNames.length);
+            for (String annotationId : annNames) {
+                ContentHandlerInput cInput = new ContentHandlerInput(documentId, clientInstanceId);
+
+                cInput.setAnnotationId(annotationId);
+
+                AnnotationLayerRead read = new AnnotationLayerRead(() -> this.getAnnotationContent(cInput));
+                reads.add(read);
+                futures.add(annotationFetchExecutor.submit(read));
+            }
+
+            for (int i = 0; i < annNames.length; i++) {
+                String annotationId = annNames[i];
+                ContentHandlerResult cResult = awaitAnnotationContent(documentId, annotationId, futures, reads, i);
+                byte[] bytes = (byte[]) cResult.get(ContentHandlerResult.KEY_ANNOTATION_CONTENT);
+                String displayName = (String) cResult.get(ContentHandlerResult.KEY_ANNOTATION_DISPLAY_NAME);
+                Map props = (Map) cResult.get(ContentHandlerResult.KEY_ANNOTATION_PROPERTIES);
+
+                AnnotationLayer annoLayer = new AnnotationLayer();
+
+                annoLayer.setData(bytes);
+                annoLayer.setDocumentId(documentId);
+                annoLayer.setLayerName(displayName);
+                annoLayer.setLayerObjectId(annotationId);
+                annoLayer.setModified(false);
+                annoLayer.setNew(false);
+                annoLayer.setProperties(props);
+
+                annotationHash.put(annotationId, annoLayer);
+            }
+        }
+
+        result.put(ContentHandlerResult.KEY_ALL_ANNOTATIONS_HASH, annotationHash);
+
+        return result;
+    }
+
+    /**
+     * Waits for one layer read started by getAllAnnotationsForDocument. The timeout of a layer starts when a pool
+     * thread begins reading it, so time spent queued behind other documents does not count. A layer still unread
+     * at its timeout fails the call, as does a failed read, and the reads still running are cancelled; the result
+     * never silently lacks a layer.
+     */
+    private ContentHandlerResult awaitAnnotationContent(String documentId, String annotationId,
+            List<Future<ContentHandlerResult>> futures, List<AnnotationLayerRead> reads, int index)
+            throws VirtualViewerAPIException {
+        Future<ContentHandlerResult> future = futures.get(index);
+        AnnotationLayerRead read = reads.get(index);
+        try {
+            while (true) {
+                long startMillis = read.startMillis;
+                // A queued layer has used none of its time; look again after a full timeout.
+                long waitMillis = startMillis == 0 ? annotationFetchTimeoutMillis
+                        : startMillis + annotationFetchTimeoutMillis - System.currentTimeMillis();
+                try {
+                    return future.get(Math.max(waitMillis, 1), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    startMillis = read.startMillis;
+                    if (startMillis != 0
+                            && System.currentTimeMillis() - startMillis >= annotationFetchTimeoutMillis) {
+                        futures.forEach(f -> f.cancel(true));
+                        logger.error("Timed out reading annotation layer {} of {}",
+                                StringEscapeUtils.escapeJava(annotationId), StringEscapeUtils.escapeJava(documentId));
+                        throw new VirtualViewerAPIException("Timed out reading annotation layer: " + annotationId);
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof VirtualViewerAPIException) {
+                throw (VirtualViewerAPIException) e.getCause();
+            }
+            throw new VirtualViewerAPIException("Could not read annotation layer: " + annotationId, e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new VirtualViewerAPIException("Interrupted while reading annotation layers", e);
+        }
+    }    
+
+    /**
+     * A layer read of getAllAnnotationsForDocument that records when a pool thread started it.
+     */
+    private static final class AnnotationLayerRead implements Callable<ContentHandlerResult> {
+        private final Callable<ContentHandlerResult> read;
+        private volatile long startMillis;
+
+        private AnnotationLayerRead(Callable<ContentHandlerResult> read) {
+            this.read = read;
+        }
+
+        @Override
+        public ContentHandlerResult call() throws Exception {
+            startMillis = System.currentTimeMillis();
+            return read.call();
+        }
+    }
+
+    @Override
+    public ContentHandlerResult getOCRDataForDocument(ContentHandlerInput input) throws VirtualViewerAPIException {
+        return timed("getOCRDataForDocument", () -> doGetOCRDataForDocument(input));
+    }
+
+    private ContentHandlerResult doGetOCRDataForDocument(ContentHandlerInput input) throws VirtualViewerAPIException {
+        return retrieveOCRDataFile(input);
+    }
+    
+    // In the example content handler, both getOCRDataForDocument and getOCRDataOnPerformOCR will 
+    // return the same file with the same mechanism, so use this helper function. 
+    // In product, getOCRDataForDocument should only return existing OCR data to avoid 
+    // impacting document retrieval performance, while getOCRDataOnPerformOCR can either return existing OCR data or run an 
+    // OCR engine as it is run on-demand.
+    private ContentHandlerResult retrieveOCRDataFile(ContentHandlerInput input) throws VirtualViewerAPIException {
+        String clientInstanceId = input.getClientInstanceId();
+        String documentKey = scrapeFileNameFromKey(input.getDocumentId());
+        logger.trace("getOCRDataForDocument: clientInstanceId {}", StringEscapeUtils.escapeJava(clientInstanceId));
+        String ocrDataFilename = documentKey + ".ocr-text.json";
+    
+
+        byte[] ocrData = null;
+        try {
+            ContentHandlerResult result = new ContentHandlerResult();
+            // OCR text is produced outside this handler, so it may still be a separate object next to a bundle.
+            SidecarBundle bundle = findSidecarBundle(documentKey);
+            ocrData = bundle != null ? bundle.get(SidecarBundle.OCR_TEXT) : null;
+            if (ocrData == null) {
+                ocrData = s3Connector.getFileS3Bytes(ocrDataFilename, s3BucketName, s3FolderName);
+            }
+            result.put(ContentHandlerResult.KEY_OCR_DATA_JSON, ocrData);
+            logger.trace("Retrieving OCR data file: {}", StringEscapeUtils.escapeJava(ocrDataFilename));
+            return result;
+        } catch (AmazonS3Exception | IOException e) {
+            e.printStackTrace();
+            logger.trace("No OCR data found for: {}", StringEscapeUtils.escapeJava(documentKey));
+            return null;
+        }
+
+    }
+    
+    @Override
+    public ContentHandlerResult getOCRDataOnPerformOCR(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return timed("getOCRDataOnPerformOCR", () -> doGetOCRDataOnPerformOCR(input));
+    }
+
+    private ContentHandlerResult doGetOCRDataOnPerformOCR(ContentHandlerInput input)
+            throws VirtualViewerAPIException {
+        return retrieveOCRDataFile(input);
+    }
+    
+    /**
+     * Allows VirtualViewer to use its cached copy of a document only while the document in S3 still has the version
+     * this handler last served. The sample SparseDocument:, CompoundDocument: and VirtualDocument: ids are always
+     * allowed.
+     *
+     * @see com.snowbound.contenthandler.interfaces.CacheValidator#validateCache(ContentHandlerInput)
+     */
+    @Override
+    public ContentHandlerResult validateCache(ContentHandlerInput input) {
+        return timed("validateCache", () -> doValidateCache(input));
+    }
+
+    private ContentHandlerResult doValidateCache(ContentHandlerInput input) {
+        String key;
+        try {
+            key = scrapeFileNameFromKey(input.getDocumentId());
+        } catch (VirtualViewerAPIException e) {
+            key = null;
+        }
+        boolean allowed = key != null
+                && (key.startsWith(PREFIX_SPARSE_DOCUMENT)
+                || key.startsWith(PREFIX_COMPOUND_DOCUMENT)
+                || key.startsWith(PREFIX_VIRTUAL_DOCUMENT)
+                || cacheValidator.isCacheCurrent(key));
+        logger.trace("validateCache: {} cache allowed {}", StringEscapeUtils.escapeJava(key), allowed);
+        ContentHandlerResult result = new ContentHandlerResult();
+        result.put(ContentHandlerResult.KEY_USE_OF_CACHE_ALLOWED, allowed);
+        return result;
+    }
+
+    @Override
+    public ContentHandlerResult checkAvailable(ContentHandlerInput input) throws VirtualViewerAPIException {
+        return new ContentHandlerResult();
+    }
+
+    private String scrapeFileNameFromKey(String key) throws VirtualViewerAPIException{
+        String prefix = ""; 
+        if (key.startsWith(PREFIX_SPARSE_DOCUMENT)) {
+            prefix = PREFIX_SPARSE_DOCUMENT;
+        } else if (key.startsWith(PREFIX_COMPOUND_DOCUMENT)) {
+            prefix = PREFIX_COMPOUND_DOCUMENT;
+        } else if (key.startsWith(PREFIX_VIRTUAL_DOCUMENT)) {
+            prefix = PREFIX_VIRTUAL_DOCUMENT;
+        } else if (key.startsWith("IncludesExternalReferences:")) {
+            prefix = "IncludesExternalReferences:";
+        }
+        key = key.substring(prefix.length());
+        try {
+            Path keyPath = Paths.get(key);
+            return prefix + keyPath.getFileName().toString();
+        } catch (InvalidPathException ipe) {
+            logger.error("The provided document key {} was invalid and may have contained a relative path name", StringEscapeUtils.escapeJava(key));
+            throw new VirtualViewerAPIException("An exception occurred: the provided document key is invalid", ipe);
+        }        
+    }
+
+    /**
+     * Runs one content handler method under the timer of the specified name. A call that throws is counted as failed.
+     */
+    private static <T, E extends Exception> T timed(String name, HandlerCall<T, E> call) throws E {
+        HandlerMetrics.Timer timer = metrics.timer(name);
+        long started = timer.start();
+        try {
+            return call.call();
+        } catch (Exception e) {
+            timer.failed();
+            throw e;
+        } finally {
+            timer.stop(started);
+        }
+    }
+
+    /**
+     * The body of a timed content handler method.
+     */
+    private interface HandlerCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private class FileContentHandlerFileNameFilter implements FilenameFilter
+    {
+        @Override
+        public boolean accept(File dir, String filename) {
+            String lFileName = filename.toLowerCase();
+
+            return !(lFileName.endsWith(".ann") ||
+                     lFileName.endsWith(".ds_store") ||
+                     lFileName.endsWith(".ocr-text.json") ||
+                     lFileName.endsWith(SidecarBundle.FILE_SUFFIX));
+        }
+    }
+}
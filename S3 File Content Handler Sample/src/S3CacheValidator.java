@@ -0,0 +1,138 @@
+package com.accusoft.pdjs3;
+
+import com.accusoft.contenthandler.common.BoundedLruMap;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The S3CacheValidator class decides whether VirtualViewer may keep using its cached copy of a document.
+ *
+ * The version of each document is recorded when its content is served, as the S3 version ID when the bucket is
+ * versioned and the ETag otherwise. Validation compares that against the version currently in S3. The current
+ * version is looked up with a HEAD request and remembered for a short time, so repeated validations of a busy
+ * document cost no request at all.
+ *
+ * Versions are kept for at most maxDocuments documents; the least recently used ones are forgotten first. A
+ * forgotten document is treated like one this process never served, so its cached copy is refused until it is
+ * served again.
+ */
+public class S3CacheValidator {
+
+    /** Default number of documents whose versions are kept. */
+    public static final int DEFAULT_MAX_DOCUMENTS = 10000;
+
+    private final S3Handler s3Handler;
+    private final String bucketName;
+    private final String folderName;
+    private final long ttlMillis;
+
+    private final Map<String, String> servedVersions;
+    private final Map<String, CheckedVersion> currentVersions;
+
+    /**
+     * Constructs an S3CacheValidator object for documents in the specified bucket and folder, keeping versions of
+     * up to DEFAULT_MAX_DOCUMENTS documents.
+     *
+     * @param s3Handler the handler used to look up current versions
+     * @param bucketName the name of the bucket holding the documents
+     * @param folderName the name of the folder holding the documents (optional)
+     * @param ttlMillis how long a looked-up version is trusted before S3 is asked again
+     */
+    public S3CacheValidator(S3Handler s3Handler, String bucketName, String folderName, long ttlMillis) {
+        this(s3Handler, bucketName, folderName, ttlMillis, DEFAULT_MAX_DOCUMENTS);
+    }
+
+    /**
+     * Constructs an S3CacheValidator object for documents in the specified bucket and folder.
+     *
+     * @param s3Handler the handler used to look up current versions
+     * @param bucketName the name of the bucket holding the documents
+     * @param folderName the name of the folder holding the documents (optional)
+     * @param ttlMillis how long a looked-up version is trusted before S3 is asked again
+     * @param maxDocuments the number of documents whose versions are kept
+     */
+    public S3CacheValidator(S3Handler s3Handler, String bucketName, String folderName, long ttlMillis, int maxDocuments) {
+        this.s3Handler = s3Handler;
+        this.bucketName = bucketName;
+        this.folderName = folderName;
+        this.ttlMillis = ttlMillis;
+        this.servedVersions = Collections.synchronizedMap(new BoundedLruMap<>(maxDocuments));
+        this.currentVersions = Collections.synchronizedMap(new BoundedLruMap<>(maxDocuments));
+    }
+
+    /**
+     * Records the version of a document whose content has just been served.
+     *
+     * @param documentName the name of the document
+     * @param objectData the content and metadata that was served
+     */
+    public void recordServed(String documentName, S3ObjectData objectData) {
+        String version = versionOf(objectData.getVersionId(), objectData.getETag());
+        if (version == null) {
+            servedVersions.remove(documentName);
+            return;
+        }
+        servedVersions.put(documentName, version);
+        currentVersions.put(documentName, new CheckedVersion(version, System.currentTimeMillis()));
+    }
+
+    /**
+     * Checks whether the last served version of a document is still the current one.
+     *
+     * @param documentName the name of the document
+     *
+     * @return true if the cached copy may be used, false if the document changed, was deleted, or has not been
+     *         served by this process since it started or since it was forgotten
+     */
+    public boolean isCacheCurrent(String documentName) {
+        String served = servedVersions.get(documentName);
+        if (served == null) {
+            return false;
+        }
+        CheckedVersion checked = currentVersions.get(documentName);
+        if (checked == null || System.currentTimeMillis() - checked.checkedAt >= ttlMillis) {
+            String current = s3Handler.getS3ObjectVersion(documentName, bucketName, folderName);
+            if (current == null) {
+                currentVersions.remove(documentName);
+                return false;
+            }
+            checked = new CheckedVersion(current, System.currentTimeMillis());
+            currentVersions.put(documentName, checked);
+        }
+        return served.equals(checked.version);
+    }
+
+    /**
+     * Forgets everything known about a document, so cached copies are refused until it is served again. Call this
+     * after the document is saved.
+     *
+     * @param documentName the name of the document
+     */
+    public void invalidate(String documentName) {
+        servedVersions.remove(documentName);
+        currentVersions.remove(documentName);
+    }
+
+    /**
+     * Builds the version token of an S3 object.
+     *
+     * @param versionId the version ID, or null if the bucket is not versioned
+     * @param eTag the ETag
+     *
+     * @return the version ID if there is one, otherwise the ETag
+     */
+    static String versionOf(String versionId, String eTag) {
+        return versionId != null && !versionId.isEmpty() && !"null".equals(versionId) ? versionId : eTag;
+    }
+
+    private static final class CheckedVersion {
+        private final String version;
+        private final long checkedAt;
+
+        private CheckedVersion(String version, long checkedAt) {
+            this.version = version;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
@@ -0,0 +1,646 @@
+package com.accusoft.pdjs3;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.http.IdleConnectionReaper;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+
+/**
+ * The S3ClientRegistry class holds one AmazonS3 client per region and set of credentials for the whole process.
+ * Every AmazonS3 client owns an HTTP connection pool, so sharing clients lets all S3Handler instances reuse
+ * pooled connections instead of paying for a new pool and new TLS handshakes on every call.
+ *
+ * Clients are created lazily on first use without locking. If two threads race to create the same client, one
+ * of them wins and the other client is shut down straight away.
+ *
+ * Changing the pool settings, the throttle control or the endpoint retires the existing clients: lookups get a
+ * new client built with the new settings, while requests already running on a retired client, including object
+ * content still being read, finish on it. A retired client is shut down once it has been idle for a short grace
+ * period. Configuring the settings a client already has changes nothing, so repeated init calls keep the pool.
+ */
+public final class S3ClientRegistry {
+
+    /** Default time a retired client must be idle before it is shut down. */
+    public static final long DEFAULT_RETIRE_GRACE_MILLIS = 10000;
+
+    private static final ConcurrentHashMap<ClientKey, ClientHolder> clients = new ConcurrentHashMap<>();
+    private static final Set<ClientHolder> retiring = ConcurrentHashMap.newKeySet();
+
+    private static volatile int maxConnections = ClientConfiguration.DEFAULT_MAX_CONNECTIONS;
+    private static volatile long connectionMaxIdleMillis = ClientConfiguration.DEFAULT_CONNECTION_MAX_IDLE_MILLIS;
+    private static volatile long connectionTTL = ClientConfiguration.DEFAULT_CONNECTION_TTL;
+    private static volatile boolean useReaper = ClientConfiguration.DEFAULT_USE_REAPER;
+    private static volatile S3ThrottleControl throttleControl;
+    private static volatile String endpoint;
+    // A multipart upload or ranged download leaves gaps between its requests, so idle alone does not mean finished.
+    private static volatile long retireGraceMillis = DEFAULT_RETIRE_GRACE_MILLIS;
+
+    private static final AtomicLong lookups = new AtomicLong();
+    private static final AtomicLong clientsCreated = new AtomicLong();
+    private static final AtomicLong clientsDiscarded = new AtomicLong();
+    private static final AtomicLong clientsRetired = new AtomicLong();
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(S3ClientRegistry.class);
+
+    private S3ClientRegistry() {
+    }
+
+    /**
+     * Configures the connection pool of the pooled clients. When a setting differs from the current one, the
+     * existing clients are retired and new ones are built with the new settings on first use. The shared transfer
+     * thread pool is limited to the same number of threads right away.
+     *
+     * @param maxConnections the maximum number of pooled HTTP connections per client
+     * @param connectionMaxIdleMillis how long a pooled connection may stay idle before the reaper closes it
+     * @param connectionTTL the maximum lifetime of a pooled connection in milliseconds, or -1 for no limit
+     * @param useReaper true to close idle connections in the background
+     */
+    public static void configure(int maxConnections, long connectionMaxIdleMillis, long connectionTTL, boolean useReaper) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be at least 1");
+        }
+        S3TransferExecutor.setMaxThreads(maxConnections);
+        synchronized (S3ClientRegistry.class) {
+            if (maxConnections == S3ClientRegistry.maxConnections
+                    && connectionMaxIdleMillis == S3ClientRegistry.connectionMaxIdleMillis
+                    && connectionTTL == S3ClientRegistry.connectionTTL
+                    && useReaper == S3ClientRegistry.useReaper) {
+                return;
+            }
+            S3ClientRegistry.maxConnections = maxConnections;
+            S3ClientRegistry.connectionMaxIdleMillis = connectionMaxIdleMillis;
+            S3ClientRegistry.connectionTTL = connectionTTL;
+            S3ClientRegistry.useReaper = useReaper;
+            retireClients();
+        }
+        logger.info("S3 connection pool configured: maxConnections {}, maxIdleMillis {}, ttl {}, reaper {}",
+                maxConnections, connectionMaxIdleMillis, connectionTTL, useReaper);
+    }
+
+    /**
+     * Installs adaptive concurrency limits and throttling-aware retries on the pooled clients. Existing clients are
+     * retired, as by {@link #configure(int, long, long, boolean)}, unless the installed throttle control already has
+     * the same settings; it is then kept, together with the limits it has learned.
+     *
+     * @param throttleControl the throttle control to install, or null to use the SDK default retries
+     */
+    public static void configureThrottleControl(S3ThrottleControl throttleControl) {
+        synchronized (S3ClientRegistry.class) {
+            S3ThrottleControl current = S3ClientRegistry.throttleControl;
+            if (current == throttleControl || (current != null && current.hasSameSettings(throttleControl))) {
+                return;
+            }
+            S3ClientRegistry.throttleControl = throttleControl;
+            retireClients();
+        }
+    }
+
+    /**
+     * Sends the requests of clients looked up after this call to an S3-compatible endpoint instead of the AWS
+     * endpoint of their region, addressing buckets by path. This points the handler at a local S3 stand-in or a
+     * private S3-compatible store. The endpoint is part of the client key, so changing it never hands out a client
+     * built for the old endpoint; the clients of the old endpoint are retired.
+     *
+     * @param endpoint the endpoint URL, such as http://localhost:9000, or null to use the AWS endpoints
+     */
+    public static void configureEndpoint(String endpoint) {
+        String trimmed = endpoint == null || endpoint.trim().isEmpty() ? null : endpoint.trim();
+        synchronized (S3ClientRegistry.class) {
+            if (Objects.equals(trimmed, S3ClientRegistry.endpoint)) {
+                return;
+            }
+            S3ClientRegistry.endpoint = trimmed;
+            retireClients();
+        }
+        if (trimmed != null) {
+            logger.info("S3 requests are sent to {}", trimmed);
+        }
+    }
+
+    /**
+     * Sets how long a retired client must be idle before it is shut down. Tests shorten it.
+     *
+     * @param graceMillis the grace period in milliseconds
+     */
+    static void configureRetireGrace(long graceMillis) {
+        retireGraceMillis = graceMillis;
+    }
+
+    /**
+     * Retrieves the endpoint that new clients send their requests to.
+     *
+     * @return the endpoint URL, or null if the AWS endpoints are used
+     */
+    public static String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Retrieves the throttle control installed on new clients.
+     *
+     * @return the throttle control, or null if none is installed
+     */
+    public static S3ThrottleControl getThrottleControl() {
+        return throttleControl;
+    }
+
+    /**
+     * Returns the shared AmazonS3 client for the specified credentials and region, creating it on first use.
+     *
+     * @param accessKeyId the access key ID for the Amazon S3 client
+     * @param secretAccessKey the secret access key for the Amazon S3 client
+     * @param region the region for the Amazon S3 client
+     *
+     * @throws AmazonS3Exception if an error occurs while creating the AmazonS3 client
+     *
+     * @return the shared AmazonS3 client
+     */
+    public static AmazonS3 getClient(String accessKeyId, String secretAccessKey, String region) throws AmazonS3Exception {
+        lookups.incrementAndGet();
+        if (!retiring.isEmpty()) {
+            shutDownIdleRetiredClients();
+        }
+        ClientKey key = new ClientKey(accessKeyId, secretAccessKey, region, endpoint);
+        while (true) {
+            ClientHolder holder = clients.get(key);
+            if (holder == null) {
+                ClientHolder created = new ClientHolder(key);
+                holder = clients.putIfAbsent(key, created);
+                if (holder == null) {
+                    holder = created;
+                }
+            }
+            AmazonS3 client = holder.get();
+            if (client != null) {
+                return client;
+            }
+            // The holder was retired or shut down while we were building its client; look it up again.
+        }
+    }
+
+    /**
+     * Closes expired connections, and connections idle longer than the configured maximum, in every pool watched
+     * by the idle connection reaper right away instead of waiting for its next sweep. Retired clients whose
+     * requests have finished are shut down as well.
+     */
+    public static void reapIdleConnections() {
+        shutDownIdleRetiredClients();
+        for (HttpClientConnectionManager connectionManager : IdleConnectionReaper.getRegisteredConnectionManagers()) {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(connectionMaxIdleMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Shuts down every pooled client, including retired clients that still have requests running, and the idle
+     * connection reaper. Use it when the process stops; to apply new settings, configure them instead. Clients are
+     * rebuilt on the next call to {@link #getClient(String, String, String)}.
+     */
+    public static void shutdown() {
+        for (ClientKey key : clients.keySet()) {
+            ClientHolder holder = clients.remove(key);
+            if (holder != null) {
+                holder.shutdownClient();
+            }
+        }
+        for (ClientHolder holder : retiring) {
+            if (retiring.remove(holder)) {
+                holder.shutdownClient();
+            }
+        }
+        IdleConnectionReaper.shutdown();
+        logger.info("S3 client registry shut down");
+    }
+
+    /**
+     * Moves every current client to the retiring set, so lookups build new ones. Called with the settings lock held.
+     */
+    private static void retireClients() {
+        long now = System.currentTimeMillis();
+        int retired = 0;
+        for (ClientKey key : clients.keySet()) {
+            ClientHolder holder = clients.remove(key);
+            if (holder != null) {
+                holder.lastActive = now;
+                retiring.add(holder);
+                retired++;
+            }
+        }
+        if (retired > 0) {
+            logger.info("Retired {} pooled S3 clients after a settings change", retired);
+        }
+    }
+
+    /**
+     * Shuts down the retired clients that have no request or object content in flight and have been idle for the
+     * grace period.
+     */
+    private static void shutDownIdleRetiredClients() {
+        long now = System.currentTimeMillis();
+        for (ClientHolder holder : retiring) {
+            if (holder.inFlight.get() == 0 && now - holder.lastActive >= retireGraceMillis && retiring.remove(holder)) {
+                holder.shutdownClient();
+                clientsRetired.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Retrieves a snapshot of the registry and connection pool statistics.
+     *
+     * @return the current statistics
+     */
+    public static Statistics getStatistics() {
+        int active = 0;
+        for (ClientHolder holder : clients.values()) {
+            if (holder.client.get() != null) {
+                active++;
+            }
+        }
+        int pools = 0;
+        int leased = 0;
+        int available = 0;
+        int pending = 0;
+        for (HttpClientConnectionManager connectionManager : IdleConnectionReaper.getRegisteredConnectionManagers()) {
+            if (connectionManager instanceof ConnPoolControl) {
+                PoolStats stats = ((ConnPoolControl<?>) connectionManager).getTotalStats();
+                pools++;
+                leased += stats.getLeased();
+                available += stats.getAvailable();
+                pending += stats.getPending();
+            }
+        }
+        return new Statistics(active, retiring.size(), lookups.get(), clientsCreated.get(), clientsDiscarded.get(),
+                clientsRetired.get(), pools, leased, available, pending, maxConnections, connectionMaxIdleMillis,
+                connectionTTL);
+    }
+
+    private static AmazonS3 buildClient(ClientKey key, RequestHandler2 inFlightTracker) throws AmazonS3Exception {
+        try {
+            ClientConfiguration clientConfiguration = new ClientConfiguration()
+                    .withMaxConnections(maxConnections)
+                    .withConnectionMaxIdleMillis(connectionMaxIdleMillis)
+                    .withConnectionTTL(connectionTTL)
+                    .withReaper(useReaper)
+                    .withTcpKeepAlive(true);
+
+            BasicAWSCredentials awsCredentials = new BasicAWSCredentials(key.accessKeyId, key.secretAccessKey);
+            AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
+                    .withCredentials(new AWSStaticCredentialsProvider(awsCredentials));
+            if (key.endpoint != null) {
+                builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(key.endpoint, key.region))
+                        .withPathStyleAccessEnabled(true);
+            } else {
+                builder.withRegion(key.region);
+            }
+
+            S3ThrottleControl control = throttleControl;
+            if (control != null) {
+                clientConfiguration.withRetryPolicy(control.getRetryPolicy());
+                // The tracker comes last, so a request the throttle control refuses is never counted.
+                builder.withRequestHandlers(control, inFlightTracker);
+            } else {
+                builder.withRequestHandlers(inFlightTracker);
+            }
+            return builder.withClientConfiguration(clientConfiguration).build();
+        } catch (AmazonS3Exception e) {
+            logger.error("Error creating Amazon S3 client", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Holds the lazily created client for one key, and counts the requests in flight on it.
+     */
+    private static final class ClientHolder {
+        private final ClientKey key;
+        private final AtomicReference<AmazonS3> client = new AtomicReference<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long lastActive;
+        private final RequestHandler2 inFlightTracker = new InFlightTracker(this);
+
+        private ClientHolder(ClientKey key) {
+            this.key = key;
+        }
+
+        /**
+         * Returns the client, building it on first use, or null if the holder was retired or removed by
+         * {@link #shutdown()} before its client was installed.
+         */
+        private AmazonS3 get() throws AmazonS3Exception {
+            AmazonS3 existing = client.get();
+            if (existing != null) {
+                return existing;
+            }
+            AmazonS3 built = buildClient(key, inFlightTracker);
+            if (client.compareAndSet(null, built)) {
+                if (clients.get(key) != this) {
+                    // This holder was already released, so nothing would ever shut this client down.
+                    client.compareAndSet(built, null);
+                    built.shutdown();
+                    clientsDiscarded.incrementAndGet();
+                    return null;
+                }
+                clientsCreated.incrementAndGet();
+                logger.info("Created pooled S3 client for region {}", key.region);
+                return built;
+            }
+            // Another thread finished first; keep its client and release ours.
+            built.shutdown();
+            clientsDiscarded.incrementAndGet();
+            existing = client.get();
+            return existing != null || clients.get(key) != this ? existing : get();
+        }
+
+        private void shutdownClient() {
+            AmazonS3 existing = client.getAndSet(null);
+            if (existing != null) {
+                existing.shutdown();
+            }
+        }
+
+        private void requestFinished() {
+            lastActive = System.currentTimeMillis();
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Counts the requests of one client from the start of a request until its response is handled, or until the
+     * content of a returned object is closed, since that content is still read from a pooled connection.
+     */
+    private static final class InFlightTracker extends RequestHandler2 {
+        private final ClientHolder holder;
+
+        private InFlightTracker(ClientHolder holder) {
+            this.holder = holder;
+        }
+
+        @Override
+        public void beforeRequest(Request<?> request) {
+            holder.inFlight.incrementAndGet();
+        }
+
+        @Override
+        public void afterResponse(Request<?> request, Response<?> response) {
+            Object result = response != null ? response.getAwsResponse() : null;
+            if (result instanceof S3Object && ((S3Object) result).getObjectContent() != null) {
+                S3Object s3Object = (S3Object) result;
+                s3Object.setObjectContent(new TrackedContent(s3Object.getObjectContent(), holder));
+            } else {
+                holder.requestFinished();
+            }
+        }
+
+        @Override
+        public void afterError(Request<?> request, Response<?> response, Exception e) {
+            holder.requestFinished();
+        }
+    }
+
+    /**
+     * Object content that ends its request in flight when it is closed or aborted.
+     */
+    private static final class TrackedContent extends S3ObjectInputStream {
+        private final ClientHolder holder;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        private TrackedContent(S3ObjectInputStream content, ClientHolder holder) {
+            super(content, content.getHttpRequest());
+            this.holder = holder;
+        }
+
+        @Override
+        public void abort() {
+            try {
+                super.abort();
+            } finally {
+                finish();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (finished.compareAndSet(false, true)) {
+                holder.requestFinished();
+            }
+        }
+    }
+
+    /**
+     * Identifies a client by region, credentials and endpoint. The secret is never included in log output.
+     */
+    private static final class ClientKey {
+        private final String accessKeyId;
+        private final String secretAccessKey;
+        private final String region;
+        private final String endpoint;
+
+        private ClientKey(String accessKeyId, String secretAccessKey, String region, String endpoint) {
+            this.accessKeyId = accessKeyId;
+            this.secretAccessKey = secretAccessKey;
+            this.region = region;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ClientKey)) {
+                return false;
+            }
+            ClientKey other = (ClientKey) o;
+            return accessKeyId.equals(other.accessKeyId)
+                    && secretAccessKey.equals(other.secretAccessKey)
+                    && region.equals(other.region)
+                    && Objects.equals(endpoint, other.endpoint);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = accessKeyId.hashCode();
+            result = 31 * result + secretAccessKey.hashCode();
+            result = 31 * result + region.hashCode();
+            result = 31 * result + Objects.hashCode(endpoint);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return endpoint == null
+                    ? "ClientKey[" + accessKeyId + ", " + region + "]"
+                    : "ClientKey[" + accessKeyId + ", " + region + ", " + endpoint + "]";
+        }
+    }
+
+    /**
+     * A point-in-time view of the registry and connection pool settings.
+     */
+    public static final class Statistics {
+        private final int activeClients;
+        private final int retiringClients;
+        private final long lookups;
+        private final long clientsCreated;
+        private final long clientsDiscarded;
+        private final long clientsRetired;
+        private final int pools;
+        private final int leasedConnections;
+        private final int availableConnections;
+        private final int pendingConnections;
+        private final int maxConnections;
+        private final long connectionMaxIdleMillis;
+        private final long connectionTTL;
+
+        private Statistics(int activeClients, int retiringClients, long lookups, long clientsCreated,
+                long clientsDiscarded, long clientsRetired, int pools, int leasedConnections, int availableConnections,
+                int pendingConnections, int maxConnections, long connectionMaxIdleMillis, long connectionTTL) {
+            this.activeClients = activeClients;
+            this.retiringClients = retiringClients;
+            this.lookups = lookups;
+            this.clientsCreated = clientsCreated;
+            this.clientsDiscarded = clientsDiscarded;
+            this.clientsRetired = clientsRetired;
+            this.pools = pools;
+            this.leasedConnections = leasedConnections;
+            this.availableConnections = availableConnections;
+            this.pendingConnections = pendingConnections;
+            this.maxConnections = maxConnections;
+            this.connectionMaxIdleMillis = connectionMaxIdleMillis;
+            this.connectionTTL = connectionTTL;
+        }
+
+        /**
+         * @return the number of clients currently held by the registry
+         */
+        public int getActiveClients() {
+            return activeClients;
+        }
+
+        /**
+         * @return the number of retired clients not yet shut down, because requests are still running on them
+         */
+        public int getRetiringClients() {
+            return retiringClients;
+        }
+
+        /**
+         * @return the number of client lookups since startup
+         */
+        public long getLookups() {
+            return lookups;
+        }
+
+        /**
+         * @return the number of clients built since startup
+         */
+        public long getClientsCreated() {
+            return clientsCreated;
+        }
+
+        /**
+         * @return the number of clients built and discarded because another thread created the same client first
+         */
+        public long getClientsDiscarded() {
+            return clientsDiscarded;
+        }
+
+        /**
+         * @return the number of retired clients shut down after their requests finished
+         */
+        public long getClientsRetired() {
+            return clientsRetired;
+        }
+
+        /**
+         * @return the number of connection pools watched by the idle connection reaper
+         */
+        public int getPools() {
+            return pools;
+        }
+
+        /**
+         * @return the number of connections currently in use across all pools
+         */
+        public int getLeasedConnections() {
+            return leasedConnections;
+        }
+
+        /**
+         * @return the number of idle connections ready for reuse across all pools
+         */
+        public int getAvailableConnections() {
+            return availableConnections;
+        }
+
+        /**
+         * @return the number of requests waiting for a connection across all pools
+         */
+        public int getPendingConnections() {
+            return pendingConnections;
+        }
+
+        /**
+         * @return the maximum number of pooled connections per client
+         */
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        /**
+         * @return how long a pooled connection may stay idle before it is closed
+         */
+        public long getConnectionMaxIdleMillis() {
+            return connectionMaxIdleMillis;
+        }
+
+        /**
+         * @return the maximum lifetime of a pooled connection, or -1 for no limit
+         */
+        public long getConnectionTTL() {
+            return connectionTTL;
+        }
+
+        @Override
+        public String toString() {
+            return "activeClients=" + activeClients + ", retiringClients=" + retiringClients + ", lookups=" + lookups
+                    + ", clientsCreated=" + clientsCreated + ", clientsDiscarded=" + clientsDiscarded
+                    + ", clientsRetired=" + clientsRetired + ", pools=" + pools + ", leased=" + leasedConnections
+                    + ", available=" + availableConnections + ", pending=" + pendingConnections
+                    + ", maxConnections=" + maxConnections + ", connectionMaxIdleMillis=" + connectionMaxIdleMillis
+                    + ", connectionTTL=" + connectionTTL;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.accusoft.pdjs3;
+
+/**
+ * The S3ConcurrencyLimiter class bounds the number of requests of one kind that are in flight to S3, and adapts the
+ * bound to what S3 currently accepts.
+ *
+ * The limit follows an additive-increase, multiplicative-decrease rule. Every answered request that was not
+ * throttled raises the limit by 1/limit, so it grows by about one per round of requests while the limit is in use.
+ * A throttling response halves it. A response much slower than the usual latency lowers it by a tenth, but only
+ * while the limit is in use: a slow response under light load says nothing about how many requests S3 can take, so
+ * the limit never shrinks from latency alone when it could not grow back. At most one decrease is applied per usual
+ * round-trip time, so a burst of throttled responses to requests that were all sent together counts as one signal.
+ *
+ * Requests whose time depends on how much data they carry, such as part uploads, are reported without a latency,
+ * so they neither set the usual latency nor count as slow. Requests over the limit wait in {@link #acquire()} instead of being sent, and give
+ * their slot back with {@link #release()} once they are finished, including any retries.
+ */
+public class S3ConcurrencyLimiter {
+
+    private static final double THROTTLE_DECREASE = 0.5;
+    private static final double LATENCY_DECREASE = 0.9;
+    // The usual latency follows slower samples by 1/256 of the difference, so it tracks lasting change, not spikes.
+    private static final int BASELINE_SMOOTHING = 256;
+    private static final long MIN_DECREASE_INTERVAL_NANOS = 50_000_000L;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+
+    private double limit;
+    private int inFlight;
+    private long baselineNanos;
+    private long lastDecreaseNanos;
+    private long throttled;
+    private long waited;
+
+    /**
+     * Constructs an S3ConcurrencyLimiter object that starts at its maximum limit.
+     *
+     * @param minLimit the lowest limit the limiter may shrink to, at least 1
+     * @param maxLimit the highest limit the limiter may grow to
+     * @param latencyTolerance how many times slower than usual a response may be before the limit is lowered, or 0
+     *        to react to throttling only
+     */
+    public S3ConcurrencyLimiter(int minLimit, int maxLimit, double latencyTolerance) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits " + minLimit + ".." + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Waits until a request may be sent and counts it as in flight.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized void acquire() throws InterruptedException {
+        if (inFlight >= (int) limit) {
+            waited++;
+            do {
+                wait();
+            } while (inFlight >= (int) limit);
+        }
+        inFlight++;
+    }
+
+    /**
+     * Gives back the slot of a finished request.
+     */
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Records a response from S3 and adjusts the limit.
+     *
+     * @param latencyNanos the time from sending the request to receiving the response, or -1 if the time depends
+     *        on the size of the request rather than on how busy S3 is
+     * @param throttledResponse true if S3 asked the client to slow down
+     */
+    public synchronized void onResponse(long latencyNanos, boolean throttledResponse) {
+        boolean saturated = inFlight >= (int) limit / 2;
+        long now = System.nanoTime();
+        if (throttledResponse) {
+            throttled++;
+            decrease(THROTTLE_DECREASE, now);
+        } else {
+            boolean slow = false;
+            if (latencyNanos >= 0) {
+                if (baselineNanos == 0 || latencyNanos < baselineNanos) {
+                    baselineNanos = latencyNanos;
+                } else {
+                    baselineNanos += (latencyNanos - baselineNanos) / BASELINE_SMOOTHING;
+                }
+                slow = latencyTolerance > 0 && latencyNanos > baselineNanos * latencyTolerance;
+            }
+            if (slow && saturated) {
+                decrease(LATENCY_DECREASE, now);
+            } else if (saturated && limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+        notifyAll();
+    }
+
+    private void decrease(double factor, long now) {
+        if (now - lastDecreaseNanos < Math.max(baselineNanos, MIN_DECREASE_INTERVAL_NANOS)) {
+            return;
+        }
+        lastDecreaseNanos = now;
+        limit = Math.max(minLimit, limit * factor);
+    }
+
+    /**
+     * @return the current limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the number of requests in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the number of throttling responses seen
+     */
+    public synchronized long getThrottledCount() {
+        return throttled;
+    }
+
+    /**
+     * @return the number of requests that had to wait for a free slot
+     */
+    public synchronized long getWaitedCount() {
+        return waited;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "limit=" + (int) limit + ", inFlight=" + inFlight + ", throttled=" + throttled + ", waited=" + waited
+                + ", latencyMillis=" + baselineNanos / 1_000_000;
+    }
+}
@@ -0,0 +1,225 @@
+package com.accusoft.pdjs3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+
+import com.accusoft.contenthandler.common.ContentPointer;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+
+/**
+ * The S3ContentStore class keeps document content in one bucket and folder addressed by the SHA-256 digest of its
+ * bytes. The content of a document is stored once under {@code content-sha256/} in the folder, and the document's
+ * own object holds a small {@link ContentPointer} to it. Saving content that is already stored, under any name,
+ * costs a digest, a HEAD request, and a pointer write instead of a full upload.
+ *
+ * Documents opened through the store are read from their content object, so the disk cache, shared reads and hedged
+ * reads of S3Handler serve every document with the same content from one entry. Objects that are not pointers are
+ * served as they are, so documents saved the usual way, before or after content-addressed storage is enabled, keep
+ * working.
+ *
+ * Pointers read recently are remembered for a short time, so opening a busy document costs one GET instead of two.
+ * The document's own object stays the one that is versioned, listed and validated: documents opened through the
+ * store report the ETag and version of their pointer.
+ */
+public class S3ContentStore {
+
+    /** Default time a pointer that was read is trusted before it is read again. */
+    public static final long DEFAULT_POINTER_CACHE_MILLIS = 2000;
+
+    private static final int MAX_CACHED_POINTERS = 4096;
+
+    private final S3Handler s3Handler;
+    private final String bucketName;
+    private final String folderName;
+    private final long pointerCacheMillis;
+
+    private final Map<String, CachedPointer> pointerCache = new ConcurrentHashMap<>();
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(S3ContentStore.class);
+
+    /**
+     * Constructs an S3ContentStore object for documents in the specified bucket and folder.
+     *
+     * @param s3Handler the handler used to read and write objects
+     * @param bucketName the name of the bucket holding the documents
+     * @param folderName the name of the folder holding the documents (optional)
+     * @param pointerCacheMillis how long a pointer that was read is trusted before it is read again; 0 to read it
+     *        every time
+     */
+    public S3ContentStore(S3Handler s3Handler, String bucketName, String folderName, long pointerCacheMillis) {
+        this.s3Handler = s3Handler;
+        this.bucketName = bucketName;
+        this.folderName = folderName;
+        this.pointerCacheMillis = pointerCacheMillis;
+    }
+
+    /**
+     * Saves a document held in memory. The content is uploaded only if it is not stored yet.
+     *
+     * @param documentName the name of the document
+     * @param data the content of the document
+     *
+     * @throws AmazonS3Exception if the content or the pointer cannot be saved
+     *
+     * @return the pointer the document now holds
+     */
+    public ContentPointer save(String documentName, byte[] data) throws AmazonS3Exception {
+        ContentPointer pointer = new ContentPointer(ContentPointer.digest(data));
+        if (isStored(pointer)) {
+            s3Handler.getMetrics().counter("contentStore.bytesDeduplicated").add(data.length);
+        } else {
+            s3Handler.saveBytesToS3(pointer.getContentName(), data, bucketName, folderName);
+        }
+        savePointer(documentName, pointer);
+        return pointer;
+    }
+
+    /**
+     * Saves a document held in a file. The file is read once to compute its digest, and uploaded only if its
+     * content is not stored yet.
+     *
+     * @param documentName the name of the document
+     * @param file the content of the document
+     *
+     * @throws IOException if the file cannot be read
+     * @throws AmazonS3Exception if the content or the pointer cannot be saved
+     *
+     * @return the pointer the document now holds
+     */
+    public ContentPointer save(String documentName, File file) throws IOException, AmazonS3Exception {
+        ContentPointer pointer = new ContentPointer(ContentPointer.digest(file));
+        if (isStored(pointer)) {
+            s3Handler.getMetrics().counter("contentStore.bytesDeduplicated").add(file.length());
+        } else {
+            s3Handler.saveFileToS3(pointer.getContentName(), file, bucketName, folderName);
+        }
+        savePointer(documentName, pointer);
+        return pointer;
+    }
+
+    /**
+     * Opens a document for reading. The caller must close the returned object to release the connection.
+     *
+     * @param documentName the name of the document
+     *
+     * @throws IOException if an I/O error occurs while reading the document
+     * @throws AmazonS3Exception if an error occurs while retrieving the document from Amazon S3
+     *
+     * @return the content of the document, with the key, ETag, version and date of the document's own object, or
+     *         null if the document or the content it points to does not exist
+     */
+    public S3ObjectData open(String documentName) throws IOException, AmazonS3Exception {
+        CachedPointer cached = pointerCache.get(documentName);
+        if (cached != null && cached.pointer != null && System.currentTimeMillis() - cached.loadedAt < pointerCacheMillis) {
+            s3Handler.getMetrics().counter("contentStore.pointerCache.hits").increment();
+            S3ObjectData content = s3Handler.getS3ObjectStream(cached.pointer.getContentName(), bucketName, folderName);
+            if (content != null) {
+                return asDocument(content, cached.pointerObject);
+            }
+            // The content went missing; read the pointer again in case the document changed.
+            pointerCache.remove(documentName, cached);
+        }
+
+        long loadedAt = System.currentTimeMillis();
+        S3ObjectData objectData = s3Handler.getS3ObjectStream(documentName, bucketName, folderName);
+        if (objectData == null || !ContentPointer.mayBePointer(objectData.getContentLength())) {
+            return objectData;
+        }
+        S3ObjectData buffered = buffer(objectData);
+        ContentPointer pointer = ContentPointer.read(buffered.getBytes());
+        if (pointer == null) {
+            return buffered;
+        }
+        cachePointer(documentName, new CachedPointer(pointer, buffered, loadedAt));
+        S3ObjectData content = s3Handler.getS3ObjectStream(pointer.getContentName(), bucketName, folderName);
+        if (content == null) {
+            logger.error("Content {} of {} is missing", pointer, documentName);
+            return null;
+        }
+        return asDocument(content, buffered);
+    }
+
+    /**
+     * Forgets the pointer of a document, so the next open reads it again. Call this after the document is saved
+     * without the store.
+     *
+     * @param documentName the name of the document
+     */
+    public void invalidate(String documentName) {
+        // The marker keeps a read that started before the save from caching the old pointer.
+        cachePointer(documentName, new CachedPointer(null, null, System.currentTimeMillis()));
+    }
+
+    /**
+     * Checks with a HEAD request whether content is stored. The answer is never remembered: content may be removed
+     * behind this process, by another node or a lifecycle rule, and a pointer written to missing content would lose
+     * the document.
+     */
+    private boolean isStored(ContentPointer pointer) throws AmazonS3Exception {
+        return s3Handler.doesS3FileExist(bucketName, folderName, pointer.getContentName());
+    }
+
+    private void savePointer(String documentName, ContentPointer pointer) throws AmazonS3Exception {
+        s3Handler.saveBytesToS3(documentName, pointer.toBytes(), bucketName, folderName);
+        // The ETag and version of the new pointer are not known here, so the next open reads and caches it.
+        invalidate(documentName);
+    }
+
+    private void cachePointer(String documentName, CachedPointer cached) {
+        if (pointerCacheMillis <= 0) {
+            return;
+        }
+        if (pointerCache.size() >= MAX_CACHED_POINTERS) {
+            long now = System.currentTimeMillis();
+            pointerCache.values().removeIf(entry -> now - entry.loadedAt >= pointerCacheMillis);
+        }
+        // A read that started before a newer read finished must not replace what the newer read cached.
+        pointerCache.merge(documentName, cached, (current, loaded) -> loaded.loadedAt >= current.loadedAt ? loaded : current);
+    }
+
+    /**
+     * Presents the content of a document with the identity of its pointer, which is what cache validation and
+     * callers know the document by.
+     */
+    private static S3ObjectData asDocument(S3ObjectData content, S3ObjectData pointerObject) {
+        return new S3ObjectData(pointerObject.getKey(), content.getContentLength(), pointerObject.getETag(),
+                pointerObject.getLastModified(), pointerObject.getVersionId(), content.getBytes(),
+                content.getBytes() == null ? content.getDataInputStream() : null);
+    }
+
+    private static S3ObjectData buffer(S3ObjectData objectData) throws IOException {
+        if (objectData.getBytes() != null) {
+            return objectData;
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream(ContentPointer.LENGTH);
+        try (InputStream input = objectData.getDataInputStream()) {
+            byte[] chunk = new byte[ContentPointer.LENGTH];
+            int len;
+            while ((len = input.read(chunk)) != -1) {
+                output.write(chunk, 0, len);
+            }
+        }
+        return new S3ObjectData(objectData.getKey(), objectData.getContentLength(), objectData.getETag(),
+                objectData.getLastModified(), objectData.getVersionId(), output.toByteArray(), null);
+    }
+
+    /**
+     * A pointer read at some time, or, with a null pointer, the time a document was saved.
+     */
+    private static final class CachedPointer {
+        private final ContentPointer pointer;
+        private final S3ObjectData pointerObject;
+        private final long loadedAt;
+
+        private CachedPointer(ContentPointer pointer, S3ObjectData pointerObject, long loadedAt) {
+            this.pointer = pointer;
+            this.pointerObject = pointerObject;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.accusoft.pdjs3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The S3DeleteResult class reports the outcome of a bulk delete for each requested document. S3 treats deleting a
+ * missing key as a success, so documents that did not exist are reported as deleted.
+ */
+public class S3DeleteResult {
+
+    private final List<String> deleted = new ArrayList<>();
+    private final Map<String, String> failed = new LinkedHashMap<>();
+
+    void addDeleted(String documentName) {
+        deleted.add(documentName);
+    }
+
+    void addFailed(String documentName, String message) {
+        failed.put(documentName, message);
+    }
+
+    /**
+     * Retrieves the names of the documents that were deleted.
+     *
+     * @return the deleted document names, in request order.
+     */
+    public List<String> getDeleted() {
+        return Collections.unmodifiableList(deleted);
+    }
+
+    /**
+     * Retrieves the documents that could not be deleted, with the error reported for each.
+     *
+     * @return a map from document name to error message.
+     */
+    public Map<String, String> getFailed() {
+        return Collections.unmodifiableMap(failed);
+    }
+
+    /**
+     * Checks whether every requested document was deleted.
+     *
+     * @return true if no deletion failed, false otherwise.
+     */
+    public boolean isSuccessful() {
+        return failed.isEmpty();
+    }
+}
@@ -0,0 +1,410 @@
+package com.accusoft.pdjs3;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+
+/**
+ * The S3DiskCache class keeps recently read S3 objects in a node-local directory so repeated reads of the same
+ * document are served from disk.
+ *
+ * Entries are keyed by bucket and key and remember the ETag of the cached copy. The cache holds at most
+ * {@code maxBytes} of content and evicts the least recently used entries beyond that. A streamed miss is written to
+ * the cache while the caller reads it, so filling the cache never delays the first reader; if the caller stops
+ * before the end, the partial file is thrown away.
+ *
+ * The index lives in memory only. Files left in the directory by an earlier process are deleted on startup.
+ */
+public class S3DiskCache {
+
+    private static final String FILE_PREFIX = "s3cache-";
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private final File directory;
+    private final long maxBytes;
+    private final long revalidateAfterMillis;
+
+    // Access-ordered, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(S3DiskCache.class);
+
+    /**
+     * Constructs an S3DiskCache object over the specified directory, which is created if needed.
+     *
+     * @param directory the directory to keep cached files in
+     * @param maxBytes the largest total size of the cached files
+     * @param revalidateAfterMillis how long a cached entry is served without asking S3 whether it changed; 0 to
+     *        revalidate on every read
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    public S3DiskCache(File directory, long maxBytes, long revalidateAfterMillis) throws IOException {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be at least 1");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.revalidateAfterMillis = revalidateAfterMillis;
+        Files.createDirectories(directory.toPath());
+
+        File[] leftovers = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX));
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                if (!leftover.delete()) {
+                    logger.error("Could not delete stale cache file {}", leftover);
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up the cached copy of an object.
+     *
+     * @param bucketName the bucket of the object
+     * @param key the key of the object
+     *
+     * @return the cache entry, or null if the object is not cached
+     */
+    public synchronized Entry lookup(String bucketName, String key) {
+        Entry entry = entries.get(cacheKey(bucketName, key));
+        if (entry != null && !entry.file.isFile()) {
+            // Removed from under us; forget it.
+            remove(bucketName, key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Checks whether an entry has to be revalidated against S3 before it is served.
+     *
+     * @param entry the entry to check
+     *
+     * @return true if the entry is older than the revalidation interval
+     */
+    public boolean needsRevalidation(Entry entry) {
+        return System.currentTimeMillis() - entry.validatedAt >= revalidateAfterMillis;
+    }
+
+    /**
+     * Records that S3 confirmed the cached copy is still current.
+     *
+     * @param entry the entry that was revalidated
+     */
+    public void markValidated(Entry entry) {
+        revalidations.incrementAndGet();
+        entry.validatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Opens a cached entry.
+     *
+     * @param entry the entry to open
+     * @param buffered true to read the whole file into memory, false to return an open stream
+     *
+     * @throws IOException if the cached file cannot be read
+     *
+     * @return the cached content and metadata
+     */
+    public S3ObjectData open(Entry entry, boolean buffered) throws IOException {
+        hits.incrementAndGet();
+        if (buffered) {
+            byte[] bytes = Files.readAllBytes(entry.file.toPath());
+            return new S3ObjectData(entry.key, entry.size, entry.eTag, entry.lastModified, entry.versionId, bytes, null);
+        }
+        return new S3ObjectData(entry.key, entry.size, entry.eTag, entry.lastModified, entry.versionId,
+                null, new FileInputStream(entry.file));
+    }
+
+    /**
+     * Adds a freshly fetched object to the cache. Buffered content is written straight away. Streamed content is
+     * returned wrapped in a stream that copies it to the cache as the caller reads it.
+     *
+     * @param bucketName the bucket of the object
+     * @param objectData the object as fetched from S3
+     *
+     * @return the object to hand to the caller in place of {@code objectData}
+     */
+    public S3ObjectData fill(String bucketName, S3ObjectData objectData) {
+        misses.incrementAndGet();
+        if (objectData.getETag() == null || objectData.getContentLength() > maxBytes) {
+            return objectData;
+        }
+        if (objectData.getBytes() != null) {
+            File partial = null;
+            try {
+                partial = File.createTempFile(FILE_PREFIX, PARTIAL_SUFFIX, directory);
+                Files.write(partial.toPath(), objectData.getBytes());
+                commit(bucketName, objectData, partial);
+            } catch (IOException e) {
+                logger.error("Could not cache {}: {}", objectData.getKey(), e.getMessage());
+                deleteQuietly(partial);
+            }
+            return objectData;
+        }
+        try {
+            File partial = File.createTempFile(FILE_PREFIX, PARTIAL_SUFFIX, directory);
+            InputStream tee = new TeeInputStream(objectData.getDataInputStream(), bucketName, objectData, partial);
+            return new S3ObjectData(objectData.getKey(), objectData.getContentLength(), objectData.getETag(),
+                    objectData.getLastModified(), objectData.getVersionId(), null, tee);
+        } catch (IOException e) {
+            logger.error("Could not cache {}: {}", objectData.getKey(), e.getMessage());
+            return objectData;
+        }
+    }
+
+    /**
+     * Drops the cached copy of an object.
+     *
+     * @param bucketName the bucket of the object
+     * @param key the key of the object
+     */
+    public synchronized void remove(String bucketName, String key) {
+        Entry entry = entries.remove(cacheKey(bucketName, key));
+        if (entry != null) {
+            currentBytes -= entry.size;
+            deleteQuietly(entry.file);
+        }
+    }
+
+    /**
+     * Retrieves a summary of the cache counters.
+     *
+     * @return the counters as a String
+     */
+    public synchronized String getStatistics() {
+        return "entries=" + entries.size() + ", bytes=" + currentBytes + ", maxBytes=" + maxBytes
+                + ", hits=" + hits.get() + ", revalidations=" + revalidations.get() + ", misses=" + misses.get()
+                + ", evictions=" + evictions.get();
+    }
+
+    private void commit(String bucketName, S3ObjectData objectData, File partial) throws IOException {
+        File target = new File(directory, FILE_PREFIX + fileName(bucketName, objectData.getKey(), objectData.getETag()));
+        Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        Entry entry = new Entry(objectData.getKey(), target, objectData.getContentLength(), objectData.getETag(),
+                objectData.getLastModified(), objectData.getVersionId());
+        synchronized (this) {
+            Entry previous = entries.put(cacheKey(bucketName, objectData.getKey()), entry);
+            if (previous != null) {
+                currentBytes -= previous.size;
+                if (!previous.file.equals(target)) {
+                    deleteQuietly(previous.file);
+                }
+            }
+            currentBytes += entry.size;
+            evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            currentBytes -= entry.size;
+            evictions.incrementAndGet();
+            // Open readers on POSIX systems keep reading the unlinked file.
+            deleteQuietly(entry.file);
+        }
+    }
+
+    private static String cacheKey(String bucketName, String key) {
+        return bucketName + "/" + key;
+    }
+
+    private static String fileName(String bucketName, String key, String eTag) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((bucketName + "/" + key + "/" + eTag).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file != null && file.exists() && !file.delete()) {
+            logger.error("Could not delete cache file {}", file);
+        }
+    }
+
+    /**
+     * One cached object.
+     */
+    public static final class Entry {
+        private final String key;
+        private final File file;
+        private final long size;
+        private final String eTag;
+        private final Date lastModified;
+        private final String versionId;
+        private volatile long validatedAt;
+
+        private Entry(String key, File file, long size, String eTag, Date lastModified, String versionId) {
+            this.key = key;
+            this.file = file;
+            this.size = size;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.versionId = versionId;
+            this.validatedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * @return the ETag of the cached copy
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return the size of the cached copy in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Copies everything the caller reads into a partial cache file, and commits the file once the whole object has
+     * been read. Closing early, or a failed write, discards the partial file without affecting the caller.
+     */
+    private final class TeeInputStream extends FilterInputStream {
+        private final String bucketName;
+        private final S3ObjectData objectData;
+        private final File partial;
+        private OutputStream output;
+        private long written;
+        private boolean done;
+
+        private TeeInputStream(InputStream input, String bucketName, S3ObjectData objectData, File partial) throws IOException {
+            super(input);
+            this.bucketName = bucketName;
+            this.objectData = objectData;
+            this.partial = partial;
+            this.output = new FileOutputStream(partial);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                finish();
+            } else {
+                copy(new byte[] { (byte) b }, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n == -1) {
+                finish();
+            } else {
+                copy(buffer, offset, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes never reach the cache file, so the copy can no longer be complete.
+            abandon();
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (written == objectData.getContentLength()) {
+                    finish();
+                } else {
+                    abandon();
+                }
+            } finally {
+                super.close();
+            }
+        }
+
+        private void copy(byte[] buffer, int offset, int length) {
+            if (output == null) {
+                return;
+            }
+            try {
+                output.write(buffer, offset, length);
+                written += length;
+            } catch (IOException e) {
+                logger.error("Could not cache {}: {}", objectData.getKey(), e.getMessage());
+                abandon();
+            }
+        }
+
+        private void finish() {
+            if (done || output == null) {
+                return;
+            }
+            done = true;
+            try {
+                output.close();
+                output = null;
+                if (written == objectData.getContentLength()) {
+                    commit(bucketName, objectData, partial);
+                } else {
+                    deleteQuietly(partial);
+                }
+            } catch (IOException e) {
+                logger.error("Could not cache {}: {}", objectData.getKey(), e.getMessage());
+                deleteQuietly(partial);
+            }
+        }
+
+        private void abandon() {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    // The partial file is deleted anyway.
+                }
+                output = null;
+            }
+            deleteQuietly(partial);
+        }
+    }
+}
@@ -1,25 +1,40 @@
 package com.accusoft.pdjs3;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 
+import com.accusoft.contenthandler.common.HandlerMetrics;
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
-import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.retry.RetryUtils;
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.BucketVersioningConfiguration;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest.KeyVersion;
 import com.amazonaws.services.s3.model.GetObjectRequest;
-import com.amazonaws.services.s3.model.ListObjectsRequest;
-import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
@@ -37,12 +52,45 @@ public class S3Handler {
     private String region;
     private String bucketName;
     private String folderName = "";
-    private AmazonS3 s3Client;
+    private S3RangedDownloader rangedDownloader;
+    private S3MultipartUploader multipartUploader;
+    private Executor asyncExecutor;
+    private S3KeyIndex keyIndex;
+    private S3DiskCache diskCache;
+    private S3HedgingPolicy hedgingPolicy;
+    private S3SingleFlight<String, S3ObjectData> readFlights;
+    private S3SingleFlight<String, String[]> listingFlights;
+    private long maxSharedStreamBytes = DEFAULT_MAX_SHARED_STREAM_BYTES;
+    private HandlerMetrics metrics = new HandlerMetrics("com.accusoft.pdjs3");
+
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int MAX_KEYS_PER_DELETE = 1000;
+    // Streams of unknown length up to this size are buffered in memory; longer ones are spilled to a temp file.
+    private static final int MAX_IN_MEMORY_UPLOAD_SIZE = 8 * 1024 * 1024;
+
+    /** Default size up to which a streamed read that others are waiting for is buffered so they can share it. */
+    public static final long DEFAULT_MAX_SHARED_STREAM_BYTES = 32L * 1024 * 1024;
+
+    // Names of the timers and counters recorded for S3 requests and the disk cache.
+    static final String METRIC_GET = "s3.get";
+    static final String METRIC_HEAD = "s3.head";
+    static final String METRIC_PUT = "s3.put";
+    static final String METRIC_LIST = "s3.list";
+    static final String METRIC_DELETE = "s3.delete";
+    static final String METRIC_BYTES_READ = "s3.bytesRead";
+    static final String METRIC_BYTES_WRITTEN = "s3.bytesWritten";
+    static final String METRIC_CACHE_HITS = "diskCache.hits";
+    static final String METRIC_CACHE_REVALIDATED = "diskCache.revalidated";
+    static final String METRIC_CACHE_MISSES = "diskCache.misses";
+
+    // Versioning status per bucket, shared by every S3Handler so the control-plane calls happen once per process.
+    private static final ConcurrentHashMap<String, String> bucketVersioningStatus = new ConcurrentHashMap<>();
 
     private static final Logger logger = org.slf4j.LoggerFactory.getLogger(S3Handler.class);
 
     /**
-     * Constructs an S3Handler object with the specified credentials and region.
+     * Constructs an S3Handler object with the specified credentials and region. The underlying AmazonS3 client is
+     * shared with every other S3Handler using the same credentials and region.
      *
      * @param accessKeyId the access key ID for the Amazon S3 client
      * @param secretAccessKey the secret access key for the Amazon S3 client
@@ -55,31 +103,20 @@ public class S3Handler {
     }
     
     /**
-     * Creates a new AmazonS3 client with the configured credentials and region.
+     * Returns the shared AmazonS3 client for the configured credentials and region. Clients come from the
+     * process-wide {@link S3ClientRegistry}, so every S3Handler with the same credentials shares one connection pool.
+     * The client is looked up on every call rather than kept, so a handler picks up the new client built after a
+     * settings change or {@link S3ClientRegistry#shutdown()}.
      *
-     * @param accessKeyId the access key ID for the Amazon S3 client
-     * @param secretAccessKey the secret access key for the Amazon S3 client
-     * @param region the region for the Amazon S3 client
+     * @throws AmazonS3Exception if the credentials are incomplete or an error occurs while creating the client
      *
-     * @throws AmazonS3Exception if an error occurs while creating the AmazonS3 client
-     * 
-     * @return a new AmazonS3 client object
+     * @return the shared AmazonS3 client
      */
-    private AmazonS3 createAmazonS3Client(String accessKeyId, String secretAccessKey, String region) throws AmazonS3Exception {
+    private AmazonS3 getS3Client() throws AmazonS3Exception {
         validateAwsCredentials(accessKeyId, secretAccessKey, region);
-    
-        try {
-            BasicAWSCredentials awsCredentials = new BasicAWSCredentials(accessKeyId, secretAccessKey);
-            return AmazonS3ClientBuilder.standard()
-                    .withRegion(region)
-                    .withCredentials(new AWSStaticCredentialsProvider(awsCredentials))
-                    .build();
-        } catch (AmazonS3Exception e) {
-            logger.error("Error creating Amazon S3 client", e);
-            throw e;
-        }
+        return S3ClientRegistry.getClient(accessKeyId, secretAccessKey, region);
     }
-    
+
     /**
      * Validates the AWS credentials and region.
      *
@@ -167,38 +204,87 @@ public class S3Handler {
     }
 
     /**
-     * Retrieves an S3 object from the specified Amazon S3 bucket and folder.
+     * Retrieves an S3 object from the specified Amazon S3 bucket and folder with a single GET request.
      *
      * @param bucketName the name of the bucket containing the S3 object
      * @param folderName the name of the folder containing the S3 object
      * @param documentName the name of the S3 object to retrieve
      * 
-     * @throws AmazonS3Exception if an error occurs while retrieving the S3 object
+     * @throws AmazonS3Exception if the bucket or document name is empty
      *
-     * @return the S3 object with the specified name
+     * @return the S3 object with the specified name, or null if it does not exist or could not be retrieved
      */
     private S3Object getS3Object(String bucketName, String folderName, String documentName) throws AmazonS3Exception {
         validateBucketName(bucketName);
         validateDocumentName(documentName);
 
-        if (s3Client == null) {
-            s3Client = createAmazonS3Client(accessKeyId, secretAccessKey, region);
-        }
+        AmazonS3 s3Client = getS3Client();
 
-        if (documentName.isEmpty()) {
-            logger.info("Document name is required");
+        String key = getDocumentKey(folderName, documentName);
+
+        logger.info("Retrieving {} S3 ", key);
+
+        try {
+            return sendGet(s3Client, new GetObjectRequest(bucketName, key));
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == HTTP_NOT_FOUND) {
+                logger.info("{} could not be found in S3 bucket", key);
+            } else if (RetryUtils.isThrottlingException(e)) {
+                // Still throttled after every retry; the object may well exist, so this is not a miss.
+                logger.error("S3 throttled retrieval of {}: {}", key, e.getMessage());
+                throw e;
+            } else {
+                logger.error("Error retrieving {} from S3: {}", key, e.getMessage());
+            }
             return null;
         }
+    }
+
+    /**
+     * Retrieves an S3 object through the ranged downloader.
+     *
+     * @param bucketName the name of the bucket containing the S3 object
+     * @param folderName the name of the folder containing the S3 object
+     * @param documentName the name of the S3 object to retrieve
+     * @param allowSpill true to spill large objects to a temp file and return a stream over it
+     *
+     * @throws IOException if the object could not be downloaded after retries
+     * @throws AmazonS3Exception if the bucket or document name is empty
+     *
+     * @return the content and metadata of the object, or null if it does not exist or could not be retrieved
+     */
+    private S3ObjectData getS3ObjectRanged(String bucketName, String folderName, String documentName, boolean allowSpill) throws IOException, AmazonS3Exception {
+        validateBucketName(bucketName);
+        validateDocumentName(documentName);
+
+        AmazonS3 s3Client = getS3Client();
 
         String key = getDocumentKey(folderName, documentName);
 
         logger.info("Retrieving {} S3 ", key);
 
+        HandlerMetrics.Timer timer = metrics.timer(METRIC_GET);
+        long started = timer.start();
         try {
-            return s3Client.getObject(new GetObjectRequest(bucketName, key));
+            S3ObjectData objectData = rangedDownloader.download(s3Client, bucketName, key, allowSpill, hedgingPolicy);
+            if (objectData == null) {
+                logger.info("{} could not be found in S3 bucket", key);
+            } else {
+                metrics.counter(METRIC_BYTES_READ).add(objectData.getContentLength());
+            }
+            return objectData;
         } catch (AmazonS3Exception e) {
+            timer.failed();
             logger.error("Error retrieving {} from S3: {}", key, e.getMessage());
+            if (RetryUtils.isThrottlingException(e)) {
+                throw e;
+            }
             return null;
+        } catch (IOException | RuntimeException e) {
+            timer.failed();
+            throw e;
+        } finally {
+            timer.stop(started);
         }
     }
 
@@ -215,124 +301,366 @@ public class S3Handler {
         validateBucketName(bucketName);
         validateDocumentName(documentName);
         String key;
-        if (s3Client == null) {
-            s3Client = createAmazonS3Client(accessKeyId, secretAccessKey, region);
-        }
+        AmazonS3 s3Client = getS3Client();
         
    
         documentName = getDocumentKey(folderName, documentName);
     
         
+        HandlerMetrics.Timer timer = metrics.timer(METRIC_HEAD);
+        long started = timer.start();
         try {
             return s3Client.doesObjectExist(bucketName, documentName);
         } catch (AmazonS3Exception e) {
+            timer.failed();
             e.printStackTrace();
             return false;
+        } finally {
+            timer.stop(started);
         }
     }
 
 
 
     /**
-     * Retrieves a DataInputStream containing the contents of the specified document in Amazon S3.
+     * Retrieves the current version of the specified document with a HEAD request.
+     *
+     * @param documentName the name of the document
+     * @param bucketName the name of the bucket containing the document
+     * @param folderName the name of the folder containing the document
+     *
+     * @throws AmazonS3Exception if the bucket or document name is empty
+     *
+     * @return the version ID of the document if the bucket is versioned, otherwise its ETag; null if the document
+     *         does not exist or could not be checked
+     */
+    public String getS3ObjectVersion(String documentName, String bucketName, String folderName) throws AmazonS3Exception {
+        validateBucketName(bucketName);
+        validateDocumentName(documentName);
+
+        AmazonS3 s3Client = getS3Client();
+
+        String key = getDocumentKey(folderName, documentName);
+
+        HandlerMetrics.Timer timer = metrics.timer(METRIC_HEAD);
+        long started = timer.start();
+        try {
+            ObjectMetadata metadata = s3Client.getObjectMetadata(bucketName, key);
+            return S3CacheValidator.versionOf(metadata.getVersionId(), metadata.getETag());
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != HTTP_NOT_FOUND) {
+                timer.failed();
+                logger.error("Error checking version of {} in S3: {}", key, e.getMessage());
+            }
+            return null;
+        } finally {
+            timer.stop(started);
+        }
+    }
+
+    /**
+     * Retrieves the specified document from Amazon S3 with a single GET request and leaves its content as an open
+     * stream. The caller must close the returned object to release the connection.
+     *
+     * When ranged downloads are enabled, documents larger than the ranged download threshold are fetched in
+     * concurrent parts into memory or a temp file, and the returned stream reads from there.
      *
      * @param documentName the name of the document to retrieve
      * @param bucketName the name of the bucket containing the document
      * @param folderName the name of the folder containing the document
-     * @return a DataInputStream containing the contents of the document
+     * @return the content stream and metadata of the document, or null if the document does not exist
      *
-     * @throws IOException if an I/O error occurs while reading the document from Amazon S3
+     * @throws IOException if an I/O error occurs while downloading the document in ranged parts
      * @throws AmazonS3Exception if an error occurs while retrieving the document from Amazon S3
      */
-    public DataInputStream getFileS3DataInputStream(String documentName, String bucketName, String folderName) throws IOException {
-        validateBucketName(bucketName); 
+    public S3ObjectData getS3ObjectStream(String documentName, String bucketName, String folderName) throws IOException, AmazonS3Exception {
+        S3SingleFlight<String, S3ObjectData> flights = readFlights;
+        if (flights == null) {
+            return loadS3ObjectStream(documentName, bucketName, folderName);
+        }
+        validateBucketName(bucketName);
         validateDocumentName(documentName);
+        return flights.execute("stream:" + bucketName + "/" + getDocumentKey(folderName, documentName),
+                flight -> shareStream(loadS3ObjectStream(documentName, bucketName, folderName), flight));
+    }
 
-        if (s3Client == null) {
-            s3Client = createAmazonS3Client(accessKeyId, secretAccessKey, region);
+    private S3ObjectData loadS3ObjectStream(String documentName, String bucketName, String folderName) throws IOException, AmazonS3Exception {
+        if (diskCache != null) {
+            return readThroughCache(documentName, bucketName, folderName, false);
         }
+        return fetchS3ObjectStream(documentName, bucketName, folderName);
+    }
 
-        S3Object s3Object = null;
+    /**
+     * Buffers a streamed read when other callers are waiting for it, so they can share it instead of sending their
+     * own GETs. A read nobody waits for, or one too large to hold in memory, is left as a stream.
+     */
+    private S3ObjectData shareStream(S3ObjectData objectData, S3SingleFlight.Flight flight) throws IOException {
+        if (objectData == null || objectData.getBytes() != null || !flight.hasFollowers()
+                || objectData.getContentLength() > maxSharedStreamBytes) {
+            return objectData;
+        }
+        long contentLength = objectData.getContentLength();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(contentLength > 0 ? (int) contentLength : 4096);
+        try (InputStream input = objectData.getDataInputStream()) {
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = input.read(buffer)) != -1) {
+                output.write(buffer, 0, len);
+            }
+        }
+        return new S3ObjectData(objectData.getKey(), contentLength, objectData.getETag(), objectData.getLastModified(),
+                objectData.getVersionId(), output.toByteArray(), null);
+    }
 
-        if (!doesS3FileExist(bucketName, folderName, documentName)) {
-            logger.info("{} could not be found in S3 bucket", documentName);
+    private S3ObjectData fetchS3ObjectStream(String documentName, String bucketName, String folderName) throws IOException, AmazonS3Exception {
+        if (rangedDownloader != null) {
+            return getS3ObjectRanged(bucketName, folderName, documentName, true);
+        }
+        S3Object s3Object = getS3Object(bucketName, folderName, documentName);
+        if (s3Object == null) {
             return null;
-        } else {
-            try {
-                s3Object = getS3Object(bucketName, folderName, documentName);
-                if (s3Object != null) {
-                    InputStream input = s3Object.getObjectContent().getDelegateStream();
-                    DataInputStream dis = new DataInputStream(input);
-                    return dis;
-                }
-            } catch (AmazonS3Exception e) {
-                logger.error("Error retrieving S3 object: {}", e.getMessage());
-                return null;
-            }
         }
-        return null;
+        return new S3ObjectData(s3Object.getKey(), s3Object.getObjectMetadata(), null, s3Object.getObjectContent());
     }
 
     /**
-     * Retrieves a byte array containing the contents of the specified document in Amazon S3.
+     * Retrieves the specified document from Amazon S3 with a single GET request and buffers its content.
+     *
+     * When ranged downloads are enabled, documents larger than the ranged download threshold are fetched in
+     * concurrent parts straight into a buffer of the right size.
      *
      * @param documentName the name of the document to retrieve
      * @param bucketName the name of the bucket containing the document
      * @param folderName the name of the folder containing the document
-     * @return a byte array containing the contents of the document
+     * @return the content and metadata of the document, or null if the document does not exist
      *
      * @throws IOException if an I/O error occurs while reading the document from Amazon S3
      * @throws AmazonS3Exception if an error occurs while retrieving the document from Amazon S3
      */
-    public byte[] getFileS3Bytes(String documentName, String bucketName, String folderName) throws IOException, AmazonS3Exception {
-        validateBucketName(bucketName); 
+    public S3ObjectData getS3ObjectData(String documentName, String bucketName, String folderName) throws IOException, AmazonS3Exception {
+        S3SingleFlight<String, S3ObjectData> flights = readFlights;
+        if (flights == null) {
+            return loadS3ObjectData(documentName, bucketName, folderName);
+        }
+        validateBucketName(bucketName);
+        validateDocumentName(documentName);
+        return flights.execute("data:" + bucketName + "/" + getDocumentKey(folderName, documentName),
+                flight -> loadS3ObjectData(documentName, bucketName, folderName));
+    }
+
+    private S3ObjectData loadS3ObjectData(String documentName, String bucketName, String folderName) throws IOException, AmazonS3Exception {
+        if (diskCache != null) {
+            return readThroughCache(documentName, bucketName, folderName, true);
+        }
+        return fetchS3ObjectData(documentName, bucketName, folderName);
+    }
+
+    /**
+     * Retrieves the specified document into memory with a single GET request, bypassing the disk cache and the
+     * ranged downloader. Unlike getS3ObjectData, a failed request is reported instead of being treated as a missing
+     * document, so callers that rewrite what they read never mistake an error for "nothing there yet".
+     *
+     * @param documentName the name of the document to retrieve
+     * @param bucketName the name of the bucket containing the document
+     * @param folderName the name of the folder containing the document
+     * @return the content and metadata of the document, or null if the document does not exist
+     *
+     * @throws IOException if an I/O error occurs while reading the document from Amazon S3
+     * @throws AmazonS3Exception if S3 rejects the request for any reason other than a missing document
+     */
+    public S3ObjectData getS3ObjectDataStrict(String documentName, String bucketName, String folderName) throws IOException, AmazonS3Exception {
+        validateBucketName(bucketName);
         validateDocumentName(documentName);
 
-        if (s3Client == null) {
-            s3Client = createAmazonS3Client(accessKeyId, secretAccessKey, region);
+        String key = getDocumentKey(folderName, documentName);
+
+        S3SingleFlight<String, S3ObjectData> flights = readFlights;
+        if (flights == null) {
+            return fetchS3ObjectDataStrict(bucketName, key);
         }
+        return flights.execute("strict:" + bucketName + "/" + key, flight -> fetchS3ObjectDataStrict(bucketName, key));
+    }
 
-        S3Object s3Object = null;
+    private S3ObjectData fetchS3ObjectDataStrict(String bucketName, String key) throws IOException, AmazonS3Exception {
+        AmazonS3 s3Client = getS3Client();
 
-        if (!doesS3FileExist(bucketName, folderName, documentName)) {
-            logger.info("{} could not be found in S3 bucket", documentName);
-            return null;
-        } else {
-            try {
-                s3Object = getS3Object(bucketName, folderName, documentName);
-                if (s3Object != null) {
-                    try (InputStream input = s3Object.getObjectContent()) {
-                        ByteArrayOutputStream output = new ByteArrayOutputStream();
-
-                        int len;
-                        byte[] buffer = new byte[4096];
-
-                        while ((len = input.read(buffer, 0, 4096)) != -1) {
-                            output.write(buffer, 0, len);
-                        }
-
-                        if (output.size() == 0) {
-                            logger.info("Document is empty");
-                            return null;
-                        } else {
-                            return output.toByteArray();
-                        }
-
-                    } catch (IOException e) {
-                        logger.error("Error retrieving document from S3: {}", e.getMessage());
-                        return null;
-                    }
-                }
-            } catch (AmazonS3Exception e) {
-                logger.error("Error retrieving S3 object: {}", e.getMessage());
+        S3Object s3Object;
+        try {
+            s3Object = sendGet(s3Client, new GetObjectRequest(bucketName, key));
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == HTTP_NOT_FOUND) {
                 return null;
-            } finally {
-                if (s3Object != null) {
-                    s3Object.close();
+            }
+            logger.error("Error retrieving {} from S3: {}", key, e.getMessage());
+            throw e;
+        } catch (AmazonClientException e) {
+            logger.error("Error retrieving {} from S3: {}", key, e.getMessage());
+            throw new AmazonS3Exception("Error retrieving " + key + " from S3", e);
+        }
+        return readS3Object(s3Object);
+    }
+
+    private S3ObjectData fetchS3ObjectData(String documentName, String bucketName, String folderName) throws IOException, AmazonS3Exception {
+        if (rangedDownloader != null) {
+            return getS3ObjectRanged(bucketName, folderName, documentName, false);
+        }
+        S3Object s3Object = getS3Object(bucketName, folderName, documentName);
+        if (s3Object == null) {
+            return null;
+        }
+        return readS3Object(s3Object);
+    }
+
+    /**
+     * Sends a GET request, hedged when a hedging policy is set.
+     */
+    private S3Object sendGet(AmazonS3 s3Client, GetObjectRequest request) {
+        HandlerMetrics.Timer timer = metrics.timer(METRIC_GET);
+        long started = timer.start();
+        try {
+            S3Object s3Object = hedgingPolicy != null
+                    ? hedgingPolicy.getObject(s3Client, request)
+                    : s3Client.getObject(request);
+            if (s3Object != null) {
+                metrics.counter(METRIC_BYTES_READ).add(s3Object.getObjectMetadata().getContentLength());
+            }
+            return s3Object;
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() != HTTP_NOT_FOUND) {
+                timer.failed();
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            timer.failed();
+            throw e;
+        } finally {
+            // Measured to the response headers; the content is read by the caller.
+            timer.stop(started);
+        }
+    }
+
+    /**
+     * Reads the whole content of an S3 object into memory and closes it.
+     */
+    private static S3ObjectData readS3Object(S3Object s3Object) throws IOException {
+        try (InputStream input = s3Object.getObjectContent()) {
+            ObjectMetadata metadata = s3Object.getObjectMetadata();
+            long contentLength = metadata.getContentLength();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(
+                    contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength : 4096);
+
+            int len;
+            byte[] buffer = new byte[4096];
+
+            while ((len = input.read(buffer, 0, 4096)) != -1) {
+                output.write(buffer, 0, len);
+            }
+
+            return new S3ObjectData(s3Object.getKey(), metadata, output.toByteArray(), null);
+        } finally {
+            s3Object.close();
+        }
+    }
+
+    /**
+     * Serves a read from the disk cache. A fresh entry is served without contacting S3. A stale entry is revalidated
+     * with a conditional GET, which transfers no content when the object is unchanged. Misses and changed objects
+     * are fetched as usual and added to the cache on the way to the caller.
+     */
+    private S3ObjectData readThroughCache(String documentName, String bucketName, String folderName, boolean buffered) throws IOException, AmazonS3Exception {
+        validateBucketName(bucketName);
+        validateDocumentName(documentName);
+
+        String key = getDocumentKey(folderName, documentName);
+        S3DiskCache.Entry entry = diskCache.lookup(bucketName, key);
+        if (entry == null) {
+            metrics.counter(METRIC_CACHE_MISSES).increment();
+            S3ObjectData fetched = buffered
+                    ? fetchS3ObjectData(documentName, bucketName, folderName)
+                    : fetchS3ObjectStream(documentName, bucketName, folderName);
+            return fetched == null ? null : diskCache.fill(bucketName, fetched);
+        }
+        if (!diskCache.needsRevalidation(entry)) {
+            metrics.counter(METRIC_CACHE_HITS).increment();
+            return diskCache.open(entry, buffered);
+        }
+
+        AmazonS3 s3Client = getS3Client();
+
+        S3Object s3Object;
+        try {
+            s3Object = sendGet(s3Client, new GetObjectRequest(bucketName, key).withNonmatchingETagConstraint(entry.getETag()));
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == HTTP_NOT_FOUND) {
+                logger.info("{} could not be found in S3 bucket", key);
+                diskCache.remove(bucketName, key);
+            } else {
+                logger.error("Error revalidating {} in S3: {}", key, e.getMessage());
+                if (RetryUtils.isThrottlingException(e)) {
+                    throw e;
                 }
             }
+            return null;
+        }
+        if (s3Object == null) {
+            // 304 Not Modified: the cached copy is current.
+            metrics.counter(METRIC_CACHE_REVALIDATED).increment();
+            diskCache.markValidated(entry);
+            return diskCache.open(entry, buffered);
+        }
+        S3ObjectData fetched = buffered
+                ? readS3Object(s3Object)
+                : new S3ObjectData(s3Object.getKey(), s3Object.getObjectMetadata(), null, s3Object.getObjectContent());
+        return diskCache.fill(bucketName, fetched);
+    }
+
+    /**
+     * Retrieves a DataInputStream containing the contents of the specified document in Amazon S3.
+     *
+     * @param documentName the name of the document to retrieve
+     * @param bucketName the name of the bucket containing the document
+     * @param folderName the name of the folder containing the document
+     * @return a DataInputStream containing the contents of the document, or null if the document does not exist
+     *
+     * @throws IOException if an I/O error occurs while reading the document from Amazon S3
+     * @throws AmazonS3Exception if an error occurs while retrieving the document from Amazon S3
+     */
+    public DataInputStream getFileS3DataInputStream(String documentName, String bucketName, String folderName) throws IOException {
+        S3ObjectData objectData = getS3ObjectStream(documentName, bucketName, folderName);
+        if (objectData == null) {
+            return null;
+        }
+        return objectData.getDataInputStream();
+    }
+
+    /**
+     * Retrieves a byte array containing the contents of the specified document in Amazon S3.
+     *
+     * @param documentName the name of the document to retrieve
+     * @param bucketName the name of the bucket containing the document
+     * @param folderName the name of the folder containing the document
+     * @return a byte array containing the contents of the document, or null if the document does not exist or is empty
+     *
+     * @throws IOException if an I/O error occurs while reading the document from Amazon S3
+     * @throws AmazonS3Exception if an error occurs while retrieving the document from Amazon S3
+     */
+    public byte[] getFileS3Bytes(String documentName, String bucketName, String folderName) throws IOException, AmazonS3Exception {
+        S3ObjectData objectData;
+        try {
+            objectData = getS3ObjectData(documentName, bucketName, folderName);
+        } catch (IOException e) {
+            logger.error("Error retrieving document from S3: {}", e.getMessage());
+            return null;
+        }
+        if (objectData == null) {
+            return null;
+        }
+        if (objectData.getBytes().length == 0) {
+            logger.info("Document is empty");
+            return null;
         }
-        return null;
+        return objectData.getBytes();
     }
 
     /**
@@ -341,32 +669,115 @@ public class S3Handler {
      * @param documentName    the name of the file to delete
      * @param bucketName  the name of the bucket containing the file
      * @param folderName  the name of the folder containing the file (optional)
+     *
+     * @throws AmazonS3Exception if the bucket or document name is empty, or S3 rejects the delete
+     * @throws AmazonClientException if the delete cannot be sent to S3
      */
     public void deleteFileFromS3(String documentName, String bucketName, String folderName) throws AmazonS3Exception, AmazonServiceException {
 
         validateBucketName(bucketName);
         validateDocumentName(documentName);
 
-        if (s3Client == null) {
-            s3Client = createAmazonS3Client(accessKeyId, secretAccessKey, region);
-        }
+        AmazonS3 s3Client = getS3Client();
 
         String key = getDocumentKey(folderName, documentName);
 
+        // Delete the file from the S3 bucket
+        HandlerMetrics.Timer timer = metrics.timer(METRIC_DELETE);
+        long started = timer.start();
         try {
-            // Delete the file from the S3 bucket
             s3Client.deleteObject(bucketName, key);
-            logger.info("deleting {} from S3", key);
-
-        } catch (AmazonServiceException e) {
-            e.printStackTrace();
         } catch (AmazonClientException e) {
-            e.printStackTrace();
+            timer.failed();
+            logger.error("Could not delete {} from S3", key, e);
+            throw e;
+        } finally {
+            timer.stop(started);
+        }
+        logger.info("deleting {} from S3", key);
+        if (keyIndex != null) {
+            keyIndex.keyDeleted(bucketName, key);
+        }
+        if (diskCache != null) {
+            diskCache.remove(bucketName, key);
+        }
+        forgetReads(bucketName, key);
+    }
+
+    /**
+     * Deletes several files from the specified Amazon S3 bucket and folder with multi-object delete requests of up
+     * to 1000 keys each, instead of one request per file.
+     *
+     * @param documentNames the names of the files to delete
+     * @param bucketName the name of the bucket containing the files
+     * @param folderName the name of the folder containing the files (optional)
+     *
+     * @throws AmazonS3Exception if the bucket name or a document name is empty
+     *
+     * @return the outcome for each file
+     */
+    public S3DeleteResult deleteFilesFromS3(List<String> documentNames, String bucketName, String folderName) throws AmazonS3Exception {
+
+        validateBucketName(bucketName);
+        for (String documentName : documentNames) {
+            validateDocumentName(documentName);
+        }
+
+        AmazonS3 s3Client = getS3Client();
+
+        S3DeleteResult deleteResult = new S3DeleteResult();
+        for (int start = 0; start < documentNames.size(); start += MAX_KEYS_PER_DELETE) {
+            List<String> batch = documentNames.subList(start, Math.min(start + MAX_KEYS_PER_DELETE, documentNames.size()));
+            List<KeyVersion> keys = new ArrayList<>(batch.size());
+            for (String documentName : batch) {
+                keys.add(new KeyVersion(getDocumentKey(folderName, documentName)));
+            }
+
+            Map<String, String> errors = new HashMap<>();
+            HandlerMetrics.Timer timer = metrics.timer(METRIC_DELETE);
+            long started = timer.start();
+            try {
+                s3Client.deleteObjects(new DeleteObjectsRequest(bucketName).withKeys(keys).withQuiet(true));
+            } catch (MultiObjectDeleteException e) {
+                for (MultiObjectDeleteException.DeleteError error : e.getErrors()) {
+                    errors.put(error.getKey(), error.getCode() + ": " + error.getMessage());
+                }
+            } catch (AmazonClientException e) {
+                timer.failed();
+                logger.error("Error deleting {} files from S3: {}", batch.size(), e.getMessage());
+                for (KeyVersion key : keys) {
+                    errors.put(key.getKey(), e.getMessage());
+                }
+            } finally {
+                timer.stop(started);
+            }
+
+            // Quiet mode only reports failures, so every other key in the batch was deleted.
+            for (int i = 0; i < batch.size(); i++) {
+                String key = keys.get(i).getKey();
+                String error = errors.get(key);
+                if (error == null) {
+                    deleteResult.addDeleted(batch.get(i));
+                    if (keyIndex != null) {
+                        keyIndex.keyDeleted(bucketName, key);
+                    }
+                    if (diskCache != null) {
+                        diskCache.remove(bucketName, key);
+                    }
+                    forgetReads(bucketName, key);
+                } else {
+                    deleteResult.addFailed(batch.get(i), error);
+                }
+            }
         }
+        logger.info("deleted {} of {} files from S3", deleteResult.getDeleted().size(), documentNames.size());
+        return deleteResult;
     }
 
     /**
-     * Saves a file to the specified Amazon S3 bucket and folder with auto-versioning.
+     * Saves a file to the specified Amazon S3 bucket and folder. Bucket versioning is not touched here; call
+     * {@link #ensureBucketVersioning(String)} once at startup instead. When a multipart uploader is set, files larger
+     * than its threshold are uploaded in concurrent parts.
      *
      * @param documentName    the name of the file to upload
      * @param file        the file to upload
@@ -385,72 +796,560 @@ public class S3Handler {
             throw new AmazonS3Exception("File is required");
         }
 
-        String key = getDocumentKey(folderName, documentName);
-
-        if (s3Client == null) {
-            s3Client = createAmazonS3Client(accessKeyId, secretAccessKey, region);
-        }
-
-        try {
-            ObjectMetadata metadata = new ObjectMetadata();
-            metadata.setContentLength(file.length());
-
-            PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, key, file)
-                    .withMetadata(metadata);
-
-            // Enable auto-versioning (enabled by default)
-            s3Client.setBucketVersioningConfiguration(
-                    new SetBucketVersioningConfigurationRequest(
-                            bucketName,
-                            new BucketVersioningConfiguration(BucketVersioningConfiguration.ENABLED)));
+        putToS3(documentName, bucketName, folderName, file.length(), (s3Client, key) -> {
+            if (multipartUploader != null) {
+                multipartUploader.upload(s3Client, bucketName, key, file);
+            } else {
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(file.length());
 
-            s3Client.putObject(putObjectRequest);
-            logger.info("{} saved to S3", documentName);
+                PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, key, file)
+                        .withMetadata(metadata);
 
-        } catch (AmazonS3Exception e) {
-            logger.error("Error saving {} to S3: {}", documentName, e.getMessage());
-            throw e;
-        }
+                s3Client.putObject(putObjectRequest);
+            }
+        });
     }
-    
+
     /**
-     * Lists the objects in the specified Amazon S3 bucket and folder.
+     * Saves an in-memory byte array to the specified Amazon S3 bucket and folder without writing it to disk first.
+     * When a multipart uploader is set, arrays larger than its threshold are uploaded in concurrent parts.
      *
-     * @param bucketName the name of the bucket to list objects from
-     * @param folderName the name of the folder to list objects from (optional)
+     * @param documentName the name of the document to upload
+     * @param data the bytes to upload
+     * @param bucketName the name of the bucket to upload the document to
+     * @param folderName the name of the folder to upload the document to (optional)
      *
-     * @return an array of object names in the specified bucket and folder
+     * @throws AmazonS3Exception if an error occurs while saving the document to Amazon S3
      */
-    public String[] listS3BucketObjects(String bucketName, String folderName) throws AmazonS3Exception {
+    public void saveBytesToS3(String documentName, byte[] data, String bucketName, String folderName) throws AmazonS3Exception {
 
         validateBucketName(bucketName);
+        validateDocumentName(documentName);
 
-        if (s3Client == null) {
-            s3Client = createAmazonS3Client(accessKeyId, secretAccessKey, region);
+        if (data == null) {
+            logger.info("Data to upload is required");
+            throw new AmazonS3Exception("Data is required");
         }
-    
-        ListObjectsRequest request = new ListObjectsRequest().withBucketName(bucketName).withPrefix(folderName);
-        ObjectListing objectListing;
-        List<String> filenames = new ArrayList<>();
-        int prefixLength = folderName == null || folderName.isEmpty() ? 0 : folderName.length() + 1;
 
-        do {
-            objectListing = s3Client.listObjects(request);
-            for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
-                if (!objectSummary.getKey().endsWith("/") && !objectSummary.getKey().substring(prefixLength).contains("/") && objectSummary.getKey().length() > prefixLength) {
-                    filenames.add(objectSummary.getKey().substring(prefixLength));
-                }
+        putToS3(documentName, bucketName, folderName, data.length, (s3Client, key) -> {
+            if (multipartUploader != null) {
+                multipartUploader.upload(s3Client, bucketName, key, data);
+            } else {
+                ObjectMetadata metadata = new ObjectMetadata();
+                metadata.setContentLength(data.length);
+
+                s3Client.putObject(new PutObjectRequest(bucketName, key, new ByteArrayInputStream(data), metadata));
             }
-            request.setMarker(objectListing.getNextMarker());
-        } while (objectListing.isTruncated());
-    
-        return filenames.toArray(new String[0]);
+        });
     }
 
     /**
-     * Retrieves the AWS access key ID.
+     * Saves the content of a stream to the specified Amazon S3 bucket and folder. The stream is not closed.
      *
-     * @return the access key ID as a String.
+     * When a multipart uploader is set, a stream of known length above its threshold is uploaded in concurrent parts
+     * as it is read (see {@link S3MultipartUploader#upload(AmazonS3, String, String, InputStream, long)}). Other
+     * streams are buffered in memory up to a fixed bound; longer streams are spilled to a temp file, which is
+     * uploaded and then deleted. Either way every request sends bytes that can be sent again if it fails.
+     *
+     * @param documentName the name of the document to upload
+     * @param input the stream to upload
+     * @param contentLength the number of bytes in the stream, or -1 if unknown
+     * @param bucketName the name of the bucket to upload the document to
+     * @param folderName the name of the folder to upload the document to (optional)
+     *
+     * @throws IOException if an I/O error occurs while reading the stream or writing the spill file
+     * @throws AmazonS3Exception if an error occurs while saving the document to Amazon S3
+     */
+    public void saveStreamToS3(String documentName, InputStream input, long contentLength, String bucketName, String folderName) throws IOException, AmazonS3Exception {
+
+        validateBucketName(bucketName);
+        validateDocumentName(documentName);
+
+        if (input == null) {
+            logger.info("Stream to upload is required");
+            throw new AmazonS3Exception("Stream is required");
+        }
+
+        if (contentLength >= 0 && multipartUploader != null && contentLength > multipartUploader.getThreshold()) {
+            putToS3(documentName, bucketName, folderName, contentLength,
+                    (s3Client, key) -> multipartUploader.upload(s3Client, bucketName, key, input, contentLength));
+            return;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int len;
+        while (buffer.size() < MAX_IN_MEMORY_UPLOAD_SIZE && (len = input.read(chunk)) != -1) {
+            buffer.write(chunk, 0, len);
+        }
+        if (buffer.size() < MAX_IN_MEMORY_UPLOAD_SIZE) {
+            saveBytesToS3(documentName, buffer.toByteArray(), bucketName, folderName);
+            return;
+        }
+
+        File spillFile = File.createTempFile("s3-upload-", ".tmp");
+        try {
+            try (FileOutputStream output = new FileOutputStream(spillFile)) {
+                buffer.writeTo(output);
+                buffer = null;
+                while ((len = input.read(chunk)) != -1) {
+                    output.write(chunk, 0, len);
+                }
+            }
+            saveFileToS3(documentName, spillFile, bucketName, folderName);
+        } finally {
+            if (!spillFile.delete()) {
+                logger.error("Could not delete spill file {}", spillFile);
+            }
+        }
+    }
+
+    /**
+     * Runs an upload with the shared error handling and key index bookkeeping of the save methods.
+     */
+    private void putToS3(String documentName, String bucketName, String folderName, long contentLength, S3Upload upload) throws AmazonS3Exception {
+
+        String key = getDocumentKey(folderName, documentName);
+
+        AmazonS3 s3Client = getS3Client();
+
+        HandlerMetrics.Timer timer = metrics.timer(METRIC_PUT);
+        long started = timer.start();
+        try {
+            upload.upload(s3Client, key);
+            metrics.counter(METRIC_BYTES_WRITTEN).add(contentLength);
+            logger.info("{} saved to S3", documentName);
+            if (keyIndex != null) {
+                keyIndex.keySaved(bucketName, key);
+            }
+            if (diskCache != null) {
+                diskCache.remove(bucketName, key);
+            }
+            forgetReads(bucketName, key);
+
+        } catch (AmazonS3Exception e) {
+            timer.failed();
+            logger.error("Error saving {} to S3: {}", documentName, e.getMessage());
+            throw e;
+        } catch (AmazonClientException e) {
+            timer.failed();
+            logger.error("Error saving {} to S3: {}", documentName, e.getMessage());
+            throw new AmazonS3Exception("Error saving " + documentName + " to S3", e);
+        } finally {
+            timer.stop(started);
+        }
+    }
+
+    /**
+     * Makes reads and listings that start after a change of an object send their own requests, instead of sharing
+     * one that may have started before the change.
+     */
+    private void forgetReads(String bucketName, String key) {
+        String objectKey = bucketName + "/" + key;
+        S3SingleFlight<String, S3ObjectData> objectFlights = readFlights;
+        if (objectFlights != null) {
+            objectFlights.forget("data:" + objectKey);
+            objectFlights.forget("stream:" + objectKey);
+            objectFlights.forget("strict:" + objectKey);
+        }
+        S3SingleFlight<String, String[]> prefixFlights = listingFlights;
+        if (prefixFlights != null) {
+            prefixFlights.forgetMatching(objectKey::startsWith);
+        }
+    }
+
+    /**
+     * Sends one document to S3 under the specified key.
+     */
+    private interface S3Upload {
+        void upload(AmazonS3 s3Client, String key) throws AmazonClientException;
+    }
+
+    /**
+     * Makes sure versioning is enabled on the specified bucket. The bucket status is read, and versioning enabled if
+     * needed, only the first time a bucket is seen; later calls answer from a process-wide cache.
+     *
+     * @param bucketName the name of the bucket to check
+     *
+     * @throws AmazonS3Exception if an error occurs while reading or changing the versioning configuration
+     *
+     * @return the versioning status of the bucket, normally "Enabled"
+     */
+    public String ensureBucketVersioning(String bucketName) throws AmazonS3Exception {
+        validateBucketName(bucketName);
+
+        String status = bucketVersioningStatus.get(bucketName);
+        if (status != null) {
+            return status;
+        }
+
+        AmazonS3 s3Client = getS3Client();
+
+        try {
+            status = s3Client.getBucketVersioningConfiguration(bucketName).getStatus();
+            if (!BucketVersioningConfiguration.ENABLED.equals(status)) {
+                s3Client.setBucketVersioningConfiguration(
+                        new SetBucketVersioningConfigurationRequest(
+                                bucketName,
+                                new BucketVersioningConfiguration(BucketVersioningConfiguration.ENABLED)));
+                logger.info("Enabled versioning on bucket {} (was {})", bucketName, status);
+                status = BucketVersioningConfiguration.ENABLED;
+            }
+            bucketVersioningStatus.put(bucketName, status);
+            return status;
+        } catch (AmazonS3Exception e) {
+            logger.error("Error configuring versioning on bucket {}: {}", bucketName, e.getMessage());
+            throw e;
+        } catch (AmazonClientException e) {
+            logger.error("Error configuring versioning on bucket {}: {}", bucketName, e.getMessage());
+            throw new AmazonS3Exception("Error configuring versioning on bucket " + bucketName, e);
+        }
+    }
+
+    /**
+     * Discards the cached versioning status of the specified bucket and checks it again against S3, enabling
+     * versioning if it has been suspended since the last check.
+     *
+     * @param bucketName the name of the bucket to check
+     *
+     * @throws AmazonS3Exception if an error occurs while reading or changing the versioning configuration
+     *
+     * @return the versioning status of the bucket, normally "Enabled"
+     */
+    public String verifyBucketVersioning(String bucketName) throws AmazonS3Exception {
+        validateBucketName(bucketName);
+        bucketVersioningStatus.remove(bucketName);
+        return ensureBucketVersioning(bucketName);
+    }
+
+    /**
+     * Aborts incomplete multipart uploads in the specified bucket and folder that were started more than the
+     * specified number of hours ago.
+     *
+     * @param bucketName the name of the bucket to clean up
+     * @param folderName the name of the folder to clean up (optional)
+     * @param olderThanHours the minimum age in hours of the uploads to abort
+     *
+     * @return the number of aborted uploads
+     */
+    public int abortStaleMultipartUploads(String bucketName, String folderName, long olderThanHours) throws AmazonS3Exception {
+        validateBucketName(bucketName);
+
+        AmazonS3 s3Client = getS3Client();
+
+        String prefix = folderName == null || folderName.isEmpty() ? null : getDocumentKey(folderName, "");
+        Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(olderThanHours));
+        try {
+            int aborted = S3MultipartUploader.abortStaleUploads(s3Client, bucketName, prefix, cutoff);
+            if (aborted > 0) {
+                logger.info("Aborted {} stale multipart uploads in {}", aborted, bucketName);
+            }
+            return aborted;
+        } catch (AmazonClientException e) {
+            logger.error("Error cleaning up multipart uploads in {}: {}", bucketName, e.getMessage());
+            return 0;
+        }
+    }
+    
+    /**
+     * Lists the objects in the specified Amazon S3 bucket and folder.
+     *
+     * @param bucketName the name of the bucket to list objects from
+     * @param folderName the name of the folder to list objects from (optional)
+     *
+     * @return an array of object names in the specified bucket and folder
+     */
+    public String[] listS3BucketObjects(String bucketName, String folderName) throws AmazonS3Exception {
+        return listS3BucketObjects(bucketName, folderName, null);
+    }
+
+    /**
+     * Lists the objects in the specified Amazon S3 bucket and folder whose names start with the specified prefix.
+     * When single-flight reads are enabled, concurrent listings of the same prefix share one series of requests.
+     *
+     * @param bucketName the name of the bucket to list objects from
+     * @param folderName the name of the folder to list objects from (optional)
+     * @param namePrefix the prefix the object names must start with (optional)
+     *
+     * @throws AmazonS3Exception if the bucket name is empty or the listing fails
+     *
+     * @return an array of the matching object names
+     */
+    public String[] listS3BucketObjects(String bucketName, String folderName, String namePrefix) throws AmazonS3Exception {
+        S3SingleFlight<String, String[]> flights = listingFlights;
+        if (flights == null) {
+            return collectS3BucketObjects(bucketName, folderName, namePrefix);
+        }
+        validateBucketName(bucketName);
+        String prefix = getDocumentKey(folderName, namePrefix == null ? "" : namePrefix);
+        try {
+            // Each caller gets its own copy of the shared array.
+            return flights.execute(bucketName + "/" + prefix,
+                    flight -> collectS3BucketObjects(bucketName, folderName, namePrefix)).clone();
+        } catch (IOException e) {
+            // The listing itself throws no I/O errors; only an interrupted wait ends up here.
+            throw new AmazonS3Exception("Interrupted while listing " + prefix, e);
+        }
+    }
+
+    private String[] collectS3BucketObjects(String bucketName, String folderName, String namePrefix) throws AmazonS3Exception {
+        List<String> filenames = new ArrayList<>();
+        Iterator<String> names = iterateS3BucketObjects(bucketName, folderName, namePrefix);
+        while (names.hasNext()) {
+            filenames.add(names.next());
+        }
+        return filenames.toArray(new String[0]);
+    }
+
+    /**
+     * Lists the objects directly inside the specified Amazon S3 bucket and folder, one page at a time.
+     *
+     * The listing uses ListObjectsV2 with a "/" delimiter, so S3 returns only the folder's direct children and rolls
+     * nested keys up into common prefixes that are skipped. Each page is requested only when the previous one has
+     * been consumed, so callers that stop early never pay for the rest of a large folder. Errors while fetching a
+     * later page are thrown from {@code hasNext()} as an AmazonS3Exception.
+     *
+     * @param bucketName the name of the bucket to list objects from
+     * @param folderName the name of the folder to list objects from (optional)
+     *
+     * @throws AmazonS3Exception if the bucket name is empty
+     *
+     * @return a lazy iterator over the object names in the specified bucket and folder
+     */
+    public Iterator<String> iterateS3BucketObjects(String bucketName, String folderName) throws AmazonS3Exception {
+        return iterateS3BucketObjects(bucketName, folderName, null);
+    }
+
+    /**
+     * Lists the objects directly inside the specified Amazon S3 bucket and folder whose names start with the
+     * specified prefix. S3 filters on the prefix, so only matching names are transferred.
+     *
+     * @param bucketName the name of the bucket to list objects from
+     * @param folderName the name of the folder to list objects from (optional)
+     * @param namePrefix the prefix the object names must start with (optional)
+     *
+     * @throws AmazonS3Exception if the bucket name is empty
+     *
+     * @return a lazy iterator over the matching object names
+     *
+     * @see #iterateS3BucketObjects(String, String)
+     */
+    public Iterator<String> iterateS3BucketObjects(String bucketName, String folderName, String namePrefix) throws AmazonS3Exception {
+
+        validateBucketName(bucketName);
+
+        AmazonS3 s3Client = getS3Client();
+
+        String folderPrefix = folderName == null || folderName.isEmpty() ? "" : folderName + "/";
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(bucketName)
+                .withPrefix(namePrefix == null ? folderPrefix : folderPrefix + namePrefix)
+                .withDelimiter("/");
+        return new ObjectNameIterator(s3Client, request, folderPrefix.length(), metrics.timer(METRIC_LIST));
+    }
+
+    /**
+     * Walks the pages of a ListObjectsV2 listing, fetching the next page only when the current one is used up.
+     */
+    private static final class ObjectNameIterator implements Iterator<String> {
+        private final AmazonS3 s3Client;
+        private final ListObjectsV2Request request;
+        private final int prefixLength;
+        private final HandlerMetrics.Timer listTimer;
+        private Iterator<S3ObjectSummary> page = Collections.emptyIterator();
+        private boolean lastPage;
+        private String next;
+
+        private ObjectNameIterator(AmazonS3 s3Client, ListObjectsV2Request request, int prefixLength, HandlerMetrics.Timer listTimer) {
+            this.s3Client = s3Client;
+            this.request = request;
+            this.prefixLength = prefixLength;
+            this.listTimer = listTimer;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (page.hasNext()) {
+                    String key = page.next().getKey();
+                    // Skip the folder placeholder object itself.
+                    if (key.length() > prefixLength && !key.endsWith("/")) {
+                        next = key.substring(prefixLength);
+                    }
+                } else if (lastPage) {
+                    return false;
+                } else {
+                    ListObjectsV2Result result;
+                    long started = listTimer.start();
+                    try {
+                        result = s3Client.listObjectsV2(request);
+                    } catch (RuntimeException e) {
+                        listTimer.failed();
+                        throw e;
+                    } finally {
+                        listTimer.stop(started);
+                    }
+                    page = result.getObjectSummaries().iterator();
+                    request.setContinuationToken(result.getNextContinuationToken());
+                    lastPage = !result.isTruncated();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String name = next;
+            next = null;
+            return name;
+        }
+    }
+
+    /**
+     * Asynchronously checks if the specified file exists in the specified Amazon S3 bucket and folder.
+     *
+     * @param bucketName the name of the bucket containing the file
+     * @param folderName the name of the folder containing the file
+     * @param documentName the name of the document to check for
+     *
+     * @return a future completed with true if the file exists, false otherwise
+     */
+    public CompletableFuture<Boolean> doesS3FileExistAsync(String bucketName, String folderName, String documentName) {
+        return supplyAsync(() -> doesS3FileExist(bucketName, folderName, documentName));
+    }
+
+    /**
+     * Asynchronously retrieves the specified document from Amazon S3 and buffers its content.
+     *
+     * @param documentName the name of the document to retrieve
+     * @param bucketName the name of the bucket containing the document
+     * @param folderName the name of the folder containing the document
+     *
+     * @return a future completed with the content and metadata of the document, or null if it does not exist
+     */
+    public CompletableFuture<S3ObjectData> getS3ObjectDataAsync(String documentName, String bucketName, String folderName) {
+        return supplyAsync(() -> getS3ObjectData(documentName, bucketName, folderName));
+    }
+
+    /**
+     * Asynchronously retrieves the specified document from Amazon S3 as an open stream. The caller must close the
+     * returned object to release the connection.
+     *
+     * @param documentName the name of the document to retrieve
+     * @param bucketName the name of the bucket containing the document
+     * @param folderName the name of the folder containing the document
+     *
+     * @return a future completed with the content stream and metadata of the document, or null if it does not exist
+     */
+    public CompletableFuture<S3ObjectData> getS3ObjectStreamAsync(String documentName, String bucketName, String folderName) {
+        return supplyAsync(() -> getS3ObjectStream(documentName, bucketName, folderName));
+    }
+
+    /**
+     * Asynchronously retrieves a byte array containing the contents of the specified document in Amazon S3.
+     *
+     * @param documentName the name of the document to retrieve
+     * @param bucketName the name of the bucket containing the document
+     * @param folderName the name of the folder containing the document
+     *
+     * @return a future completed with the contents of the document, or null if it does not exist or is empty
+     */
+    public CompletableFuture<byte[]> getFileS3BytesAsync(String documentName, String bucketName, String folderName) {
+        return supplyAsync(() -> getFileS3Bytes(documentName, bucketName, folderName));
+    }
+
+    /**
+     * Asynchronously saves a file to the specified Amazon S3 bucket and folder.
+     *
+     * @param documentName the name of the file to upload
+     * @param file the file to upload
+     * @param bucketName the name of the bucket to upload the file to
+     * @param folderName the name of the folder to upload the file to (optional)
+     *
+     * @return a future completed when the file has been saved
+     */
+    public CompletableFuture<Void> saveFileToS3Async(String documentName, File file, String bucketName, String folderName) {
+        return supplyAsync(() -> {
+            saveFileToS3(documentName, file, bucketName, folderName);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronously saves an in-memory byte array to the specified Amazon S3 bucket and folder.
+     *
+     * @param documentName the name of the document to upload
+     * @param data the bytes to upload
+     * @param bucketName the name of the bucket to upload the document to
+     * @param folderName the name of the folder to upload the document to (optional)
+     *
+     * @return a future completed when the document has been saved
+     */
+    public CompletableFuture<Void> saveBytesToS3Async(String documentName, byte[] data, String bucketName, String folderName) {
+        return supplyAsync(() -> {
+            saveBytesToS3(documentName, data, bucketName, folderName);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronously deletes a file from the specified Amazon S3 bucket and folder.
+     *
+     * @param documentName the name of the file to delete
+     * @param bucketName the name of the bucket containing the file
+     * @param folderName the name of the folder containing the file (optional)
+     *
+     * @return a future completed when the file has been deleted, or completed exceptionally if the delete failed
+     */
+    public CompletableFuture<Void> deleteFileFromS3Async(String documentName, String bucketName, String folderName) {
+        return supplyAsync(() -> {
+            deleteFileFromS3(documentName, bucketName, folderName);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronously lists the objects in the specified Amazon S3 bucket and folder.
+     *
+     * @param bucketName the name of the bucket to list objects from
+     * @param folderName the name of the folder to list objects from (optional)
+     *
+     * @return a future completed with the object names in the specified bucket and folder
+     */
+    public CompletableFuture<String[]> listS3BucketObjectsAsync(String bucketName, String folderName) {
+        return supplyAsync(() -> listS3BucketObjects(bucketName, folderName));
+    }
+
+    /**
+     * Runs a blocking S3 call on the async executor. Checked exceptions complete the future exceptionally with a
+     * CompletionException wrapping the original exception.
+     */
+    private <T> CompletableFuture<T> supplyAsync(S3Call<T> call) {
+        Executor executor = asyncExecutor != null ? asyncExecutor : S3TransferExecutor.get();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * A blocking S3 call that may throw an IOException.
+     */
+    private interface S3Call<T> {
+        T call() throws IOException;
+    }
+
+    /**
+     * Retrieves the AWS access key ID.
+     *
+     * @return the access key ID as a String.
      */
     public String getAccessKeyId() {
         return accessKeyId;
@@ -536,4 +1435,197 @@ public class S3Handler {
     public void setFolderName(String folderName) {
         this.folderName = folderName;
     }
+
+    /**
+     * Retrieves the ranged downloader used for large objects.
+     *
+     * @return the ranged downloader, or null if ranged downloads are disabled.
+     */
+    public S3RangedDownloader getRangedDownloader() {
+        return rangedDownloader;
+    }
+
+    /**
+     * Sets the ranged downloader used for large objects. Objects larger than its threshold are fetched with
+     * concurrent ranged GET requests.
+     *
+     * @param rangedDownloader the ranged downloader to use, or null to fetch every object with one plain GET.
+     */
+    public void setRangedDownloader(S3RangedDownloader rangedDownloader) {
+        this.rangedDownloader = rangedDownloader;
+    }
+
+    /**
+     * Retrieves the multipart uploader used for large objects.
+     *
+     * @return the multipart uploader, or null if every object is uploaded with a single PUT.
+     */
+    public S3MultipartUploader getMultipartUploader() {
+        return multipartUploader;
+    }
+
+    /**
+     * Sets the multipart uploader used for large objects. Objects larger than its threshold are uploaded in
+     * concurrent parts.
+     *
+     * @param multipartUploader the multipart uploader to use, or null to upload every object with a single PUT.
+     */
+    public void setMultipartUploader(S3MultipartUploader multipartUploader) {
+        this.multipartUploader = multipartUploader;
+    }
+
+    /**
+     * Retrieves the executor that runs the asynchronous methods.
+     *
+     * @return the executor, or null if the shared transfer pool is used.
+     */
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Sets the executor that runs the asynchronous methods. Its size bounds how many asynchronous S3 requests this
+     * handler has in flight; null selects the shared, unbounded transfer pool.
+     *
+     * @param asyncExecutor the executor to use
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Retrieves the key index kept up to date by this handler's saves and deletes.
+     *
+     * @return the key index, or null if none is set.
+     */
+    public S3KeyIndex getKeyIndex() {
+        return keyIndex;
+    }
+
+    /**
+     * Sets the key index kept up to date by this handler's saves and deletes.
+     *
+     * @param keyIndex the key index to update, or null for none
+     */
+    public void setKeyIndex(S3KeyIndex keyIndex) {
+        this.keyIndex = keyIndex;
+    }
+
+    /**
+     * Retrieves the local disk cache used for reads.
+     *
+     * @return the disk cache, or null if reads always go to S3.
+     */
+    public S3DiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * Sets the local disk cache used for reads. Saves and deletes made through this handler drop the affected
+     * entries.
+     *
+     * @param diskCache the disk cache to use, or null to read from S3 every time
+     */
+    public void setDiskCache(S3DiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * Retrieves the policy that hedges slow GET requests.
+     *
+     * @return the hedging policy, or null if GETs are not hedged
+     */
+    public S3HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Sets the policy that hedges slow GET requests. Document reads, including the first request of a ranged
+     * download, and sidecar reads are hedged; listings, HEAD requests and the remaining ranged parts are not.
+     *
+     * @param hedgingPolicy the hedging policy, or null to send every GET once
+     */
+    public void setHedgingPolicy(S3HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    /**
+     * Indicates whether concurrent identical reads and listings share one request.
+     *
+     * @return true if single-flight reads are enabled
+     */
+    public boolean isSingleFlightEnabled() {
+        return readFlights != null;
+    }
+
+    /**
+     * Enables or disables sharing of one request between concurrent identical reads and listings. Buffered reads
+     * and listings are shared as they are; a streamed read is buffered for sharing when other callers are waiting
+     * for it and it is no larger than {@link #setMaxSharedStreamBytes(long)}. Each waiting caller gets its own copy
+     * of the shared content.
+     *
+     * @param enabled true to share requests
+     */
+    public void setSingleFlightEnabled(boolean enabled) {
+        if (enabled && readFlights == null) {
+            readFlights = new S3SingleFlight<>(objectData -> objectData == null || objectData.getBytes() != null,
+                    S3ObjectData::copy);
+            listingFlights = new S3SingleFlight<>(names -> true, String[]::clone);
+        } else if (!enabled) {
+            readFlights = null;
+            listingFlights = null;
+        }
+    }
+
+    /**
+     * Retrieves the size up to which a streamed read is buffered so that waiting callers can share it.
+     *
+     * @return the size in bytes
+     */
+    public long getMaxSharedStreamBytes() {
+        return maxSharedStreamBytes;
+    }
+
+    /**
+     * Sets the size up to which a streamed read is buffered so that waiting callers can share it. Larger objects
+     * are streamed to each caller separately.
+     *
+     * @param maxSharedStreamBytes the size in bytes
+     */
+    public void setMaxSharedStreamBytes(long maxSharedStreamBytes) {
+        this.maxSharedStreamBytes = Math.min(maxSharedStreamBytes, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Retrieves a summary of the single-flight counters.
+     *
+     * @return the counters as a String, or null if single-flight reads are disabled
+     */
+    public String getSingleFlightStatistics() {
+        S3SingleFlight<String, S3ObjectData> objectFlights = readFlights;
+        S3SingleFlight<String, String[]> prefixFlights = listingFlights;
+        if (objectFlights == null || prefixFlights == null) {
+            return null;
+        }
+        return "reads: " + objectFlights.getStatistics() + "; listings: " + prefixFlights.getStatistics();
+    }
+
+    /**
+     * Retrieves the metrics S3 requests and disk cache lookups are recorded in.
+     *
+     * @return the metrics
+     */
+    public HandlerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics S3 requests and disk cache lookups are recorded in, so they can be published together with
+     * the metrics of the content handler.
+     *
+     * @param metrics the metrics
+     */
+    public void setMetrics(HandlerMetrics metrics) {
+        this.metrics = metrics;
+    }
 }
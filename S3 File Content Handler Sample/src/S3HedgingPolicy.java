@@ -0,0 +1,248 @@
+package com.accusoft.pdjs3;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * The S3HedgingPolicy class cuts the tail latency of GET requests by sending a second, identical request when the
+ * first one is slow.
+ *
+ * The time to the response headers of recent GETs is recorded, and the hedge delay is a high percentile of it. A GET
+ * that has not answered within the delay is sent again, and whichever request answers first is used. The other one
+ * is cancelled; if it still answers, its connection is aborted without reading the content. A failure of one request
+ * does not end the read while the other may still succeed.
+ *
+ * Hedges are limited to a share of all GETs: every GET adds that share to a budget, and each hedge spends one. A slow
+ * S3 therefore never sees more than that much extra load. No hedge is sent until enough latencies are recorded.
+ */
+public class S3HedgingPolicy {
+
+    /** Default percentile of recent latencies used as the hedge delay. */
+    public static final double DEFAULT_PERCENTILE = 95;
+
+    /** Default share of GETs that may be hedged. */
+    public static final double DEFAULT_MAX_HEDGE_RATIO = 0.05;
+
+    /** Default lowest hedge delay. */
+    public static final long DEFAULT_MIN_DELAY_MILLIS = 20;
+
+    private static final int SAMPLE_WINDOW = 1024;
+    private static final int MIN_SAMPLES = 64;
+    // The delay is recomputed after this many new samples rather than on every request.
+    private static final int RECOMPUTE_INTERVAL = 64;
+    private static final double MAX_BUDGET = 10;
+
+    private final Executor executor;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final double maxHedgeRatio;
+
+    private final long[] samples = new long[SAMPLE_WINDOW];
+    private int sampleCount;
+    private int samplesSinceRecompute;
+    private volatile long delayNanos = -1;
+    private double budget;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(S3HedgingPolicy.class);
+
+    /**
+     * Constructs an S3HedgingPolicy object.
+     *
+     * @param executor the executor that runs the requests while the calling thread waits for the first answer
+     * @param percentile the percentile of recent latencies used as the hedge delay, between 0 and 100
+     * @param minDelayMillis the lowest hedge delay
+     * @param maxHedgeRatio the share of GETs that may be hedged, between 0 and 1
+     */
+    public S3HedgingPolicy(Executor executor, double percentile, long minDelayMillis, double maxHedgeRatio) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        this.executor = executor;
+        this.percentile = percentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.maxHedgeRatio = maxHedgeRatio;
+    }
+
+    /**
+     * Runs a GET request, hedging it if it is slow.
+     *
+     * @param s3Client the client to send the requests with
+     * @param request the request
+     *
+     * @return the object from the first successful answer, or null if a constraint on the request was not met
+     */
+    public S3Object getObject(AmazonS3 s3Client, GetObjectRequest request) {
+        requests.incrementAndGet();
+        addBudget();
+
+        long delay = delayNanos;
+        if (delay < 0) {
+            // Still learning the latencies: send the request from the calling thread, without a hedge.
+            long started = System.nanoTime();
+            S3Object s3Object = s3Client.getObject(request);
+            recordLatency(System.nanoTime() - started);
+            return s3Object;
+        }
+
+        AtomicBoolean claimed = new AtomicBoolean();
+        CompletionService<S3Object> completion = new ExecutorCompletionService<>(executor);
+        Future<S3Object> primary = completion.submit(() -> attempt(s3Client, request, claimed, true));
+        Future<S3Object> hedge = null;
+        try {
+            Future<S3Object> done = completion.poll(delay, TimeUnit.NANOSECONDS);
+            if (done == null) {
+                if (tryTakeBudget()) {
+                    hedges.incrementAndGet();
+                    GetObjectRequest copy = (GetObjectRequest) request.clone();
+                    hedge = completion.submit(() -> attempt(s3Client, copy, claimed, false));
+                }
+                done = completion.take();
+            }
+
+            RuntimeException failure = null;
+            int outstanding = hedge != null ? 2 : 1;
+            while (true) {
+                outstanding--;
+                try {
+                    S3Object result = done.get();
+                    // A null answer after the read was claimed means the other request won; wait for it.
+                    if (result != null || !claimed.get() || outstanding == 0) {
+                        if (result != null && done != primary) {
+                            hedgeWins.incrementAndGet();
+                        }
+                        return result;
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException
+                                ? (RuntimeException) e.getCause()
+                                : new IllegalStateException(e.getCause());
+                    }
+                    if (outstanding == 0) {
+                        throw failure;
+                    }
+                }
+                done = completion.take();
+            }
+        } catch (InterruptedException e) {
+            // Nobody will read an answer now: make sure a late one is aborted, and abort one that already won.
+            if (!claimed.compareAndSet(false, true)) {
+                abortIfDone(primary);
+                abortIfDone(hedge);
+            }
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting for " + request.getKey(), e);
+        } finally {
+            // The loser, if any, is stopped; an answer it still produces is aborted by attempt().
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Sends one of the requests. The first successful answer claims the read; a later one is aborted.
+     *
+     * @return the object if this request won, or null if the other request won first
+     */
+    private S3Object attempt(AmazonS3 s3Client, GetObjectRequest request, AtomicBoolean claimed, boolean isPrimary) {
+        long started = System.nanoTime();
+        S3Object s3Object = s3Client.getObject(request);
+        if (isPrimary) {
+            recordLatency(System.nanoTime() - started);
+        }
+        if (s3Object == null) {
+            // A constraint was not met; both requests would agree.
+            return null;
+        }
+        if (!claimed.compareAndSet(false, true)) {
+            s3Object.getObjectContent().abort();
+            return null;
+        }
+        return s3Object;
+    }
+
+    private static void abortIfDone(Future<S3Object> attempt) {
+        if (attempt == null || !attempt.isDone() || attempt.isCancelled()) {
+            return;
+        }
+        try {
+            S3Object s3Object = attempt.get();
+            if (s3Object != null) {
+                s3Object.getObjectContent().abort();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            // Nothing to release.
+        }
+    }
+
+    private synchronized void addBudget() {
+        budget = Math.min(MAX_BUDGET, budget + maxHedgeRatio);
+    }
+
+    private synchronized boolean tryTakeBudget() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    private void recordLatency(long latencyNanos) {
+        long[] snapshot = null;
+        synchronized (samples) {
+            samples[sampleCount % SAMPLE_WINDOW] = latencyNanos;
+            sampleCount++;
+            samplesSinceRecompute++;
+            if (sampleCount >= MIN_SAMPLES && samplesSinceRecompute >= RECOMPUTE_INTERVAL) {
+                samplesSinceRecompute = 0;
+                snapshot = Arrays.copyOf(samples, Math.min(sampleCount, SAMPLE_WINDOW));
+            }
+        }
+        if (snapshot != null) {
+            Arrays.sort(snapshot);
+            int index = (int) Math.ceil(percentile / 100 * snapshot.length) - 1;
+            long delay = Math.max(minDelayNanos, snapshot[Math.max(0, index)]);
+            if (delayNanos < 0) {
+                logger.info("GET hedging active, delay {} ms", TimeUnit.NANOSECONDS.toMillis(delay));
+            }
+            delayNanos = delay;
+        }
+    }
+
+    /**
+     * @return the current hedge delay in milliseconds, or -1 while too few latencies are recorded
+     */
+    public long getDelayMillis() {
+        long delay = delayNanos;
+        return delay < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(delay);
+    }
+
+    /**
+     * Retrieves a summary of the hedging counters.
+     *
+     * @return the counters as a String
+     */
+    public String getStatistics() {
+        return "requests=" + requests.get() + ", hedges=" + hedges.get() + ", hedgeWins=" + hedgeWins.get()
+                + ", delayMillis=" + getDelayMillis();
+    }
+}
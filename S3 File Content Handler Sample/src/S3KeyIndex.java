@@ -0,0 +1,204 @@
+package com.accusoft.pdjs3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+
+/**
+ * The S3KeyIndex class keeps a sorted in-memory catalog of the object names directly inside one bucket and folder,
+ * so lookups such as "every annotation layer of this document" are answered locally as a prefix range query
+ * instead of paging through the whole folder listing on every call.
+ *
+ * The catalog is loaded from a full listing on first use. Saves and deletes made through the owning S3Handler
+ * update it straight away. Changes made by other processes are picked up by a background re-listing once the
+ * catalog is older than the refresh interval; readers keep using the current catalog while the refresh runs.
+ */
+public class S3KeyIndex {
+
+    private final S3Handler s3Handler;
+    private final String bucketName;
+    private final String folderName;
+    private final String keyPrefix;
+    private final long refreshIntervalMillis;
+
+    private final ConcurrentSkipListSet<String> names = new ConcurrentSkipListSet<>();
+    // Names saved or deleted locally, with the time of the change, so a refresh that started earlier cannot undo them.
+    private final Map<String, Long> localChanges = new ConcurrentHashMap<>();
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final Object loadLock = new Object();
+    private volatile boolean loaded;
+    private volatile long lastRefresh;
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(S3KeyIndex.class);
+
+    /**
+     * Constructs an S3KeyIndex object for the specified bucket and folder.
+     *
+     * @param s3Handler the handler used to list the folder
+     * @param bucketName the name of the bucket to index
+     * @param folderName the name of the folder to index (optional)
+     * @param refreshIntervalMillis the age after which the catalog is re-listed in the background
+     */
+    public S3KeyIndex(S3Handler s3Handler, String bucketName, String folderName, long refreshIntervalMillis) {
+        this.s3Handler = s3Handler;
+        this.bucketName = bucketName;
+        this.folderName = folderName == null ? "" : folderName;
+        this.keyPrefix = this.folderName.isEmpty() ? "" : this.folderName + "/";
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    /**
+     * Retrieves every indexed name, in sorted order.
+     *
+     * @throws AmazonS3Exception if the initial listing fails
+     *
+     * @return the object names in the folder
+     */
+    public String[] list() throws AmazonS3Exception {
+        ensureFresh();
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * Retrieves the indexed names that start with the specified prefix, in sorted order.
+     *
+     * @param prefix the name prefix to look up
+     *
+     * @throws AmazonS3Exception if the initial listing fails
+     *
+     * @return the matching object names
+     */
+    public List<String> listWithPrefix(String prefix) throws AmazonS3Exception {
+        ensureFresh();
+        NavigableSet<String> range = names.subSet(prefix, true, prefix + Character.MAX_VALUE, true);
+        return new ArrayList<>(range);
+    }
+
+    /**
+     * Records that an object was saved. Keys outside the indexed bucket and folder are ignored.
+     *
+     * @param bucketName the bucket the object was saved to
+     * @param key the full key of the object
+     */
+    public void keySaved(String bucketName, String key) {
+        String name = toName(bucketName, key);
+        if (name != null) {
+            localChanges.put(name, System.currentTimeMillis());
+            names.add(name);
+        }
+    }
+
+    /**
+     * Records that an object was deleted. Keys outside the indexed bucket and folder are ignored.
+     *
+     * @param bucketName the bucket the object was deleted from
+     * @param key the full key of the object
+     */
+    public void keyDeleted(String bucketName, String key) {
+        String name = toName(bucketName, key);
+        if (name != null) {
+            localChanges.put(name, System.currentTimeMillis());
+            names.remove(name);
+        }
+    }
+
+    /**
+     * Discards the catalog so the next lookup lists the folder again.
+     */
+    public void invalidate() {
+        synchronized (loadLock) {
+            loaded = false;
+        }
+    }
+
+    /**
+     * Retrieves the number of indexed names.
+     *
+     * @return the size of the catalog
+     */
+    public int size() {
+        return names.size();
+    }
+
+    private String toName(String bucketName, String key) {
+        if (!this.bucketName.equals(bucketName) || key == null || !key.startsWith(keyPrefix)) {
+            return null;
+        }
+        String name = key.substring(keyPrefix.length());
+        // Only direct children are indexed, matching S3Handler.listS3BucketObjects.
+        if (name.isEmpty() || name.contains("/")) {
+            return null;
+        }
+        return name;
+    }
+
+    private void ensureFresh() throws AmazonS3Exception {
+        if (!loaded) {
+            synchronized (loadLock) {
+                if (!loaded) {
+                    reload(System.currentTimeMillis());
+                    loaded = true;
+                }
+            }
+            return;
+        }
+        if (refreshIntervalMillis > 0 && System.currentTimeMillis() - lastRefresh > refreshIntervalMillis
+                && refreshing.compareAndSet(false, true)) {
+            Future<?> refresh = S3TransferExecutor.trySubmit(() -> {
+                try {
+                    reload(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    logger.error("Error refreshing key index of {}/{}: {}", bucketName, folderName, e.getMessage());
+                } finally {
+                    refreshing.set(false);
+                }
+                return null;
+            });
+            if (refresh == null) {
+                // Every transfer thread is busy; a later lookup starts the refresh.
+                refreshing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Lists the folder and reconciles the catalog with the result. Names changed locally after the listing started
+     * are left alone, because the listing may not reflect those changes yet.
+     */
+    private void reload(long startedAt) throws AmazonS3Exception {
+        String[] listed = s3Handler.listS3BucketObjects(bucketName, folderName);
+        Set<String> current = new HashSet<>(listed.length * 2);
+        Collections.addAll(current, listed);
+
+        for (String name : current) {
+            if (!changedSince(name, startedAt)) {
+                names.add(name);
+            }
+        }
+        for (String name : names) {
+            if (!current.contains(name) && !changedSince(name, startedAt)) {
+                names.remove(name);
+            }
+        }
+        localChanges.values().removeIf(changedAt -> changedAt < startedAt);
+
+        lastRefresh = startedAt;
+        logger.info("Key index of {}/{} refreshed: {} names", bucketName, folderName, names.size());
+    }
+
+    private boolean changedSince(String name, long startedAt) {
+        Long changedAt = localChanges.get(name);
+        return changedAt != null && changedAt >= startedAt;
+    }
+}
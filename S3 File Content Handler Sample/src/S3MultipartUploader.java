@@ -0,0 +1,380 @@
+package com.accusoft.pdjs3;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import org.slf4j.Logger;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.MultipartUpload;
+import com.amazonaws.services.s3.model.MultipartUploadListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * The S3MultipartUploader class uploads objects to S3, switching from a single PUT to a multipart upload with
+ * concurrent part uploads for objects larger than a configurable threshold.
+ *
+ * Each failed part is retried on its own after a jittered pause. If a part still fails after its retries, the whole
+ * multipart upload is aborted so S3 does not keep (and bill for) the orphaned parts.
+ */
+public class S3MultipartUploader {
+
+    /** Default size above which objects are uploaded in parts. */
+    public static final long DEFAULT_THRESHOLD = 16L * 1024 * 1024;
+
+    /** Default size of each uploaded part. */
+    public static final long DEFAULT_PART_SIZE = 8L * 1024 * 1024;
+
+    /** Default number of parts uploaded at the same time for one object. */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /** Default number of retries for a failed part. */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /** The smallest part size S3 accepts for every part but the last. */
+    public static final long MINIMUM_PART_SIZE = 5L * 1024 * 1024;
+
+    /** The largest number of parts S3 accepts in one multipart upload. */
+    private static final int MAXIMUM_PART_COUNT = 10000;
+
+    private final long threshold;
+    private final long partSize;
+    private final int parallelism;
+    private final int maxRetries;
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(S3MultipartUploader.class);
+
+    /**
+     * Constructs an S3MultipartUploader object with the default settings.
+     */
+    public S3MultipartUploader() {
+        this(DEFAULT_THRESHOLD, DEFAULT_PART_SIZE, DEFAULT_PARALLELISM, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Constructs an S3MultipartUploader object with the specified settings.
+     *
+     * @param threshold the size above which objects are uploaded in parts
+     * @param partSize the size of each uploaded part, at least 5 MB
+     * @param parallelism the number of parts uploaded at the same time for one object
+     * @param maxRetries the number of retries for a failed part
+     */
+    public S3MultipartUploader(long threshold, long partSize, int parallelism, int maxRetries) {
+        if (partSize < MINIMUM_PART_SIZE) {
+            throw new IllegalArgumentException("Part size must be at least " + MINIMUM_PART_SIZE + " bytes");
+        }
+        if (threshold < 1 || parallelism < 1 || maxRetries < 0) {
+            throw new IllegalArgumentException("Invalid multipart upload configuration");
+        }
+        this.threshold = Math.max(threshold, partSize);
+        this.partSize = partSize;
+        this.parallelism = parallelism;
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Uploads a file to the specified bucket and key.
+     *
+     * @param s3Client the client to upload with
+     * @param bucketName the name of the bucket to upload to
+     * @param key the key to upload to
+     * @param file the file to upload
+     *
+     * @throws AmazonClientException if the upload fails
+     */
+    public void upload(AmazonS3 s3Client, String bucketName, String key, File file) throws AmazonClientException {
+        long length = file.length();
+        if (length <= threshold) {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(length);
+            s3Client.putObject(new PutObjectRequest(bucketName, key, file).withMetadata(metadata));
+            return;
+        }
+        uploadParts(s3Client, bucketName, key, length,
+                (offset, size) -> request -> request.withFile(file).withFileOffset(offset));
+    }
+
+    /**
+     * Uploads an in-memory byte array to the specified bucket and key. Parts are streamed from the array, so no
+     * copy of the data is made.
+     *
+     * @param s3Client the client to upload with
+     * @param bucketName the name of the bucket to upload to
+     * @param key the key to upload to
+     * @param data the bytes to upload
+     *
+     * @throws AmazonClientException if the upload fails
+     */
+    public void upload(AmazonS3 s3Client, String bucketName, String key, byte[] data) throws AmazonClientException {
+        if (data.length <= threshold) {
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(data.length);
+            s3Client.putObject(new PutObjectRequest(bucketName, key, new ByteArrayInputStream(data), metadata));
+            return;
+        }
+        uploadParts(s3Client, bucketName, key, data.length,
+                (offset, size) -> request -> request.withInputStream(new ByteArrayInputStream(data, (int) offset, (int) size)));
+    }
+
+    /**
+     * Uploads a stream of known length to the specified bucket and key in parts, whatever its length. The stream is
+     * read one part at a time, and each part is held in memory until it is uploaded, so a failed part can be sent
+     * again; at most {@code parallelism} parts are held at once. The stream is not closed.
+     *
+     * @param s3Client the client to upload with
+     * @param bucketName the name of the bucket to upload to
+     * @param key the key to upload to
+     * @param input the stream to upload
+     * @param length the number of bytes in the stream
+     *
+     * @throws AmazonClientException if the stream ends early, cannot be read, or the upload fails
+     */
+    public void upload(AmazonS3 s3Client, String bucketName, String key, InputStream input, long length) throws AmazonClientException {
+        uploadParts(s3Client, bucketName, key, length, (offset, size) -> {
+            byte[] part = new byte[(int) size];
+            try {
+                int read = 0;
+                int len;
+                while (read < part.length && (len = input.read(part, read, part.length - read)) != -1) {
+                    read += len;
+                }
+                if (read < part.length) {
+                    throw new EOFException("Stream ended at byte " + (offset + read) + " of " + length);
+                }
+            } catch (IOException e) {
+                throw new AmazonClientException("Error reading " + key + " to upload: " + e.getMessage(), e);
+            }
+            return request -> request.withInputStream(new ByteArrayInputStream(part));
+        });
+    }
+
+    private void uploadParts(final AmazonS3 s3Client, final String bucketName, final String key, final long length,
+            final PartSource partSource) throws AmazonClientException {
+        // Grow the part size if the object would otherwise need more parts than S3 allows.
+        final long effectivePartSize = Math.max(partSize, (length + MAXIMUM_PART_COUNT - 1) / MAXIMUM_PART_COUNT);
+        final int partCount = (int) ((length + effectivePartSize - 1) / effectivePartSize);
+
+        final String uploadId = s3Client.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(bucketName, key)).getUploadId();
+        logger.info("Uploading {} ({} bytes) in {} parts", key, length, partCount);
+
+        final List<PartETag> partETags = Collections.synchronizedList(new ArrayList<PartETag>(partCount));
+        final AtomicInteger nextPart = new AtomicInteger(1);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        Callable<Void> worker = () -> {
+            while (!failed.get()) {
+                final int number;
+                final long size;
+                final UnaryOperator<UploadPartRequest> part;
+                try {
+                    // Parts are opened in part order, so a stream source reads them one after another.
+                    synchronized (partSource) {
+                        number = nextPart.getAndIncrement();
+                        if (number > partCount) {
+                            break;
+                        }
+                        long offset = (number - 1) * effectivePartSize;
+                        size = Math.min(effectivePartSize, length - offset);
+                        part = partSource.open(offset, size);
+                    }
+                    // A fresh request per attempt, so a retried part never reads a half-consumed stream.
+                    partETags.add(uploadPartWithRetries(s3Client, () -> part.apply(new UploadPartRequest()
+                            .withBucketName(bucketName)
+                            .withKey(key)
+                            .withUploadId(uploadId)
+                            .withPartNumber(number)
+                            .withPartSize(size)
+                            .withLastPart(number == partCount))));
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+            }
+            return null;
+        };
+
+        // The calling thread is one of the workers, so the upload completes even when no pool thread is free.
+        int workers = Math.min(parallelism, partCount) - 1;
+        List<Future<Void>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            Future<Void> future = S3TransferExecutor.trySubmit(worker);
+            if (future == null) {
+                break;
+            }
+            futures.add(future);
+        }
+
+        AmazonClientException failure = null;
+        try {
+            worker.call();
+        } catch (Exception e) {
+            failed.set(true);
+            failure = e instanceof AmazonClientException
+                    ? (AmazonClientException) e
+                    : new AmazonClientException("Error uploading part of " + key, e);
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    failure = cause instanceof AmazonClientException
+                            ? (AmazonClientException) cause
+                            : new AmazonClientException("Error uploading part of " + key, cause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.set(true);
+                if (failure == null) {
+                    failure = new AmazonClientException("Interrupted while uploading " + key, e);
+                }
+            }
+        }
+
+        if (failure == null && partETags.size() != partCount) {
+            failure = new AmazonClientException("Uploaded " + partETags.size() + " of " + partCount + " parts of " + key);
+        }
+
+        if (failure != null) {
+            abort(s3Client, bucketName, key, uploadId);
+            throw failure;
+        }
+
+        List<PartETag> sortedETags = new ArrayList<>(partETags);
+        Collections.sort(sortedETags, Comparator.comparingInt(PartETag::getPartNumber));
+        try {
+            s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, key, uploadId, sortedETags));
+        } catch (AmazonClientException e) {
+            abort(s3Client, bucketName, key, uploadId);
+            throw e;
+        }
+    }
+
+    private PartETag uploadPartWithRetries(AmazonS3 s3Client, Supplier<UploadPartRequest> requests) throws AmazonClientException {
+        for (int attempt = 0; ; attempt++) {
+            if (attempt > 0) {
+                pauseBeforeRetry(attempt - 1);
+            }
+            UploadPartRequest request = requests.get();
+            try {
+                return s3Client.uploadPart(request).getPartETag();
+            } catch (AmazonClientException e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                logger.info("Retrying part {} of {} after error: {}", request.getPartNumber(), request.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Waits before a part is sent again, with the same full jitter S3ThrottleControl uses for throttled writes.
+     */
+    private static void pauseBeforeRetry(int retriesAttempted) throws AmazonClientException {
+        try {
+            Thread.sleep(S3ThrottleControl.jitteredDelay(S3ThrottleControl.RequestClass.WRITE, retriesAttempted,
+                    S3ThrottleControl.DEFAULT_MAX_DELAY_MILLIS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while retrying an upload part", e);
+        }
+    }
+
+    /**
+     * Provides the bytes of each part. Parts are opened one at a time, in part order; the returned function points a
+     * new UploadPartRequest at the bytes of the part on every attempt.
+     */
+    private interface PartSource {
+        UnaryOperator<UploadPartRequest> open(long offset, long size);
+    }
+
+    private static void abort(AmazonS3 s3Client, String bucketName, String key, String uploadId) {
+        try {
+            s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+            logger.info("Aborted multipart upload of {}", key);
+        } catch (AmazonClientException e) {
+            logger.error("Error aborting multipart upload {} of {}: {}", uploadId, key, e.getMessage());
+        }
+    }
+
+    /**
+     * Aborts multipart uploads under the specified prefix that were started before the cutoff and never completed,
+     * for example because the process stopped in the middle of an upload.
+     *
+     * @param s3Client the client to use
+     * @param bucketName the name of the bucket to clean up
+     * @param prefix the key prefix to clean up, or null for the whole bucket
+     * @param cutoff uploads initiated before this date are aborted
+     *
+     * @return the number of aborted uploads
+     */
+    public static int abortStaleUploads(AmazonS3 s3Client, String bucketName, String prefix, Date cutoff) {
+        int aborted = 0;
+        ListMultipartUploadsRequest request = new ListMultipartUploadsRequest(bucketName).withPrefix(prefix);
+        MultipartUploadListing listing;
+        do {
+            listing = s3Client.listMultipartUploads(request);
+            for (MultipartUpload upload : listing.getMultipartUploads()) {
+                if (upload.getInitiated() != null && upload.getInitiated().before(cutoff)) {
+                    abort(s3Client, bucketName, upload.getKey(), upload.getUploadId());
+                    aborted++;
+                }
+            }
+            request.setKeyMarker(listing.getNextKeyMarker());
+            request.setUploadIdMarker(listing.getNextUploadIdMarker());
+        } while (listing.isTruncated());
+        return aborted;
+    }
+
+    /**
+     * Retrieves the size above which objects are uploaded in parts.
+     *
+     * @return the threshold in bytes.
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Retrieves the size of each uploaded part.
+     *
+     * @return the part size in bytes.
+     */
+    public long getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * Retrieves the number of parts uploaded at the same time for one object.
+     *
+     * @return the parallelism.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+}
@@ -0,0 +1,154 @@
+package com.accusoft.pdjs3;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+/**
+ * The S3ObjectData class holds the content of an S3 object together with the metadata returned by the same GET
+ * request, so callers never need a separate HEAD request to learn the size, ETag or last-modified date.
+ *
+ * The content is either fully buffered as a byte array or left as an open stream, depending on which S3Handler
+ * method produced it. An open stream must be closed by the caller to return the connection to the pool.
+ */
+public class S3ObjectData {
+
+    private final String key;
+    private final long contentLength;
+    private final String eTag;
+    private final Date lastModified;
+    private final String versionId;
+    private final byte[] bytes;
+    private final InputStream inputStream;
+
+    /**
+     * Constructs an S3ObjectData object with the specified key, metadata and content.
+     *
+     * @param key the key of the S3 object
+     * @param contentLength the total size of the S3 object in bytes
+     * @param eTag the ETag of the S3 object
+     * @param lastModified the last-modified date of the S3 object
+     * @param versionId the version ID of the S3 object, or null if the bucket is not versioned
+     * @param bytes the buffered content, or null if the content is a stream
+     * @param inputStream the open content stream, or null if the content is buffered
+     */
+    public S3ObjectData(String key, long contentLength, String eTag, Date lastModified, String versionId,
+            byte[] bytes, InputStream inputStream) {
+        this.key = key;
+        this.contentLength = contentLength;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.versionId = versionId;
+        this.bytes = bytes;
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Constructs an S3ObjectData object from the metadata of a GET response.
+     *
+     * @param key the key of the S3 object
+     * @param metadata the metadata returned with the S3 object
+     * @param bytes the buffered content, or null if the content is a stream
+     * @param inputStream the open content stream, or null if the content is buffered
+     */
+    public S3ObjectData(String key, ObjectMetadata metadata, byte[] bytes, InputStream inputStream) {
+        this(key, metadata.getInstanceLength(), metadata.getETag(), metadata.getLastModified(),
+                metadata.getVersionId(), bytes, inputStream);
+    }
+
+    /**
+     * Retrieves the key of the S3 object.
+     *
+     * @return the key as a String.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Retrieves the total size of the S3 object.
+     *
+     * @return the size in bytes.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Retrieves the ETag of the S3 object.
+     *
+     * @return the ETag as a String.
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Retrieves the last-modified date of the S3 object.
+     *
+     * @return the last-modified date.
+     */
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Retrieves the version ID of the S3 object.
+     *
+     * @return the version ID, or null if the bucket is not versioned.
+     */
+    public String getVersionId() {
+        return versionId;
+    }
+
+    /**
+     * Retrieves the buffered content of the S3 object.
+     *
+     * @return the content as a byte array, or null if the content is a stream.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Retrieves the content of the S3 object as a stream. Buffered content is wrapped in a new stream on each call.
+     *
+     * @return a DataInputStream over the content.
+     */
+    public DataInputStream getDataInputStream() {
+        if (inputStream != null) {
+            return inputStream instanceof DataInputStream ? (DataInputStream) inputStream : new DataInputStream(inputStream);
+        }
+        return new DataInputStream(new ByteArrayInputStream(bytes == null ? new byte[0] : bytes));
+    }
+
+    /**
+     * Creates a copy of buffered content with its own byte array, so a change to one copy cannot show in another.
+     *
+     * @return the copy
+     *
+     * @throws IllegalStateException if the content is a stream
+     */
+    public S3ObjectData copy() {
+        if (inputStream != null) {
+            throw new IllegalStateException("Streamed content cannot be copied: " + key);
+        }
+        return new S3ObjectData(key, contentLength, eTag, lastModified == null ? null : new Date(lastModified.getTime()),
+                versionId, bytes == null ? null : bytes.clone(), null);
+    }
+
+    /**
+     * Closes the content stream, if there is one.
+     *
+     * @throws IOException if an I/O error occurs while closing the stream
+     */
+    public void close() throws IOException {
+        if (inputStream != null) {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.accusoft.pdjs3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * The S3ParallelFetcher class retrieves a list of documents from one bucket and folder concurrently and returns them
+ * in the order they were requested.
+ *
+ * Every document is fully drained before it is returned: small ones into memory, larger ones into a temp file that
+ * is deleted when its stream is closed. The HTTP connection behind each document therefore goes back to the pool as
+ * soon as the document has been read, instead of staying open until the caller gets around to it.
+ */
+public class S3ParallelFetcher {
+
+    /** Default number of documents fetched at the same time. */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    /** Default largest document held in memory; larger documents are spilled to a temp file. */
+    public static final long DEFAULT_MAX_IN_MEMORY_SIZE = 16L * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final S3Handler s3Handler;
+    private final int parallelism;
+    private final long maxInMemorySize;
+    private volatile S3ContentStore contentStore;
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(S3ParallelFetcher.class);
+
+    /**
+     * Constructs an S3ParallelFetcher object with the specified settings.
+     *
+     * @param s3Handler the handler used to read each document
+     * @param parallelism the number of documents fetched at the same time
+     * @param maxInMemorySize the largest document held in memory
+     */
+    public S3ParallelFetcher(S3Handler s3Handler, int parallelism, long maxInMemorySize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.s3Handler = s3Handler;
+        this.parallelism = parallelism;
+        this.maxInMemorySize = maxInMemorySize;
+    }
+
+    /**
+     * Sets the content store documents are opened through, so documents saved with content-addressed storage are
+     * read from their content. The store must be for the bucket and folder the documents are fetched from.
+     *
+     * @param contentStore the content store, or null to read every document as it is
+     */
+    public void setContentStore(S3ContentStore contentStore) {
+        this.contentStore = contentStore;
+    }
+
+    /**
+     * Fetches the specified documents concurrently. Documents that are missing or fail are left out as nulls.
+     *
+     * @param documentNames the names of the documents to fetch
+     * @param bucketName the name of the bucket containing the documents
+     * @param folderName the name of the folder containing the documents (optional)
+     *
+     * @return one entry per requested document, in request order; an entry is null if the document does not exist
+     *         or could not be read
+     */
+    public List<S3ObjectData> fetchAll(List<String> documentNames, String bucketName, String folderName) {
+        try {
+            return fetch(documentNames, bucketName, folderName, false, Long.MAX_VALUE);
+        } catch (IOException e) {
+            // Not reached: lenient fetches record failures as nulls.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Fetches the specified documents concurrently, all of which must exist. The first missing or failed document
+     * stops the remaining fetches, and everything already fetched is released before the error is thrown.
+     *
+     * Documents are kept in memory until their combined size reaches the memory budget; every document after that
+     * is spilled to a temp file, whatever its size.
+     *
+     * @param documentNames the names of the documents to fetch
+     * @param bucketName the name of the bucket containing the documents
+     * @param folderName the name of the folder containing the documents (optional)
+     * @param memoryBudget the largest combined size of the documents held in memory
+     *
+     * @throws FileNotFoundException if a document does not exist
+     * @throws IOException if a document could not be read
+     *
+     * @return one entry per requested document, in request order
+     */
+    public List<S3ObjectData> fetchAllRequired(List<String> documentNames, String bucketName, String folderName,
+            long memoryBudget) throws IOException {
+        return fetch(documentNames, bucketName, folderName, true, memoryBudget);
+    }
+
+    private List<S3ObjectData> fetch(final List<String> documentNames, final String bucketName, final String folderName,
+            final boolean required, long memoryBudget) throws IOException {
+        final int count = documentNames.size();
+        final S3ObjectData[] results = new S3ObjectData[count];
+        final AtomicInteger nextIndex = new AtomicInteger();
+        final AtomicLong remainingBudget = new AtomicLong(memoryBudget);
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        Runnable worker = () -> {
+            int index;
+            while (failure.get() == null && (index = nextIndex.getAndIncrement()) < count) {
+                String documentName = documentNames.get(index);
+                try {
+                    S3ContentStore store = contentStore;
+                    S3ObjectData objectData = store != null
+                            ? store.open(documentName)
+                            : s3Handler.getS3ObjectStream(documentName, bucketName, folderName);
+                    if (objectData != null) {
+                        results[index] = detach(objectData, remainingBudget);
+                    } else if (required) {
+                        failure.compareAndSet(null, new FileNotFoundException(documentName));
+                    }
+                } catch (IOException | AmazonClientException e) {
+                    logger.error("Error fetching {} from S3: {}", documentName, e.getMessage());
+                    if (required) {
+                        failure.compareAndSet(null, e instanceof IOException
+                                ? (IOException) e
+                                : new IOException("Error fetching " + documentName, e));
+                    }
+                }
+            }
+        };
+
+        // The calling thread works too, so a single document never waits for a pool thread.
+        int workers = Math.min(parallelism, count) - 1;
+        List<Future<?>> futures = new ArrayList<>(Math.max(workers, 0));
+        for (int i = 0; i < workers; i++) {
+            Future<?> future = S3TransferExecutor.trySubmit(Executors.callable(worker));
+            if (future == null) {
+                break;
+            }
+            futures.add(future);
+        }
+        worker.run();
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                logger.error("Error fetching documents from {}: {}", bucketName, e.getCause().getMessage());
+                failure.compareAndSet(null, new IOException("Error fetching documents", e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, new InterruptedIOException("Interrupted while fetching documents"));
+            }
+        }
+
+        if (required && failure.get() != null) {
+            for (S3ObjectData objectData : results) {
+                if (objectData != null) {
+                    objectData.close();
+                }
+            }
+            throw failure.get();
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Reads an open stream to the end and closes it, keeping the content in memory or in a spill file.
+     */
+    private S3ObjectData detach(S3ObjectData objectData, AtomicLong remainingBudget) throws IOException {
+        if (objectData.getBytes() != null) {
+            return objectData;
+        }
+        File spillFile = null;
+        try (InputStream input = objectData.getDataInputStream()) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                    (int) Math.min(Math.max(objectData.getContentLength(), 0), Math.min(maxInMemorySize, Integer.MAX_VALUE - 8)));
+            byte[] chunk = new byte[BUFFER_SIZE];
+            int len;
+            while (buffer.size() <= maxInMemorySize && (len = input.read(chunk)) != -1) {
+                buffer.write(chunk, 0, len);
+            }
+            if (buffer.size() <= maxInMemorySize && reserve(remainingBudget, buffer.size())) {
+                return new S3ObjectData(objectData.getKey(), objectData.getContentLength(), objectData.getETag(),
+                        objectData.getLastModified(), objectData.getVersionId(), buffer.toByteArray(), null);
+            }
+
+            spillFile = File.createTempFile("s3-fetch-", ".tmp");
+            try (FileOutputStream output = new FileOutputStream(spillFile)) {
+                buffer.writeTo(output);
+                buffer = null;
+                while ((len = input.read(chunk)) != -1) {
+                    output.write(chunk, 0, len);
+                }
+            }
+        } catch (IOException e) {
+            if (spillFile != null && !spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+            throw e;
+        }
+        return new S3ObjectData(objectData.getKey(), objectData.getContentLength(), objectData.getETag(),
+                objectData.getLastModified(), objectData.getVersionId(), null,
+                new S3RangedDownloader.DeleteOnCloseFileInputStream(spillFile));
+    }
+
+    private static boolean reserve(AtomicLong remainingBudget, long size) {
+        if (remainingBudget.addAndGet(-size) >= 0) {
+            return true;
+        }
+        remainingBudget.addAndGet(size);
+        return false;
+    }
+
+    /**
+     * Retrieves the number of documents fetched at the same time.
+     *
+     * @return the parallelism.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+}
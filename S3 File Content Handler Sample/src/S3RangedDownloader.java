@@ -0,0 +1,476 @@
+package com.accusoft.pdjs3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * The S3RangedDownloader class retrieves S3 objects with concurrent ranged GET requests.
+ *
+ * The first request asks for the first {@code threshold} bytes. Objects no larger than the threshold are therefore
+ * fetched with that single request. For larger objects the first response reveals the total size, and the rest of
+ * the object is split into parts of {@code partSize} bytes that are fetched concurrently into a pre-sized buffer,
+ * or into a spill file when the object is too large to hold in memory. A failed part is retried on its own, after a
+ * jittered pause, without restarting the whole download, and every part is pinned to the ETag of the first response
+ * so an object that changes mid-download is never stitched together from two versions.
+ */
+public class S3RangedDownloader {
+
+    /** Default size above which objects are downloaded in parallel parts. */
+    public static final long DEFAULT_THRESHOLD = 16L * 1024 * 1024;
+
+    /** Default size of each ranged part. */
+    public static final long DEFAULT_PART_SIZE = 8L * 1024 * 1024;
+
+    /** Default number of parts fetched at the same time for one object. */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    /** Default number of retries for a failed part. */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /** Default largest object held in memory; larger objects are spilled to a temp file when streaming. */
+    public static final long DEFAULT_MAX_IN_MEMORY_SIZE = 64L * 1024 * 1024;
+
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long threshold;
+    private final long partSize;
+    private final int parallelism;
+    private final int maxRetries;
+    private final long maxInMemorySize;
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(S3RangedDownloader.class);
+
+    /**
+     * Constructs an S3RangedDownloader object with the default settings.
+     */
+    public S3RangedDownloader() {
+        this(DEFAULT_THRESHOLD, DEFAULT_PART_SIZE, DEFAULT_PARALLELISM, DEFAULT_MAX_RETRIES, DEFAULT_MAX_IN_MEMORY_SIZE);
+    }
+
+    /**
+     * Constructs an S3RangedDownloader object with the specified settings.
+     *
+     * @param threshold the size above which objects are downloaded in parallel parts
+     * @param partSize the size of each ranged part
+     * @param parallelism the number of parts fetched at the same time for one object
+     * @param maxRetries the number of retries for a failed part
+     * @param maxInMemorySize the largest object held in memory; larger objects are spilled to a temp file
+     */
+    public S3RangedDownloader(long threshold, long partSize, int parallelism, int maxRetries, long maxInMemorySize) {
+        if (threshold < 1 || partSize < 1 || parallelism < 1 || maxRetries < 0) {
+            throw new IllegalArgumentException("Invalid ranged download configuration");
+        }
+        this.threshold = threshold;
+        this.partSize = partSize;
+        this.parallelism = parallelism;
+        this.maxRetries = maxRetries;
+        this.maxInMemorySize = Math.min(maxInMemorySize, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * Downloads the specified S3 object.
+     *
+     * @param s3Client the client to download with
+     * @param bucketName the name of the bucket containing the object
+     * @param key the key of the object
+     * @param allowSpill true to spill objects larger than the in-memory limit to a temp file and return a stream
+     *                   over it, false to fail for such objects
+     *
+     * @throws IOException if the object could not be downloaded after retries
+     * @throws AmazonS3Exception if an error other than "not found" occurs on the first request
+     *
+     * @return the content and metadata of the object, or null if the object does not exist
+     */
+    public S3ObjectData download(AmazonS3 s3Client, String bucketName, String key, boolean allowSpill) throws IOException {
+        return download(s3Client, bucketName, key, allowSpill, null);
+    }
+
+    /**
+     * Downloads an object like {@link #download(AmazonS3, String, String, boolean)}, hedging the first request.
+     * The first request decides how soon the document starts to open, so it is the one worth hedging; the
+     * remaining parts already run in parallel and are retried on their own.
+     *
+     * @param s3Client the client to download with
+     * @param bucketName the name of the bucket containing the object
+     * @param key the key of the object
+     * @param allowSpill true to spill objects larger than the in-memory limit to a temp file and return a stream
+     *                   over it, false to fail for such objects
+     * @param hedgingPolicy the policy that hedges the first request, or null to send it once
+     *
+     * @throws IOException if the object could not be downloaded after retries
+     * @throws AmazonS3Exception if an error other than "not found" occurs on the first request
+     *
+     * @return the content and metadata of the object, or null if the object does not exist
+     */
+    public S3ObjectData download(AmazonS3 s3Client, String bucketName, String key, boolean allowSpill,
+            S3HedgingPolicy hedgingPolicy) throws IOException {
+        S3Object first;
+        try {
+            GetObjectRequest firstRequest = new GetObjectRequest(bucketName, key).withRange(0, threshold - 1);
+            first = hedgingPolicy != null
+                    ? hedgingPolicy.getObject(s3Client, firstRequest)
+                    : s3Client.getObject(firstRequest);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == HTTP_NOT_FOUND) {
+                return null;
+            }
+            if (e.getStatusCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+                // A zero-length object has no satisfiable range; fetch it whole.
+                return readWhole(s3Client.getObject(new GetObjectRequest(bucketName, key)));
+            }
+            throw e;
+        }
+
+        ObjectMetadata metadata = first.getObjectMetadata();
+        long totalSize = metadata.getInstanceLength();
+        if (totalSize <= threshold) {
+            return readWhole(first);
+        }
+
+        DownloadTarget target;
+        try {
+            if (totalSize <= maxInMemorySize) {
+                target = new ByteArrayTarget((int) totalSize);
+            } else if (allowSpill) {
+                target = new SpillFileTarget(totalSize);
+            } else {
+                throw new IOException(key + " is too large to buffer in memory (" + totalSize + " bytes)");
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            // The first part has not been read, so release its connection instead of draining it.
+            first.getObjectContent().abort();
+            throw e;
+        }
+
+        String eTag = metadata.getETag();
+        logger.info("Downloading {} ({} bytes) in parallel ranged parts", key, totalSize);
+        boolean complete = false;
+        try {
+            fetchParts(s3Client, bucketName, key, eTag, first, totalSize, target);
+            complete = true;
+        } finally {
+            if (!complete) {
+                target.discard();
+            }
+        }
+
+        if (target instanceof ByteArrayTarget) {
+            return new S3ObjectData(key, totalSize, eTag, metadata.getLastModified(), metadata.getVersionId(),
+                    ((ByteArrayTarget) target).bytes, null);
+        }
+        return new S3ObjectData(key, totalSize, eTag, metadata.getLastModified(), metadata.getVersionId(),
+                null, ((SpillFileTarget) target).openInputStream());
+    }
+
+    private void fetchParts(final AmazonS3 s3Client, final String bucketName, final String key, final String eTag,
+            S3Object first, final long totalSize, final DownloadTarget target) throws IOException {
+        final int partCount = 1 + (int) ((totalSize - threshold + partSize - 1) / partSize);
+        final AtomicInteger nextPart = new AtomicInteger(1);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        Callable<Void> worker = () -> {
+            int part;
+            while (!failed.get() && (part = nextPart.getAndIncrement()) < partCount) {
+                long start = threshold + (part - 1) * partSize;
+                long end = Math.min(start + partSize, totalSize) - 1;
+                try {
+                    fetchPartWithRetries(s3Client, bucketName, key, eTag, null, start, end, target);
+                } catch (IOException | RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+            }
+            return null;
+        };
+
+        // The calling thread is one of the workers, so the download completes even when no pool thread is free.
+        int workers = Math.min(parallelism, partCount) - 1;
+        List<Future<Void>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            Future<Void> future = S3TransferExecutor.trySubmit(worker);
+            if (future == null) {
+                break;
+            }
+            futures.add(future);
+        }
+
+        IOException failure = null;
+        try {
+            // The first part is already streaming in; read it before helping with the rest.
+            fetchPartWithRetries(s3Client, bucketName, key, eTag, first, 0, threshold - 1, target);
+            worker.call();
+        } catch (Exception e) {
+            failed.set(true);
+            failure = e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.set(true);
+                if (failure == null) {
+                    failure = new IOException("Interrupted while downloading " + key, e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void fetchPartWithRetries(AmazonS3 s3Client, String bucketName, String key, String eTag, S3Object opened,
+            long start, long end, DownloadTarget target) throws IOException {
+        S3Object s3Object = opened;
+        for (int attempt = 0; ; attempt++) {
+            if (attempt > 0) {
+                pauseBeforeRetry(key, attempt - 1);
+            }
+            try {
+                if (s3Object == null) {
+                    s3Object = s3Client.getObject(new GetObjectRequest(bucketName, key)
+                            .withRange(start, end)
+                            .withMatchingETagConstraint(eTag));
+                    if (s3Object == null) {
+                        throw new ObjectChangedException(key);
+                    }
+                }
+                copyRange(s3Object, start, end, target);
+                return;
+            } catch (AmazonClientException | IOException e) {
+                if (attempt >= maxRetries || e instanceof ObjectChangedException) {
+                    throw e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+                logger.info("Retrying bytes {}-{} of {} after error: {}", start, end, key, e.getMessage());
+            } finally {
+                if (s3Object != null) {
+                    s3Object.close();
+                    s3Object = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits before a part is requested again, with the same full jitter S3ThrottleControl uses for throttled reads,
+     * so the parts of a download do not retry against a struggling endpoint all at once.
+     */
+    private static void pauseBeforeRetry(String key, int retriesAttempted) throws InterruptedIOException {
+        try {
+            Thread.sleep(S3ThrottleControl.jitteredDelay(S3ThrottleControl.RequestClass.READ, retriesAttempted,
+                    S3ThrottleControl.DEFAULT_MAX_DELAY_MILLIS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while retrying a part of " + key);
+        }
+    }
+
+    private static void copyRange(S3Object s3Object, long start, long end, DownloadTarget target) throws IOException {
+        long position = start;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream input = s3Object.getObjectContent()) {
+            int len;
+            while (position <= end && (len = input.read(buffer, 0, (int) Math.min(buffer.length, end - position + 1))) != -1) {
+                target.write(position, buffer, 0, len);
+                position += len;
+            }
+        }
+        if (position != end + 1) {
+            throw new IOException("Premature end of bytes " + start + "-" + end + " at " + position);
+        }
+    }
+
+    private static S3ObjectData readWhole(S3Object s3Object) throws IOException {
+        try (InputStream input = s3Object.getObjectContent()) {
+            ObjectMetadata metadata = s3Object.getObjectMetadata();
+            long contentLength = metadata.getContentLength();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(
+                    contentLength > 0 && contentLength < Integer.MAX_VALUE ? (int) contentLength : 4096);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = input.read(buffer)) != -1) {
+                output.write(buffer, 0, len);
+            }
+            byte[] bytes = output.toByteArray();
+            return new S3ObjectData(s3Object.getKey(), bytes.length, metadata.getETag(), metadata.getLastModified(),
+                    metadata.getVersionId(), bytes, null);
+        } finally {
+            s3Object.close();
+        }
+    }
+
+    /**
+     * Retrieves the size above which objects are downloaded in parallel parts.
+     *
+     * @return the threshold in bytes.
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Retrieves the size of each ranged part.
+     *
+     * @return the part size in bytes.
+     */
+    public long getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * Retrieves the number of parts fetched at the same time for one object.
+     *
+     * @return the parallelism.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Receives the bytes of concurrently downloaded parts at their final positions.
+     */
+    private interface DownloadTarget {
+        void write(long position, byte[] buffer, int offset, int length) throws IOException;
+
+        void discard();
+    }
+
+    private static final class ByteArrayTarget implements DownloadTarget {
+        private final byte[] bytes;
+
+        private ByteArrayTarget(int size) {
+            this.bytes = new byte[size];
+        }
+
+        @Override
+        public void write(long position, byte[] buffer, int offset, int length) {
+            System.arraycopy(buffer, offset, bytes, (int) position, length);
+        }
+
+        @Override
+        public void discard() {
+        }
+    }
+
+    private static final class SpillFileTarget implements DownloadTarget {
+        private final File file;
+        private final RandomAccessFile randomAccessFile;
+        private final FileChannel channel;
+
+        private SpillFileTarget(long size) throws IOException {
+            this.file = File.createTempFile("s3-download", ".tmp");
+            try {
+                this.randomAccessFile = new RandomAccessFile(file, "rw");
+            } catch (IOException | RuntimeException e) {
+                deleteFile();
+                throw e;
+            }
+            try {
+                this.randomAccessFile.setLength(size);
+            } catch (IOException | RuntimeException e) {
+                discard();
+                throw e;
+            }
+            this.channel = randomAccessFile.getChannel();
+        }
+
+        @Override
+        public void write(long position, byte[] buffer, int offset, int length) throws IOException {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length);
+            long filePosition = position;
+            while (byteBuffer.hasRemaining()) {
+                filePosition += channel.write(byteBuffer, filePosition);
+            }
+        }
+
+        @Override
+        public void discard() {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                logger.error("Error closing spill file {}", file, e);
+            }
+            deleteFile();
+        }
+
+        private void deleteFile() {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+
+        private InputStream openInputStream() throws IOException {
+            randomAccessFile.close();
+            return new DeleteOnCloseFileInputStream(file);
+        }
+    }
+
+    /**
+     * Signals that the object no longer matches the ETag of the first part, so retrying the part cannot help.
+     */
+    private static final class ObjectChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private ObjectChangedException(String key) {
+            super(key + " changed while it was being downloaded");
+        }
+    }
+
+    /**
+     * Reads a spill file and deletes it once the reader is done with it.
+     */
+    static final class DeleteOnCloseFileInputStream extends FileInputStream {
+        private final File file;
+        private boolean closed;
+
+        DeleteOnCloseFileInputStream(File file) throws IOException {
+            super(file);
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.accusoft.pdjs3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * The S3SingleFlight class merges concurrent identical reads into one backend call.
+ *
+ * The first caller for a key becomes the leader: it registers a future in a lock-free map and makes the call on its
+ * own thread. Callers that arrive for the same key while the call is in flight find the future and wait for it
+ * instead of calling S3 again, so a meeting where many viewers open the same document at once costs one GET. The
+ * entry is removed as soon as the call completes; nothing is cached beyond that.
+ *
+ * A result can only be handed to every caller if it may be used more than once, such as buffered content or a
+ * listing. A result that is not shareable, such as an open stream, goes to the leader alone and each waiting caller
+ * makes its own call. A leader can see through {@link Flight#hasFollowers()} whether anybody is waiting, and switch
+ * to a shareable result if so. Failures are shared like results.
+ *
+ * The leader gets the result it loaded, and each waiting caller gets its own copy, so no caller can see a change
+ * another caller makes to its result.
+ *
+ * @param <K> the key type
+ * @param <V> the result type
+ */
+public class S3SingleFlight<K, V> {
+
+    /**
+     * A call that loads a result.
+     *
+     * @param <V> the result type
+     */
+    @FunctionalInterface
+    public interface Loader<V> {
+        /**
+         * Loads the result.
+         *
+         * @param flight the flight this call serves, or a flight without followers when the call is not shared
+         *
+         * @return the result
+         *
+         * @throws IOException if an I/O error occurs while loading
+         */
+        V load(Flight flight) throws IOException;
+    }
+
+    // Handed to callers that make their own call after an unshareable result; nobody ever joins it.
+    private static final Flight SOLO = new Flight();
+
+    private final ConcurrentHashMap<K, Call<V>> inFlight = new ConcurrentHashMap<>();
+    private final Predicate<V> shareable;
+    private final UnaryOperator<V> copier;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong unshared = new AtomicLong();
+
+    /**
+     * Constructs an S3SingleFlight object.
+     *
+     * @param shareable tells whether a result may be handed to every waiting caller
+     * @param copier makes the copy of a shareable result that a waiting caller gets
+     */
+    public S3SingleFlight(Predicate<V> shareable, UnaryOperator<V> copier) {
+        this.shareable = shareable;
+        this.copier = copier;
+    }
+
+    /**
+     * Loads the result for a key, or waits for the call already loading it.
+     *
+     * @param key the key identifying identical calls
+     * @param loader the call to make if none is in flight
+     *
+     * @return the result
+     *
+     * @throws IOException if the call fails with an I/O error, or the thread is interrupted while waiting
+     */
+    public V execute(K key, Loader<V> loader) throws IOException {
+        Call<V> call = new Call<>();
+        Call<V> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            return join(existing, loader);
+        }
+
+        calls.incrementAndGet();
+        try {
+            V value = loader.load(call.flight);
+            call.future.complete(shareable.test(value) ? new Outcome<>(value, true) : new Outcome<>(null, false));
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            call.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    /**
+     * Forgets the call in flight for a key, so callers arriving later make a new call. Used after the object behind
+     * the key was changed, so a read that started before the change is not handed to readers that came after it.
+     *
+     * @param key the key
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    /**
+     * Forgets every call in flight whose key matches a condition.
+     *
+     * @param condition the condition
+     */
+    public void forgetMatching(Predicate<K> condition) {
+        inFlight.keySet().removeIf(condition);
+    }
+
+    private V join(Call<V> call, Loader<V> loader) throws IOException {
+        call.flight.followers.incrementAndGet();
+        joined.incrementAndGet();
+        Outcome<V> outcome;
+        try {
+            outcome = call.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for a shared read");
+            interrupted.initCause(e);
+            throw interrupted;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+        if (outcome.shared) {
+            return outcome.value == null ? null : copier.apply(outcome.value);
+        }
+        unshared.incrementAndGet();
+        return loader.load(SOLO);
+    }
+
+    /**
+     * @return the number of calls currently in flight
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Retrieves a summary of the counters.
+     *
+     * @return the counters as a String
+     */
+    public String getStatistics() {
+        return "calls=" + calls.get() + ", joined=" + joined.get() + ", unshared=" + unshared.get()
+                + ", inFlight=" + inFlight.size();
+    }
+
+    /**
+     * The state of a call in flight that its leader can inspect.
+     */
+    public static final class Flight {
+        private final AtomicInteger followers = new AtomicInteger();
+
+        /**
+         * @return true if other callers are waiting for this call
+         */
+        public boolean hasFollowers() {
+            return followers.get() > 0;
+        }
+    }
+
+    private static final class Call<V> {
+        private final Flight flight = new Flight();
+        private final CompletableFuture<Outcome<V>> future = new CompletableFuture<>();
+    }
+
+    private static final class Outcome<V> {
+        private final V value;
+        private final boolean shared;
+
+        private Outcome(V value, boolean shared) {
+            this.value = value;
+            this.shared = shared;
+        }
+    }
+}
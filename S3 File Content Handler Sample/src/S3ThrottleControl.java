@@ -0,0 +1,288 @@
+package com.accusoft.pdjs3;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * The S3ThrottleControl class keeps S3 request rates near what the bucket accepts when S3 answers with 503 SlowDown.
+ *
+ * It is installed on the pooled clients by {@link S3ClientRegistry}, so every request, whether made by S3Handler,
+ * the ranged downloader, the multipart uploader or the key index, goes through it:
+ *
+ * <ul>
+ * <li>As a request handler it holds each read, write or listing request until the {@link S3ConcurrencyLimiter}
+ * of its class has a free slot, and reports the outcome of every attempt back to the limiter. The slot is taken
+ * before a pooled connection is leased and kept through retries, so a request backing off after a throttling
+ * response does not make room for a new one, and a request waiting for a slot never holds a connection.</li>
+ * <li>As a backoff strategy it spaces retries of throttled requests with full jitter: a random delay between zero
+ * and an exponentially growing bound. Reads start from a shorter delay than writes and listings, since a viewer is
+ * waiting on them. Other retryable errors keep the SDK default backoff.</li>
+ * </ul>
+ */
+public class S3ThrottleControl extends RequestHandler2 implements RetryPolicy.BackoffStrategy {
+
+    /**
+     * The kinds of requests that are limited separately. S3 throttles reads and writes against separate per-prefix
+     * request rates, and listings are comparatively expensive.
+     */
+    public enum RequestClass {
+        READ(50),
+        WRITE(200),
+        LIST(200);
+
+        private final long baseDelayMillis;
+
+        RequestClass(long baseDelayMillis) {
+            this.baseDelayMillis = baseDelayMillis;
+        }
+    }
+
+    /** Default number of retries of a failed request. */
+    public static final int DEFAULT_MAX_RETRIES = 8;
+
+    /** Default upper bound of the delay before a retry of a throttled request. */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 20000;
+
+    /** Default ratio of response time to usual response time at which the limit is lowered. */
+    public static final double DEFAULT_LATENCY_TOLERANCE = 4.0;
+
+    // Uploads larger than this take as long as their body takes to send, so their time is not a sign of load.
+    private static final long MAX_LATENCY_SAMPLE_BYTES = 256 * 1024;
+
+    private static final HandlerContextKey<S3ConcurrencyLimiter> SLOT = new HandlerContextKey<>("S3ThrottleControl.slot");
+    private static final HandlerContextKey<Long> ATTEMPT_STARTED = new HandlerContextKey<>("S3ThrottleControl.attemptStarted");
+
+    private final Map<RequestClass, S3ConcurrencyLimiter> limiters = new EnumMap<>(RequestClass.class);
+    private final int maxConcurrency;
+    private final double latencyTolerance;
+    private final int maxRetries;
+    private final long maxDelayMillis;
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(S3ThrottleControl.class);
+
+    /**
+     * Constructs an S3ThrottleControl object.
+     *
+     * @param maxConcurrency the highest number of requests of one class in flight, usually the connection pool size
+     * @param latencyTolerance how many times slower than usual a response may be before the limit is lowered, or 0
+     *        to react to throttling only
+     * @param maxRetries the number of retries of a failed request
+     * @param maxDelayMillis the upper bound of the delay before a retry of a throttled request
+     */
+    public S3ThrottleControl(int maxConcurrency, double latencyTolerance, int maxRetries, long maxDelayMillis) {
+        for (RequestClass requestClass : RequestClass.values()) {
+            limiters.put(requestClass, new S3ConcurrencyLimiter(1, maxConcurrency, latencyTolerance));
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.latencyTolerance = latencyTolerance;
+        this.maxRetries = maxRetries;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Checks whether another throttle control was constructed with the same settings, so installing it instead of
+     * this one would change nothing but the learned limits.
+     *
+     * @param other the other throttle control
+     *
+     * @return true if both have the same settings
+     */
+    public boolean hasSameSettings(S3ThrottleControl other) {
+        return other != null
+                && maxConcurrency == other.maxConcurrency
+                && Double.compare(latencyTolerance, other.latencyTolerance) == 0
+                && maxRetries == other.maxRetries
+                && maxDelayMillis == other.maxDelayMillis;
+    }
+
+    /**
+     * Builds the retry policy to configure on clients together with this request handler.
+     *
+     * @return the retry policy
+     */
+    public RetryPolicy getRetryPolicy() {
+        return new RetryPolicy(PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION, this, maxRetries, false);
+    }
+
+    /**
+     * Retrieves the limiter of a request class.
+     *
+     * @param requestClass the request class
+     *
+     * @return the limiter
+     */
+    public S3ConcurrencyLimiter getLimiter(RequestClass requestClass) {
+        return limiters.get(requestClass);
+    }
+
+    /**
+     * Retrieves a summary of every limiter.
+     *
+     * @return the limiter states as a String
+     */
+    public String getStatistics() {
+        return limiters.toString();
+    }
+
+    @Override
+    public void beforeRequest(Request<?> request) {
+        RequestClass requestClass = classify(request.getOriginalRequest());
+        if (requestClass == null) {
+            return;
+        }
+        S3ConcurrencyLimiter limiter = limiters.get(requestClass);
+        try {
+            limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting to send an S3 request", e);
+        }
+        request.addHandlerContext(SLOT, limiter);
+    }
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context) {
+        Request<?> request = context.getRequest();
+        if (request.getHandlerContext(SLOT) != null) {
+            request.addHandlerContext(ATTEMPT_STARTED, System.nanoTime());
+        }
+    }
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context) {
+        Request<?> request = context.getRequest();
+        S3ConcurrencyLimiter limiter = request.getHandlerContext(SLOT);
+        Long started = request.getHandlerContext(ATTEMPT_STARTED);
+        if (limiter == null || started == null) {
+            return;
+        }
+        Exception exception = context.getException();
+        // Only attempts S3 answered say something about its capacity; connection failures are left out.
+        if (exception == null || exception instanceof AmazonServiceException) {
+            boolean throttled = exception != null && RetryUtils.isThrottlingException((AmazonServiceException) exception);
+            limiter.onResponse(isLatencySample(request.getOriginalRequest()) ? System.nanoTime() - started : -1, throttled);
+        }
+    }
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response) {
+        releaseSlot(request);
+    }
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e) {
+        releaseSlot(request);
+    }
+
+    private void releaseSlot(Request<?> request) {
+        S3ConcurrencyLimiter limiter = request.getHandlerContext(SLOT);
+        if (limiter != null) {
+            request.addHandlerContext(SLOT, null);
+            limiter.release();
+        }
+    }
+
+    @Override
+    public long delayBeforeNextRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception, int retriesAttempted) {
+        if (!(exception instanceof AmazonServiceException) || !RetryUtils.isThrottlingException((AmazonServiceException) exception)) {
+            return PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY.delayBeforeNextRetry(originalRequest, exception, retriesAttempted);
+        }
+        RequestClass requestClass = classify(originalRequest);
+        long delay = jitteredDelay(requestClass != null ? requestClass : RequestClass.WRITE, retriesAttempted, maxDelayMillis);
+        logger.debug("S3 throttled {}, retry {} in {} ms", requestClass, retriesAttempted + 1, delay);
+        return delay;
+    }
+
+    /**
+     * Computes a retry delay with full jitter: a random delay between zero and a bound that starts at the base delay
+     * of the request class and doubles with every retry, up to the specified maximum.
+     *
+     * @param requestClass the class of the request to retry
+     * @param retriesAttempted the number of retries already made
+     * @param maxDelayMillis the upper bound of the delay
+     *
+     * @return the delay in milliseconds
+     */
+    static long jitteredDelay(RequestClass requestClass, int retriesAttempted, long maxDelayMillis) {
+        long bound = Math.min(maxDelayMillis, requestClass.baseDelayMillis << Math.min(retriesAttempted, 20));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * Determines whether the time a request takes reflects how busy S3 is. Part uploads, large or unsized object
+     * uploads, multipart completions and multi-object deletes take time in proportion to what they carry, so
+     * comparing them with the usual latency of small requests would lower the limit for no reason.
+     *
+     * @return true if the response time of the request may lower the limit
+     */
+    static boolean isLatencySample(AmazonWebServiceRequest request) {
+        if (request instanceof UploadPartRequest || request instanceof CompleteMultipartUploadRequest
+                || request instanceof DeleteObjectsRequest) {
+            return false;
+        }
+        if (request instanceof PutObjectRequest) {
+            PutObjectRequest putRequest = (PutObjectRequest) request;
+            long length = -1;
+            if (putRequest.getFile() != null) {
+                length = putRequest.getFile().length();
+            } else if (putRequest.getMetadata() != null
+                    && putRequest.getMetadata().getRawMetadataValue(Headers.CONTENT_LENGTH) != null) {
+                length = putRequest.getMetadata().getContentLength();
+            }
+            return length >= 0 && length <= MAX_LATENCY_SAMPLE_BYTES;
+        }
+        return true;
+    }
+
+    /**
+     * Determines the class of a request.
+     *
+     * @return the request class, or null for bucket configuration and other rare requests that are not limited
+     */
+    static RequestClass classify(AmazonWebServiceRequest request) {
+        if (request instanceof GetObjectRequest || request instanceof GetObjectMetadataRequest) {
+            return RequestClass.READ;
+        }
+        if (request instanceof PutObjectRequest || request instanceof UploadPartRequest
+                || request instanceof InitiateMultipartUploadRequest || request instanceof CompleteMultipartUploadRequest
+                || request instanceof AbortMultipartUploadRequest || request instanceof CopyObjectRequest
+                || request instanceof DeleteObjectRequest || request instanceof DeleteObjectsRequest) {
+            return RequestClass.WRITE;
+        }
+        if (request instanceof ListObjectsV2Request || request instanceof ListObjectsRequest
+                || request instanceof ListMultipartUploadsRequest) {
+            return RequestClass.LIST;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,111 @@
+package com.accusoft.pdjs3;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.ClientConfiguration;
+
+/**
+ * The S3TransferExecutor class owns the daemon thread pool shared by the S3 transfer engines: ranged download parts,
+ * multipart upload parts, concurrent document fetches, hedged GETs and key index refreshes. Threads beyond the
+ * pooled HTTP connections could only wait for a connection, so the pool has at most as many threads as a client has
+ * connections, and never queues work.
+ *
+ * A transfer that finds every thread busy does the work on its own thread instead: the transfer engines start fewer
+ * workers and the calling thread fetches or uploads alongside them, and tasks run through {@link #get()} run on the
+ * calling thread. A task therefore never waits for a thread held by the task that is waiting for it. The class also
+ * builds the bounded pools that run asynchronous S3Handler requests.
+ */
+final class S3TransferExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, ClientConfiguration.DEFAULT_MAX_CONNECTIONS,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new TransferThreadFactory("s3-transfer-"));
+
+    private static final Executor callerRunsExecutor = runnable -> {
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            runnable.run();
+        }
+    };
+
+    private S3TransferExecutor() {
+    }
+
+    /**
+     * Sets the largest number of threads of the shared pool, usually the size of the connection pool. Threads above
+     * a lowered limit end when their current task is done.
+     *
+     * @param maxThreads the largest number of threads
+     */
+    static void setMaxThreads(int maxThreads) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads must be at least 1");
+        }
+        executor.setMaximumPoolSize(maxThreads);
+    }
+
+    /**
+     * Retrieves an executor that runs tasks on the shared pool, or on the calling thread when every pool thread is
+     * busy.
+     *
+     * @return the shared Executor
+     */
+    static Executor get() {
+        return callerRunsExecutor;
+    }
+
+    /**
+     * Starts a task on the shared pool if a thread is free.
+     *
+     * @param task the task to run
+     *
+     * @return the Future of the task, or null if every pool thread is busy and the caller must do the work itself
+     */
+    static <T> Future<T> trySubmit(Callable<T> task) {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a pool with a fixed number of daemon threads.
+     *
+     * @param namePrefix the prefix of the thread names
+     * @param threads the number of threads
+     *
+     * @return a new ExecutorService
+     */
+    static ExecutorService newFixedPool(String namePrefix, int threads) {
+        return Executors.newFixedThreadPool(threads, new TransferThreadFactory(namePrefix));
+    }
+
+    private static final class TransferThreadFactory implements ThreadFactory {
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        private TransferThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.accusoft.pdjs3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * The S3WriteBehindQueue class acknowledges small saves and deletes as soon as they are safely on local disk, and
+ * sends them to S3 in the background.
+ *
+ * Every change is first written to a journal file in a local directory and synced, then kept in memory as the
+ * pending state of its object. A change is sent to S3 once the coalescing window after the first pending change of
+ * that object has passed; changes made to the same object in the meantime replace each other, so a burst of autosaves
+ * costs one PUT. Readers ask {@link #lookup(String)} first, so they see pending changes before they reach S3.
+ *
+ * Journal files left behind by a stopped process are replayed at startup, and {@link #close()} sends everything
+ * still pending before it returns. A change that cannot be sent stays in the journal and is retried. Each journal file
+ * records the bucket and folder of its change; files of another bucket or folder are left in place, not replayed.
+ */
+public class S3WriteBehindQueue {
+
+    private static final String FILE_SUFFIX = ".pending";
+    private static final int JOURNAL_MAGIC = 0x53335742;
+    private static final short JOURNAL_VERSION = 2;
+
+    private final S3Handler s3Handler;
+    private final String bucketName;
+    private final String folderName;
+    private final File journalDirectory;
+    private final long windowMillis;
+
+    private final ConcurrentHashMap<String, PendingWrite> pending = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(S3WriteBehindQueue.class);
+
+    /**
+     * Constructs an S3WriteBehindQueue object and replays any journal left in the directory.
+     *
+     * @param s3Handler the handler used to send changes to S3
+     * @param bucketName the bucket the queued objects belong to
+     * @param folderName the folder the queued objects belong to (optional)
+     * @param journalDirectory the local directory for journal files, created if needed
+     * @param windowMillis how long changes to the same object are collected before they are sent
+     *
+     * @throws IOException if the journal directory cannot be created or read
+     */
+    public S3WriteBehindQueue(S3Handler s3Handler, String bucketName, String folderName, File journalDirectory,
+            long windowMillis) throws IOException {
+        this.s3Handler = s3Handler;
+        this.bucketName = bucketName;
+        this.folderName = folderName;
+        this.journalDirectory = journalDirectory;
+        this.windowMillis = Math.max(windowMillis, 0);
+        Files.createDirectories(journalDirectory.toPath());
+
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "s3-write-behind-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        replayJournal();
+    }
+
+    /**
+     * Queues the new content of an object.
+     *
+     * @param documentName the name of the object
+     * @param data the new content
+     *
+     * @throws IOException if the change cannot be written to the journal
+     */
+    public void put(String documentName, byte[] data) throws IOException {
+        enqueue(documentName, data);
+    }
+
+    /**
+     * Queues the deletion of an object.
+     *
+     * @param documentName the name of the object
+     *
+     * @throws IOException if the change cannot be written to the journal
+     */
+    public void delete(String documentName) throws IOException {
+        enqueue(documentName, null);
+    }
+
+    /**
+     * Looks up the pending change of an object.
+     *
+     * @param documentName the name of the object
+     *
+     * @return the pending change, or null if S3 is up to date for this object
+     */
+    public PendingWrite lookup(String documentName) {
+        return pending.get(documentName);
+    }
+
+    /**
+     * Retrieves the pending changes of every object whose name starts with the specified prefix, so listings can
+     * include objects that are not in S3 yet and leave out objects that are about to be deleted.
+     *
+     * @param prefix the name prefix
+     *
+     * @return a map from object name to pending change
+     */
+    public Map<String, PendingWrite> pendingWithPrefix(String prefix) {
+        Map<String, PendingWrite> matches = new LinkedHashMap<>();
+        for (Map.Entry<String, PendingWrite> entry : pending.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                matches.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Sends every pending change now, on the calling thread.
+     *
+     * @return the number of changes that could not be sent and remain queued
+     */
+    public int drain() {
+        int remaining = 0;
+        for (String documentName : pending.keySet()) {
+            if (!flush(documentName)) {
+                remaining++;
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Stops the background flusher and sends everything still pending. Changes that cannot be sent stay in the
+     * journal and are replayed by the next process.
+     */
+    public void close() {
+        flusher.shutdownNow();
+        int remaining = drain();
+        if (remaining > 0) {
+            logger.error("{} write-behind changes could not be sent and remain in {}", remaining, journalDirectory);
+        }
+    }
+
+    /**
+     * Retrieves a summary of the queue counters.
+     *
+     * @return the counters as a String
+     */
+    public String getStatistics() {
+        return "pending=" + pending.size() + ", queued=" + queued.get() + ", coalesced=" + coalesced.get()
+                + ", flushed=" + flushed.get() + ", failures=" + failures.get();
+    }
+
+    private void enqueue(String documentName, byte[] data) throws IOException {
+        long seq = sequence.incrementAndGet();
+        boolean[] scheduled = new boolean[1];
+        try {
+            pending.compute(documentName, (name, current) -> {
+                // The journal is written under the map lock, so it always matches the pending state.
+                writeJournal(name, data);
+                if (current == null) {
+                    scheduled[0] = true;
+                } else {
+                    coalesced.incrementAndGet();
+                }
+                return new PendingWrite(data, seq);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        queued.incrementAndGet();
+        if (scheduled[0]) {
+            schedule(documentName, windowMillis);
+        }
+    }
+
+    private void schedule(String documentName, long delayMillis) {
+        try {
+            flusher.schedule(() -> {
+                if (!flush(documentName)) {
+                    schedule(documentName, Math.max(windowMillis, 1000));
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // Shutting down; close() sends what is left.
+        }
+    }
+
+    /**
+     * Sends the pending change of one object.
+     *
+     * @return false if the change failed and must be retried
+     */
+    private boolean flush(String documentName) {
+        PendingWrite write = pending.get(documentName);
+        if (write == null) {
+            return true;
+        }
+        try {
+            if (write.data != null) {
+                s3Handler.saveBytesToS3(documentName, write.data, bucketName, folderName);
+            } else {
+                // The multi-object delete reports failures per key instead of only logging them.
+                S3DeleteResult result = s3Handler.deleteFilesFromS3(Collections.singletonList(documentName), bucketName, folderName);
+                String error = result.getFailed().get(documentName);
+                if (error != null) {
+                    throw new AmazonClientException(error);
+                }
+            }
+        } catch (AmazonClientException e) {
+            failures.incrementAndGet();
+            logger.error("Error sending queued change of {} to S3: {}", documentName, e.getMessage());
+            return false;
+        }
+        flushed.incrementAndGet();
+
+        boolean[] newer = new boolean[1];
+        pending.computeIfPresent(documentName, (name, current) -> {
+            if (current.sequence != write.sequence) {
+                // Changed again while it was being sent; the newer change is sent next.
+                newer[0] = true;
+                return current;
+            }
+            deleteJournal(name);
+            return null;
+        });
+        if (newer[0]) {
+            schedule(documentName, windowMillis);
+        }
+        return true;
+    }
+
+    private void writeJournal(String documentName, byte[] data) {
+        File target = journalFile(documentName);
+        File partial = new File(journalDirectory, target.getName() + ".tmp");
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(buffer);
+            output.writeInt(JOURNAL_MAGIC);
+            output.writeShort(JOURNAL_VERSION);
+            output.writeUTF(bucketName);
+            output.writeUTF(folderName != null ? folderName : "");
+            output.writeUTF(documentName);
+            output.writeBoolean(data != null);
+            if (data != null) {
+                output.writeInt(data.length);
+                output.write(data);
+            }
+            output.flush();
+
+            try (FileOutputStream file = new FileOutputStream(partial)) {
+                buffer.writeTo(file);
+                file.getFD().sync();
+            }
+            Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (partial.exists() && !partial.delete()) {
+                logger.error("Could not delete partial journal file {}", partial);
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void deleteJournal(String documentName) {
+        File file = journalFile(documentName);
+        if (file.exists() && !file.delete()) {
+            logger.error("Could not delete journal file {}", file);
+        }
+    }
+
+    private void replayJournal() throws IOException {
+        File[] files = journalDirectory.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        String folder = folderName != null ? folderName : "";
+        int foreign = 0;
+        for (File file : files) {
+            try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+                if (input.readInt() != JOURNAL_MAGIC) {
+                    throw new IOException("not a journal file");
+                }
+                short version = input.readShort();
+                if (version != JOURNAL_VERSION) {
+                    throw new IOException("unsupported journal version " + version);
+                }
+                String entryBucket = input.readUTF();
+                String entryFolder = input.readUTF();
+                String documentName = input.readUTF();
+                if (!bucketName.equals(entryBucket) || !folder.equals(entryFolder)) {
+                    // Queued for another bucket or folder; keep it for a queue configured with that location.
+                    foreign++;
+                    continue;
+                }
+                byte[] data = null;
+                if (input.readBoolean()) {
+                    data = new byte[input.readInt()];
+                    input.readFully(data);
+                }
+                pending.put(documentName, new PendingWrite(data, sequence.incrementAndGet()));
+                schedule(documentName, 0);
+            } catch (IOException e) {
+                logger.error("Skipping unreadable journal file {}: {}", file, e.getMessage());
+            }
+        }
+        if (!pending.isEmpty()) {
+            logger.info("Replaying {} write-behind changes from {}", pending.size(), journalDirectory);
+        }
+        if (foreign > 0) {
+            logger.error("{} write-behind changes in {} belong to another bucket or folder and were not replayed",
+                    foreign, journalDirectory);
+        }
+    }
+
+    private File journalFile(String documentName) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((bucketName + "/" + folderName + "/" + documentName).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return new File(journalDirectory, hex + FILE_SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * A change that has not reached S3 yet.
+     */
+    public static final class PendingWrite {
+        private final byte[] data;
+        private final long sequence;
+
+        private PendingWrite(byte[] data, long sequence) {
+            this.data = data;
+            this.sequence = sequence;
+        }
+
+        /**
+         * @return the new content of the object, or null if the object is being deleted
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return true if the object is being deleted
+         */
+        public boolean isDelete() {
+            return data == null;
+        }
+    }
+}
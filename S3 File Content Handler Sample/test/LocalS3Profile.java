@@ -0,0 +1,369 @@
+package com.accusoft.pdjs3;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The LocalS3Profile class describes how {@link LocalS3Server} behaves like a real S3 endpoint: how long a request
+ * waits before it is answered, how fast content is transferred, how many requests per second are accepted before S3
+ * answers 503 SlowDown, and how often requests fail. The default profile answers at once and never fails.
+ *
+ * The setters return the profile, so a profile is built up with chained calls. A profile may be changed while the
+ * server is running; each request uses the values it finds when it starts.
+ */
+public class LocalS3Profile {
+
+    /**
+     * Bytes paced in one step, so a bandwidth cap is applied smoothly instead of once per large write.
+     */
+    private static final int PACING_SLICE = 16 * 1024;
+
+    private volatile long firstByteLatencyMillis;
+    private volatile long latencyJitterMillis;
+    private volatile long tailLatencyMillis;
+    private volatile double tailLatencyRate;
+    private volatile long bandwidthBytesPerSecond;
+    private volatile double slowDownRate;
+    private volatile double errorRate;
+
+    private final RateLimit readLimit = new RateLimit();
+    private final RateLimit writeLimit = new RateLimit();
+
+    /**
+     * @return a profile that answers at once and never fails
+     */
+    public static LocalS3Profile none() {
+        return new LocalS3Profile();
+    }
+
+    /**
+     * @return a profile close to S3 seen from EC2 in the same region: about 30 ms to the first byte with a slow tail,
+     * 100 MB/s per connection, and the per-prefix request rates of S3
+     */
+    public static LocalS3Profile sameRegion() {
+        return new LocalS3Profile()
+                .firstByteLatency(20, 20)
+                .tailLatency(250, 0.01)
+                .bandwidth(100L * 1024 * 1024)
+                .readRequestsPerSecond(5500)
+                .writeRequestsPerSecond(3500);
+    }
+
+    /**
+     * @return a profile close to S3 in another region: about 100 ms to the first byte with a slow tail, and 25 MB/s
+     * per connection
+     */
+    public static LocalS3Profile crossRegion() {
+        return new LocalS3Profile()
+                .firstByteLatency(80, 40)
+                .tailLatency(500, 0.01)
+                .bandwidth(25L * 1024 * 1024)
+                .readRequestsPerSecond(5500)
+                .writeRequestsPerSecond(3500);
+    }
+
+    /**
+     * Returns a predefined profile by name.
+     *
+     * @param name {@code none}, {@code same-region} or {@code cross-region}
+     *
+     * @return a new profile
+     *
+     * @throws IllegalArgumentException if there is no profile with that name
+     */
+    public static LocalS3Profile named(String name) {
+        switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "none":
+                return none();
+            case "same-region":
+                return sameRegion();
+            case "cross-region":
+                return crossRegion();
+            default:
+                throw new IllegalArgumentException("Unknown S3 profile " + name + ", expected none, same-region or cross-region");
+        }
+    }
+
+    /**
+     * Sets the time every request waits before it is answered.
+     *
+     * @param millis the fixed part of the wait
+     * @param jitterMillis the upper bound of a uniformly distributed random part added to it
+     *
+     * @return this profile
+     */
+    public LocalS3Profile firstByteLatency(long millis, long jitterMillis) {
+        this.firstByteLatencyMillis = Math.max(0, millis);
+        this.latencyJitterMillis = Math.max(0, jitterMillis);
+        return this;
+    }
+
+    /**
+     * Sets a rare extra wait, the slow tail that hedged reads are meant to cut off.
+     *
+     * @param millis the extra wait
+     * @param rate the share of requests, from 0 to 1, that wait the extra time
+     *
+     * @return this profile
+     */
+    public LocalS3Profile tailLatency(long millis, double rate) {
+        this.tailLatencyMillis = Math.max(0, millis);
+        this.tailLatencyRate = clampRate(rate);
+        return this;
+    }
+
+    /**
+     * Caps the transfer rate of each request, for request and response bodies alike.
+     *
+     * @param bytesPerSecond the cap, or 0 for no cap
+     *
+     * @return this profile
+     */
+    public LocalS3Profile bandwidth(long bytesPerSecond) {
+        this.bandwidthBytesPerSecond = Math.max(0, bytesPerSecond);
+        return this;
+    }
+
+    /**
+     * Limits GET and HEAD requests. Requests above the limit are answered with 503 SlowDown.
+     *
+     * @param requestsPerSecond the limit, or 0 for no limit
+     *
+     * @return this profile
+     */
+    public LocalS3Profile readRequestsPerSecond(int requestsPerSecond) {
+        readLimit.setRate(requestsPerSecond);
+        return this;
+    }
+
+    /**
+     * Limits PUT, POST and DELETE requests. Requests above the limit are answered with 503 SlowDown.
+     *
+     * @param requestsPerSecond the limit, or 0 for no limit
+     *
+     * @return this profile
+     */
+    public LocalS3Profile writeRequestsPerSecond(int requestsPerSecond) {
+        writeLimit.setRate(requestsPerSecond);
+        return this;
+    }
+
+    /**
+     * Answers a share of the requests with 503 SlowDown regardless of the request rate.
+     *
+     * @param rate the share of requests, from 0 to 1
+     *
+     * @return this profile
+     */
+    public LocalS3Profile slowDownRate(double rate) {
+        this.slowDownRate = clampRate(rate);
+        return this;
+    }
+
+    /**
+     * Answers a share of the requests with 500 InternalError.
+     *
+     * @param rate the share of requests, from 0 to 1
+     *
+     * @return this profile
+     */
+    public LocalS3Profile errorRate(double rate) {
+        this.errorRate = clampRate(rate);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "first byte %d+%d ms, tail %d ms for %.2f%%, bandwidth %s, %s reads/s, %s writes/s, SlowDown %.2f%%, errors %.2f%%",
+                firstByteLatencyMillis, latencyJitterMillis, tailLatencyMillis, tailLatencyRate * 100,
+                bandwidthBytesPerSecond == 0 ? "unlimited" : bandwidthBytesPerSecond + " B/s",
+                readLimit.describe(), writeLimit.describe(), slowDownRate * 100, errorRate * 100);
+    }
+
+    /**
+     * Decides whether a request is throttled, by the request rate or at random.
+     *
+     * @param write whether the request is a PUT, POST or DELETE
+     *
+     * @return true if the request must be answered with 503 SlowDown
+     */
+    boolean throttle(boolean write) {
+        if (!(write ? writeLimit : readLimit).tryAcquire()) {
+            return true;
+        }
+        double rate = slowDownRate;
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * @return true if the request must fail with 500 InternalError
+     */
+    boolean fail() {
+        double rate = errorRate;
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * Waits the time to the first byte of one request.
+     */
+    void awaitFirstByte() throws InterruptedIOException {
+        long millis = firstByteLatencyMillis;
+        long jitter = latencyJitterMillis;
+        if (jitter > 0) {
+            millis += ThreadLocalRandom.current().nextLong(jitter + 1);
+        }
+        double tailRate = tailLatencyRate;
+        if (tailRate > 0 && ThreadLocalRandom.current().nextDouble() < tailRate) {
+            millis += tailLatencyMillis;
+        }
+        sleep(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Wraps a request body so it is read no faster than the bandwidth cap.
+     */
+    InputStream pace(InputStream input) {
+        long bytesPerSecond = bandwidthBytesPerSecond;
+        return bytesPerSecond == 0 ? input : new PacedInputStream(input, bytesPerSecond);
+    }
+
+    /**
+     * Wraps a response body so it is written no faster than the bandwidth cap.
+     */
+    OutputStream pace(OutputStream output) {
+        long bytesPerSecond = bandwidthBytesPerSecond;
+        return bytesPerSecond == 0 ? output : new PacedOutputStream(output, bytesPerSecond);
+    }
+
+    private static double clampRate(double rate) {
+        return Math.max(0, Math.min(1, rate));
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while simulating S3 latency");
+        }
+    }
+
+    /**
+     * Keeps a transfer on schedule: after each slice it sleeps until the bytes moved so far are due.
+     */
+    private static final class Pacer {
+        private final long bytesPerSecond;
+        private long started;
+        private long transferred;
+
+        private Pacer(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        private void transferred(int count) throws InterruptedIOException {
+            if (started == 0) {
+                started = System.nanoTime();
+            }
+            transferred += count;
+            long due = started + transferred * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+            sleep(due - System.nanoTime());
+        }
+    }
+
+    private static final class PacedInputStream extends FilterInputStream {
+        private final Pacer pacer;
+
+        private PacedInputStream(InputStream input, long bytesPerSecond) {
+            super(input);
+            this.pacer = new Pacer(bytesPerSecond);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                pacer.transferred(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, Math.min(length, PACING_SLICE));
+            if (read > 0) {
+                pacer.transferred(read);
+            }
+            return read;
+        }
+    }
+
+    private static final class PacedOutputStream extends FilterOutputStream {
+        private final Pacer pacer;
+
+        private PacedOutputStream(OutputStream output, long bytesPerSecond) {
+            super(output);
+            this.pacer = new Pacer(bytesPerSecond);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            pacer.transferred(1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                int slice = Math.min(length, PACING_SLICE);
+                out.write(buffer, offset, slice);
+                pacer.transferred(slice);
+                offset += slice;
+                length -= slice;
+            }
+        }
+    }
+
+    /**
+     * A token bucket holding up to one second of requests.
+     */
+    private static final class RateLimit {
+        private int rate;
+        private double tokens;
+        private long refilled;
+
+        private synchronized void setRate(int requestsPerSecond) {
+            rate = Math.max(0, requestsPerSecond);
+            tokens = rate;
+            refilled = System.nanoTime();
+        }
+
+        private synchronized boolean tryAcquire() {
+            if (rate == 0) {
+                return true;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - refilled) * (double) rate / TimeUnit.SECONDS.toNanos(1));
+            refilled = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        private synchronized String describe() {
+            return rate == 0 ? "unlimited" : Integer.toString(rate);
+        }
+    }
+}
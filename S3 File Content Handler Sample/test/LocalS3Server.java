@@ -0,0 +1,1184 @@
+package com.accusoft.pdjs3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.slf4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The LocalS3Server class is an in-process stand-in for S3. It is an HTTP server, on the loopback interface unless
+ * another address is given, that speaks the subset of the S3 REST API used by S3Handler, so the handler can be benchmarked through the AWS SDK
+ * without network access. Point the handler at {@link #getEndpoint()} with the s3Endpoint init parameter.
+ *
+ * Buckets are addressed by path and created on first use. Objects are held in memory, or in a directory when one is
+ * given, where they survive a restart. The server supports GET with ranges and ETag conditions, HEAD, PUT, DELETE,
+ * multi-object delete, ListObjectsV2 with prefixes, delimiters and continuation tokens, multipart uploads, and bucket
+ * versioning. ETags are the MD5 of the content, as the SDK verifies them. Signatures are not checked.
+ *
+ * A {@link LocalS3Profile} makes the server behave like S3 over a network: it delays requests, caps their bandwidth,
+ * throttles them with 503 SlowDown and fails a share of them. Objects stored with {@link #putObject} bypass the
+ * profile, so test data can be seeded quickly.
+ *
+ * The server also runs on its own, for tests in other processes; run it with {@code --help} for its options.
+ */
+public class LocalS3Server implements AutoCloseable {
+
+    private static final String XML_NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter ISO_DATE =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US).withZone(ZoneOffset.UTC);
+    private static final String VERSIONING_FILE = ".versioning";
+    private static final String METADATA_SUFFIX = ".properties";
+    private static final String CONTENT_SUFFIX = ".data";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final File directory;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong requestIds = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttledRequests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private volatile LocalS3Profile profile = LocalS3Profile.none();
+
+    private static final Logger logger = org.slf4j.LoggerFactory.getLogger(LocalS3Server.class);
+
+    private LocalS3Server(HttpServer server, ExecutorService executor, File directory) {
+        this.server = server;
+        this.executor = executor;
+        this.directory = directory;
+    }
+
+    /**
+     * Starts a server on a free port of the loopback interface, keeping objects in memory.
+     *
+     * @return the running server
+     *
+     * @throws IOException if the server cannot be bound
+     */
+    public static LocalS3Server start() throws IOException {
+        return start(0);
+    }
+
+    /**
+     * Starts a server on the loopback interface, keeping objects in memory.
+     *
+     * @param port the port, or 0 for a free port
+     *
+     * @return the running server
+     *
+     * @throws IOException if the server cannot be bound
+     */
+    public static LocalS3Server start(int port) throws IOException {
+        return start(null, port, null);
+    }
+
+    /**
+     * Starts a server.
+     *
+     * @param host the address to listen on, or null for the loopback interface
+     * @param port the port, or 0 for a free port
+     * @param directory the directory to keep objects in, or null to keep them in memory. Objects already in the
+     * directory are served again.
+     *
+     * @return the running server
+     *
+     * @throws IOException if the server cannot be bound or the directory cannot be read
+     */
+    public static LocalS3Server start(String host, int port, File directory) throws IOException {
+        InetAddress address = host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(address, port), 256);
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "local-s3-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpServer.setExecutor(executor);
+        LocalS3Server localServer = new LocalS3Server(httpServer, executor, directory);
+        if (directory != null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            try {
+                localServer.load();
+            } catch (IOException | RuntimeException e) {
+                httpServer.stop(0);
+                executor.shutdownNow();
+                throw e;
+            }
+        }
+        httpServer.createContext("/", localServer::handle);
+        httpServer.start();
+        logger.info("Local S3 stand-in listening on {}, storing objects {}", localServer.getEndpoint(),
+                directory == null ? "in memory" : "in " + directory.getAbsolutePath());
+        return localServer;
+    }
+
+    /**
+     * Runs a server until the process is stopped.
+     *
+     * @param args the options, see {@code --help}
+     *
+     * @throws Exception if the server cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || "--help".equals(arg) || "-h".equals(arg)) {
+                usage(arg.startsWith("--") || "-h".equals(arg) ? 0 : 2);
+            }
+            options.put(equals < 0 ? arg.substring(2) : arg.substring(2, equals), equals < 0 ? "true" : arg.substring(equals + 1));
+        }
+
+        LocalS3Profile serverProfile;
+        int port;
+        try {
+            serverProfile = LocalS3Profile.named(option(options, "profile", "none"));
+            port = Integer.parseInt(option(options, "port", "9000"));
+            if (options.containsKey("latency") || options.containsKey("jitter")) {
+                serverProfile.firstByteLatency(Long.parseLong(option(options, "latency", "0")),
+                        Long.parseLong(option(options, "jitter", "0")));
+            }
+            if (options.containsKey("tail-latency") || options.containsKey("tail-rate")) {
+                serverProfile.tailLatency(Long.parseLong(option(options, "tail-latency", "0")),
+                        Double.parseDouble(option(options, "tail-rate", "0")));
+            }
+            if (options.containsKey("bandwidth")) {
+                serverProfile.bandwidth(Long.parseLong(options.remove("bandwidth")));
+            }
+            if (options.containsKey("read-rps")) {
+                serverProfile.readRequestsPerSecond(Integer.parseInt(options.remove("read-rps")));
+            }
+            if (options.containsKey("write-rps")) {
+                serverProfile.writeRequestsPerSecond(Integer.parseInt(options.remove("write-rps")));
+            }
+            if (options.containsKey("slowdown-rate")) {
+                serverProfile.slowDownRate(Double.parseDouble(options.remove("slowdown-rate")));
+            }
+            if (options.containsKey("error-rate")) {
+                serverProfile.errorRate(Double.parseDouble(options.remove("error-rate")));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage(2);
+            return;
+        }
+        String host = options.remove("host");
+        String dir = options.remove("dir");
+        if (!options.isEmpty()) {
+            System.err.println("Unknown option(s) " + options.keySet());
+            usage(2);
+        }
+
+        LocalS3Server localServer = start(host, port, dir == null ? null : new File(dir));
+        localServer.setProfile(serverProfile);
+        Runtime.getRuntime().addShutdownHook(new Thread(localServer::close, "local-s3-shutdown"));
+        System.out.println("Local S3 stand-in listening on " + localServer.getEndpoint() + " with " + serverProfile);
+        new CountDownLatch(1).await();
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.remove(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static void usage(int exitCode) {
+        System.err.println("Usage: LocalS3Server [options]\n"
+                + "  --port=9000            port to listen on, 0 for a free port\n"
+                + "  --host=address         address to listen on (default: loopback)\n"
+                + "  --dir=path             keep objects in this directory instead of in memory\n"
+                + "  --profile=name         none, same-region or cross-region (default: none)\n"
+                + "  --latency=ms           time to the first byte of every request\n"
+                + "  --jitter=ms            random time added to --latency\n"
+                + "  --tail-latency=ms      extra time for a share of the requests\n"
+                + "  --tail-rate=fraction   share of the requests that wait --tail-latency\n"
+                + "  --bandwidth=bytes/s    transfer cap per request, 0 for none\n"
+                + "  --read-rps=count       GET and HEAD requests per second before 503 SlowDown, 0 for no limit\n"
+                + "  --write-rps=count      PUT, POST and DELETE requests per second before 503 SlowDown, 0 for no limit\n"
+                + "  --slowdown-rate=fraction  share of the requests answered with 503 SlowDown\n"
+                + "  --error-rate=fraction  share of the requests answered with 500 InternalError\n"
+                + "Options given with --profile replace the profile's values.");
+        System.exit(exitCode);
+    }
+
+    /**
+     * @return the endpoint URL to configure the AWS SDK with
+     */
+    public String getEndpoint() {
+        InetAddress address = server.getAddress().getAddress();
+        String host = address.isAnyLocalAddress() ? "localhost" : address.getHostAddress();
+        return "http://" + host + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Sets how the server simulates the network and S3 itself. It applies to requests that start afterwards.
+     *
+     * @param profile the profile, or null for one that answers at once and never fails
+     */
+    public void setProfile(LocalS3Profile profile) {
+        this.profile = profile != null ? profile : LocalS3Profile.none();
+    }
+
+    /**
+     * @return the profile in use
+     */
+    public LocalS3Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Stores an object directly, without going through HTTP, for seeding test data.
+     *
+     * @param bucketName the bucket name
+     * @param key the object key
+     * @param content the object content
+     *
+     * @throws IOException if the object cannot be written to the storage directory
+     */
+    public void putObject(String bucketName, String key, byte[] content) throws IOException {
+        if (!validBucketName(bucketName)) {
+            throw new IllegalArgumentException("Invalid bucket name " + bucketName);
+        }
+        bucket(bucketName).put(key, Collections.singletonList(content), md5Hex(content), "application/octet-stream",
+                new HashMap<>());
+    }
+
+    /**
+     * Removes every object and upload from every bucket, including the storage directory.
+     */
+    public void clear() {
+        for (Bucket bucket : buckets.values()) {
+            bucket.clear();
+        }
+        buckets.clear();
+    }
+
+    /**
+     * @return the number of requests served since the server started
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests answered with 503 SlowDown by the profile
+     */
+    public long getThrottledRequestCount() {
+        return throttledRequests.get();
+    }
+
+    /**
+     * @return the number of requests answered with 500 InternalError by the profile
+     */
+    public long getFailedRequestCount() {
+        return failedRequests.get();
+    }
+
+    /**
+     * Stops the server and its threads.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private Bucket bucket(String name) {
+        return buckets.computeIfAbsent(name, Bucket::new);
+    }
+
+    private static boolean validBucketName(String name) {
+        return !name.isEmpty() && !".".equals(name) && !"..".equals(name) && name.indexOf('/') < 0 && name.indexOf('\\') < 0;
+    }
+
+    /**
+     * Reads the buckets and objects kept in the storage directory by an earlier run.
+     */
+    private void load() throws IOException {
+        File[] bucketDirectories = directory.listFiles(File::isDirectory);
+        if (bucketDirectories == null) {
+            throw new IOException("Could not read " + directory);
+        }
+        int count = 0;
+        for (File bucketDirectory : bucketDirectories) {
+            count += bucket(bucketDirectory.getName()).load();
+        }
+        logger.info("Local S3 stand-in loaded {} objects in {} buckets from {}", count, bucketDirectories.length, directory);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        LocalS3Profile current = profile;
+        try {
+            current.awaitFirstByte();
+            String method = exchange.getRequestMethod();
+            if (current.throttle(!"GET".equals(method) && !"HEAD".equals(method))) {
+                throttledRequests.incrementAndGet();
+                readBody(exchange);
+                sendError(exchange, 503, "SlowDown", "Please reduce your request rate.", null);
+                return;
+            }
+            if (current.fail()) {
+                failedRequests.incrementAndGet();
+                readBody(exchange);
+                sendError(exchange, 500, "InternalError", "We encountered an internal error. Please try again.", null);
+                return;
+            }
+            exchange.setStreams(current.pace(exchange.getRequestBody()), current.pace(exchange.getResponseBody()));
+
+            String path = exchange.getRequestURI().getRawPath();
+            int slash = path.indexOf('/', 1);
+            String bucketName = decode(slash < 0 ? path.substring(1) : path.substring(1, slash));
+            String key = slash < 0 || slash == path.length() - 1 ? null : decode(path.substring(slash + 1));
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (!validBucketName(bucketName)) {
+                sendError(exchange, 400, "InvalidBucketName", "The specified bucket is not valid.", null);
+            } else if (key == null) {
+                handleBucket(exchange, bucket(bucketName), bucketName, query);
+            } else {
+                handleObject(exchange, bucket(bucketName), bucketName, key, query);
+            }
+        } catch (RuntimeException | SAXException | ParserConfigurationException e) {
+            logger.error("Local S3 stand-in failed to serve {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            sendError(exchange, 500, "InternalError", String.valueOf(e.getMessage()), null);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleBucket(HttpExchange exchange, Bucket bucket, String bucketName, Map<String, String> query)
+            throws IOException, SAXException, ParserConfigurationException {
+        String method = exchange.getRequestMethod();
+        if ("GET".equals(method) && query.containsKey("versioning")) {
+            String status = bucket.versioningStatus;
+            sendXml(exchange, 200, status == null
+                    ? "<VersioningConfiguration xmlns=\"" + XML_NAMESPACE + "\"/>"
+                    : "<VersioningConfiguration xmlns=\"" + XML_NAMESPACE + "\"><Status>" + status + "</Status></VersioningConfiguration>");
+        } else if ("PUT".equals(method) && query.containsKey("versioning")) {
+            Document document = parseXml(readBody(exchange));
+            bucket.setVersioningStatus(text(document.getDocumentElement(), "Status"));
+            sendEmpty(exchange, 200, new Headers());
+        } else if ("GET".equals(method) && query.containsKey("uploads")) {
+            listUploads(exchange, bucket, bucketName, query);
+        } else if ("POST".equals(method) && query.containsKey("delete")) {
+            deleteObjects(exchange, bucket, readBody(exchange));
+        } else if ("GET".equals(method) && "2".equals(query.get("list-type"))) {
+            listObjectsV2(exchange, bucket, bucketName, query);
+        } else if ("HEAD".equals(method)) {
+            sendEmpty(exchange, 200, new Headers());
+        } else {
+            sendError(exchange, 501, "NotImplemented", "The local S3 stand-in does not implement this bucket request", null);
+        }
+    }
+
+    private void handleObject(HttpExchange exchange, Bucket bucket, String bucketName, String key, Map<String, String> query)
+            throws IOException, SAXException, ParserConfigurationException {
+        String method = exchange.getRequestMethod();
+        String uploadId = query.get("uploadId");
+        if ("GET".equals(method) || "HEAD".equals(method)) {
+            getObject(exchange, bucket, key, "HEAD".equals(method));
+        } else if ("PUT".equals(method) && uploadId != null) {
+            uploadPart(exchange, bucket, key, uploadId, query.get("partNumber"));
+        } else if ("PUT".equals(method)) {
+            Map<String, String> metadata = new HashMap<>();
+            for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+                if (header.getKey().toLowerCase(Locale.ROOT).startsWith("x-amz-meta-")) {
+                    metadata.put(header.getKey().toLowerCase(Locale.ROOT), header.getValue().get(0));
+                }
+            }
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            byte[] content = readBody(exchange);
+            StoredObject stored = bucket.put(key, Collections.singletonList(content), md5Hex(content),
+                    contentType != null ? contentType : "application/octet-stream", metadata);
+            Headers headers = new Headers();
+            headers.set("ETag", quote(stored.eTag));
+            if (stored.versionId != null) {
+                headers.set("x-amz-version-id", stored.versionId);
+            }
+            sendEmpty(exchange, 200, headers);
+        } else if ("DELETE".equals(method) && uploadId != null) {
+            if (bucket.uploads.remove(uploadId) == null) {
+                sendError(exchange, 404, "NoSuchUpload", "The specified upload does not exist", key);
+            } else {
+                sendEmpty(exchange, 204, new Headers());
+            }
+        } else if ("DELETE".equals(method)) {
+            bucket.delete(key);
+            sendEmpty(exchange, 204, new Headers());
+        } else if ("POST".equals(method) && query.containsKey("uploads")) {
+            String newUploadId = Long.toHexString(requestIds.incrementAndGet()) + Long.toHexString(System.nanoTime());
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            bucket.uploads.put(newUploadId, new Upload(key, contentType != null ? contentType : "application/octet-stream"));
+            sendXml(exchange, 200, "<InitiateMultipartUploadResult xmlns=\"" + XML_NAMESPACE + "\"><Bucket>"
+                    + escape(bucketName) + "</Bucket><Key>" + escape(key) + "</Key><UploadId>" + newUploadId
+                    + "</UploadId></InitiateMultipartUploadResult>");
+        } else if ("POST".equals(method) && uploadId != null) {
+            completeUpload(exchange, bucket, bucketName, key, uploadId, readBody(exchange));
+        } else {
+            sendError(exchange, 501, "NotImplemented", "The local S3 stand-in does not implement this object request", key);
+        }
+    }
+
+    private void getObject(HttpExchange exchange, Bucket bucket, String key, boolean headOnly) throws IOException {
+        StoredObject stored = bucket.objects.get(key);
+        if (stored == null) {
+            sendError(exchange, 404, "NoSuchKey", "The specified key does not exist.", headOnly ? null : key);
+            return;
+        }
+        Headers requestHeaders = exchange.getRequestHeaders();
+        String ifMatch = requestHeaders.getFirst("If-Match");
+        if (ifMatch != null && !matchesETag(ifMatch, stored.eTag)) {
+            sendError(exchange, 412, "PreconditionFailed", "At least one of the preconditions you specified did not hold.", headOnly ? null : key);
+            return;
+        }
+        Headers headers = new Headers();
+        headers.set("ETag", quote(stored.eTag));
+        headers.set("Last-Modified", HTTP_DATE.format(stored.lastModified));
+        headers.set("Content-Type", stored.contentType);
+        headers.set("Accept-Ranges", "bytes");
+        if (stored.versionId != null) {
+            headers.set("x-amz-version-id", stored.versionId);
+        }
+        for (Map.Entry<String, String> entry : stored.metadata.entrySet()) {
+            headers.set(entry.getKey(), entry.getValue());
+        }
+        String ifNoneMatch = requestHeaders.getFirst("If-None-Match");
+        if (ifNoneMatch != null && matchesETag(ifNoneMatch, stored.eTag)) {
+            exchange.getResponseHeaders().putAll(headers);
+            sendHeaders(exchange, 304, -1);
+            return;
+        }
+
+        long length = stored.content.length();
+        long start = 0;
+        long end = length - 1;
+        int status = 200;
+        String range = requestHeaders.getFirst("Range");
+        if (range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) {
+            String spec = range.substring("bytes=".length()).trim();
+            int dash = spec.indexOf('-');
+            try {
+                if (dash == 0) {
+                    start = Math.max(0, length - Long.parseLong(spec.substring(1)));
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    if (dash < spec.length() - 1) {
+                        end = Math.min(end, Long.parseLong(spec.substring(dash + 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                start = 0;
+                end = length - 1;
+            }
+            if (start >= length) {
+                headers.set("Content-Range", "bytes */" + length);
+                exchange.getResponseHeaders().putAll(headers);
+                sendError(exchange, 416, "InvalidRange", "The requested range is not satisfiable", headOnly ? null : key);
+                return;
+            }
+            status = 206;
+            headers.set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        }
+        long contentLength = end - start + 1;
+        headers.set("Content-Length", Long.toString(contentLength));
+        exchange.getResponseHeaders().putAll(headers);
+        if (headOnly) {
+            sendHeaders(exchange, status, -1);
+            return;
+        }
+        sendHeaders(exchange, status, contentLength == 0 ? -1 : contentLength);
+        if (contentLength > 0) {
+            try (OutputStream output = exchange.getResponseBody()) {
+                stored.content.writeTo(output, start, contentLength);
+            }
+        }
+    }
+
+    private void uploadPart(HttpExchange exchange, Bucket bucket, String key, String uploadId, String partNumber) throws IOException {
+        Upload upload = bucket.uploads.get(uploadId);
+        if (upload == null || !upload.key.equals(key)) {
+            sendError(exchange, 404, "NoSuchUpload", "The specified upload does not exist", key);
+            return;
+        }
+        byte[] content = readBody(exchange);
+        String eTag = md5Hex(content);
+        upload.parts.put(Integer.parseInt(partNumber), new Part(content, eTag));
+        Headers headers = new Headers();
+        headers.set("ETag", quote(eTag));
+        sendEmpty(exchange, 200, headers);
+    }
+
+    private void completeUpload(HttpExchange exchange, Bucket bucket, String bucketName, String key, String uploadId, byte[] body)
+            throws IOException, SAXException, ParserConfigurationException {
+        Upload upload = bucket.uploads.get(uploadId);
+        if (upload == null || !upload.key.equals(key)) {
+            sendError(exchange, 404, "NoSuchUpload", "The specified upload does not exist", key);
+            return;
+        }
+        NodeList partElements = parseXml(body).getElementsByTagName("Part");
+        List<byte[]> content = new ArrayList<>(partElements.getLength());
+        ByteArrayOutputStream digests = new ByteArrayOutputStream();
+        for (int i = 0; i < partElements.getLength(); i++) {
+            Element partElement = (Element) partElements.item(i);
+            Part part = upload.parts.get(Integer.parseInt(text(partElement, "PartNumber")));
+            if (part == null || !matchesETag(text(partElement, "ETag"), part.eTag)) {
+                sendError(exchange, 400, "InvalidPart", "One or more of the specified parts could not be found", key);
+                return;
+            }
+            content.add(part.content);
+            digests.write(md5(part.content));
+        }
+        bucket.uploads.remove(uploadId);
+        String eTag = md5Hex(digests.toByteArray()) + "-" + partElements.getLength();
+        StoredObject stored = bucket.put(key, content, eTag, upload.contentType, new HashMap<>());
+        if (stored.versionId != null) {
+            exchange.getResponseHeaders().set("x-amz-version-id", stored.versionId);
+        }
+        sendXml(exchange, 200, "<CompleteMultipartUploadResult xmlns=\"" + XML_NAMESPACE + "\"><Location>"
+                + escape(getEndpoint() + "/" + bucketName + "/" + key) + "</Location><Bucket>" + escape(bucketName)
+                + "</Bucket><Key>" + escape(key) + "</Key><ETag>" + escape(quote(eTag)) + "</ETag></CompleteMultipartUploadResult>");
+    }
+
+    private void listUploads(HttpExchange exchange, Bucket bucket, String bucketName, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        StringBuilder xml = new StringBuilder("<ListMultipartUploadsResult xmlns=\"" + XML_NAMESPACE + "\"><Bucket>")
+                .append(escape(bucketName)).append("</Bucket><KeyMarker></KeyMarker><UploadIdMarker></UploadIdMarker>")
+                .append("<Prefix>").append(escape(prefix)).append("</Prefix><MaxUploads>1000</MaxUploads><IsTruncated>false</IsTruncated>");
+        for (Map.Entry<String, Upload> entry : new TreeMap<>(bucket.uploads).entrySet()) {
+            Upload upload = entry.getValue();
+            if (upload.key.startsWith(prefix)) {
+                xml.append("<Upload><Key>").append(escape(upload.key)).append("</Key><UploadId>").append(entry.getKey())
+                        .append("</UploadId><Initiated>").append(ISO_DATE.format(upload.initiated))
+                        .append("</Initiated><StorageClass>STANDARD</StorageClass></Upload>");
+            }
+        }
+        sendXml(exchange, 200, xml.append("</ListMultipartUploadsResult>").toString());
+    }
+
+    private void deleteObjects(HttpExchange exchange, Bucket bucket, byte[] body)
+            throws IOException, SAXException, ParserConfigurationException {
+        Document document = parseXml(body);
+        boolean quiet = "true".equalsIgnoreCase(text(document.getDocumentElement(), "Quiet"));
+        NodeList objectElements = document.getElementsByTagName("Object");
+        StringBuilder xml = new StringBuilder("<DeleteResult xmlns=\"" + XML_NAMESPACE + "\">");
+        for (int i = 0; i < objectElements.getLength(); i++) {
+            String key = text((Element) objectElements.item(i), "Key");
+            bucket.delete(key);
+            if (!quiet) {
+                xml.append("<Deleted><Key>").append(escape(key)).append("</Key></Deleted>");
+            }
+        }
+        sendXml(exchange, 200, xml.append("</DeleteResult>").toString());
+    }
+
+    private void listObjectsV2(HttpExchange exchange, Bucket bucket, String bucketName, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        String delimiter = query.get("delimiter");
+        if (delimiter != null && delimiter.isEmpty()) {
+            delimiter = null;
+        }
+        int maxKeys = query.containsKey("max-keys") ? Integer.parseInt(query.get("max-keys")) : 1000;
+        boolean urlEncoding = "url".equals(query.get("encoding-type"));
+        String token = query.get("continuation-token");
+        String startAfter = query.get("start-after");
+
+        // Continuation tokens hold the last key or common prefix returned, tagged so a prefix skips its whole subtree.
+        String next;
+        if (token != null) {
+            String last = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            next = last.charAt(0) == 'P'
+                    ? bucket.objects.ceilingKey(last.substring(1) + Character.MAX_VALUE)
+                    : bucket.objects.higherKey(last.substring(1));
+        } else if (startAfter != null && startAfter.compareTo(prefix) >= 0) {
+            next = bucket.objects.higherKey(startAfter);
+        } else {
+            next = bucket.objects.ceilingKey(prefix);
+        }
+
+        StringBuilder contents = new StringBuilder();
+        StringBuilder commonPrefixes = new StringBuilder();
+        int count = 0;
+        String lastReturned = null;
+        while (next != null && next.startsWith(prefix) && count < maxKeys) {
+            int delimiterIndex = delimiter == null ? -1 : next.indexOf(delimiter, prefix.length());
+            if (delimiterIndex >= 0) {
+                String commonPrefix = next.substring(0, delimiterIndex + delimiter.length());
+                commonPrefixes.append("<CommonPrefixes><Prefix>").append(listValue(commonPrefix, urlEncoding))
+                        .append("</Prefix></CommonPrefixes>");
+                lastReturned = "P" + commonPrefix;
+                next = bucket.objects.ceilingKey(commonPrefix + Character.MAX_VALUE);
+            } else {
+                StoredObject stored = bucket.objects.get(next);
+                if (stored != null) {
+                    contents.append("<Contents><Key>").append(listValue(next, urlEncoding)).append("</Key><LastModified>")
+                            .append(ISO_DATE.format(stored.lastModified)).append("</LastModified><ETag>")
+                            .append(escape(quote(stored.eTag))).append("</ETag><Size>").append(stored.content.length())
+                            .append("</Size><StorageClass>STANDARD</StorageClass></Contents>");
+                }
+                lastReturned = "K" + next;
+                next = bucket.objects.higherKey(next);
+            }
+            count++;
+        }
+        boolean truncated = next != null && next.startsWith(prefix) && lastReturned != null;
+
+        StringBuilder xml = new StringBuilder("<ListBucketResult xmlns=\"" + XML_NAMESPACE + "\"><Name>")
+                .append(escape(bucketName)).append("</Name><Prefix>").append(listValue(prefix, urlEncoding)).append("</Prefix>");
+        if (delimiter != null) {
+            xml.append("<Delimiter>").append(listValue(delimiter, urlEncoding)).append("</Delimiter>");
+        }
+        if (urlEncoding) {
+            xml.append("<EncodingType>url</EncodingType>");
+        }
+        xml.append("<MaxKeys>").append(maxKeys).append("</MaxKeys><KeyCount>").append(count).append("</KeyCount><IsTruncated>")
+                .append(truncated).append("</IsTruncated>");
+        if (token != null) {
+            xml.append("<ContinuationToken>").append(escape(token)).append("</ContinuationToken>");
+        }
+        if (truncated) {
+            xml.append("<NextContinuationToken>")
+                    .append(Base64.getUrlEncoder().withoutPadding().encodeToString(lastReturned.getBytes(StandardCharsets.UTF_8)))
+                    .append("</NextContinuationToken>");
+        }
+        xml.append(contents).append(commonPrefixes).append("</ListBucketResult>");
+        sendXml(exchange, 200, xml.toString());
+    }
+
+    private static String listValue(String value, boolean urlEncoding) throws UnsupportedEncodingException {
+        return urlEncoding ? URLEncoder.encode(value, "UTF-8").replace("+", "%20") : escape(value);
+    }
+
+    /**
+     * Reads a request body. The SDK signs uploads over plain HTTP with aws-chunked encoding, which is unwrapped here.
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        byte[] body;
+        try (InputStream input = exchange.getRequestBody()) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            body = buffer.toByteArray();
+        }
+        String contentSha256 = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        if (contentSha256 == null || !contentSha256.startsWith("STREAMING-")) {
+            return body;
+        }
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(body.length);
+        int position = 0;
+        while (position < body.length) {
+            int lineEnd = indexOfCrlf(body, position);
+            String header = new String(body, position, lineEnd - position, StandardCharsets.US_ASCII);
+            int semicolon = header.indexOf(';');
+            int size = Integer.parseInt(semicolon < 0 ? header.trim() : header.substring(0, semicolon).trim(), 16);
+            position = lineEnd + 2;
+            if (size == 0) {
+                break;
+            }
+            decoded.write(body, position, size);
+            position += size + 2;
+        }
+        return decoded.toByteArray();
+    }
+
+    private static int indexOfCrlf(byte[] data, int from) {
+        for (int i = from; i < data.length - 1; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n') {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Malformed aws-chunked body");
+    }
+
+    private void sendXml(HttpExchange exchange, int status, String xml) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + xml).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.getResponseHeaders().set("x-amz-request-id", Long.toHexString(requestIds.incrementAndGet()));
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private void sendEmpty(HttpExchange exchange, int status, Headers headers) throws IOException {
+        exchange.getResponseHeaders().putAll(headers);
+        exchange.getResponseHeaders().set("x-amz-request-id", Long.toHexString(requestIds.incrementAndGet()));
+        sendHeaders(exchange, status, -1);
+    }
+
+    /**
+     * Sends the response headers. A response without a body completes the exchange at once, and the JDK server
+     * closes the connection instead of keeping it alive if the request body has not been read to the end by then, so
+     * it is drained first.
+     */
+    private static void sendHeaders(HttpExchange exchange, int status, long contentLength) throws IOException {
+        if (contentLength < 0) {
+            exchange.getRequestBody().close();
+        }
+        exchange.sendResponseHeaders(status, contentLength);
+    }
+
+    private void sendError(HttpExchange exchange, int status, String code, String message, String key) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            sendEmpty(exchange, status, new Headers());
+            return;
+        }
+        String requestId = Long.toHexString(requestIds.get());
+        sendXml(exchange, status, "<Error><Code>" + code + "</Code><Message>" + escape(message) + "</Message>"
+                + (key != null ? "<Key>" + escape(key) + "</Key>" : "") + "<RequestId>" + requestId + "</RequestId></Error>");
+    }
+
+    private static Document parseXml(byte[] body) throws IOException, SAXException, ParserConfigurationException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        factory.setNamespaceAware(false);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(body));
+    }
+
+    private static String text(Element parent, String tagName) {
+        NodeList nodes = parent.getElementsByTagName(tagName);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent().trim();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new LinkedHashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals < 0) {
+                query.put(decode(pair), "");
+            } else {
+                query.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+            }
+        }
+        return query;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean matchesETag(String condition, String eTag) {
+        for (String candidate : condition.split(",")) {
+            String trimmed = candidate.trim();
+            if ("*".equals(trimmed) || unquote(trimmed).equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String quote(String eTag) {
+        return "\"" + eTag + "\"";
+    }
+
+    private static String unquote(String eTag) {
+        return eTag.length() > 1 && eTag.startsWith("\"") && eTag.endsWith("\"") ? eTag.substring(1, eTag.length() - 1) : eTag;
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': escaped.append("&amp;"); break;
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '"': escaped.append("&quot;"); break;
+                case '\'': escaped.append("&apos;"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static byte[] md5(byte[] content) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String md5Hex(byte[] content) {
+        StringBuilder hex = new StringBuilder(32);
+        for (byte b : md5(content)) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * The objects, uploads and versioning state of one bucket. With a storage directory, every object is kept in a
+     * content file and a properties file holding its key and headers, named after a digest of the key. Content files
+     * are never overwritten, so a read in progress keeps its content when the object is replaced.
+     */
+    private final class Bucket {
+        private final String name;
+        private final ConcurrentNavigableMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+        private final ConcurrentHashMap<String, Upload> uploads = new ConcurrentHashMap<>();
+        private volatile String versioningStatus;
+
+        private Bucket(String name) {
+            this.name = name;
+        }
+
+        private File bucketDirectory() {
+            return new File(directory, name);
+        }
+
+        private StoredObject put(String key, List<byte[]> content, String eTag, String contentType, Map<String, String> metadata)
+                throws IOException {
+            String versionId = "Enabled".equals(versioningStatus) ? Long.toHexString(requestIds.incrementAndGet()) : null;
+            if (directory == null) {
+                StoredObject stored = new StoredObject(new MemoryContent(concatenate(content)), eTag, contentType, metadata,
+                        versionId, Instant.now());
+                objects.put(key, stored);
+                return stored;
+            }
+
+            File bucketDirectory = bucketDirectory();
+            if (!bucketDirectory.isDirectory() && !bucketDirectory.mkdirs()) {
+                throw new IOException("Could not create " + bucketDirectory);
+            }
+            String fileName = fileName(key);
+            File contentFile = new File(bucketDirectory, fileName + "." + Long.toHexString(requestIds.incrementAndGet()) + CONTENT_SUFFIX);
+            long length = 0;
+            try (OutputStream output = new FileOutputStream(contentFile)) {
+                for (byte[] piece : content) {
+                    output.write(piece);
+                    length += piece.length;
+                }
+            }
+            StoredObject stored = new StoredObject(new FileContent(contentFile, length), eTag, contentType, metadata,
+                    versionId, Instant.now());
+
+            Properties properties = new Properties();
+            properties.setProperty("key", key);
+            properties.setProperty("eTag", eTag);
+            properties.setProperty("contentType", contentType);
+            properties.setProperty("lastModified", Long.toString(stored.lastModified.toEpochMilli()));
+            properties.setProperty("content", contentFile.getName());
+            if (versionId != null) {
+                properties.setProperty("versionId", versionId);
+            }
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                properties.setProperty("meta." + entry.getKey(), entry.getValue());
+            }
+            File temporary = new File(bucketDirectory, fileName + "." + Long.toHexString(requestIds.incrementAndGet()) + ".tmp");
+            try (OutputStream output = new FileOutputStream(temporary)) {
+                properties.store(output, null);
+            }
+
+            // The properties file and the map must agree on the latest version when two saves of one key race.
+            StoredObject replaced;
+            synchronized (this) {
+                Files.move(temporary.toPath(), new File(bucketDirectory, fileName + METADATA_SUFFIX).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                replaced = objects.put(key, stored);
+            }
+            if (replaced != null) {
+                replaced.content.delete();
+            }
+            return stored;
+        }
+
+        private void delete(String key) {
+            StoredObject removed;
+            synchronized (this) {
+                removed = objects.remove(key);
+                if (removed != null && directory != null) {
+                    new File(bucketDirectory(), fileName(key) + METADATA_SUFFIX).delete();
+                }
+            }
+            if (removed != null) {
+                removed.content.delete();
+            }
+        }
+
+        private void setVersioningStatus(String status) throws IOException {
+            versioningStatus = status;
+            if (directory != null) {
+                File bucketDirectory = bucketDirectory();
+                if (!bucketDirectory.isDirectory() && !bucketDirectory.mkdirs()) {
+                    throw new IOException("Could not create " + bucketDirectory);
+                }
+                Files.write(new File(bucketDirectory, VERSIONING_FILE).toPath(),
+                        String.valueOf(status).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        /**
+         * Reads the objects of this bucket from the storage directory, and removes content files no object refers to.
+         *
+         * @return the number of objects read
+         */
+        private int load() throws IOException {
+            File bucketDirectory = bucketDirectory();
+            File versioningFile = new File(bucketDirectory, VERSIONING_FILE);
+            if (versioningFile.isFile()) {
+                String status = new String(Files.readAllBytes(versioningFile.toPath()), StandardCharsets.UTF_8).trim();
+                versioningStatus = "null".equals(status) ? null : status;
+            }
+            File[] files = bucketDirectory.listFiles();
+            if (files == null) {
+                throw new IOException("Could not read " + bucketDirectory);
+            }
+            Set<String> referenced = new HashSet<>();
+            for (File file : files) {
+                if (!file.getName().endsWith(METADATA_SUFFIX)) {
+                    continue;
+                }
+                Properties properties = new Properties();
+                try (InputStream input = new FileInputStream(file)) {
+                    properties.load(input);
+                }
+                File contentFile = new File(bucketDirectory, properties.getProperty("content"));
+                Map<String, String> metadata = new HashMap<>();
+                for (String property : properties.stringPropertyNames()) {
+                    if (property.startsWith("meta.")) {
+                        metadata.put(property.substring("meta.".length()), properties.getProperty(property));
+                    }
+                }
+                objects.put(properties.getProperty("key"), new StoredObject(new FileContent(contentFile, contentFile.length()),
+                        properties.getProperty("eTag"), properties.getProperty("contentType"), metadata,
+                        properties.getProperty("versionId"), Instant.ofEpochMilli(Long.parseLong(properties.getProperty("lastModified")))));
+                referenced.add(contentFile.getName());
+            }
+            for (File file : files) {
+                String fileName = file.getName();
+                if ((fileName.endsWith(CONTENT_SUFFIX) && !referenced.contains(fileName)) || fileName.endsWith(".tmp")) {
+                    file.delete();
+                }
+            }
+            return objects.size();
+        }
+
+        private void clear() {
+            for (StoredObject stored : objects.values()) {
+                stored.content.delete();
+            }
+            objects.clear();
+            uploads.clear();
+            if (directory != null) {
+                deleteRecursively(bucketDirectory());
+            }
+        }
+    }
+
+    /**
+     * Names the files of an object after a digest of its key, as keys may be longer than a file name or contain
+     * characters a file name cannot.
+     */
+    private static String fileName(String key) {
+        try {
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] concatenate(List<byte[]> pieces) {
+        if (pieces.size() == 1) {
+            return pieces.get(0);
+        }
+        int length = 0;
+        for (byte[] piece : pieces) {
+            length += piece.length;
+        }
+        byte[] content = new byte[length];
+        int position = 0;
+        for (byte[] piece : pieces) {
+            System.arraycopy(piece, 0, content, position, piece.length);
+            position += piece.length;
+        }
+        return content;
+    }
+
+    private static final class StoredObject {
+        private final Content content;
+        private final String eTag;
+        private final String contentType;
+        private final Map<String, String> metadata;
+        private final String versionId;
+        private final Instant lastModified;
+
+        private StoredObject(Content content, String eTag, String contentType, Map<String, String> metadata, String versionId,
+                Instant lastModified) {
+            this.content = content;
+            this.eTag = eTag;
+            this.contentType = contentType;
+            this.metadata = metadata;
+            this.versionId = versionId;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * The content of a stored object, in memory or in a file.
+     */
+    private interface Content {
+        long length();
+
+        void writeTo(OutputStream output, long start, long length) throws IOException;
+
+        void delete();
+    }
+
+    private static final class MemoryContent implements Content {
+        private final byte[] bytes;
+
+        private MemoryContent(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long length() {
+            return bytes.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream output, long start, long length) throws IOException {
+            output.write(bytes, (int) start, (int) length);
+        }
+
+        @Override
+        public void delete() {
+        }
+    }
+
+    private static final class FileContent implements Content {
+        private final File file;
+        private final long length;
+
+        private FileContent(File file, long length) {
+            this.file = file;
+            this.length = length;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(OutputStream output, long start, long length) throws IOException {
+            try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+                input.seek(start);
+                byte[] buffer = new byte[64 * 1024];
+                long remaining = length;
+                while (remaining > 0) {
+                    int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of " + file);
+                    }
+                    output.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+
+        @Override
+        public void delete() {
+            if (!file.delete() && file.exists()) {
+                logger.warn("Could not delete replaced content {}", file);
+            }
+        }
+    }
+
+    private static final class Upload {
+        private final String key;
+        private final String contentType;
+        private final Instant initiated = Instant.now();
+        private final Map<Integer, Part> parts = new ConcurrentHashMap<>();
+
+        private Upload(String key, String contentType) {
+            this.key = key;
+            this.contentType = contentType;
+        }
+    }
+
+    private static final class Part {
+        private final byte[] content;
+        private final String eTag;
+
+        private Part(byte[] content, String eTag) {
+            this.content = content;
+            this.eTag = eTag;
+        }
+    }
+}
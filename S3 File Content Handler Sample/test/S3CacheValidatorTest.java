@@ -0,0 +1,81 @@
+package com.accusoft.pdjs3;
+
+import static com.accusoft.pdjs3.S3HandlerTest.ACCESS_KEY_ID;
+import static com.accusoft.pdjs3.S3HandlerTest.BUCKET;
+import static com.accusoft.pdjs3.S3HandlerTest.FOLDER;
+import static com.accusoft.pdjs3.S3HandlerTest.REGION;
+import static com.accusoft.pdjs3.S3HandlerTest.SECRET_ACCESS_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Validates cached copies of documents stored in {@link LocalS3Server}.
+ */
+public class S3CacheValidatorTest {
+
+    private LocalS3Server server;
+    private S3Handler handler;
+
+    @Before
+    public void startServer() throws IOException {
+        server = LocalS3Server.start();
+        S3ClientRegistry.configureEndpoint(server.getEndpoint());
+        handler = new S3Handler(ACCESS_KEY_ID, SECRET_ACCESS_KEY, REGION);
+    }
+
+    @After
+    public void stopServer() {
+        S3ClientRegistry.configureEndpoint(null);
+        S3ClientRegistry.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void changedDocumentIsRefused() throws IOException {
+        S3CacheValidator validator = new S3CacheValidator(handler, BUCKET, FOLDER, 0);
+        serve(validator, "a.pdf", new byte[] {1});
+
+        assertTrue(validator.isCacheCurrent("a.pdf"));
+        server.putObject(BUCKET, FOLDER + "/a.pdf", new byte[] {2});
+        assertFalse(validator.isCacheCurrent("a.pdf"));
+    }
+
+    @Test
+    public void documentNotServedIsRefusedWithoutARequest() {
+        S3CacheValidator validator = new S3CacheValidator(handler, BUCKET, FOLDER, 0);
+        long before = server.getRequestCount();
+
+        assertFalse(validator.isCacheCurrent("never-served.pdf"));
+        assertEquals(0, server.getRequestCount() - before);
+    }
+
+    @Test
+    public void leastRecentlyUsedDocumentIsForgottenBeyondTheLimit() throws IOException {
+        S3CacheValidator validator = new S3CacheValidator(handler, BUCKET, FOLDER, 60000, 2);
+        serve(validator, "a.pdf", new byte[] {1});
+        serve(validator, "b.pdf", new byte[] {2});
+        // Validating "a.pdf" makes "b.pdf" the least recently used document.
+        assertTrue(validator.isCacheCurrent("a.pdf"));
+        serve(validator, "c.pdf", new byte[] {3});
+
+        assertTrue(validator.isCacheCurrent("a.pdf"));
+        assertFalse(validator.isCacheCurrent("b.pdf"));
+        assertTrue(validator.isCacheCurrent("c.pdf"));
+
+        // Serving it again makes it valid again.
+        serve(validator, "b.pdf", new byte[] {2});
+        assertTrue(validator.isCacheCurrent("b.pdf"));
+    }
+
+    private void serve(S3CacheValidator validator, String documentName, byte[] content) throws IOException {
+        server.putObject(BUCKET, FOLDER + "/" + documentName, content);
+        validator.recordServed(documentName, handler.getS3ObjectData(documentName, BUCKET, FOLDER));
+    }
+}
@@ -0,0 +1,83 @@
+package com.accusoft.pdjs3;
+
+import static com.accusoft.pdjs3.S3HandlerTest.ACCESS_KEY_ID;
+import static com.accusoft.pdjs3.S3HandlerTest.BUCKET;
+import static com.accusoft.pdjs3.S3HandlerTest.FOLDER;
+import static com.accusoft.pdjs3.S3HandlerTest.REGION;
+import static com.accusoft.pdjs3.S3HandlerTest.SECRET_ACCESS_KEY;
+import static com.accusoft.pdjs3.S3HandlerTest.randomBytes;
+import static com.accusoft.pdjs3.S3HandlerTest.readAll;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+/**
+ * Reconfigures the pooled clients while requests run against {@link LocalS3Server}.
+ */
+public class S3ClientRegistryTest {
+
+    private LocalS3Server server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = LocalS3Server.start();
+        S3ClientRegistry.configureEndpoint(server.getEndpoint());
+    }
+
+    @After
+    public void stopServer() {
+        S3ClientRegistry.configureRetireGrace(S3ClientRegistry.DEFAULT_RETIRE_GRACE_MILLIS);
+        S3ClientRegistry.configureThrottleControl(null);
+        S3ClientRegistry.configureEndpoint(null);
+        S3ClientRegistry.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void sameSettingsKeepTheClient() {
+        S3ClientRegistry.configureThrottleControl(new S3ThrottleControl(8, 0, 0, 10));
+        AmazonS3 client = S3ClientRegistry.getClient(ACCESS_KEY_ID, SECRET_ACCESS_KEY, REGION);
+        long created = S3ClientRegistry.getStatistics().getClientsCreated();
+
+        S3ClientRegistry.configureEndpoint(server.getEndpoint());
+        S3ClientRegistry.configureThrottleControl(new S3ThrottleControl(8, 0, 0, 10));
+
+        assertSame(client, S3ClientRegistry.getClient(ACCESS_KEY_ID, SECRET_ACCESS_KEY, REGION));
+        assertEquals(created, S3ClientRegistry.getStatistics().getClientsCreated());
+        assertEquals(0, S3ClientRegistry.getStatistics().getRetiringClients());
+    }
+
+    @Test
+    public void retiredClientFinishesTheDownloadItStarted() throws IOException {
+        byte[] content = randomBytes(100000);
+        server.putObject(BUCKET, FOLDER + "/a.pdf", content);
+        S3ClientRegistry.configureRetireGrace(0);
+        AmazonS3 client = S3ClientRegistry.getClient(ACCESS_KEY_ID, SECRET_ACCESS_KEY, REGION);
+        long retired = S3ClientRegistry.getStatistics().getClientsRetired();
+
+        try (InputStream input = client.getObject(BUCKET, FOLDER + "/a.pdf").getObjectContent()) {
+            S3ClientRegistry.configureThrottleControl(new S3ThrottleControl(8, 0, 0, 10));
+            AmazonS3 rebuilt = S3ClientRegistry.getClient(ACCESS_KEY_ID, SECRET_ACCESS_KEY, REGION);
+
+            assertNotSame(client, rebuilt);
+            assertArrayEquals(content, readAll(rebuilt.getObject(BUCKET, FOLDER + "/a.pdf").getObjectContent()));
+            // The download is still open, so the old client is kept.
+            assertEquals(1, S3ClientRegistry.getStatistics().getRetiringClients());
+            assertArrayEquals(content, readAll(input));
+        }
+
+        S3ClientRegistry.getClient(ACCESS_KEY_ID, SECRET_ACCESS_KEY, REGION);
+        assertEquals(0, S3ClientRegistry.getStatistics().getRetiringClients());
+        assertEquals(retired + 1, S3ClientRegistry.getStatistics().getClientsRetired());
+    }
+}
@@ -0,0 +1,138 @@
+package com.accusoft.pdjs3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+public class S3ConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    public void throttlingHalvesTheLimit() {
+        S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(1, 16, 4);
+
+        limiter.onResponse(FAST, true);
+
+        assertEquals(8, limiter.getLimit());
+        assertEquals(1, limiter.getThrottledCount());
+    }
+
+    @Test
+    public void slowResponsesUnderLightLoadKeepTheLimit() throws InterruptedException {
+        S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(1, 16, 4);
+        limiter.onResponse(FAST, false);
+
+        // One request at a time, each much slower than the first, spaced past the decrease interval.
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire();
+            limiter.onResponse(SLOW, false);
+            limiter.release();
+            Thread.sleep(60);
+        }
+
+        assertEquals(16, limiter.getLimit());
+    }
+
+    @Test
+    public void slowResponsesWhileSaturatedLowerTheLimitByATenth() throws InterruptedException {
+        S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(1, 16, 4);
+        limiter.onResponse(FAST, false);
+        acquire(limiter, 8);
+
+        limiter.onResponse(SLOW, false);
+
+        assertEquals(14, limiter.getLimit());
+    }
+
+    @Test
+    public void responsesWithoutLatencyNeverLowerTheLimitOrSetTheBaseline() throws InterruptedException {
+        S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(1, 16, 4);
+        acquire(limiter, 8);
+
+        // A tiny request first, then part uploads that take far longer because of their size.
+        limiter.onResponse(FAST, false);
+        for (int i = 0; i < 5; i++) {
+            limiter.onResponse(-1, false);
+            Thread.sleep(60);
+        }
+
+        assertEquals(16, limiter.getLimit());
+        assertTrue(limiter.toString(), limiter.toString().endsWith("latencyMillis=10"));
+    }
+
+    @Test
+    public void limitGrowsBackOnlyWhileInUse() throws InterruptedException {
+        S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(1, 16, 4);
+        limiter.onResponse(FAST, true);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.onResponse(FAST, false);
+        }
+        assertEquals(8, limiter.getLimit());
+
+        acquire(limiter, 4);
+        // Each response adds 1/limit, so about limit responses raise it by one.
+        for (int i = 0; i < 100; i++) {
+            limiter.onResponse(FAST, false);
+        }
+        assertTrue(String.valueOf(limiter.getLimit()), limiter.getLimit() > 8);
+        assertTrue(String.valueOf(limiter.getLimit()), limiter.getLimit() <= 16);
+    }
+
+    @Test
+    public void burstOfThrottlingCountsOnceAndNeverGoesBelowTheMinimum() throws InterruptedException {
+        S3ConcurrencyLimiter limiter = new S3ConcurrencyLimiter(2, 16, 4);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.onResponse(FAST, true);
+        }
+        assertEquals(8, limiter.getLimit());
+
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(60);
+            limiter.onResponse(FAST, true);
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void sizeDependentRequestsAreNotLatencySamples() {
+        ObjectMetadata small = new ObjectMetadata();
+        small.setContentLength(1024);
+        ObjectMetadata large = new ObjectMetadata();
+        large.setContentLength(8L * 1024 * 1024);
+
+        assertTrue(S3ThrottleControl.isLatencySample(new GetObjectRequest("bucket", "key")));
+        assertTrue(S3ThrottleControl.isLatencySample(new DeleteObjectRequest("bucket", "key")));
+        assertTrue(S3ThrottleControl.isLatencySample(
+                new PutObjectRequest("bucket", "key", new ByteArrayInputStream(new byte[1024]), small)));
+        assertFalse(S3ThrottleControl.isLatencySample(
+                new PutObjectRequest("bucket", "key", new ByteArrayInputStream(new byte[0]), large)));
+        assertFalse(S3ThrottleControl.isLatencySample(
+                new PutObjectRequest("bucket", "key", new ByteArrayInputStream(new byte[0]), new ObjectMetadata())));
+        assertFalse(S3ThrottleControl.isLatencySample(new UploadPartRequest()));
+        assertFalse(S3ThrottleControl.isLatencySample(new CompleteMultipartUploadRequest()));
+        assertFalse(S3ThrottleControl.isLatencySample(new DeleteObjectsRequest("bucket")));
+    }
+
+    private static void acquire(S3ConcurrencyLimiter limiter, int slots) throws InterruptedException {
+        for (int i = 0; i < slots; i++) {
+            limiter.acquire();
+        }
+    }
+}
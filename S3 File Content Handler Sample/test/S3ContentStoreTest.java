@@ -0,0 +1,79 @@
+package com.accusoft.pdjs3;
+
+import static com.accusoft.pdjs3.S3HandlerTest.ACCESS_KEY_ID;
+import static com.accusoft.pdjs3.S3HandlerTest.BUCKET;
+import static com.accusoft.pdjs3.S3HandlerTest.FOLDER;
+import static com.accusoft.pdjs3.S3HandlerTest.REGION;
+import static com.accusoft.pdjs3.S3HandlerTest.SECRET_ACCESS_KEY;
+import static com.accusoft.pdjs3.S3HandlerTest.randomBytes;
+import static com.accusoft.pdjs3.S3HandlerTest.readAll;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.accusoft.contenthandler.common.ContentPointer;
+
+/**
+ * Saves and opens documents through the content store against {@link LocalS3Server}.
+ */
+public class S3ContentStoreTest {
+
+    private LocalS3Server server;
+    private S3Handler handler;
+    private S3ContentStore store;
+
+    @Before
+    public void startServer() throws IOException {
+        server = LocalS3Server.start();
+        S3ClientRegistry.configureEndpoint(server.getEndpoint());
+        handler = new S3Handler(ACCESS_KEY_ID, SECRET_ACCESS_KEY, REGION);
+        store = new S3ContentStore(handler, BUCKET, FOLDER, 0);
+    }
+
+    @After
+    public void stopServer() {
+        S3ClientRegistry.configureEndpoint(null);
+        S3ClientRegistry.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void sameContentIsUploadedOnce() throws IOException {
+        byte[] content = randomBytes(1000);
+        store.save("a.pdf", content);
+        long before = server.getRequestCount();
+
+        store.save("b.pdf", content);
+
+        // A HEAD for the content and the pointer PUT.
+        assertEquals(2, server.getRequestCount() - before);
+        assertArrayEquals(content, open("a.pdf"));
+        assertArrayEquals(content, open("b.pdf"));
+    }
+
+    @Test
+    public void contentRemovedBehindTheStoreIsUploadedAgain() throws IOException {
+        byte[] content = randomBytes(1000);
+        ContentPointer pointer = store.save("a.pdf", content);
+        handler.deleteFileFromS3(pointer.getContentName(), BUCKET, FOLDER);
+
+        store.save("b.pdf", content);
+
+        assertArrayEquals(content, open("b.pdf"));
+        assertArrayEquals(content, open("a.pdf"));
+    }
+
+    private byte[] open(String documentName) throws IOException {
+        S3ObjectData objectData = store.open(documentName);
+        try {
+            return readAll(objectData.getDataInputStream());
+        } finally {
+            objectData.close();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.accusoft.pdjs3;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+
+/**
+ * Runs S3Handler through the AWS SDK against {@link LocalS3Server}.
+ */
+public class S3HandlerTest {
+
+    static final String ACCESS_KEY_ID = "access";
+    static final String SECRET_ACCESS_KEY = "secret";
+    static final String REGION = "us-east-1";
+    static final String BUCKET = "test-bucket";
+    static final String FOLDER = "documents";
+
+    private LocalS3Server server;
+    private S3Handler handler;
+
+    @Before
+    public void startServer() throws IOException {
+        server = LocalS3Server.start();
+        S3ClientRegistry.configureEndpoint(server.getEndpoint());
+        handler = new S3Handler(ACCESS_KEY_ID, SECRET_ACCESS_KEY, REGION);
+    }
+
+    @After
+    public void stopServer() {
+        S3ClientRegistry.configureThrottleControl(null);
+        S3ClientRegistry.configureEndpoint(null);
+        S3ClientRegistry.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void missingDocumentIsReadAsNullWithOneGet() throws IOException {
+        long before = server.getRequestCount();
+
+        assertNull(handler.getS3ObjectData("missing.pdf", BUCKET, FOLDER));
+        assertEquals(1, server.getRequestCount() - before);
+    }
+
+    @Test
+    public void rangedDownloadReassemblesTheParts() throws IOException {
+        byte[] content = randomBytes(10000);
+        server.putObject(BUCKET, FOLDER + "/large.pdf", content);
+        handler.setRangedDownloader(new S3RangedDownloader(1024, 1000, 4, 1, 1024 * 1024));
+        long before = server.getRequestCount();
+
+        assertArrayEquals(content, handler.getS3ObjectData("large.pdf", BUCKET, FOLDER).getBytes());
+        // The first request covers the threshold, then one request per part of the remaining 8976 bytes.
+        assertEquals(10, server.getRequestCount() - before);
+    }
+
+    @Test
+    public void rangedDownloadLargerThanMemorySpillsToAStream() throws IOException {
+        byte[] content = randomBytes(10000);
+        server.putObject(BUCKET, FOLDER + "/large.pdf", content);
+        handler.setRangedDownloader(new S3RangedDownloader(1024, 1000, 4, 1, 4096));
+
+        S3ObjectData objectData = handler.getS3ObjectStream("large.pdf", BUCKET, FOLDER);
+
+        assertNull(objectData.getBytes());
+        try (InputStream input = objectData.getDataInputStream()) {
+            assertArrayEquals(content, readAll(input));
+        }
+    }
+
+    @Test
+    public void multipartUploadIsAssembledInPartOrder() throws IOException {
+        byte[] content = randomBytes(11 * 1024 * 1024);
+        handler.setMultipartUploader(new S3MultipartUploader(S3MultipartUploader.MINIMUM_PART_SIZE,
+                S3MultipartUploader.MINIMUM_PART_SIZE, 3, 1));
+
+        handler.saveBytesToS3("uploaded.pdf", content, BUCKET, FOLDER);
+
+        assertArrayEquals(content, handler.getS3ObjectData("uploaded.pdf", BUCKET, FOLDER).getBytes());
+        assertEquals(0, openUploads());
+    }
+
+    @Test
+    public void failedMultipartUploadIsAborted() {
+        long length = 11 * 1024 * 1024;
+        S3MultipartUploader uploader = new S3MultipartUploader(S3MultipartUploader.MINIMUM_PART_SIZE,
+                S3MultipartUploader.MINIMUM_PART_SIZE, 1, 0);
+        InputStream failing = new InputStream() {
+            private long read;
+
+            @Override
+            public int read() throws IOException {
+                if (read++ >= S3MultipartUploader.MINIMUM_PART_SIZE) {
+                    throw new IOException("disk gone");
+                }
+                return 0;
+            }
+        };
+
+        try {
+            uploader.upload(client(), BUCKET, FOLDER + "/broken.pdf", failing, length);
+            fail("the upload should have failed");
+        } catch (AmazonClientException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("disk gone"));
+        }
+        assertEquals(0, openUploads());
+        assertEquals(0, handler.listS3BucketObjects(BUCKET, FOLDER).length);
+    }
+
+    @Test
+    public void staleMultipartUploadsAreAborted() throws InterruptedException {
+        client().initiateMultipartUpload(new InitiateMultipartUploadRequest(BUCKET, FOLDER + "/abandoned.pdf"));
+        client().initiateMultipartUpload(new InitiateMultipartUploadRequest(BUCKET, "elsewhere/abandoned.pdf"));
+        Thread.sleep(10);
+
+        assertEquals(1, handler.abortStaleMultipartUploads(BUCKET, FOLDER, 0));
+        assertEquals(1, openUploads());
+    }
+
+    @Test
+    public void listingReturnsOnlyTheDirectChildrenOfTheFolder() throws IOException {
+        for (String key : new String[] {FOLDER + "/", FOLDER + "/a.pdf", FOLDER + "/a.pdf.notes",
+                FOLDER + "/b.pdf", FOLDER + "/nested/c.pdf", "other/d.pdf"}) {
+            server.putObject(BUCKET, key, new byte[] {1});
+        }
+
+        String[] names = handler.listS3BucketObjects(BUCKET, FOLDER);
+        Arrays.sort(names);
+
+        assertArrayEquals(new String[] {"a.pdf", "a.pdf.notes", "b.pdf"}, names);
+        assertArrayEquals(new String[] {"a.pdf", "a.pdf.notes"}, handler.listS3BucketObjects(BUCKET, FOLDER, "a."));
+    }
+
+    @Test
+    public void deleteObjectsRemovesEveryKeyInOneRequest() throws IOException {
+        server.putObject(BUCKET, FOLDER + "/a.pdf", new byte[] {1});
+        server.putObject(BUCKET, FOLDER + "/b.pdf", new byte[] {2});
+        server.putObject(BUCKET, FOLDER + "/c.pdf", new byte[] {3});
+        long before = server.getRequestCount();
+
+        S3DeleteResult result = handler.deleteFilesFromS3(Arrays.asList("a.pdf", "b.pdf", "missing.pdf"), BUCKET, FOLDER);
+
+        assertEquals(1, server.getRequestCount() - before);
+        assertTrue(result.isSuccessful());
+        assertEquals(Arrays.asList("a.pdf", "b.pdf", "missing.pdf"), result.getDeleted());
+        assertArrayEquals(new String[] {"c.pdf"}, handler.listS3BucketObjects(BUCKET, FOLDER));
+    }
+
+    @Test
+    public void deleteObjectsReportsEveryKeyOfAFailedRequest() throws IOException {
+        server.putObject(BUCKET, FOLDER + "/a.pdf", new byte[] {1});
+        S3ClientRegistry.configureThrottleControl(new S3ThrottleControl(8, 0, 0, 10));
+        server.setProfile(LocalS3Profile.none().errorRate(1));
+
+        S3DeleteResult result = handler.deleteFilesFromS3(Arrays.asList("a.pdf", "b.pdf"), BUCKET, FOLDER);
+
+        assertTrue(result.getDeleted().isEmpty());
+        assertEquals(2, result.getFailed().size());
+        server.setProfile(LocalS3Profile.none());
+        assertArrayEquals(new String[] {"a.pdf"}, handler.listS3BucketObjects(BUCKET, FOLDER));
+    }
+
+    @Test
+    public void failedDeleteFailsTheCallAndItsFuture() throws Exception {
+        server.putObject(BUCKET, FOLDER + "/a.pdf", new byte[] {1});
+        S3ClientRegistry.configureThrottleControl(new S3ThrottleControl(8, 0, 0, 10));
+        server.setProfile(LocalS3Profile.none().errorRate(1));
+
+        try {
+            handler.deleteFileFromS3("a.pdf", BUCKET, FOLDER);
+            fail("the delete did not fail");
+        } catch (AmazonServiceException expected) {
+            // The delete is reported as failed.
+        }
+        try {
+            handler.deleteFileFromS3Async("a.pdf", BUCKET, FOLDER).get(10, TimeUnit.SECONDS);
+            fail("the future of the delete did not fail");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof AmazonServiceException);
+        }
+
+        server.setProfile(LocalS3Profile.none());
+        assertArrayEquals(new String[] {"a.pdf"}, handler.listS3BucketObjects(BUCKET, FOLDER));
+        handler.deleteFileFromS3Async("a.pdf", BUCKET, FOLDER).get(10, TimeUnit.SECONDS);
+        assertEquals(0, handler.listS3BucketObjects(BUCKET, FOLDER).length);
+    }
+
+    @Test
+    public void slowDownIsRetriedAndThenReportedInsteadOfReadAsMissing() throws IOException {
+        server.putObject(BUCKET, FOLDER + "/a.pdf", new byte[] {1});
+        S3ClientRegistry.configureThrottleControl(new S3ThrottleControl(8, 0, 2, 10));
+        server.setProfile(LocalS3Profile.none().slowDownRate(1));
+
+        try {
+            handler.getS3ObjectData("a.pdf", BUCKET, FOLDER);
+            fail("a throttled read should not be reported as a missing document");
+        } catch (AmazonS3Exception e) {
+            assertEquals(503, e.getStatusCode());
+            assertTrue(RetryUtils.isThrottlingException(e));
+        }
+        // The first attempt and two retries.
+        assertEquals(3, server.getThrottledRequestCount());
+
+        server.setProfile(LocalS3Profile.none());
+        assertArrayEquals(new byte[] {1}, handler.getS3ObjectData("a.pdf", BUCKET, FOLDER).getBytes());
+    }
+
+    @Test
+    public void connectionsStayUsableAfterResponsesWithoutABody() throws IOException {
+        // No retries, so a connection the stand-in dropped would fail the next request.
+        S3ClientRegistry.configureThrottleControl(new S3ThrottleControl(1, 0, 0, 10));
+        server.putObject(BUCKET, FOLDER + "/a.pdf", new byte[] {1});
+
+        assertTrue(handler.doesS3FileExist(BUCKET, FOLDER, "a.pdf"));
+        handler.saveBytesToS3("b.pdf", new byte[0], BUCKET, FOLDER);
+        assertEquals(0, handler.getS3ObjectData("b.pdf", BUCKET, FOLDER).getBytes().length);
+        handler.deleteFileFromS3("a.pdf", BUCKET, FOLDER);
+        assertArrayEquals(new String[] {"b.pdf"}, handler.listS3BucketObjects(BUCKET, FOLDER));
+    }
+
+    private AmazonS3 client() {
+        return S3ClientRegistry.getClient(ACCESS_KEY_ID, SECRET_ACCESS_KEY, REGION);
+    }
+
+    private int openUploads() {
+        return client().listMultipartUploads(new ListMultipartUploadsRequest(BUCKET)).getMultipartUploads().size();
+    }
+
+    static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = input.read(buffer)) != -1) {
+            output.write(buffer, 0, len);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,158 @@
+package com.accusoft.pdjs3;
+
+import static com.accusoft.pdjs3.S3HandlerTest.readAll;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Merges concurrent calls for one key and checks what the leader and its followers get.
+ */
+public class S3SingleFlightTest {
+
+    private static final int FOLLOWERS = 2;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final S3SingleFlight<String, S3ObjectData> flights =
+            new S3SingleFlight<>(objectData -> objectData.getBytes() != null, S3ObjectData::copy);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @After
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void followersShareTheLeadersCallButGetTheirOwnCopy() throws Exception {
+        byte[] content = {1, 2, 3};
+        CountDownLatch release = new CountDownLatch(1);
+        Future<S3ObjectData> leader = executor.submit(() -> flights.execute("a", flight -> {
+            loads.incrementAndGet();
+            await(release);
+            return buffered(content);
+        }));
+        List<Future<S3ObjectData>> followers = joinFollowers("a", release);
+
+        S3ObjectData leaderData = leader.get(10, TimeUnit.SECONDS);
+        assertEquals(1, loads.get());
+        assertSame(content, leaderData.getBytes());
+        for (Future<S3ObjectData> follower : followers) {
+            S3ObjectData followerData = follower.get(10, TimeUnit.SECONDS);
+            assertNotSame(leaderData, followerData);
+            assertNotSame(content, followerData.getBytes());
+            assertArrayEquals(content, followerData.getBytes());
+        }
+
+        // A follower changing its copy leaves the leader's content alone.
+        followers.get(0).get().getBytes()[0] = 9;
+        assertArrayEquals(new byte[] {1, 2, 3}, leaderData.getBytes());
+        assertArrayEquals(new byte[] {1, 2, 3}, followers.get(1).get().getBytes());
+    }
+
+    @Test
+    public void unshareableStreamGoesToTheLeaderAndFollowersMakeTheirOwnCall() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<S3ObjectData> leader = executor.submit(() -> flights.execute("a", flight -> {
+            loads.incrementAndGet();
+            await(release);
+            return streamed(new byte[] {1});
+        }));
+        List<Future<S3ObjectData>> followers = joinFollowers("a", release);
+
+        assertArrayEquals(new byte[] {1}, readAll(leader.get(10, TimeUnit.SECONDS).getDataInputStream()));
+        for (Future<S3ObjectData> follower : followers) {
+            assertArrayEquals(new byte[] {2}, readAll(follower.get(10, TimeUnit.SECONDS).getDataInputStream()));
+        }
+        assertEquals(1 + FOLLOWERS, loads.get());
+        assertTrue(flights.getStatistics(), flights.getStatistics().contains("unshared=" + FOLLOWERS));
+    }
+
+    @Test
+    public void failureIsSharedWithFollowers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<S3ObjectData> leader = executor.submit(() -> flights.execute("a", flight -> {
+            loads.incrementAndGet();
+            await(release);
+            throw new FileNotFoundException("a");
+        }));
+        List<Future<S3ObjectData>> followers = joinFollowers("a", release);
+
+        assertFailsWithFileNotFound(leader);
+        for (Future<S3ObjectData> follower : followers) {
+            assertFailsWithFileNotFound(follower);
+        }
+        assertEquals(1, loads.get());
+        assertEquals(0, flights.getInFlightCount());
+    }
+
+    /**
+     * Starts the followers once the leader's call is in flight, waits until they have all joined it, then lets the
+     * leader finish. A follower's own call, made after an unshareable result, returns a stream of {2}.
+     */
+    private List<Future<S3ObjectData>> joinFollowers(String key, CountDownLatch release) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (flights.getInFlightCount() == 0) {
+            assertFalse("leader never started", System.currentTimeMillis() > deadline);
+            Thread.sleep(1);
+        }
+        List<Future<S3ObjectData>> followers = new ArrayList<>();
+        for (int i = 0; i < FOLLOWERS; i++) {
+            followers.add(executor.submit(() -> flights.execute(key, flight -> {
+                loads.incrementAndGet();
+                assertFalse(flight.hasFollowers());
+                return streamed(new byte[] {2});
+            })));
+        }
+        while (!flights.getStatistics().contains("joined=" + FOLLOWERS)) {
+            assertFalse("followers never joined", System.currentTimeMillis() > deadline);
+            Thread.sleep(1);
+        }
+        release.countDown();
+        return followers;
+    }
+
+    private static void await(CountDownLatch latch) throws InterruptedIOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static void assertFailsWithFileNotFound(Future<S3ObjectData> future) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("the call did not fail");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof FileNotFoundException);
+        }
+    }
+
+    private static S3ObjectData buffered(byte[] content) {
+        return new S3ObjectData("a", content.length, "etag", null, null, content, null);
+    }
+
+    private static S3ObjectData streamed(byte[] content) {
+        return new S3ObjectData("a", content.length, "etag", null, null, null, new ByteArrayInputStream(content));
+    }
+}
@@ -0,0 +1,109 @@
+package com.accusoft.pdjs3;
+
+import static com.accusoft.pdjs3.S3HandlerTest.ACCESS_KEY_ID;
+import static com.accusoft.pdjs3.S3HandlerTest.BUCKET;
+import static com.accusoft.pdjs3.S3HandlerTest.FOLDER;
+import static com.accusoft.pdjs3.S3HandlerTest.REGION;
+import static com.accusoft.pdjs3.S3HandlerTest.SECRET_ACCESS_KEY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Sends queued changes to {@link LocalS3Server} and checks that failed ones stay queued.
+ */
+public class S3WriteBehindQueueTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private LocalS3Server server;
+    private S3Handler handler;
+    private File journalDirectory;
+    private S3WriteBehindQueue queue;
+
+    @Before
+    public void startServer() throws IOException {
+        server = LocalS3Server.start();
+        S3ClientRegistry.configureEndpoint(server.getEndpoint());
+        // No retries, so a failing profile fails a flush at once.
+        S3ClientRegistry.configureThrottleControl(new S3ThrottleControl(8, 0, 0, 10));
+        handler = new S3Handler(ACCESS_KEY_ID, SECRET_ACCESS_KEY, REGION);
+        journalDirectory = temporaryFolder.newFolder("journal");
+        // A long window, so only drain() sends changes.
+        queue = new S3WriteBehindQueue(handler, BUCKET, FOLDER, journalDirectory, 60000);
+    }
+
+    @After
+    public void stopServer() {
+        server.setProfile(LocalS3Profile.none());
+        queue.close();
+        S3ClientRegistry.configureThrottleControl(null);
+        S3ClientRegistry.configureEndpoint(null);
+        S3ClientRegistry.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void queuedSaveAndDeleteReachS3OnDrain() throws IOException {
+        server.putObject(BUCKET, FOLDER + "/old.pdf", new byte[] {1});
+        queue.put("new.pdf", new byte[] {2});
+        queue.delete("old.pdf");
+
+        assertEquals(0, queue.drain());
+
+        assertArrayEquals(new String[] {"new.pdf"}, handler.listS3BucketObjects(BUCKET, FOLDER));
+        assertNull(queue.lookup("new.pdf"));
+        assertNull(queue.lookup("old.pdf"));
+        assertEquals(0, journalFiles());
+    }
+
+    @Test
+    public void failedDeleteStaysQueuedAndIsRetried() throws IOException {
+        server.putObject(BUCKET, FOLDER + "/a.pdf", new byte[] {1});
+        queue.delete("a.pdf");
+        server.setProfile(LocalS3Profile.none().errorRate(1));
+
+        assertEquals(1, queue.drain());
+
+        assertTrue(queue.lookup("a.pdf").isDelete());
+        assertEquals(1, journalFiles());
+        assertTrue(queue.getStatistics(), queue.getStatistics().contains("flushed=0, failures=1"));
+
+        server.setProfile(LocalS3Profile.none());
+        assertEquals(0, queue.drain());
+
+        assertEquals(0, handler.listS3BucketObjects(BUCKET, FOLDER).length);
+        assertNull(queue.lookup("a.pdf"));
+        assertEquals(0, journalFiles());
+    }
+
+    @Test
+    public void failedSaveStaysQueuedAndIsRetried() throws IOException {
+        queue.put("a.pdf", new byte[] {1});
+        server.setProfile(LocalS3Profile.none().errorRate(1));
+
+        assertEquals(1, queue.drain());
+        assertArrayEquals(new byte[] {1}, queue.lookup("a.pdf").getData());
+
+        server.setProfile(LocalS3Profile.none());
+        assertEquals(0, queue.drain());
+
+        assertArrayEquals(new byte[] {1}, handler.getS3ObjectData("a.pdf", BUCKET, FOLDER).getBytes());
+        assertEquals(0, journalFiles());
+    }
+
+    private int journalFiles() {
+        return journalDirectory.list().length;
+    }
+}